@@ -0,0 +1,108 @@
+package com.stergioulas.tutorials.springbootrsocket.benchmarks;
+
+import com.stergioulas.tutorials.springbootrsocket.support.SchemaCodec;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.Decoder;
+import org.springframework.core.codec.Encoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning the greeting payloads into bytes and back, with the codecs the
+ * RSocket strategies of both apps are set up with: Jackson JSON and CBOR, and the
+ * schema based binary codec.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CodecBenchmark {
+
+    private static final ResolvableType REQUEST_TYPE = ResolvableType.forClass(GreetingsRequest.class);
+
+    private static final ResolvableType RESPONSE_TYPE = ResolvableType.forClass(GreetingsResponse.class);
+
+    @Param({"json", "cbor", "binary"})
+    public String codec;
+
+    private final DataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+
+    private final GreetingsRequest request = new GreetingsRequest("benchmark");
+
+    private Encoder<Object> encoder;
+
+    private Decoder<Object> decoder;
+
+    private MimeType mimeType;
+
+    private DataBuffer encodedResponse;
+
+    @Setup
+    public void setUp() {
+        if ("cbor".equals(this.codec)) {
+            this.encoder = new Jackson2CborEncoder();
+            this.decoder = new Jackson2CborDecoder();
+            this.mimeType = new MimeType("application", "cbor");
+        } else if ("binary".equals(this.codec)) {
+            SchemaCodec codec = new SchemaCodec(SchemaCodec.GREETINGS);
+            codec.schema(1, GreetingsRequest.class, GreetingsRequest::new)
+                    .string(GreetingsRequest::getName, GreetingsRequest::setName);
+            codec.schema(2, GreetingsResponse.class, GreetingsResponse::new)
+                    .string(GreetingsResponse::getGreeting, GreetingsResponse::setGreeting);
+            this.encoder = codec;
+            this.decoder = codec;
+            this.mimeType = SchemaCodec.GREETINGS;
+        } else {
+            this.encoder = new Jackson2JsonEncoder();
+            this.decoder = new Jackson2JsonDecoder();
+            this.mimeType = MimeTypeUtils.APPLICATION_JSON;
+        }
+        GreetingsResponse response = new GreetingsResponse("Hello benchmark @ 2019-12-01T10:15:30.123456Z");
+        this.encodedResponse = this.encoder.encodeValue(response, this.bufferFactory, RESPONSE_TYPE, this.mimeType, null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        DataBufferUtils.release(this.encodedResponse);
+    }
+
+    @Benchmark
+    public int encodeRequest() {
+        DataBuffer buffer = this.encoder.encodeValue(this.request, this.bufferFactory, REQUEST_TYPE, this.mimeType, null);
+        int size = buffer.readableByteCount();
+        DataBufferUtils.release(buffer);
+        return size;
+    }
+
+    @Benchmark
+    public Object decodeResponse() {
+        // the decoder releases what it reads
+        DataBuffer buffer = this.encodedResponse.retainedSlice(0, this.encodedResponse.readableByteCount());
+        return this.decoder.decode(buffer, RESPONSE_TYPE, this.mimeType, null);
+    }
+}
@@ -0,0 +1,15 @@
+package com.stergioulas.tutorials.springbootrsocket.benchmarks;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+class GreetingsDownloadRequest {
+
+    private String name;
+
+    private long size;
+}
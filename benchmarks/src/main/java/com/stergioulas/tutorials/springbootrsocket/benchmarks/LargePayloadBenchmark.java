@@ -0,0 +1,193 @@
+package com.stergioulas.tutorials.springbootrsocket.benchmarks;
+
+import com.stergioulas.tutorials.springbootrsocket.producer.ProducerApplication;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PoolChunkListMetric;
+import io.netty.buffer.PoolChunkMetric;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocatorMetric;
+import io.rsocket.frame.decoder.PayloadDecoder;
+import io.rsocket.transport.netty.client.TcpClientTransport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.Banner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.rsocket.context.RSocketServerInitializedEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.util.unit.DataSize;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency of {@code greet} request-responses sharing a TCP connection with
+ * {@code greet-download} streams of 4MB, sent either as 64KB chunks or as one 4MB chunk,
+ * with or without fragmenting frames over an MTU. Also prints the peak of pooled buffer
+ * memory in use during each iteration, both ends included as they share the allocator.
+ * <p>
+ * Downloads are read the way the consumer relays them, a few chunks asked for ahead and
+ * each released once read. {@code downloads=0} is the baseline. Kept to 4MB since, with
+ * RSocket 1.0.0-RC5, fragmenting 8MB payloads next to other streams now and then stalls
+ * the connection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class LargePayloadBenchmark {
+
+    private static final long DOWNLOAD_SIZE = DataSize.ofMegabytes(4).toBytes();
+
+    private static final int PREFETCH = 4;
+
+    @Param({"0", "2"})
+    public int downloads;
+
+    @Param({"64KB", "4MB"})
+    public String chunkSize;
+
+    @Param({"0", "64KB"})
+    public String mtu;
+
+    private final GreetingsRequest request = new GreetingsRequest("benchmark");
+
+    private final AtomicLong peakBufferMemory = new AtomicLong();
+
+    private ConfigurableApplicationContext producer;
+
+    private RSocketRequester requester;
+
+    private Disposable.Composite background;
+
+    @Setup
+    public void start() {
+        AtomicInteger port = new AtomicInteger();
+        SpringApplication application = new SpringApplication(ProducerApplication.class);
+        application.setWebApplicationType(WebApplicationType.NONE);
+        application.setBannerMode(Banner.Mode.OFF);
+        application.addListeners(new ApplicationListener<RSocketServerInitializedEvent>() {
+
+            @Override
+            public void onApplicationEvent(RSocketServerInitializedEvent event) {
+                port.set(event.getServer().address().getPort());
+            }
+        });
+        int mtu = (int) DataSize.parse(this.mtu).toBytes();
+        List<String> args = new ArrayList<>(List.of(
+                "--spring.rsocket.server.port=0",
+                "--producer.greet-download.chunk-size=" + this.chunkSize,
+                "--logging.level.root=warn"));
+        if (mtu > 0) {
+            args.add("--producer.fragmentation.mtu=" + this.mtu);
+        }
+        this.producer = application.run(args.toArray(new String[0]));
+
+        this.requester = RSocketRequester.builder()
+                .rsocketFactory(factory -> factory.frameDecoder(PayloadDecoder.ZERO_COPY).fragment(mtu))
+                .rsocketStrategies(this.producer.getBean(RSocketStrategies.class))
+                .dataMimeType(MimeTypeUtils.APPLICATION_JSON)
+                .connect(TcpClientTransport.create("127.0.0.1", port.get()))
+                .block();
+
+        this.background = Disposables.composite();
+        for (int i = 0; i < this.downloads; i++) {
+            this.background.add(Mono.defer(this::download).repeat().subscribe());
+        }
+        Thread sampler = new Thread(this::sampleBufferMemory, "buffer-memory-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+        this.background.add(sampler::interrupt);
+    }
+
+    private Mono<Void> download() {
+        return this.requester
+                .route("greet-download")
+                .data(new GreetingsDownloadRequest("benchmark", DOWNLOAD_SIZE))
+                .retrieveFlux(DataBuffer.class)
+                .limitRate(PREFETCH)
+                .doOnNext(DataBufferUtils::release)
+                .then();
+    }
+
+    private void sampleBufferMemory() {
+        PooledByteBufAllocatorMetric metric = PooledByteBufAllocator.DEFAULT.metric();
+        while (!Thread.currentThread().isInterrupted()) {
+            long used = used(metric.directArenas()) + used(metric.heapArenas());
+            this.peakBufferMemory.accumulateAndGet(used, Math::max);
+            try {
+                Thread.sleep(1);
+            }
+            catch (InterruptedException ex) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return bytes handed out of the pool chunks, rather than the size of the chunks in
+     * use that {@link PoolArenaMetric#numActiveBytes()} counts
+     */
+    private static long used(List<PoolArenaMetric> arenas) {
+        long used = 0;
+        for (PoolArenaMetric arena : arenas) {
+            for (PoolChunkListMetric chunks : arena.chunkLists()) {
+                for (PoolChunkMetric chunk : chunks) {
+                    used += chunk.chunkSize() - chunk.freeBytes();
+                }
+            }
+        }
+        return used;
+    }
+
+    @Setup(Level.Iteration)
+    public void resetPeak() {
+        this.peakBufferMemory.set(0);
+    }
+
+    @TearDown(Level.Iteration)
+    public void printPeak() {
+        System.out.printf("peak pooled buffer memory in use: %.1f MB%n", this.peakBufferMemory.get() / 1048576.0);
+    }
+
+    @TearDown
+    public void stop() {
+        this.background.dispose();
+        this.requester.rsocket().dispose();
+        this.producer.close();
+    }
+
+    @Benchmark
+    public GreetingsResponse requestResponse() {
+        return this.requester
+                .route("greet")
+                .data(this.request)
+                .retrieveMono(GreetingsResponse.class)
+                .block();
+    }
+}
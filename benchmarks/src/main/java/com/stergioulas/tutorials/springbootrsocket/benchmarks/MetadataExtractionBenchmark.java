@@ -0,0 +1,150 @@
+package com.stergioulas.tutorials.springbootrsocket.benchmarks;
+
+import com.stergioulas.tutorials.springbootrsocket.producer.ByteBufMetadataExtractor;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.rsocket.Payload;
+import io.rsocket.metadata.CompositeMetadataFlyweight;
+import io.rsocket.metadata.TaggingMetadataFlyweight;
+import io.rsocket.metadata.WellKnownMimeType;
+import io.rsocket.util.ByteBufPayload;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.codec.Decoder;
+import org.springframework.core.codec.StringDecoder;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.messaging.rsocket.DefaultMetadataExtractor;
+import org.springframework.messaging.rsocket.MetadataExtractor;
+import org.springframework.messaging.rsocket.MetadataExtractorRegistry;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reading the route out of the metadata of every incoming request, as the
+ * producer does before it can pick a handler, with Spring's {@code DefaultMetadataExtractor}
+ * and the producer's in-place {@code ByteBufMetadataExtractor}.
+ * <p>
+ * {@code tracedMetadata} adds a tracing entry and a JSON entry next to the route, which
+ * both extractors decode, and a tenant entry no handler reads, which only the default
+ * extractor decodes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MetadataExtractionBenchmark {
+
+    private static final MimeType COMPOSITE_METADATA =
+            MimeTypeUtils.parseMimeType(WellKnownMimeType.MESSAGE_RSOCKET_COMPOSITE_METADATA.getString());
+
+    private static final MimeType ROUTING =
+            MimeTypeUtils.parseMimeType(WellKnownMimeType.MESSAGE_RSOCKET_ROUTING.getString());
+
+    private static final MimeType TRACE = MimeTypeUtils.parseMimeType("application/vnd.example.trace");
+
+    private static final MimeType TENANT = MimeTypeUtils.parseMimeType("application/vnd.example.tenant");
+
+    private static final MimeType JSON = MimeTypeUtils.parseMimeType("application/vnd.example.metadata+json");
+
+    @Param({"default", "in-place"})
+    private String extractor;
+
+    private MetadataExtractor metadataExtractor;
+
+    private Payload composite;
+
+    private Payload traced;
+
+    private Payload routing;
+
+    @Setup
+    public void setUp() {
+        List<Decoder<?>> decoders = Arrays.asList(StringDecoder.allMimeTypes(), new Jackson2JsonDecoder());
+        if (this.extractor.equals("in-place")) {
+            ByteBufMetadataExtractor inPlace = new ByteBufMetadataExtractor(decoders);
+            inPlace.setRequiredHeaders(Collections.singleton("trace"));
+            this.metadataExtractor = register(inPlace);
+        }
+        else {
+            this.metadataExtractor = register(new DefaultMetadataExtractor(decoders));
+        }
+
+        ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+        ByteBuf data = Unpooled.copiedBuffer("{\"name\":\"benchmark\"}", StandardCharsets.UTF_8);
+
+        CompositeByteBuf metadata = allocator.compositeBuffer();
+        CompositeMetadataFlyweight.encodeAndAddMetadata(metadata, allocator,
+                WellKnownMimeType.MESSAGE_RSOCKET_ROUTING, route(allocator));
+        this.composite = ByteBufPayload.create(data.retainedSlice(), metadata);
+
+        CompositeByteBuf traced = allocator.compositeBuffer();
+        CompositeMetadataFlyweight.encodeAndAddMetadata(traced, allocator,
+                WellKnownMimeType.MESSAGE_RSOCKET_ROUTING, route(allocator));
+        CompositeMetadataFlyweight.encodeAndAddMetadata(traced, allocator, TRACE.toString(), utf8("4bf92f3577b34da6"));
+        CompositeMetadataFlyweight.encodeAndAddMetadata(traced, allocator, TENANT.toString(), utf8("acme"));
+        CompositeMetadataFlyweight.encodeAndAddMetadata(traced, allocator, JSON.toString(), utf8("{\"client\":\"benchmark\"}"));
+        this.traced = ByteBufPayload.create(data.retainedSlice(), traced);
+
+        this.routing = ByteBufPayload.create(data, route(allocator));
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.composite.release();
+        this.traced.release();
+        this.routing.release();
+    }
+
+    @Benchmark
+    public Map<String, Object> compositeMetadata() {
+        return this.metadataExtractor.extract(this.composite, COMPOSITE_METADATA);
+    }
+
+    @Benchmark
+    public Map<String, Object> tracedMetadata() {
+        return this.metadataExtractor.extract(this.traced, COMPOSITE_METADATA);
+    }
+
+    @Benchmark
+    public Map<String, Object> routingMetadata() {
+        return this.metadataExtractor.extract(this.routing, ROUTING);
+    }
+
+    private static <T extends MetadataExtractor & MetadataExtractorRegistry> T register(T extractor) {
+        extractor.metadataToExtract(TRACE, String.class, "trace");
+        extractor.metadataToExtract(TENANT, String.class, "tenant");
+        extractor.metadataToExtract(JSON, new ParameterizedTypeReference<Map<String, String>>() {
+        }, (json, values) -> values.putAll(json));
+        return extractor;
+    }
+
+    private static ByteBuf utf8(String value) {
+        return Unpooled.copiedBuffer(value, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuf route(ByteBufAllocator allocator) {
+        return TaggingMetadataFlyweight.createRoutingMetadata(allocator, Collections.singletonList("greet")).getContent();
+    }
+}
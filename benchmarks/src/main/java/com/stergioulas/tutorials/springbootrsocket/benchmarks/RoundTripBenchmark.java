@@ -0,0 +1,140 @@
+package com.stergioulas.tutorials.springbootrsocket.benchmarks;
+
+import com.stergioulas.tutorials.springbootrsocket.producer.ProducerApplication;
+import com.stergioulas.tutorials.springbootrsocket.support.ObjectReferenceCodec;
+import io.rsocket.frame.decoder.PayloadDecoder;
+import io.rsocket.transport.ClientTransport;
+import io.rsocket.transport.local.LocalClientTransport;
+import io.rsocket.transport.netty.client.TcpClientTransport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.Banner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.rsocket.context.RSocketServerInitializedEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.util.MimeTypeUtils;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Latency and throughput of the producer routes per interaction model, through the real
+ * {@link ProducerApplication} and either an in-JVM or a TCP loopback transport. In-JVM
+ * calls either encode their messages as JSON like TCP ones do, or pass them by reference
+ * ({@code local-reference}), which is what a consumer running with
+ * {@code consumer.rsocket.local.enabled=true} does.
+ * <p>
+ * Stream and channel benchmarks count every element as one operation. Run with more
+ * JMH threads ({@code -t}) to see how the producer copes with concurrent callers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class RoundTripBenchmark {
+
+    private static final int ELEMENTS = 100;
+
+    @Param({"local", "local-reference", "tcp"})
+    public String transport;
+
+    private final GreetingsRequest request = new GreetingsRequest("benchmark");
+
+    private final List<GreetingsRequest> batch = IntStream.range(0, ELEMENTS)
+            .mapToObj(i -> new GreetingsRequest("benchmark-" + i))
+            .collect(Collectors.toList());
+
+    private ConfigurableApplicationContext producer;
+
+    private RSocketRequester requester;
+
+    @Setup
+    public void start() {
+        AtomicInteger port = new AtomicInteger();
+        SpringApplication application = new SpringApplication(ProducerApplication.class);
+        application.setWebApplicationType(WebApplicationType.NONE);
+        application.setBannerMode(Banner.Mode.OFF);
+        application.addListeners(new ApplicationListener<RSocketServerInitializedEvent>() {
+
+            @Override
+            public void onApplicationEvent(RSocketServerInitializedEvent event) {
+                port.set(event.getServer().address().getPort());
+            }
+        });
+        this.producer = application.run(
+                "--spring.rsocket.server.port=0",
+                "--producer.local.enabled=true",
+                "--producer.local.name=producer",
+                "--producer.greet-stream.interval=0s",
+                "--logging.level.root=warn");
+
+        ClientTransport client = this.transport.startsWith("local")
+                ? LocalClientTransport.create("producer")
+                : TcpClientTransport.create("127.0.0.1", port.get());
+        this.requester = RSocketRequester.builder()
+                .rsocketFactory(factory -> factory.frameDecoder(PayloadDecoder.ZERO_COPY))
+                .rsocketStrategies(this.producer.getBean(RSocketStrategies.class))
+                .dataMimeType("local-reference".equals(this.transport)
+                        ? ObjectReferenceCodec.MIME_TYPE
+                        : MimeTypeUtils.APPLICATION_JSON)
+                .connect(client)
+                .block();
+    }
+
+    @TearDown
+    public void stop() {
+        this.requester.rsocket().dispose();
+        this.producer.close();
+    }
+
+    @Benchmark
+    public GreetingsResponse requestResponse() {
+        return this.requester
+                .route("greet")
+                .data(this.request)
+                .retrieveMono(GreetingsResponse.class)
+                .block();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public GreetingsResponse requestStream() {
+        return this.requester
+                .route("greet-stream")
+                .data(this.request)
+                .retrieveFlux(GreetingsResponse.class)
+                .take(ELEMENTS)
+                .blockLast();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public GreetingsResponse requestChannel() {
+        return this.requester
+                .route("greet-batch")
+                .data(Flux.fromIterable(this.batch), GreetingsRequest.class)
+                .retrieveFlux(GreetingsResponse.class)
+                .blockLast();
+    }
+}
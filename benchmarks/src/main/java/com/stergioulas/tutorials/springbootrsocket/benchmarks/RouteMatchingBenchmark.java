@@ -0,0 +1,83 @@
+package com.stergioulas.tutorials.springbootrsocket.benchmarks;
+
+import com.stergioulas.tutorials.springbootrsocket.producer.IndexedRouteMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.RouteMatcher;
+import org.springframework.web.util.pattern.PathPatternRouteMatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of finding the mapping of a route the way {@code RSocketMessageHandler} does:
+ * parse the route, match it against the registered patterns and extract the variables of
+ * the one that matches. {@code PathPatternRouteMatcher} is what Boot configures, the
+ * producer replaces it with the {@code IndexedRouteMatcher}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RouteMatchingBenchmark {
+
+    @Param({"path-pattern", "indexed"})
+    private String matcher;
+
+    @Param({"greet", "locate.radars.within.42"})
+    private String route;
+
+    /**
+     * Templated mappings registered next to the literal greeting routes.
+     */
+    @Param({"10", "100"})
+    private int templates;
+
+    private final List<String> patterns = new ArrayList<>();
+
+    private RouteMatcher routeMatcher;
+
+    @Setup
+    public void setUp() {
+        this.patterns.add("greet");
+        this.patterns.add("greet-stream");
+        this.patterns.add("greet-batch");
+        this.patterns.add("locate.radars.within.{id}");
+        for (int i = 0; i < this.templates; i++) {
+            this.patterns.add("locate.radars-" + i + ".within.{id}");
+        }
+        RouteMatcher pathPattern = new PathPatternRouteMatcher();
+        if (this.matcher.equals("indexed")) {
+            IndexedRouteMatcher indexed = new IndexedRouteMatcher(pathPattern, '.', 10_000);
+            indexed.index(this.patterns);
+            this.routeMatcher = indexed;
+        }
+        else {
+            this.routeMatcher = pathPattern;
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> dispatch() {
+        RouteMatcher.Route parsed = this.routeMatcher.parseRoute(this.route);
+        for (String pattern : this.patterns) {
+            if (this.routeMatcher.match(pattern, parsed)) {
+                return this.routeMatcher.matchAndExtract(pattern, parsed);
+            }
+        }
+        return null;
+    }
+}
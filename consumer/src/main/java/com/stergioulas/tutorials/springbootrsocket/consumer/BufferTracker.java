@@ -0,0 +1,233 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import com.stergioulas.tutorials.springbootrsocket.support.RSocketMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.util.ByteBufPayload;
+import io.rsocket.util.RSocketProxy;
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import org.springframework.lang.Nullable;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Follows a sample of the payloads producers send until the application lets go of them.
+ * <p>
+ * With the zero-copy decoder the data of a response is a view of the frame it came in,
+ * which stays allocated until whoever ends up with the data releases it. A sampled call
+ * has the data of its responses wrapped in a buffer that notices its release; everything
+ * else passes through untouched, so the cost outside the sample is a random number per
+ * call. Buffers held longer than {@code heldThreshold} are logged and counted once.
+ * <p>
+ * Meters, all tagged by route, are {@code rsocket.client.buffers.sampled} buffers,
+ * {@code rsocket.client.buffers.outstanding} sampled buffers not released yet,
+ * {@code rsocket.client.buffers.hold} time from receipt to release and
+ * {@code rsocket.client.buffers.held} buffers held longer than the threshold. Scale
+ * counts by the sample rate for an estimate of all payloads.
+ */
+@Slf4j
+class BufferTracker {
+
+    private final double sampleRate;
+
+    private final long heldThresholdNanos;
+
+    private final String metadataMimeType;
+
+    private final int maxRoutes;
+
+    private final MeterRegistry registry;
+
+    private final Set<Held> outstanding = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentHashMap<String, RouteMeters> routes = new ConcurrentHashMap<>();
+
+    private final Disposable checker;
+
+    BufferTracker(RSocketClientProperties.BufferTracking settings, String metadataMimeType, int maxRoutes,
+                  MeterRegistry registry) {
+        this.sampleRate = settings.getSampleRate();
+        this.heldThresholdNanos = settings.getHeldThreshold().toNanos();
+        this.metadataMimeType = metadataMimeType;
+        this.maxRoutes = maxRoutes;
+        this.registry = registry;
+        this.checker = Flux.interval(settings.getCheckInterval(), settings.getCheckInterval(), Schedulers.parallel())
+                .subscribe(tick -> check());
+    }
+
+    RSocket instrument(RSocket rsocket) {
+        return new TrackingRSocket(rsocket);
+    }
+
+    /**
+     * Flags the sampled buffers held longer than the threshold since the last check.
+     */
+    void check() {
+        long now = System.nanoTime();
+        for (Held held : this.outstanding) {
+            long heldFor = now - held.since;
+            if (!held.flagged && heldFor > this.heldThresholdNanos) {
+                held.flagged = true;
+                held.meters.held.increment();
+                log.warn("Payload buffer of route {} not released after {}ms", held.meters.route,
+                        TimeUnit.NANOSECONDS.toMillis(heldFor));
+            }
+        }
+    }
+
+    void dispose() {
+        this.checker.dispose();
+    }
+
+    @Nullable
+    private RouteMeters sample(Payload payload) {
+        if (ThreadLocalRandom.current().nextDouble() >= this.sampleRate) {
+            return null;
+        }
+        return routeMeters(RSocketMetrics.readRoute(payload, this.metadataMimeType));
+    }
+
+    private RouteMeters routeMeters(String route) {
+        RouteMeters meters = this.routes.get(route);
+        if (meters != null) {
+            return meters;
+        }
+        if (this.routes.size() >= this.maxRoutes) {
+            return this.routes.computeIfAbsent(RSocketMetrics.OTHER_ROUTE, RouteMeters::new);
+        }
+        return this.routes.computeIfAbsent(route, RouteMeters::new);
+    }
+
+    private Payload track(Payload payload, RouteMeters meters) {
+        try {
+            ByteBuf data = new TrackedData(payload.data().retain(), new Held(meters));
+            ByteBuf metadata = payload.hasMetadata() ? payload.metadata().retain() : null;
+            return ByteBufPayload.create(data, metadata);
+        }
+        finally {
+            payload.release();
+        }
+    }
+
+    private final class TrackingRSocket extends RSocketProxy {
+
+        private TrackingRSocket(RSocket source) {
+            super(source);
+        }
+
+        @Override
+        public Mono<Payload> requestResponse(Payload payload) {
+            // read before the call, which releases the payload
+            RouteMeters meters = sample(payload);
+            Mono<Payload> response = super.requestResponse(payload);
+            return meters != null ? response.map(result -> track(result, meters)) : response;
+        }
+
+        @Override
+        public Flux<Payload> requestStream(Payload payload) {
+            RouteMeters meters = sample(payload);
+            Flux<Payload> responses = super.requestStream(payload);
+            return meters != null ? responses.map(result -> track(result, meters)) : responses;
+        }
+
+        @Override
+        public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+            // the route travels with the first payload
+            return Flux.from(payloads).switchOnFirst((first, all) -> {
+                RouteMeters meters = first.hasValue() ? sample(first.get()) : null;
+                Flux<Payload> responses = super.requestChannel(all);
+                return meters != null ? responses.map(result -> track(result, meters)) : responses;
+            });
+        }
+    }
+
+    private final class RouteMeters {
+
+        private final String route;
+
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        private final Counter sampled;
+
+        private final Counter held;
+
+        private final Timer hold;
+
+        private RouteMeters(String route) {
+            this.route = route;
+            this.sampled = Counter.builder("rsocket.client.buffers.sampled")
+                    .description("Payload buffers followed until released")
+                    .tag("route", route)
+                    .register(registry);
+            this.held = Counter.builder("rsocket.client.buffers.held")
+                    .description("Sampled payload buffers held longer than the threshold")
+                    .tag("route", route)
+                    .register(registry);
+            this.hold = Timer.builder("rsocket.client.buffers.hold")
+                    .description("Time from receipt to release of sampled payload buffers")
+                    .tag("route", route)
+                    .register(registry);
+            Gauge.builder("rsocket.client.buffers.outstanding", this.outstanding, AtomicInteger::get)
+                    .description("Sampled payload buffers not released yet")
+                    .tag("route", route)
+                    .register(registry);
+        }
+    }
+
+    /**
+     * One sampled buffer, kept apart from the buffer itself since buffers compare by
+     * content, which cannot be read once released.
+     */
+    private static final class Held {
+
+        private final RouteMeters meters;
+
+        private final long since = System.nanoTime();
+
+        private volatile boolean flagged;
+
+        private Held(RouteMeters meters) {
+            this.meters = meters;
+        }
+    }
+
+    /**
+     * The data of a sampled payload, outstanding until its last reference is released.
+     */
+    private final class TrackedData extends CompositeByteBuf {
+
+        private final Held held;
+
+        private TrackedData(ByteBuf data, Held held) {
+            super(data.alloc(), data.isDirect(), 1, data);
+            this.held = held;
+            outstanding.add(held);
+            held.meters.outstanding.incrementAndGet();
+            held.meters.sampled.increment();
+        }
+
+        @Override
+        protected void deallocate() {
+            super.deallocate();
+            outstanding.remove(this.held);
+            this.held.meters.outstanding.decrementAndGet();
+            this.held.meters.hold.record(System.nanoTime() - this.held.since, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -1,49 +1,321 @@
 package com.stergioulas.tutorials.springbootrsocket.consumer;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stergioulas.tutorials.springbootrsocket.support.NettyTuning;
+import com.stergioulas.tutorials.springbootrsocket.support.ObjectReferenceCodec;
+import com.stergioulas.tutorials.springbootrsocket.support.PayloadCompression;
+import com.stergioulas.tutorials.springbootrsocket.support.RSocketMetrics;
+import com.stergioulas.tutorials.springbootrsocket.support.SchemaCodec;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.netty.buffer.Unpooled;
 import io.rsocket.RSocket;
 import io.rsocket.RSocketFactory;
 import io.rsocket.frame.decoder.PayloadDecoder;
+import io.rsocket.metadata.WellKnownMimeType;
+import io.rsocket.transport.ClientTransport;
+import io.rsocket.transport.local.LocalClientTransport;
 import io.rsocket.transport.netty.client.TcpClientTransport;
+import io.rsocket.util.ByteBufPayload;
 import lombok.*;
+import lombok.extern.slf4j.Slf4j;
 import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.rsocket.messaging.RSocketStrategiesCustomizer;
+import org.springframework.boot.web.codec.CodecCustomizer;
 import org.springframework.context.annotation.Bean;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.messaging.rsocket.ClientRSocketFactoryConfigurer;
 import org.springframework.messaging.rsocket.RSocketRequester;
 import org.springframework.messaging.rsocket.RSocketStrategies;
 import org.springframework.util.MimeType;
 import org.springframework.util.MimeTypeUtils;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.tcp.TcpClient;
 
-import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
+@Slf4j
 @SpringBootApplication
+@EnableConfigurationProperties(RSocketClientProperties.class)
 public class ConsumerApplication {
 
+    private static final MimeType COMPOSITE_METADATA =
+            MimeTypeUtils.parseMimeType(WellKnownMimeType.MESSAGE_RSOCKET_COMPOSITE_METADATA.getString());
+
     public static void main(String[] args) {
         SpringApplication.run(ConsumerApplication.class, args);
     }
 
     @Bean
-    @SneakyThrows
-    RSocket rSocket() {
-        return RSocketFactory.connect()
-                .dataMimeType(MimeTypeUtils.APPLICATION_JSON_VALUE)
-                .frameDecoder(PayloadDecoder.ZERO_COPY)
-                .transport(TcpClientTransport.create(new InetSocketAddress("127.0.0.1", 7000)))
-                .start()
-                .block();
+    @ConditionalOnMissingBean
+    ProducerTargets producerTargets(RSocketClientProperties properties) {
+        return properties::targetsOrDefault;
+    }
+
+    /**
+     * Calls are balanced over every producer target, each with its own pool of
+     * connections. Connections are opened on first use and re-opened whenever they drop,
+     * so the consumer can start before the producers and survive their restarts.
+     */
+    @Bean(destroyMethod = "dispose")
+    LoadBalancedRSocket rSocket(RSocketClientProperties properties,
+                                ProducerTargets targets,
+                                ObjectProvider<ClientRSocketFactoryConfigurer> configurers,
+                                ObjectProvider<TcpClientCustomizer> customizers,
+                                MeterRegistry registry) {
+        List<TcpClientCustomizer> tcpCustomizers = customizers.orderedStream().collect(Collectors.toList());
+        Function<String, PooledRSocket> pools = target -> {
+            Mono<RSocket> connector = Mono.defer(() -> {
+                RSocketFactory.ClientRSocketFactory factory = RSocketFactory.connect()
+                        .dataMimeType(properties.dataMimeTypeOrReference())
+                        .metadataMimeType(COMPOSITE_METADATA.toString())
+                        .frameDecoder(PayloadDecoder.ZERO_COPY);
+                configurers.orderedStream().forEach(configurer -> configurer.configure(factory));
+                return factory
+                        .transport(transport(target, tcpCustomizers))
+                        .start();
+            });
+            return new PooledRSocket(target, properties.getPoolSize(), index -> new ReconnectingRSocket(
+                    target, Tags.of("target", target, "connection", String.valueOf(index)), connector, properties, registry),
+                    registry);
+        };
+        return new LoadBalancedRSocket(targets, pools, properties.getLoadBalancer(), registry);
+    }
+
+    /**
+     * @param target {@code host:port}, or {@code local:name} for a producer in this JVM
+     */
+    private static ClientTransport transport(String target, List<TcpClientCustomizer> customizers) {
+        if (target.startsWith(RSocketClientProperties.LOCAL_TARGET_PREFIX)) {
+            return LocalClientTransport.create(target.substring(RSocketClientProperties.LOCAL_TARGET_PREFIX.length()));
+        }
+        int separator = target.lastIndexOf(':');
+        TcpClient client = TcpClient.create()
+                .host(target.substring(0, separator))
+                .port(Integer.parseInt(target.substring(separator + 1)));
+        for (TcpClientCustomizer customizer : customizers) {
+            client = customizer.customize(client);
+        }
+        return TcpClientTransport.create(client);
+    }
+
+    @Bean(destroyMethod = "dispose")
+    NettyTuning nettyTuning(RSocketClientProperties properties) {
+        NettyTuning tuning = NettyTuning.client(properties.getNetty());
+        log.info("RSocket client Netty settings: {}", tuning.describe());
+        return tuning;
+    }
+
+    @Bean
+    TcpClientCustomizer nettyTuningCustomizer(NettyTuning tuning) {
+        return tuning::customize;
     }
 
     @Bean
-    RSocketRequester requester(RSocketStrategies strategies) {
+    ClientRSocketFactoryConfigurer nettyAllocatorConfigurer(NettyTuning tuning) {
+        return factory -> factory.byteBufAllocator(tuning.allocator());
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "consumer.rsocket.fragmentation", name = "mtu")
+    ClientRSocketFactoryConfigurer fragmentationConfigurer(RSocketClientProperties properties) {
+        return factory -> factory.fragment((int) properties.getFragmentation().getMtu().toBytes());
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "consumer.rsocket.metrics", name = "enabled", matchIfMissing = true)
+    RSocketMetrics rSocketMetrics(RSocketClientProperties properties, MeterRegistry registry) {
+        return new RSocketMetrics("rsocket.client", registry, properties.getMetrics().getMaxRoutes());
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "consumer.rsocket.metrics", name = "enabled", matchIfMissing = true)
+    ClientRSocketFactoryConfigurer rSocketMetricsConfigurer(RSocketMetrics metrics) {
+        return factory -> factory
+                .addRequesterPlugin(rsocket -> metrics.instrument(rsocket, COMPOSITE_METADATA.toString()))
+                .addConnectionPlugin(metrics.connectionInterceptor());
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "consumer.rsocket.compression", name = "enabled")
+    PayloadCompression payloadCompression(RSocketClientProperties properties, MeterRegistry registry) {
+        RSocketClientProperties.Compression compression = properties.getCompression();
+        return new PayloadCompression("rsocket.client", compression.getAlgorithm(),
+                (int) compression.getThreshold().toBytes(), compression.getRoutes(), registry);
+    }
+
+    /**
+     * Asks for compression in the SETUP metadata of every connection, configurers run
+     * once per connection so each gets its own setup payload.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "consumer.rsocket.compression", name = "enabled")
+    ClientRSocketFactoryConfigurer payloadCompressionConfigurer(PayloadCompression compression) {
+        return factory -> factory
+                .setupPayload(ByteBufPayload.create(Unpooled.EMPTY_BUFFER, compression.setupMetadata()))
+                .addRequesterPlugin(rsocket -> compression.requester(rsocket, COMPOSITE_METADATA.toString()));
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "consumer.rsocket.lease", name = "enabled")
+    LeaseTracker leaseTracker(MeterRegistry registry, RSocketClientProperties properties) {
+        return new LeaseTracker(registry, properties.getLease().getFirstLeaseTimeout());
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "consumer.rsocket.lease", name = "enabled")
+    ClientRSocketFactoryConfigurer leaseConfigurer(LeaseTracker leases) {
+        return factory -> factory
+                .lease(leases::leases)
+                .addRequesterPlugin(leases::instrument);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "consumer.rsocket.resume", name = "enabled")
+    SessionResumption sessionResumption(RSocketClientProperties properties, MeterRegistry registry) {
+        return new SessionResumption(properties.getResume(), registry);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "consumer.rsocket.resume", name = "enabled")
+    ClientRSocketFactoryConfigurer sessionResumptionConfigurer(SessionResumption resumption) {
+        return resumption::configure;
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "consumer.rsocket.server-timing", name = "enabled")
+    RSocketStrategiesCustomizer serverTimingCustomizer() {
+        return strategies -> strategies.metadataExtractorRegistry(ServerTiming::register);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "consumer.rsocket.server-timing", name = "enabled")
+    ServerTiming serverTiming(RSocketStrategies strategies, RSocketClientProperties properties,
+                              MeterRegistry registry) {
+        return new ServerTiming(strategies.metadataExtractor(), COMPOSITE_METADATA.toString(),
+                properties.getServerTiming().isHeader(), properties.getMetrics().getMaxRoutes(), registry);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "consumer.rsocket.server-timing", name = "enabled")
+    ClientRSocketFactoryConfigurer serverTimingConfigurer(ServerTiming timing) {
+        return factory -> factory.addRequesterPlugin(timing::instrument);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "consumer.rsocket.buffer-tracking", name = "enabled")
+    NettyAllocatorMetrics nettyAllocatorMetrics(NettyTuning tuning) {
+        return new NettyAllocatorMetrics(tuning.allocator());
+    }
+
+    @Bean(destroyMethod = "dispose")
+    @ConditionalOnProperty(prefix = "consumer.rsocket.buffer-tracking", name = "enabled")
+    BufferTracker bufferTracker(RSocketClientProperties properties, MeterRegistry registry) {
+        return new BufferTracker(properties.getBufferTracking(), COMPOSITE_METADATA.toString(),
+                properties.getMetrics().getMaxRoutes(), registry);
+    }
+
+    /**
+     * Added last so it wraps the other requester plugins and sees payloads the way the
+     * application gets them, decompressed.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "consumer.rsocket.buffer-tracking", name = "enabled")
+    ClientRSocketFactoryConfigurer bufferTrackerConfigurer(BufferTracker tracker) {
+        return factory -> factory.addRequesterPlugin(tracker::instrument);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "consumer.rsocket.resilience", name = "enabled", matchIfMissing = true)
+    ResilientCalls resilientCalls(RSocketClientProperties properties, MeterRegistry registry) {
+        return new ResilientCalls(properties.getResilience(), registry);
+    }
+
+    @Bean
+    RSocketClientHealthIndicator rSocketClientHealthIndicator(LoadBalancedRSocket rSocket) {
+        return new RSocketClientHealthIndicator(rSocket::connections);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "consumer.rsocket.shared-streams", name = "enabled", matchIfMissing = true)
+    SharedStreams sharedStreams(RSocketClientProperties properties, MeterRegistry registry) {
+        return new SharedStreams(properties.getSharedStreams().getGracePeriod(), registry);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "consumer.rsocket.coalescing", name = "enabled", matchIfMissing = true)
+    RequestCoalescer requestCoalescer(RSocketClientProperties properties, MeterRegistry registry) {
+        return new RequestCoalescer(properties.getResponseCache(), registry);
+    }
+
+    /**
+     * WebFlux only knows newline delimited JSON as application/stream+json, teach Jackson
+     * the application/x-ndjson name bulk clients send too.
+     */
+    @Bean
+    CodecCustomizer ndjsonCodecCustomizer(ObjectMapper objectMapper) {
+        MimeType ndjson = MimeTypeUtils.parseMimeType(GreetingsRestController.NDJSON_VALUE);
+        return configurer -> {
+            configurer.customCodecs().decoder(new Jackson2JsonDecoder(objectMapper, ndjson));
+            Jackson2JsonEncoder encoder = new Jackson2JsonEncoder(objectMapper, ndjson);
+            encoder.setStreamingMediaTypes(Collections.singletonList(MediaType.asMediaType(ndjson)));
+            configurer.customCodecs().encoder(encoder);
+        };
+    }
+
+    /**
+     * Lets the consumer pass messages by reference to a producer in the same JVM, the only
+     * one it connects to in local mode.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "consumer.rsocket.local", name = "enabled")
+    RSocketStrategiesCustomizer objectReferenceCodecCustomizer() {
+        ObjectReferenceCodec codec = new ObjectReferenceCodec();
+        return strategies -> strategies.encoder(codec).decoder(codec);
+    }
+
+    @Bean
+    RSocketStrategiesCustomizer greetingsCodecCustomizer() {
+        SchemaCodec codec = new SchemaCodec(SchemaCodec.GREETINGS);
+        codec.schema(1, GreetingsRequest.class, GreetingsRequest::new)
+                .string(GreetingsRequest::getName, GreetingsRequest::setName);
+        codec.schema(2, GreetingsResponse.class, GreetingsResponse::new)
+                .string(GreetingsResponse::getGreeting, GreetingsResponse::setGreeting);
+        codec.schema(3, GreetingsDownloadRequest.class, GreetingsDownloadRequest::new)
+                .string(GreetingsDownloadRequest::getName, GreetingsDownloadRequest::setName)
+                .int64(GreetingsDownloadRequest::getSize, GreetingsDownloadRequest::setSize);
+        return strategies -> strategies.encoder(codec).decoder(codec);
+    }
+
+    @Bean
+    RSocketRequester requester(LoadBalancedRSocket rSocket, RSocketStrategies strategies,
+                               RSocketClientProperties properties) {
         return RSocketRequester.wrap(
-                rSocket(),
-		        MimeTypeUtils.APPLICATION_JSON,
-		        strategies
+                rSocket,
+                MimeTypeUtils.parseMimeType(properties.dataMimeTypeOrReference()),
+                COMPOSITE_METADATA,
+                strategies
         );
     }
 }
@@ -67,26 +339,99 @@ class GreetingsResponse {
 }
 
 
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+class GreetingsDownloadRequest {
+
+    private String name;
+
+    private long size;
+}
+
+
 @RequiredArgsConstructor
 @RestController
 class GreetingsRestController {
 
+    static final String NDJSON_VALUE = "application/x-ndjson";
+
     private final RSocketRequester requester;
 
+    private final RSocketClientProperties properties;
+
+    private final ObjectProvider<RequestCoalescer> coalescer;
+
+    private final ObjectProvider<SharedStreams> sharedStreams;
+
+    private final ObjectProvider<ResilientCalls> resilientCalls;
+
+    private final ObjectProvider<ServerTiming> serverTiming;
+
     @GetMapping("/greet/{name}")
-    public Publisher<GreetingsResponse> greet(@PathVariable String name) {
-        return requester
+    public Publisher<GreetingsResponse> greet(@PathVariable String name, ServerHttpResponse response) {
+        GreetingsRequest request = new GreetingsRequest(name);
+        RequestCoalescer coalescer = this.coalescer.getIfAvailable();
+        Mono<GreetingsResponse> greeting = coalescer == null
+                ? retrieve(request)
+                : coalescer.get("greet", request, () -> retrieve(request));
+        ServerTiming serverTiming = this.serverTiming.getIfAvailable();
+        return serverTiming != null ? serverTiming.report(greeting, response) : greeting;
+    }
+
+    private Mono<GreetingsResponse> retrieve(GreetingsRequest request) {
+        Supplier<Mono<GreetingsResponse>> attempt = () -> requester
                 .route("greet")
-                .data(new GreetingsRequest(name))
+                .data(request)
                 .retrieveMono(GreetingsResponse.class);
+        ResilientCalls resilientCalls = this.resilientCalls.getIfAvailable();
+        return resilientCalls != null ? resilientCalls.call("greet", attempt) : attempt.get();
     }
 
 
     @GetMapping(value = "/greet-stream/{name}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     public Publisher<GreetingsResponse> greetStream(@PathVariable String name) {
+        GreetingsRequest request = new GreetingsRequest(name);
+        SharedStreams sharedStreams = this.sharedStreams.getIfAvailable();
+        if (sharedStreams == null) {
+            return retrieveStream(request);
+        }
+        return sharedStreams.share("greet-stream", request, () -> retrieveStream(request));
+    }
+
+    private Flux<GreetingsResponse> retrieveStream(GreetingsRequest request) {
         return requester
                 .route("greet-stream")
-                .data(new GreetingsRequest(name))
+                .data(request)
+                .retrieveFlux(GreetingsResponse.class);
+    }
+
+    /**
+     * Relays a download of {@code size} bytes of greetings, each chunk the producer streams
+     * written to the HTTP response as it arrives and released once written. Nothing is
+     * aggregated: the consumer holds at most the chunks it asked for ahead.
+     */
+    @GetMapping(value = "/greet-download/{name}", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public Flux<DataBuffer> greetDownload(@PathVariable String name,
+                                          @RequestParam(defaultValue = "1048576") long size) {
+        return requester
+                .route("greet-download")
+                .data(new GreetingsDownloadRequest(name, size))
+                .retrieveFlux(DataBuffer.class)
+                .limitRate(this.properties.getGreetDownload().getPrefetch());
+    }
+
+    /**
+     * Greets many names over one request-channel, for bulk clients. Takes a JSON array or
+     * a newline delimited stream of names and answers in the same order.
+     */
+    @PostMapping(value = "/greet-batch",
+            consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_STREAM_JSON_VALUE, NDJSON_VALUE},
+            produces = {MediaType.APPLICATION_STREAM_JSON_VALUE, NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public Flux<GreetingsResponse> greetBatch(@RequestBody Flux<GreetingsRequest> requests) {
+        return requester
+                .route("greet-batch")
+                .data(requests, GreetingsRequest.class)
                 .retrieveFlux(GreetingsResponse.class);
     }
 }
\ No newline at end of file
@@ -0,0 +1,45 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import java.time.Duration;
+
+/**
+ * Exponentially weighted moving average whose weights decay with elapsed time rather
+ * than with the number of samples, so a burst of fast responses cannot instantly hide
+ * a slow node and an idle node does not keep a stale value forever.
+ */
+class Ewma {
+
+    private final double tau;
+
+    private final double initialValue;
+
+    private volatile long stamp;
+
+    private volatile double value;
+
+    /**
+     * @param halfLife time after which a sample has lost half of its weight
+     */
+    Ewma(Duration halfLife, double initialValue) {
+        this.tau = halfLife.toNanos() / Math.log(2);
+        this.initialValue = initialValue;
+        reset();
+    }
+
+    synchronized void insert(double sample) {
+        long now = System.nanoTime();
+        double elapsed = Math.max(0, now - this.stamp);
+        this.stamp = now;
+        double weight = Math.exp(-elapsed / this.tau);
+        this.value = weight * this.value + (1.0 - weight) * sample;
+    }
+
+    synchronized void reset() {
+        this.stamp = System.nanoTime();
+        this.value = this.initialValue;
+    }
+
+    double value() {
+        return this.value;
+    }
+}
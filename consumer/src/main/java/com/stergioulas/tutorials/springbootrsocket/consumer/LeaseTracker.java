@@ -0,0 +1,164 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.util.ReferenceCountUtil;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.exceptions.MissingLeaseException;
+import io.rsocket.exceptions.RejectedException;
+import io.rsocket.lease.Lease;
+import io.rsocket.lease.Leases;
+import io.rsocket.util.RSocketProxy;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * Honours the leases producers hand out.
+ * <p>
+ * With leases enabled a connection only sends requests its current lease allows; past
+ * that, calls fail right away with a {@link MissingLeaseException} instead of queueing
+ * on an overloaded producer. The availability of such a connection drops to zero, so the
+ * pool and the load balancer move calls to connections and targets that still hold a
+ * lease. Meters are named {@code rsocket.client.lease.*}: lease frames {@code received},
+ * requests {@code granted} by them and calls {@code rejected} for lack of a lease.
+ * <p>
+ * The producer only sends the first lease once a connection is set up, so calls made
+ * before that wait for it, up to a timeout after which they fail with a
+ * {@link FirstLeaseTimeoutException}.
+ */
+class LeaseTracker {
+
+    private final Counter received;
+
+    private final Counter granted;
+
+    private final Counter rejected;
+
+    private final Duration firstLeaseTimeout;
+
+    /**
+     * Leases received on any connection, upon which the calls waiting for the first lease
+     * check whether their own connection got one.
+     */
+    private final DirectProcessor<Lease> arrivals = DirectProcessor.create();
+
+    private final FluxSink<Lease> arrived = this.arrivals.sink();
+
+    LeaseTracker(MeterRegistry registry, Duration firstLeaseTimeout) {
+        this.firstLeaseTimeout = firstLeaseTimeout;
+        this.received = Counter.builder("rsocket.client.lease.received")
+                .description("Leases received from producers")
+                .register(registry);
+        this.granted = Counter.builder("rsocket.client.lease.granted")
+                .description("Requests allowed by the leases received")
+                .register(registry);
+        this.rejected = Counter.builder("rsocket.client.lease.rejected")
+                .description("Calls failed for lack of a lease, without reaching the producer")
+                .register(registry);
+    }
+
+    /**
+     * Leases of one connection, for {@code ClientRSocketFactory.lease(Supplier)}.
+     */
+    Leases<?> leases() {
+        return Leases.create().receiver(leases -> leases.subscribe(lease -> {
+            this.received.increment();
+            this.granted.increment(lease.getAllowedRequests());
+            this.arrived.next(lease);
+        }));
+    }
+
+    /**
+     * Counts the calls of a requester that fail for lack of a lease, and holds back the
+     * ones made before its connection got its first lease. A requester holds a lease once
+     * its availability is above zero, which it always is for connections set up without
+     * {@link #leases()}, so their calls never wait.
+     */
+    RSocket instrument(RSocket rsocket) {
+        return new LeasedRSocket(rsocket);
+    }
+
+    private final class LeasedRSocket extends RSocketProxy {
+
+        private volatile boolean leased;
+
+        private LeasedRSocket(RSocket source) {
+            super(source);
+        }
+
+        @Override
+        public Mono<Void> fireAndForget(Payload payload) {
+            return firstLease(payload).then(Mono.defer(() -> super.fireAndForget(payload)))
+                    .doOnError(MissingLeaseException.class, error -> rejected.increment());
+        }
+
+        @Override
+        public Mono<Payload> requestResponse(Payload payload) {
+            return firstLease(payload).then(Mono.defer(() -> super.requestResponse(payload)))
+                    .doOnError(MissingLeaseException.class, error -> rejected.increment());
+        }
+
+        @Override
+        public Flux<Payload> requestStream(Payload payload) {
+            return firstLease(payload).thenMany(Flux.defer(() -> super.requestStream(payload)))
+                    .doOnError(MissingLeaseException.class, error -> rejected.increment());
+        }
+
+        @Override
+        public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+            return firstLease(null).thenMany(Flux.defer(() -> super.requestChannel(payloads)))
+                    .doOnError(MissingLeaseException.class, error -> rejected.increment());
+        }
+
+        /**
+         * Completes once the connection got its first lease, or fails with a
+         * {@link FirstLeaseTimeoutException} when it does not get one in time.
+         *
+         * @param payload released if the call fails or is cancelled while waiting, null when
+         * there is none yet
+         */
+        private Mono<Void> firstLease(Payload payload) {
+            if (this.leased || this.source.availability() > 0) {
+                this.leased = true;
+                return Mono.empty();
+            }
+            // listens to the arrivals before looking at the connection, so as not to miss one
+            return Flux.<Object>merge(arrivals, Mono.just(this))
+                    .filter(signal -> this.source.availability() > 0)
+                    .next()
+                    .doOnNext(signal -> this.leased = true)
+                    .timeout(firstLeaseTimeout, Mono.error(() -> {
+                        rejected.increment();
+                        return new FirstLeaseTimeoutException(firstLeaseTimeout);
+                    }))
+                    .doOnError(error -> release(payload))
+                    .doOnCancel(() -> release(payload))
+                    .then();
+        }
+
+        private void release(Payload payload) {
+            if (payload != null) {
+                ReferenceCountUtil.safeRelease(payload);
+            }
+        }
+    }
+
+    /**
+     * Thrown when a connection does not get its first lease in time, unlike a
+     * {@link MissingLeaseException} a sign the producer is not handing out leases at all.
+     */
+    static final class FirstLeaseTimeoutException extends RejectedException {
+
+        private static final long serialVersionUID = 1L;
+
+        FirstLeaseTimeoutException(Duration timeout) {
+            super("No lease from the producer within " + timeout.toMillis() + "ms of connecting");
+        }
+    }
+}
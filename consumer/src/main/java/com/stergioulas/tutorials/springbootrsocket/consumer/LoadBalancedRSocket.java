@@ -0,0 +1,349 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.util.ReferenceCountUtil;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.exceptions.ApplicationErrorException;
+import io.rsocket.exceptions.MissingLeaseException;
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Balances calls over several producer instances.
+ * <p>
+ * Every call picks two random candidates and goes to the cheaper one, where the cost of
+ * a target is the moving average of its latency multiplied by its outstanding requests
+ * ("power of two choices"). Targets that fail repeatedly or whose average latency goes
+ * above the slow threshold are evicted for a while and only used again when no other
+ * target is left.
+ * <p>
+ * The target list is read from {@link ProducerTargets} on start and on every refresh
+ * interval; added targets get a new connection pool, removed ones are disposed.
+ */
+@Slf4j
+class LoadBalancedRSocket extends AbstractRSocket {
+
+    private final ProducerTargets targets;
+
+    private final Function<String, PooledRSocket> factory;
+
+    private final RSocketClientProperties.LoadBalancer settings;
+
+    private final MeterRegistry registry;
+
+    private final Counter evictions;
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private final Disposable refresher;
+
+    private volatile Member[] members = new Member[0];
+
+    LoadBalancedRSocket(ProducerTargets targets, Function<String, PooledRSocket> factory,
+                        RSocketClientProperties.LoadBalancer settings, MeterRegistry registry) {
+        this.targets = targets;
+        this.factory = factory;
+        this.settings = settings;
+        this.registry = registry;
+        this.evictions = Counter.builder("rsocket.client.lb.evictions")
+                .description("Targets evicted for being slow or failing")
+                .register(registry);
+        refresh();
+        this.refresher = Flux.interval(settings.getRefreshInterval(), settings.getRefreshInterval(), Schedulers.parallel())
+                .subscribe(tick -> refresh(), error -> log.error("Target refresh stopped", error));
+    }
+
+    List<ReconnectingRSocket> connections() {
+        List<ReconnectingRSocket> connections = new ArrayList<>();
+        for (Member member : this.members) {
+            connections.addAll(member.pool.connections());
+        }
+        return connections;
+    }
+
+    /**
+     * @return the targets currently balanced over, in configuration order
+     */
+    List<String> targets() {
+        List<String> targets = new ArrayList<>();
+        for (Member member : this.members) {
+            targets.add(member.target);
+        }
+        return targets;
+    }
+
+    @Override
+    public Mono<Void> fireAndForget(Payload payload) {
+        return Mono.defer(() -> {
+            Member member = select(payload);
+            return member.track(member.pool.fireAndForget(payload), false);
+        });
+    }
+
+    @Override
+    public Mono<Payload> requestResponse(Payload payload) {
+        return Mono.defer(() -> {
+            Member member = select(payload);
+            return member.track(member.pool.requestResponse(payload), true);
+        });
+    }
+
+    @Override
+    public Flux<Payload> requestStream(Payload payload) {
+        return Flux.defer(() -> {
+            Member member = select(payload);
+            return member.track(member.pool.requestStream(payload));
+        });
+    }
+
+    @Override
+    public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+        return Flux.defer(() -> {
+            Member member = select(null);
+            return member.track(member.pool.requestChannel(payloads));
+        });
+    }
+
+    @Override
+    public Mono<Void> metadataPush(Payload payload) {
+        return Mono.defer(() -> select(payload).pool.metadataPush(payload));
+    }
+
+    @Override
+    public double availability() {
+        double availability = 0.0;
+        for (Member member : this.members) {
+            availability = Math.max(availability, member.pool.availability());
+        }
+        return availability;
+    }
+
+    @Override
+    public void dispose() {
+        super.dispose();
+        this.refresher.dispose();
+        Member[] members = this.members;
+        this.members = new Member[0];
+        for (Member member : members) {
+            member.dispose();
+        }
+    }
+
+    /**
+     * Read the target list again, keeping the members of targets that did not change.
+     */
+    synchronized void refresh() {
+        if (isDisposed()) {
+            return;
+        }
+        List<String> targets;
+        try {
+            targets = this.targets.get();
+        } catch (RuntimeException ex) {
+            log.error("Could not read producer targets, keeping {}", targets(), ex);
+            return;
+        }
+        Map<String, Member> current = new LinkedHashMap<>();
+        for (Member member : this.members) {
+            current.put(member.target, member);
+        }
+        List<Member> next = new ArrayList<>(targets.size());
+        for (String target : targets) {
+            Member member = current.remove(target);
+            if (member == null) {
+                log.info("Adding producer target {}", target);
+                member = new Member(target, this.factory.apply(target));
+                if (this.started.get()) {
+                    member.pool.warmUp();
+                }
+            }
+            next.add(member);
+        }
+        this.members = next.toArray(new Member[0]);
+        current.values().forEach(member -> {
+            log.info("Removing producer target {}", member.target);
+            member.dispose();
+        });
+    }
+
+    private Member select(Payload payload) {
+        if (this.started.compareAndSet(false, true)) {
+            for (Member member : this.members) {
+                member.pool.warmUp();
+            }
+        }
+        Member[] members = this.members;
+        if (members.length == 0) {
+            if (payload != null) {
+                ReferenceCountUtil.safeRelease(payload);
+            }
+            throw new IllegalStateException("No producer targets configured");
+        }
+        if (members.length == 1) {
+            return members[0];
+        }
+        long now = System.nanoTime();
+        List<Member> candidates = new ArrayList<>(members.length);
+        for (Member member : members) {
+            if (!member.isEvicted(now) && member.pool.availability() > 0.0) {
+                candidates.add(member);
+            }
+        }
+        if (candidates.isEmpty()) {
+            // nothing healthy is left, an evicted or still connecting target beats an error
+            candidates = Arrays.asList(members);
+        }
+        int size = candidates.size();
+        if (size == 1) {
+            return candidates.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        Member a = candidates.get(first);
+        Member b = candidates.get(second);
+        return a.cost() <= b.cost() ? a : b;
+    }
+
+    private final class Member {
+
+        private final String target;
+
+        private final PooledRSocket pool;
+
+        private final Ewma latency;
+
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+        private final List<Meter> meters = new ArrayList<>();
+
+        private volatile long evictedUntil;
+
+        private Member(String target, PooledRSocket pool) {
+            this.target = target;
+            this.pool = pool;
+            this.evictedUntil = System.nanoTime();
+            this.latency = new Ewma(settings.getLatencyHalfLife(), TimeUnit.MILLISECONDS.toNanos(1));
+            this.meters.add(Gauge.builder("rsocket.client.lb.latency", this.latency,
+                    ewma -> ewma.value() / TimeUnit.MILLISECONDS.toNanos(1))
+                    .description("Moving average of the latency of a target")
+                    .baseUnit("milliseconds")
+                    .tag("target", target)
+                    .register(registry));
+            this.meters.add(Gauge.builder("rsocket.client.lb.outstanding", this.outstanding, AtomicInteger::get)
+                    .tag("target", target)
+                    .register(registry));
+            this.meters.add(Gauge.builder("rsocket.client.lb.evicted", this,
+                    member -> member.isEvicted(System.nanoTime()) ? 1 : 0)
+                    .tag("target", target)
+                    .register(registry));
+        }
+
+        private double cost() {
+            return this.latency.value() * (this.outstanding.get() + 1);
+        }
+
+        private boolean isEvicted(long now) {
+            return now - this.evictedUntil < 0;
+        }
+
+        /**
+         * @param timed whether the completion of the call is a latency sample
+         */
+        private <T> Mono<T> track(Mono<T> source, boolean timed) {
+            return Mono.defer(() -> {
+                long start = System.nanoTime();
+                this.outstanding.incrementAndGet();
+                return source
+                        .doOnSuccess(value -> observe(timed ? start : -1, null))
+                        .doOnError(error -> observe(timed ? start : -1, error))
+                        .doOnCancel(() -> {
+                            // a call given up on by the caller took at least this long
+                            if (timed) {
+                                observe(start, null);
+                            }
+                        })
+                        .doFinally(signal -> this.outstanding.decrementAndGet());
+            });
+        }
+
+        /**
+         * Streams are timed up to their first element.
+         */
+        private <T> Flux<T> track(Flux<T> source) {
+            return Flux.defer(() -> {
+                long start = System.nanoTime();
+                AtomicBoolean observed = new AtomicBoolean();
+                this.outstanding.incrementAndGet();
+                return source
+                        .doOnEach(signal -> {
+                            if (!signal.isOnSubscribe() && observed.compareAndSet(false, true)) {
+                                observe(start, signal.getThrowable());
+                            }
+                        })
+                        .doFinally(signal -> this.outstanding.decrementAndGet());
+            });
+        }
+
+        private void observe(long start, Throwable error) {
+            if (error instanceof MissingLeaseException) {
+                // turned away by admission control, which says nothing about health
+                return;
+            }
+            if (error == null || error instanceof ApplicationErrorException) {
+                // an application error is a well behaved response of a healthy producer
+                this.consecutiveFailures.set(0);
+                if (start >= 0) {
+                    this.latency.insert(System.nanoTime() - start);
+                    if (this.latency.value() > settings.getSlowThreshold().toNanos()) {
+                        evict("average latency above " + settings.getSlowThreshold());
+                    }
+                }
+            } else if (this.consecutiveFailures.incrementAndGet() >= settings.getFailureThreshold()) {
+                evict(this.consecutiveFailures.get() + " consecutive failures, last: " + error);
+            }
+        }
+
+        private void evict(String reason) {
+            long now = System.nanoTime();
+            if (isEvicted(now)) {
+                return;
+            }
+            log.warn("Evicting producer target {} for {}: {}", this.target, settings.getEvictionDuration(), reason);
+            this.evictedUntil = now + settings.getEvictionDuration().toNanos();
+            this.consecutiveFailures.set(0);
+            this.latency.reset();
+            evictions.increment();
+        }
+
+        private void dispose() {
+            this.pool.dispose();
+            this.meters.forEach(registry::remove);
+        }
+    }
+}
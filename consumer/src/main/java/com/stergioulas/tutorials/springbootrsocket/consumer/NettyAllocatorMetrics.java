@@ -0,0 +1,78 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufAllocatorMetric;
+import io.netty.buffer.ByteBufAllocatorMetricProvider;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PooledByteBufAllocatorMetric;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Memory held by a Netty allocator, read when the meters are.
+ * <p>
+ * Meters are {@code netty.allocator.memory.used} bytes, by {@code area} direct or heap,
+ * and for pooled allocators {@code netty.allocator.arenas}, {@code netty.allocator.allocations.active}
+ * (buffers allocated and not released yet, summed over the arenas) and
+ * {@code netty.allocator.threadlocal.caches}. Allocators are shared by everything in the
+ * JVM that uses them, WebFlux included.
+ */
+class NettyAllocatorMetrics implements MeterBinder {
+
+    private final ByteBufAllocator allocator;
+
+    NettyAllocatorMetrics(ByteBufAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (!(this.allocator instanceof ByteBufAllocatorMetricProvider)) {
+            return;
+        }
+        ByteBufAllocatorMetric metric = ((ByteBufAllocatorMetricProvider) this.allocator).metric();
+        used("direct", metric, ByteBufAllocatorMetric::usedDirectMemory, registry);
+        used("heap", metric, ByteBufAllocatorMetric::usedHeapMemory, registry);
+        if (metric instanceof PooledByteBufAllocatorMetric) {
+            PooledByteBufAllocatorMetric pooled = (PooledByteBufAllocatorMetric) metric;
+            arenas("direct", pooled.directArenas(), registry);
+            arenas("heap", pooled.heapArenas(), registry);
+            Gauge.builder("netty.allocator.threadlocal.caches", pooled, PooledByteBufAllocatorMetric::numThreadLocalCaches)
+                    .description("Thread local caches of the allocator")
+                    .register(registry);
+        }
+    }
+
+    private static void used(String area, ByteBufAllocatorMetric metric, Function<ByteBufAllocatorMetric, Long> used,
+                             MeterRegistry registry) {
+        Gauge.builder("netty.allocator.memory.used", metric, value -> used.apply(value))
+                .description("Memory held by the allocator")
+                .tag("area", area)
+                .baseUnit(BaseUnits.BYTES)
+                .register(registry);
+    }
+
+    private static void arenas(String area, List<PoolArenaMetric> arenas, MeterRegistry registry) {
+        Gauge.builder("netty.allocator.arenas", arenas, List::size)
+                .description("Arenas of the allocator")
+                .tag("area", area)
+                .register(registry);
+        Gauge.builder("netty.allocator.allocations.active", arenas, NettyAllocatorMetrics::activeAllocations)
+                .description("Buffers allocated and not released yet")
+                .tag("area", area)
+                .register(registry);
+    }
+
+    private static long activeAllocations(List<PoolArenaMetric> arenas) {
+        long active = 0;
+        for (PoolArenaMetric arena : arenas) {
+            active += arena.numActiveAllocations();
+        }
+        return active;
+    }
+}
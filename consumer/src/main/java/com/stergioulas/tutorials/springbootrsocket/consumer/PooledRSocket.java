@@ -0,0 +1,183 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * Spreads requests to one producer over several connections.
+ * <p>
+ * A single RSocket connection multiplexes every stream onto one channel and therefore
+ * one Netty event loop thread. Each connection of the pool is registered on the next
+ * event loop, and every call goes to the connection with the fewest requests in
+ * flight, so the load follows the loops that have spare capacity.
+ */
+class PooledRSocket extends AbstractRSocket {
+
+    private final List<Connection> connections;
+
+    private final AtomicInteger nextStart = new AtomicInteger();
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private final MeterRegistry registry;
+
+    private final List<Meter> meters = new ArrayList<>();
+
+    /**
+     * @param factory creates the connection for the given index of the pool
+     */
+    PooledRSocket(String target, int size, IntFunction<ReconnectingRSocket> factory, MeterRegistry registry) {
+        List<Connection> connections = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Connection connection = new Connection(factory.apply(i));
+            this.meters.add(Gauge.builder("rsocket.client.pool.in-flight", connection.inFlight, AtomicInteger::get)
+                    .description("Requests and streams in flight on one pooled connection")
+                    .tags(Tags.of("target", target, "connection", String.valueOf(i)))
+                    .register(registry));
+            connections.add(connection);
+        }
+        this.connections = Collections.unmodifiableList(connections);
+        this.registry = registry;
+    }
+
+    List<ReconnectingRSocket> connections() {
+        List<ReconnectingRSocket> rsockets = new ArrayList<>(this.connections.size());
+        this.connections.forEach(connection -> rsockets.add(connection.rsocket));
+        return rsockets;
+    }
+
+    /**
+     * @return the number of requests and streams currently in flight on all connections
+     */
+    int inFlight() {
+        int inFlight = 0;
+        for (Connection connection : this.connections) {
+            inFlight += connection.inFlight.get();
+        }
+        return inFlight;
+    }
+
+    @Override
+    public Mono<Void> fireAndForget(Payload payload) {
+        return Mono.defer(() -> {
+            Connection connection = select();
+            return connection.track(connection.rsocket.fireAndForget(payload));
+        });
+    }
+
+    @Override
+    public Mono<Payload> requestResponse(Payload payload) {
+        return Mono.defer(() -> {
+            Connection connection = select();
+            return connection.track(connection.rsocket.requestResponse(payload));
+        });
+    }
+
+    @Override
+    public Flux<Payload> requestStream(Payload payload) {
+        return Flux.defer(() -> {
+            Connection connection = select();
+            return connection.track(connection.rsocket.requestStream(payload));
+        });
+    }
+
+    @Override
+    public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+        return Flux.defer(() -> {
+            Connection connection = select();
+            return connection.track(connection.rsocket.requestChannel(payloads));
+        });
+    }
+
+    @Override
+    public Mono<Void> metadataPush(Payload payload) {
+        return Mono.defer(() -> select().rsocket.metadataPush(payload));
+    }
+
+    @Override
+    public double availability() {
+        double availability = 0.0;
+        for (Connection connection : this.connections) {
+            availability = Math.max(availability, connection.rsocket.availability());
+        }
+        return availability;
+    }
+
+    @Override
+    public void dispose() {
+        super.dispose();
+        this.connections.forEach(connection -> connection.rsocket.dispose());
+        this.meters.forEach(this.registry::remove);
+    }
+
+    /**
+     * Open every connection of the pool in the background.
+     */
+    void warmUp() {
+        if (this.started.compareAndSet(false, true)) {
+            this.connections.forEach(connection -> connection.rsocket.warmUp());
+        }
+    }
+
+    /**
+     * Pick the connected member with the fewest requests in flight. The scan starts at a
+     * rotating index so ties are spread evenly. If nothing is connected yet, fall back to
+     * the least loaded member, which will wait for its connection.
+     */
+    private Connection select() {
+        warmUp();
+        int size = this.connections.size();
+        int start = Math.floorMod(this.nextStart.getAndIncrement(), size);
+        Connection best = null;
+        Connection fallback = null;
+        for (int i = 0; i < size; i++) {
+            Connection candidate = this.connections.get((start + i) % size);
+            int inFlight = candidate.inFlight.get();
+            if (fallback == null || inFlight < fallback.inFlight.get()) {
+                fallback = candidate;
+            }
+            if (candidate.rsocket.availability() > 0.0 && (best == null || inFlight < best.inFlight.get())) {
+                best = candidate;
+            }
+        }
+        return best != null ? best : fallback;
+    }
+
+    private static final class Connection {
+
+        private final ReconnectingRSocket rsocket;
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private Connection(ReconnectingRSocket rsocket) {
+            this.rsocket = rsocket;
+        }
+
+        private <T> Mono<T> track(Mono<T> source) {
+            return source
+                    .doOnSubscribe(subscription -> this.inFlight.incrementAndGet())
+                    .doFinally(signal -> this.inFlight.decrementAndGet());
+        }
+
+        private <T> Flux<T> track(Flux<T> source) {
+            return source
+                    .doOnSubscribe(subscription -> this.inFlight.incrementAndGet())
+                    .doFinally(signal -> this.inFlight.decrementAndGet());
+        }
+    }
+}
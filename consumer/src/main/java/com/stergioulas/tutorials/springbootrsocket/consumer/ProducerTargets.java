@@ -0,0 +1,17 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import java.util.List;
+
+/**
+ * Source of the producer instances the consumer balances its calls over, as
+ * {@code host:port} strings.
+ * <p>
+ * It is read again every {@code consumer.rsocket.load-balancer.refresh-interval}, so an
+ * implementation backed by service discovery or a config server can add and remove
+ * producers at runtime. By default the list comes from {@code consumer.rsocket.targets}.
+ */
+@FunctionalInterface
+interface ProducerTargets {
+
+    List<String> get();
+}
@@ -0,0 +1,60 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Reports the state of the producer connections under {@code /actuator/health}.
+ * <p>
+ * The consumer is {@code UP} as long as one connection is established. Connections that
+ * have not been requested yet are reported as {@code UNKNOWN} rather than {@code DOWN}:
+ * the consumer connects lazily and should not look unhealthy before its first call.
+ */
+@RequiredArgsConstructor
+class RSocketClientHealthIndicator implements HealthIndicator {
+
+    private final Supplier<List<ReconnectingRSocket>> connections;
+
+    @Override
+    public Health health() {
+        boolean connected = false;
+        Throwable error = null;
+        Map<String, Object> details = new LinkedHashMap<>();
+        List<ReconnectingRSocket> connections = this.connections.get();
+        for (int i = 0; i < connections.size(); i++) {
+            ReconnectingRSocket rsocket = connections.get(i);
+            connected |= rsocket.isConnected();
+            if (error == null) {
+                error = rsocket.lastError();
+            }
+            details.put(rsocket.target() + "#" + i, describe(rsocket));
+        }
+        Health.Builder builder;
+        if (connected) {
+            builder = Health.up();
+        } else if (error != null) {
+            builder = Health.down().withException(error);
+        } else {
+            builder = Health.unknown();
+        }
+        return builder.withDetail("connections", details).build();
+    }
+
+    private static Map<String, Object> describe(ReconnectingRSocket rsocket) {
+        Map<String, Object> details = new LinkedHashMap<>();
+        details.put("connected", rsocket.isConnected());
+        Duration latency = rsocket.lastConnectLatency();
+        if (latency != null) {
+            details.put("connectLatency", latency.toMillis() + "ms");
+        }
+        details.put("reconnects", rsocket.reconnectCount());
+        return details;
+    }
+}
@@ -0,0 +1,487 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import com.stergioulas.tutorials.springbootrsocket.support.NettyTuning;
+import com.stergioulas.tutorials.springbootrsocket.support.ObjectReferenceCodec;
+import com.stergioulas.tutorials.springbootrsocket.support.PayloadCompression;
+import com.stergioulas.tutorials.springbootrsocket.support.SchemaCodec;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Connection settings for the requester side of the consumer.
+ *
+ * <pre>
+ * consumer.rsocket.host=127.0.0.1
+ * consumer.rsocket.port=7000
+ * consumer.rsocket.targets=127.0.0.1:7000,127.0.0.1:7001
+ * consumer.rsocket.pool-size=8
+ * consumer.rsocket.data-mime-type=application/vnd.greetings.v1+binary
+ * consumer.rsocket.connect-timeout=5s
+ * consumer.rsocket.reconnect.min-backoff=100ms
+ * consumer.rsocket.reconnect.max-backoff=10s
+ * consumer.rsocket.load-balancer.refresh-interval=30s
+ * consumer.rsocket.load-balancer.latency-half-life=5s
+ * consumer.rsocket.load-balancer.slow-threshold=2s
+ * consumer.rsocket.load-balancer.failure-threshold=3
+ * consumer.rsocket.load-balancer.eviction-duration=30s
+ * consumer.rsocket.shared-streams.enabled=true
+ * consumer.rsocket.shared-streams.grace-period=0s
+ * consumer.rsocket.coalescing.enabled=true
+ * consumer.rsocket.response-cache.greet.ttl=5s
+ * consumer.rsocket.response-cache.greet.max-size=10000
+ * consumer.rsocket.metrics.enabled=true
+ * consumer.rsocket.metrics.max-routes=100
+ * consumer.rsocket.compression.enabled=true
+ * consumer.rsocket.compression.algorithm=snappy
+ * consumer.rsocket.compression.threshold=1KB
+ * consumer.rsocket.compression.routes=greet-batch
+ * consumer.rsocket.lease.enabled=true
+ * consumer.rsocket.lease.first-lease-timeout=1s
+ * consumer.rsocket.resume.enabled=true
+ * consumer.rsocket.resume.session-duration=60s
+ * consumer.rsocket.resume.stream-timeout=10s
+ * consumer.rsocket.resume.cache-size=1MB
+ * consumer.rsocket.resume.min-backoff=100ms
+ * consumer.rsocket.resume.max-backoff=5s
+ * consumer.rsocket.netty.prefer-native=true
+ * consumer.rsocket.netty.worker-threads=4
+ * consumer.rsocket.netty.tcp-no-delay=true
+ * consumer.rsocket.netty.send-buffer-size=256KB
+ * consumer.rsocket.netty.receive-buffer-size=256KB
+ * consumer.rsocket.netty.allocator=pooled
+ * consumer.rsocket.buffer-tracking.enabled=true
+ * consumer.rsocket.buffer-tracking.sample-rate=0.01
+ * consumer.rsocket.buffer-tracking.held-threshold=10s
+ * consumer.rsocket.buffer-tracking.check-interval=1s
+ * consumer.rsocket.resilience.enabled=true
+ * consumer.rsocket.resilience.timeout=5s
+ * consumer.rsocket.resilience.max-retries=2
+ * consumer.rsocket.resilience.min-retry-backoff=50ms
+ * consumer.rsocket.resilience.max-retry-backoff=1s
+ * consumer.rsocket.resilience.hedge-percentile=0.95
+ * consumer.rsocket.resilience.min-hedge-delay=1ms
+ * consumer.rsocket.resilience.retry-budget.ratio=0.1
+ * consumer.rsocket.resilience.retry-budget.min-per-second=10
+ * consumer.rsocket.resilience.retry-budget.window=10s
+ * consumer.rsocket.resilience.routes.greet.timeout=1s
+ * consumer.rsocket.resilience.routes.greet.idempotent=true
+ * consumer.rsocket.resilience.routes.greet.hedge=true
+ * consumer.rsocket.local.enabled=true
+ * consumer.rsocket.local.name=producer
+ * consumer.rsocket.local.pass-by-reference=true
+ * consumer.rsocket.server-timing.enabled=true
+ * consumer.rsocket.server-timing.header=true
+ * consumer.rsocket.fragmentation.mtu=64KB
+ * consumer.rsocket.greet-download.prefetch=4
+ * </pre>
+ */
+@Data
+@ConfigurationProperties("consumer.rsocket")
+public class RSocketClientProperties {
+
+    static final String LOCAL_TARGET_PREFIX = "local:";
+
+    private String host = "127.0.0.1";
+
+    private int port = 7000;
+
+    /**
+     * Producer instances as {@code host:port}, replaces host and port when not empty.
+     */
+    private List<String> targets = new ArrayList<>();
+
+    /**
+     * Number of connections opened to the producer, defaults to the number of cores.
+     */
+    private int poolSize = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * How long a single call waits for a connection before it fails. The connection
+     * attempt itself keeps going in the background.
+     */
+    private Duration connectTimeout = Duration.ofSeconds(5);
+
+    /**
+     * Encoding of the greetings sent to and received from the producer, the compact
+     * binary one or {@code application/json}.
+     */
+    private String dataMimeType = SchemaCodec.GREETINGS.toString();
+
+    private final Reconnect reconnect = new Reconnect();
+
+    private final LoadBalancer loadBalancer = new LoadBalancer();
+
+    private final SharedStreams sharedStreams = new SharedStreams();
+
+    private final Coalescing coalescing = new Coalescing();
+
+    private final Metrics metrics = new Metrics();
+
+    private final Compression compression = new Compression();
+
+    private final Lease lease = new Lease();
+
+    private final Resume resume = new Resume();
+
+    private final NettyTuning.Settings netty = new NettyTuning.Settings();
+
+    private final BufferTracking bufferTracking = new BufferTracking();
+
+    private final Resilience resilience = new Resilience();
+
+    private final Local local = new Local();
+
+    private final ServerTiming serverTiming = new ServerTiming();
+
+    private final Fragmentation fragmentation = new Fragmentation();
+
+    private final GreetDownload greetDownload = new GreetDownload();
+
+    /**
+     * Response caches by route, routes without an entry are not cached.
+     */
+    private Map<String, ResponseCache> responseCache = new LinkedHashMap<>();
+
+    /**
+     * @return the producer in this JVM as {@code local:name} when connecting locally, else
+     * the configured targets, or the single {@code host:port} target
+     */
+    public List<String> targetsOrDefault() {
+        if (this.local.isEnabled()) {
+            return Collections.singletonList(LOCAL_TARGET_PREFIX + this.local.getName());
+        }
+        return this.targets.isEmpty() ? Collections.singletonList(this.host + ":" + this.port) : this.targets;
+    }
+
+    /**
+     * @return object references when connecting locally with pass by reference, else the
+     * configured data mime type
+     */
+    public String dataMimeTypeOrReference() {
+        if (this.local.isEnabled() && this.local.isPassByReference()) {
+            return ObjectReferenceCodec.MIME_TYPE.toString();
+        }
+        return this.dataMimeType;
+    }
+
+    @Data
+    public static class Reconnect {
+
+        private Duration minBackoff = Duration.ofMillis(100);
+
+        private Duration maxBackoff = Duration.ofSeconds(10);
+    }
+
+    @Data
+    public static class LoadBalancer {
+
+        /**
+         * How often the target list is read again.
+         */
+        private Duration refreshInterval = Duration.ofSeconds(30);
+
+        /**
+         * Time after which a latency sample has lost half of its weight.
+         */
+        private Duration latencyHalfLife = Duration.ofSeconds(5);
+
+        /**
+         * Targets whose average latency goes above this are evicted.
+         */
+        private Duration slowThreshold = Duration.ofSeconds(2);
+
+        /**
+         * Consecutive failed calls after which a target is evicted.
+         */
+        private int failureThreshold = 3;
+
+        /**
+         * How long an evicted target receives no traffic.
+         */
+        private Duration evictionDuration = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class SharedStreams {
+
+        /**
+         * Share one upstream stream among identical stream requests.
+         */
+        private boolean enabled = true;
+
+        /**
+         * How long an upstream stream stays open after its last subscriber left.
+         */
+        private Duration gracePeriod = Duration.ZERO;
+    }
+
+    @Data
+    public static class Coalescing {
+
+        /**
+         * Let identical request/response calls in flight share one upstream call.
+         */
+        private boolean enabled = true;
+    }
+
+    @Data
+    public static class Metrics {
+
+        /**
+         * Record per route timings and frame counts of the producer connections.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Most routes tagged by name, further routes are recorded as "other".
+         */
+        private int maxRoutes = 100;
+    }
+
+    @Data
+    public static class Compression {
+
+        /**
+         * Ask the producers for compressed payloads in the SETUP frame, only for producers that understand it.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Algorithm of the requests sent, "none" to only receive compressed responses.
+         */
+        private PayloadCompression.Algorithm algorithm = PayloadCompression.Algorithm.SNAPPY;
+
+        /**
+         * Smallest request data compressed.
+         */
+        private DataSize threshold = DataSize.ofKilobytes(1);
+
+        /**
+         * Routes whose requests are compressed, all of them when empty.
+         */
+        private List<String> routes = new ArrayList<>();
+    }
+
+    @Data
+    public static class Lease {
+
+        /**
+         * Only send the requests producers lease out, and fail fast past them. Producers
+         * must run with leases enabled too, or they refuse the connection.
+         */
+        private boolean enabled = false;
+
+        /**
+         * How long calls wait for the first lease of a new connection, which producers
+         * only send once it is set up, before failing.
+         */
+        private Duration firstLeaseTimeout = Duration.ofSeconds(1);
+    }
+
+    @Data
+    public static class Resume {
+
+        /**
+         * Resume sessions whose connection dropped instead of failing their streams.
+         * Producers must run with resumption enabled too, or they refuse the connection.
+         */
+        private boolean enabled = false;
+
+        /**
+         * How long a session may stay disconnected before it is closed for good.
+         */
+        private Duration sessionDuration = Duration.ofSeconds(60);
+
+        /**
+         * How long a resumed connection may take to send again what the producer missed.
+         */
+        private Duration streamTimeout = Duration.ofSeconds(10);
+
+        /**
+         * Most frames kept per session for the producer to catch up on, beyond which the
+         * oldest ones are dropped and the session can no longer be resumed from them.
+         */
+        private DataSize cacheSize = DataSize.ofMegabytes(1);
+
+        private Duration minBackoff = Duration.ofMillis(100);
+
+        private Duration maxBackoff = Duration.ofSeconds(5);
+    }
+
+    @Data
+    public static class BufferTracking {
+
+        /**
+         * Publish the allocator's memory use and follow a sample of the payloads received
+         * until they are released.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Share of the calls whose response payloads are followed, between 0 and 1.
+         */
+        private double sampleRate = 0.01;
+
+        /**
+         * How long a payload may be held before it is reported as such.
+         */
+        private Duration heldThreshold = Duration.ofSeconds(10);
+
+        /**
+         * How often payloads held too long are looked for.
+         */
+        private Duration checkInterval = Duration.ofSeconds(1);
+    }
+
+    @Data
+    public static class Resilience {
+
+        /**
+         * Time out, retry and hedge the request/response calls to the producers.
+         */
+        private boolean enabled = true;
+
+        /**
+         * How long an attempt may take, for routes with no timeout of their own.
+         */
+        private Duration timeout = Duration.ofSeconds(5);
+
+        /**
+         * Most retries of a call to an idempotent route, budget permitting.
+         */
+        private int maxRetries = 2;
+
+        /**
+         * Wait before the first retry of a call, doubled with each further retry and
+         * jittered by up to half.
+         */
+        private Duration minRetryBackoff = Duration.ofMillis(50);
+
+        /**
+         * Longest wait before a retry.
+         */
+        private Duration maxRetryBackoff = Duration.ofSeconds(1);
+
+        /**
+         * Percentile of the recent latencies of a route after which a hedge is sent.
+         */
+        private double hedgePercentile = 0.95;
+
+        private Duration minHedgeDelay = Duration.ofMillis(1);
+
+        private final Budget retryBudget = new Budget();
+
+        /**
+         * Settings by route, routes not listed are neither retried nor hedged.
+         */
+        private Map<String, ResilientRoute> routes = new LinkedHashMap<>();
+    }
+
+    @Data
+    public static class Budget {
+
+        /**
+         * Retries and hedges allowed per call made within the window.
+         */
+        private double ratio = 0.1;
+
+        /**
+         * Retries and hedges allowed per second regardless of the calls made.
+         */
+        private int minPerSecond = 10;
+
+        private Duration window = Duration.ofSeconds(10);
+    }
+
+    @Data
+    public static class ResilientRoute {
+
+        /**
+         * How long an attempt may take, the default timeout when not set.
+         */
+        private Duration timeout;
+
+        /**
+         * Whether calls can be made twice without harm, which retries and hedges need.
+         */
+        private boolean idempotent = false;
+
+        /**
+         * Send a second attempt when the first one is slower than most.
+         */
+        private boolean hedge = false;
+    }
+
+    @Data
+    public static class Local {
+
+        /**
+         * Connect to a producer running in this JVM over the local transport, in place of
+         * the targets.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Name the producer serves the local transport under.
+         */
+        private String name = "producer";
+
+        /**
+         * Pass messages to the producer by reference instead of encoding them.
+         */
+        private boolean passByReference = true;
+    }
+
+    @Data
+    public static class ResponseCache {
+
+        private Duration ttl = Duration.ofSeconds(5);
+
+        private long maxSize = 10_000;
+    }
+
+    @Data
+    public static class ServerTiming {
+
+        /**
+         * Publish the time producers report for the sampled calls they time, which they
+         * only do with producer.server-timing.enabled.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Also pass it on to HTTP clients in a Server-Timing header of /greet responses.
+         */
+        private boolean header = false;
+    }
+
+    @Data
+    public static class Fragmentation {
+
+        /**
+         * Largest frame sent to producers over TCP, larger payloads being split into
+         * fragments of that size. Unset sends every payload as one frame and leaves
+         * fragments received unassembled, so it must be set when producers fragment.
+         */
+        private DataSize mtu;
+    }
+
+    @Data
+    public static class GreetDownload {
+
+        /**
+         * Chunks of a /greet-download asked of the producer ahead of those written to the
+         * HTTP client, which bounds what a slow client makes the consumer hold.
+         */
+        private int prefetch = 4;
+    }
+}
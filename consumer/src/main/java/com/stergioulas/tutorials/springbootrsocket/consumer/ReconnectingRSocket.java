@@ -0,0 +1,246 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.netty.util.ReferenceCountUtil;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An {@link RSocket} that owns the connection to one producer instead of being handed
+ * an already connected one.
+ * <p>
+ * The connection is opened lazily by the first request and cached for all following
+ * ones. When the underlying connection closes, a new one is opened in the background
+ * with exponential backoff, so a restarted producer does not take the consumer down.
+ * Requests issued while no connection is available wait up to the connect timeout.
+ */
+@Slf4j
+class ReconnectingRSocket extends AbstractRSocket {
+
+    private final String target;
+
+    private final Mono<RSocket> connector;
+
+    private final Duration connectTimeout;
+
+    private final RSocketClientProperties.Reconnect reconnect;
+
+    private final AtomicReference<Mono<RSocket>> connection = new AtomicReference<>();
+
+    private final AtomicReference<RSocket> current = new AtomicReference<>();
+
+    private final AtomicLong lastConnectNanos = new AtomicLong(-1);
+
+    private final AtomicBoolean connectedBefore = new AtomicBoolean();
+
+    private final AtomicReference<Throwable> lastError = new AtomicReference<>();
+
+    private final Timer connectTimer;
+
+    private final Counter connectFailures;
+
+    private final Counter reconnects;
+
+    private final MeterRegistry registry;
+
+    private final List<Meter> meters;
+
+    /**
+     * @param target    human readable name of the remote end, used for logs
+     * @param tags      tags identifying this connection on the published meters
+     * @param connector cold {@link Mono} that performs a single connection attempt per subscription
+     */
+    ReconnectingRSocket(String target, Tags tags, Mono<RSocket> connector, RSocketClientProperties properties,
+                        MeterRegistry registry) {
+        this.target = target;
+        this.connector = connector;
+        this.connectTimeout = properties.getConnectTimeout();
+        this.reconnect = properties.getReconnect();
+        this.connectTimer = Timer.builder("rsocket.client.connect")
+                .description("Time taken to establish an RSocket connection")
+                .tags(tags)
+                .register(registry);
+        this.connectFailures = Counter.builder("rsocket.client.connect.failures")
+                .tags(tags)
+                .register(registry);
+        this.reconnects = Counter.builder("rsocket.client.reconnects")
+                .description("Connections re-established after the previous one closed")
+                .tags(tags)
+                .register(registry);
+        Gauge connected = Gauge.builder("rsocket.client.connected", this, rsocket -> rsocket.isConnected() ? 1 : 0)
+                .tags(tags)
+                .register(registry);
+        this.registry = registry;
+        this.meters = Arrays.asList(this.connectTimer, this.connectFailures, this.reconnects, connected);
+    }
+
+    String target() {
+        return this.target;
+    }
+
+    boolean isConnected() {
+        return this.current.get() != null;
+    }
+
+    /**
+     * @return latency of the last successful connection attempt, or {@code null} if none succeeded yet
+     */
+    Duration lastConnectLatency() {
+        long nanos = this.lastConnectNanos.get();
+        return nanos < 0 ? null : Duration.ofNanos(nanos);
+    }
+
+    long reconnectCount() {
+        return (long) this.reconnects.count();
+    }
+
+    Throwable lastError() {
+        return this.lastError.get();
+    }
+
+    @Override
+    public Mono<Void> fireAndForget(Payload payload) {
+        return connection(payload).flatMap(rsocket -> rsocket.fireAndForget(payload));
+    }
+
+    @Override
+    public Mono<Payload> requestResponse(Payload payload) {
+        return connection(payload).flatMap(rsocket -> rsocket.requestResponse(payload));
+    }
+
+    @Override
+    public Flux<Payload> requestStream(Payload payload) {
+        return connection(payload).flatMapMany(rsocket -> rsocket.requestStream(payload));
+    }
+
+    @Override
+    public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+        return connection().flatMapMany(rsocket -> rsocket.requestChannel(payloads));
+    }
+
+    @Override
+    public Mono<Void> metadataPush(Payload payload) {
+        return connection(payload).flatMap(rsocket -> rsocket.metadataPush(payload));
+    }
+
+    @Override
+    public double availability() {
+        RSocket rsocket = this.current.get();
+        return rsocket != null ? rsocket.availability() : 0.0;
+    }
+
+    @Override
+    public void dispose() {
+        super.dispose();
+        RSocket rsocket = this.current.getAndSet(null);
+        if (rsocket != null) {
+            rsocket.dispose();
+        }
+        // a connection opened again for the same target registers fresh meters
+        this.meters.forEach(this.registry::remove);
+    }
+
+    /**
+     * Make sure the connection attempt is running without issuing a request.
+     */
+    void warmUp() {
+        connection().subscribe(rsocket -> {
+        }, error -> {
+        });
+    }
+
+    private Mono<RSocket> connection(Payload payload) {
+        // the payload never reaches an RSocket that would release it
+        return connection().doOnError(error -> ReferenceCountUtil.safeRelease(payload));
+    }
+
+    private Mono<RSocket> connection() {
+        return Mono.defer(this::sharedConnection)
+                .timeout(this.connectTimeout, Mono.error(() -> new ConnectException(
+                        "No connection to " + this.target + " within " + this.connectTimeout)));
+    }
+
+    private Mono<RSocket> sharedConnection() {
+        if (isDisposed()) {
+            return Mono.error(new IllegalStateException("RSocket to " + this.target + " is disposed"));
+        }
+        for (; ; ) {
+            Mono<RSocket> existing = this.connection.get();
+            if (existing != null) {
+                return existing;
+            }
+            Mono<RSocket> created = connectWithBackoff().cache();
+            if (this.connection.compareAndSet(null, created)) {
+                return created;
+            }
+        }
+    }
+
+    private Mono<RSocket> connectWithBackoff() {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return this.connector
+                    .doOnNext(rsocket -> {
+                        long elapsed = System.nanoTime() - start;
+                        this.lastConnectNanos.set(elapsed);
+                        this.connectTimer.record(elapsed, TimeUnit.NANOSECONDS);
+                    })
+                    .doOnError(error -> {
+                        this.lastError.set(error);
+                        this.connectFailures.increment();
+                        log.warn("Connection to {} failed: {}", this.target, error.toString());
+                    });
+        })
+                .retryBackoff(Long.MAX_VALUE, this.reconnect.getMinBackoff(), this.reconnect.getMaxBackoff())
+                .takeUntilOther(onClose())
+                .doOnNext(this::connected);
+    }
+
+    private void connected(RSocket rsocket) {
+        if (isDisposed()) {
+            rsocket.dispose();
+            return;
+        }
+        log.info("Connected to {}", this.target);
+        if (this.connectedBefore.getAndSet(true)) {
+            this.reconnects.increment();
+        }
+        this.lastError.set(null);
+        this.current.set(rsocket);
+        rsocket.onClose()
+                .doFinally(signal -> disconnected(rsocket))
+                .subscribe(null, error -> {
+                });
+    }
+
+    private void disconnected(RSocket rsocket) {
+        if (!this.current.compareAndSet(rsocket, null)) {
+            return;
+        }
+        this.connection.set(null);
+        if (isDisposed()) {
+            return;
+        }
+        log.info("Connection to {} closed, reconnecting", this.target);
+        warmUp();
+    }
+}
@@ -0,0 +1,118 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Lets identical request/response calls share one upstream call ("single flight").
+ * <p>
+ * While a call for a route and data is in flight, every identical call subscribes to
+ * the same upstream {@link Mono} instead of making its own round trip. Routes with a
+ * {@link RSocketClientProperties.ResponseCache} entry additionally keep successful
+ * responses for their time to live, bounded by size.
+ */
+class RequestCoalescer {
+
+    private final ConcurrentMap<RouteKey, Mono<?>> inFlight = new ConcurrentHashMap<>();
+
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+
+    private final Map<String, RSocketClientProperties.ResponseCache> cacheSettings;
+
+    private final MeterRegistry registry;
+
+    RequestCoalescer(Map<String, RSocketClientProperties.ResponseCache> cacheSettings, MeterRegistry registry) {
+        this.cacheSettings = new HashMap<>(cacheSettings);
+        this.registry = registry;
+    }
+
+    /**
+     * @param upstream makes the actual call, only invoked on a cache miss with no identical call in flight
+     */
+    @SuppressWarnings("unchecked")
+    <T> Mono<T> get(String route, Object data, Supplier<Mono<T>> upstream) {
+        Route state = this.routes.computeIfAbsent(route, this::route);
+        RouteKey key = new RouteKey(route, data);
+        if (state.cache != null) {
+            Object cached = state.cache.getIfPresent(key);
+            if (cached != null) {
+                state.hits.increment();
+                return Mono.just((T) cached);
+            }
+            state.misses.increment();
+        }
+        Mono<?> existing = this.inFlight.get(key);
+        if (existing != null) {
+            state.coalesced.increment();
+            return (Mono<T>) existing;
+        }
+        Mono<T> created = call(key, state.cache, upstream);
+        existing = this.inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            state.coalesced.increment();
+            return (Mono<T>) existing;
+        }
+        return created;
+    }
+
+    int inFlight() {
+        return this.inFlight.size();
+    }
+
+    private <T> Mono<T> call(RouteKey key, Cache<RouteKey, Object> cache, Supplier<Mono<T>> upstream) {
+        AtomicReference<Mono<T>> self = new AtomicReference<>();
+        Mono<T> shared = Mono.defer(upstream)
+                .doOnNext(value -> {
+                    if (cache != null) {
+                        cache.put(key, value);
+                    }
+                })
+                .doFinally(signal -> this.inFlight.remove(key, self.get()))
+                .cache();
+        self.set(shared);
+        return shared;
+    }
+
+    private Route route(String route) {
+        RSocketClientProperties.ResponseCache settings = this.cacheSettings.get(route);
+        Cache<RouteKey, Object> cache = settings == null ? null : Caffeine.newBuilder()
+                .expireAfterWrite(settings.getTtl())
+                .maximumSize(settings.getMaxSize())
+                .build();
+        return new Route(cache,
+                Counter.builder("rsocket.client.requests.coalesced")
+                        .description("Calls that joined an identical call in flight")
+                        .tag("route", route)
+                        .register(this.registry),
+                Counter.builder("rsocket.client.cache.hits").tag("route", route).register(this.registry),
+                Counter.builder("rsocket.client.cache.misses").tag("route", route).register(this.registry));
+    }
+
+    private static final class Route {
+
+        private final Cache<RouteKey, Object> cache;
+
+        private final Counter coalesced;
+
+        private final Counter hits;
+
+        private final Counter misses;
+
+        private Route(Cache<RouteKey, Object> cache, Counter coalesced, Counter hits, Counter misses) {
+            this.cache = cache;
+            this.coalesced = coalesced;
+            this.hits = hits;
+            this.misses = misses;
+        }
+    }
+}
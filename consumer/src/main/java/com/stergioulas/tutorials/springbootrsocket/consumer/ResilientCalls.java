@@ -0,0 +1,263 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.rsocket.exceptions.ApplicationErrorException;
+import io.rsocket.exceptions.InvalidException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Bounds request/response calls in time and gives idempotent routes a second chance.
+ * <p>
+ * Every attempt of a call fails with a {@link TimeoutException} after the timeout of its
+ * route. Attempts of routes declared idempotent that fail for any other reason than an
+ * error the producer answered with are retried, up to {@code maxRetries} times, after
+ * an exponential, jittered backoff so that calls failing together do not all retry at
+ * once. Idempotent routes with hedging on send a second attempt when the first one has
+ * not answered within the recent p95 latency of the route; whichever answers first wins
+ * and the other one is cancelled. Retries and hedges alike are drawn from one
+ * {@link RetryBudget}, so they add a bounded share of load to a producer in trouble.
+ * <p>
+ * Meters, all tagged by route, are {@code rsocket.client.calls} time of whole calls,
+ * retries and hedges included, {@code rsocket.client.timeouts} attempts timed out,
+ * {@code rsocket.client.retries} by outcome sent or denied by the budget,
+ * {@code rsocket.client.hedges} by outcome won, lost or denied, and
+ * {@code rsocket.client.retry.budget} extra calls left.
+ */
+class ResilientCalls {
+
+    private final RSocketClientProperties.Resilience settings;
+
+    private final Map<String, RSocketClientProperties.ResilientRoute> routeSettings;
+
+    private final RetryBudget budget;
+
+    private final MeterRegistry registry;
+
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+
+    ResilientCalls(RSocketClientProperties.Resilience settings, MeterRegistry registry) {
+        this.settings = settings;
+        this.routeSettings = new HashMap<>(settings.getRoutes());
+        RSocketClientProperties.Budget budget = settings.getRetryBudget();
+        this.budget = new RetryBudget(budget.getRatio(), budget.getMinPerSecond(), budget.getWindow());
+        this.registry = registry;
+        Gauge.builder("rsocket.client.retry.budget", this.budget, RetryBudget::available)
+                .description("Retries and hedges the budget allows right now")
+                .register(registry);
+    }
+
+    /**
+     * @param attempt makes one attempt of the call, invoked once per attempt
+     */
+    <T> Mono<T> call(String route, Supplier<Mono<T>> attempt) {
+        Route state = this.routes.computeIfAbsent(route, this::route);
+        return Mono.defer(() -> {
+            this.budget.deposit();
+            long start = System.nanoTime();
+            return attempt(state, attempt, 0)
+                    .doFinally(signal -> state.calls.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+    }
+
+    private <T> Mono<T> attempt(Route route, Supplier<Mono<T>> attempt, int retries) {
+        Mono<T> call = route.hedge ? hedged(route, attempt) : timed(route, attempt);
+        if (!route.idempotent) {
+            return call;
+        }
+        return call.onErrorResume(error -> {
+            if (retries >= this.settings.getMaxRetries() || !retryable(error)) {
+                return Mono.error(error);
+            }
+            if (!this.budget.tryWithdraw()) {
+                route.retriesDenied.increment();
+                return Mono.error(error);
+            }
+            route.retries.increment();
+            Mono<T> retry = attempt(route, attempt, retries + 1);
+            Duration backoff = backoff(retries);
+            return backoff.isZero() ? retry : Mono.delay(backoff).then(retry);
+        });
+    }
+
+    private <T> Mono<T> timed(Route route, Supplier<Mono<T>> attempt) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return attempt.get()
+                    .timeout(route.timeout)
+                    .doOnSuccess(value -> route.latency.record(System.nanoTime() - start))
+                    .doOnError(TimeoutException.class, error -> route.timeouts.increment());
+        });
+    }
+
+    private <T> Mono<T> hedged(Route route, Supplier<Mono<T>> attempt) {
+        long delay = route.latency.percentile(this.settings.getHedgePercentile());
+        if (delay < 0) {
+            // not enough latencies recorded yet to tell a slow attempt
+            return timed(route, attempt);
+        }
+        AtomicBoolean sent = new AtomicBoolean();
+        Mono<T> hedge = Mono.delay(Duration.ofNanos(Math.max(delay, this.settings.getMinHedgeDelay().toNanos())))
+                .flatMap(tick -> {
+                    if (!this.budget.tryWithdraw()) {
+                        route.hedgesDenied.increment();
+                        return Mono.never();
+                    }
+                    sent.set(true);
+                    return timed(route, attempt).doOnNext(value -> route.hedgesWon.increment());
+                });
+        return Mono.first(timed(route, attempt).doOnNext(value -> {
+            if (sent.get()) {
+                route.hedgesLost.increment();
+            }
+        }), hedge);
+    }
+
+    /**
+     * Doubles from {@code minRetryBackoff} with each retry up to {@code maxRetryBackoff},
+     * jittered by up to half either way but never beyond them, like the reconnect backoff.
+     */
+    private Duration backoff(int retries) {
+        long min = this.settings.getMinRetryBackoff().toNanos();
+        long max = Math.max(min, this.settings.getMaxRetryBackoff().toNanos());
+        long backoff = min;
+        for (int i = 0; i < retries && backoff < max; i++) {
+            backoff *= 2;
+        }
+        backoff = Math.min(backoff, max);
+        long jitter = backoff / 2;
+        long jittered = backoff + ThreadLocalRandom.current().nextLong(-jitter, jitter + 1);
+        return Duration.ofNanos(Math.max(min, Math.min(max, jittered)));
+    }
+
+    /**
+     * Errors the producer answered with are not retried, as the same call would get the
+     * same answer; timeouts, dropped connections and missing leases are.
+     */
+    private static boolean retryable(Throwable error) {
+        return !(error instanceof ApplicationErrorException) && !(error instanceof InvalidException);
+    }
+
+    private Route route(String route) {
+        RSocketClientProperties.ResilientRoute settings = this.routeSettings.getOrDefault(route,
+                new RSocketClientProperties.ResilientRoute());
+        Duration timeout = settings.getTimeout() != null ? settings.getTimeout() : this.settings.getTimeout();
+        return new Route(route, timeout, settings.isIdempotent(), settings.isIdempotent() && settings.isHedge(),
+                this.registry);
+    }
+
+    private static final class Route {
+
+        private final Duration timeout;
+
+        private final boolean idempotent;
+
+        private final boolean hedge;
+
+        private final LatencyWindow latency = new LatencyWindow();
+
+        private final Timer calls;
+
+        private final Counter timeouts;
+
+        private final Counter retries;
+
+        private final Counter retriesDenied;
+
+        private final Counter hedgesWon;
+
+        private final Counter hedgesLost;
+
+        private final Counter hedgesDenied;
+
+        private Route(String route, Duration timeout, boolean idempotent, boolean hedge, MeterRegistry registry) {
+            this.timeout = timeout;
+            this.idempotent = idempotent;
+            this.hedge = hedge;
+            this.calls = Timer.builder("rsocket.client.calls")
+                    .description("Time of whole calls, retries and hedges included")
+                    .tag("route", route)
+                    .register(registry);
+            this.timeouts = Counter.builder("rsocket.client.timeouts")
+                    .description("Attempts that timed out")
+                    .tag("route", route)
+                    .register(registry);
+            this.retries = outcome("rsocket.client.retries", "Retries of failed attempts", route, "sent", registry);
+            this.retriesDenied = outcome("rsocket.client.retries", "Retries of failed attempts", route, "denied", registry);
+            this.hedgesWon = outcome("rsocket.client.hedges", "Hedged attempts", route, "won", registry);
+            this.hedgesLost = outcome("rsocket.client.hedges", "Hedged attempts", route, "lost", registry);
+            this.hedgesDenied = outcome("rsocket.client.hedges", "Hedged attempts", route, "denied", registry);
+        }
+
+        private static Counter outcome(String name, String description, String route, String outcome,
+                                       MeterRegistry registry) {
+            return Counter.builder(name)
+                    .description(description)
+                    .tags("route", route, "outcome", outcome)
+                    .register(registry);
+        }
+    }
+
+    /**
+     * The latencies of the last {@link #SIZE} successful attempts of a route, with the
+     * percentiles worked out at most every {@link #REFRESH_NANOS}.
+     */
+    static final class LatencyWindow {
+
+        private static final int SIZE = 1024;
+
+        private static final int MIN_SAMPLES = 100;
+
+        private static final long REFRESH_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+        private final AtomicLongArray latencies = new AtomicLongArray(SIZE);
+
+        private final AtomicLong recorded = new AtomicLong();
+
+        private volatile long[] sorted;
+
+        private volatile long sortedAt;
+
+        void record(long nanos) {
+            this.latencies.set((int) (this.recorded.getAndIncrement() % SIZE), nanos);
+        }
+
+        /**
+         * @return the latency in nanos below which {@code percentile} of the attempts answered,
+         * -1 until enough attempts did
+         */
+        long percentile(double percentile) {
+            long count = Math.min(this.recorded.get(), SIZE);
+            if (count < MIN_SAMPLES) {
+                return -1;
+            }
+            long now = System.nanoTime();
+            long[] sorted = this.sorted;
+            if (sorted == null || now - this.sortedAt > REFRESH_NANOS) {
+                sorted = new long[(int) count];
+                for (int i = 0; i < count; i++) {
+                    sorted[i] = this.latencies.get(i);
+                }
+                Arrays.sort(sorted);
+                this.sorted = sorted;
+                this.sortedAt = now;
+            }
+            return sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1)];
+        }
+    }
+}
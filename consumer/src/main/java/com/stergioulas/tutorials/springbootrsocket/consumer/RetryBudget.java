@@ -0,0 +1,103 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Caps the extra calls, retries and hedges, at a share of the calls made recently.
+ * <p>
+ * Over the last {@code window}, extra calls may add up to {@code ratio} of the calls made
+ * plus {@code minPerSecond} per second of the window, the latter so that a quiet consumer
+ * can still retry now and then. Once a producer starts failing, a retry per call would
+ * multiply the load it is already failing under; under the budget it grows by
+ * {@code ratio} at most. Calls are counted in ten buckets spanning the window, so counts
+ * age out a tenth of the window at a time.
+ */
+class RetryBudget {
+
+    private static final int BUCKETS = 10;
+
+    private final double ratio;
+
+    private final double reserve;
+
+    private final long bucketNanos;
+
+    private final LongSupplier clock;
+
+    private final Bucket[] buckets = new Bucket[BUCKETS];
+
+    RetryBudget(double ratio, int minPerSecond, Duration window) {
+        this(ratio, minPerSecond, window, System::nanoTime);
+    }
+
+    RetryBudget(double ratio, int minPerSecond, Duration window, LongSupplier clock) {
+        this.ratio = ratio;
+        this.reserve = minPerSecond * (window.toNanos() / 1e9);
+        this.bucketNanos = Math.max(1, window.toNanos() / BUCKETS);
+        this.clock = clock;
+        for (int i = 0; i < BUCKETS; i++) {
+            this.buckets[i] = new Bucket();
+        }
+    }
+
+    /**
+     * Counts a call, which earns the budget {@code ratio} of an extra call.
+     */
+    void deposit() {
+        current().calls.increment();
+    }
+
+    /**
+     * Takes an extra call out of the budget if there is one left.
+     */
+    boolean tryWithdraw() {
+        if (available() < 1) {
+            return false;
+        }
+        // racing withdrawals may overdraw by a call or two, which the next ones make up for
+        current().extra.increment();
+        return true;
+    }
+
+    /**
+     * Extra calls left in the budget.
+     */
+    double available() {
+        long epoch = this.clock.getAsLong() / this.bucketNanos;
+        long calls = 0;
+        long extra = 0;
+        for (Bucket bucket : this.buckets) {
+            if (bucket.epoch > epoch - BUCKETS) {
+                calls += bucket.calls.sum();
+                extra += bucket.extra.sum();
+            }
+        }
+        return Math.max(0, this.ratio * calls + this.reserve - extra);
+    }
+
+    private Bucket current() {
+        long epoch = this.clock.getAsLong() / this.bucketNanos;
+        Bucket bucket = this.buckets[Math.floorMod(epoch, BUCKETS)];
+        if (bucket.epoch != epoch) {
+            synchronized (bucket) {
+                if (bucket.epoch != epoch) {
+                    bucket.calls.reset();
+                    bucket.extra.reset();
+                    bucket.epoch = epoch;
+                }
+            }
+        }
+        return bucket;
+    }
+
+    private static final class Bucket {
+
+        private volatile long epoch = Long.MIN_VALUE;
+
+        private final LongAdder calls = new LongAdder();
+
+        private final LongAdder extra = new LongAdder();
+    }
+}
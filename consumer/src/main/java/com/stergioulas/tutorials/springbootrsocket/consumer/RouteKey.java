@@ -0,0 +1,14 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import lombok.Value;
+
+/**
+ * Identifies a call by its route and its data, which needs a meaningful {@code equals}.
+ */
+@Value
+class RouteKey {
+
+    String route;
+
+    Object data;
+}
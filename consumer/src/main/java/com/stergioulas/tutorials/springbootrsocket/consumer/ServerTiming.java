@@ -0,0 +1,241 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import com.stergioulas.tutorials.springbootrsocket.support.RSocketMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.util.RSocketProxy;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.messaging.rsocket.MetadataExtractor;
+import org.springframework.messaging.rsocket.MetadataExtractorRegistry;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Reads the time producers report having spent on a request-response call, which they
+ * return for a sample of calls in an entry of the response metadata, and sets it against
+ * the round trip the consumer saw.
+ * <p>
+ * The entry is read through the {@link MetadataExtractor} of the RSocket strategies,
+ * which {@link #register(MetadataExtractorRegistry)} teaches it to. Responses without it
+ * cost a look at their metadata.
+ * <p>
+ * Meters are {@code rsocket.client.server-timing} timers tagged by route and phase:
+ * {@code decode}, {@code dispatch}, {@code handler} and {@code encode} in the producer,
+ * and {@code network}, the rest of the round trip, spent on the wire and in the frame
+ * queues of both ends.
+ */
+class ServerTiming {
+
+    /**
+     * Mime type of the response metadata entry.
+     */
+    static final String MIME_TYPE = "message/x.greetings.server-timing";
+
+    /**
+     * Name the metadata extractor gives the entry, read into a {@link Breakdown}.
+     */
+    static final String METADATA_KEY = "server-timing";
+
+    private static final String LISTENER = ServerTiming.class.getName() + ".listener";
+
+    private static final String[] PHASES = {"decode", "dispatch", "handler", "encode", "network"};
+
+    private final MetadataExtractor extractor;
+
+    private final String metadataMimeType;
+
+    private final MimeType metadataType;
+
+    private final boolean header;
+
+    private final int maxRoutes;
+
+    private final MeterRegistry registry;
+
+    private final ConcurrentHashMap<String, Timer[]> routes = new ConcurrentHashMap<>();
+
+    /**
+     * @param header whether {@link #report(Mono, ServerHttpResponse)} sets a {@code Server-Timing} header
+     */
+    ServerTiming(MetadataExtractor extractor, String metadataMimeType, boolean header, int maxRoutes,
+                 MeterRegistry registry) {
+        this.extractor = extractor;
+        this.metadataMimeType = metadataMimeType;
+        this.metadataType = MimeTypeUtils.parseMimeType(metadataMimeType);
+        this.header = header;
+        this.maxRoutes = maxRoutes;
+        this.registry = registry;
+    }
+
+    static void register(MetadataExtractorRegistry registry) {
+        registry.metadataToExtract(MimeTypeUtils.parseMimeType(MIME_TYPE), ByteBuffer.class,
+                (content, metadata) -> {
+                    Breakdown breakdown = Breakdown.read(content);
+                    if (breakdown != null) {
+                        metadata.put(METADATA_KEY, breakdown);
+                    }
+                });
+    }
+
+    RSocket instrument(RSocket rsocket) {
+        return new TimingRSocket(rsocket);
+    }
+
+    /**
+     * Sets the {@code Server-Timing} header of an HTTP response to the timings of the
+     * producer call made for it, when there is one and the header is enabled.
+     * <p>
+     * The timings reach the response through the subscriber context of the call, so a
+     * call shared by several responses, such as one coalesced by {@link RequestCoalescer}
+     * or served from its cache, only sets the header of the response that made it.
+     */
+    <T> Mono<T> report(Mono<T> call, ServerHttpResponse response) {
+        if (!this.header) {
+            return call;
+        }
+        Consumer<Breakdown> listener = breakdown -> response.getHeaders().set("Server-Timing", breakdown.header());
+        return call.subscriberContext(Context.of(LISTENER, listener));
+    }
+
+    private Timer[] timers(String route) {
+        Timer[] timers = this.routes.get(route);
+        if (timers != null) {
+            return timers;
+        }
+        if (this.routes.size() >= this.maxRoutes) {
+            return this.routes.computeIfAbsent(RSocketMetrics.OTHER_ROUTE, this::createTimers);
+        }
+        return this.routes.computeIfAbsent(route, this::createTimers);
+    }
+
+    private Timer[] createTimers(String route) {
+        Timer[] timers = new Timer[PHASES.length];
+        for (int i = 0; i < PHASES.length; i++) {
+            timers[i] = Timer.builder("rsocket.client.server-timing")
+                    .description("Time of sampled calls spent in each phase, in the producer or on the way")
+                    .tag("route", route)
+                    .tag("phase", PHASES[i])
+                    .register(this.registry);
+        }
+        return timers;
+    }
+
+    private void record(Payload response, String route, long roundTrip, Context context) {
+        if (!response.sliceMetadata().isReadable()) {
+            return;
+        }
+        Map<String, Object> metadata = this.extractor.extract(response, this.metadataType);
+        Breakdown breakdown = (Breakdown) metadata.get(METADATA_KEY);
+        if (breakdown == null) {
+            return;
+        }
+        breakdown.roundTrip = roundTrip;
+        long[] phases = breakdown.phases();
+        Timer[] timers = timers(route);
+        for (int i = 0; i < phases.length; i++) {
+            timers[i].record(phases[i], TimeUnit.NANOSECONDS);
+        }
+        context.<Consumer<Breakdown>>getOrEmpty(LISTENER).ifPresent(listener -> listener.accept(breakdown));
+    }
+
+    /**
+     * Phases of one call as the producer reported them, with the round trip the consumer
+     * saw, all in nanoseconds.
+     */
+    static final class Breakdown {
+
+        private final long decode;
+
+        private final long dispatch;
+
+        private final long handler;
+
+        private final long encode;
+
+        private long roundTrip;
+
+        private Breakdown(long decode, long dispatch, long handler, long encode) {
+            this.decode = decode;
+            this.dispatch = dispatch;
+            this.handler = handler;
+            this.encode = encode;
+        }
+
+        /**
+         * @param content decode, dispatch, handler and encode time as unsigned 32 bit microseconds
+         * @return null if the content is too short, so a malformed entry is ignored rather
+         * than failing the call
+         */
+        static Breakdown read(ByteBuffer content) {
+            if (content.remaining() < 4 * Integer.BYTES) {
+                return null;
+            }
+            long[] micros = new long[4];
+            for (int i = 0; i < micros.length; i++) {
+                micros[i] = Integer.toUnsignedLong(content.getInt(content.position() + i * Integer.BYTES));
+            }
+            return new Breakdown(TimeUnit.MICROSECONDS.toNanos(micros[0]), TimeUnit.MICROSECONDS.toNanos(micros[1]),
+                    TimeUnit.MICROSECONDS.toNanos(micros[2]), TimeUnit.MICROSECONDS.toNanos(micros[3]));
+        }
+
+        long server() {
+            return this.decode + this.dispatch + this.handler + this.encode;
+        }
+
+        long network() {
+            return Math.max(this.roundTrip - server(), 0);
+        }
+
+        /**
+         * @return the phases in the order of {@link #PHASES}
+         */
+        long[] phases() {
+            return new long[]{this.decode, this.dispatch, this.handler, this.encode, network()};
+        }
+
+        /**
+         * @return the value of a {@code Server-Timing} HTTP header, durations in milliseconds
+         */
+        String header() {
+            long[] phases = phases();
+            StringBuilder header = new StringBuilder();
+            for (int i = 0; i < phases.length; i++) {
+                header.append(PHASES[i]).append(";dur=").append(millis(phases[i])).append(", ");
+            }
+            return header.append("total;dur=").append(millis(this.roundTrip)).toString();
+        }
+
+        private static String millis(long nanos) {
+            return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+        }
+    }
+
+    private final class TimingRSocket extends RSocketProxy {
+
+        private TimingRSocket(RSocket source) {
+            super(source);
+        }
+
+        @Override
+        public Mono<Payload> requestResponse(Payload payload) {
+            // read before the call, which releases the payload
+            String route = RSocketMetrics.readRoute(payload, metadataMimeType);
+            Mono<Payload> response = super.requestResponse(payload);
+            return Mono.subscriberContext().flatMap(context -> {
+                long start = System.nanoTime();
+                return response.doOnNext(result -> record(result, route, System.nanoTime() - start, context));
+            });
+        }
+    }
+}
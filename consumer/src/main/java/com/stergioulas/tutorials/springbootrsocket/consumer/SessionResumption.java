@@ -0,0 +1,226 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.rsocket.RSocketFactory;
+import io.rsocket.resume.ClientResume;
+import io.rsocket.resume.ExponentialBackoffResumeStrategy;
+import io.rsocket.resume.InMemoryResumableFramesStore;
+import io.rsocket.resume.ResumableFramesStore;
+import io.rsocket.resume.ResumeStrategy;
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resumes the RSocket sessions of the consumer across transient disconnects.
+ * <p>
+ * Every connection asks for resumption in its SETUP frame, under a random token of its
+ * own. When the TCP connection drops, the session keeps its streams open and reconnects
+ * with exponential backoff for up to the session duration, then both ends send again
+ * what the other missed from a buffer of at most {@code cacheSize} bytes per session.
+ * Streams such as {@code greet-stream} carry on without a gap and their subscribers
+ * never see the outage. Only a session that can't be resumed in time, or that the
+ * producer no longer knows, closes the connection and leaves it to the usual reconnect.
+ * <p>
+ * Meters are named {@code rsocket.client.resume.*}: reconnection {@code attempts},
+ * resumptions by {@code outcome}, the {@code outage} each one bridged, the frames
+ * {@code replayed} from the buffer and the open {@code sessions}.
+ */
+@Slf4j
+class SessionResumption {
+
+    private final Duration sessionDuration;
+
+    private final Duration streamTimeout;
+
+    private final int cacheSize;
+
+    private final Duration minBackoff;
+
+    private final Duration maxBackoff;
+
+    private final AtomicInteger sessions = new AtomicInteger();
+
+    private final Counter attempts;
+
+    private final Counter resumed;
+
+    private final Counter failed;
+
+    private final Counter replayed;
+
+    private final Timer outage;
+
+    SessionResumption(RSocketClientProperties.Resume settings, MeterRegistry registry) {
+        this.sessionDuration = settings.getSessionDuration();
+        this.streamTimeout = settings.getStreamTimeout();
+        this.cacheSize = (int) settings.getCacheSize().toBytes();
+        this.minBackoff = settings.getMinBackoff();
+        this.maxBackoff = settings.getMaxBackoff();
+        this.attempts = Counter.builder("rsocket.client.resume.attempts")
+                .description("Connections opened to resume a session")
+                .register(registry);
+        this.resumed = outcome("success", registry);
+        this.failed = outcome("failure", registry);
+        this.replayed = Counter.builder("rsocket.client.resume.replayed")
+                .description("Frames sent again after a session resumed")
+                .register(registry);
+        this.outage = Timer.builder("rsocket.client.resume.outage")
+                .description("Time from a dropped connection to the resumed session")
+                .register(registry);
+        Gauge.builder("rsocket.client.resume.sessions", this.sessions, AtomicInteger::get)
+                .description("Resumable sessions open")
+                .register(registry);
+    }
+
+    private static Counter outcome(String outcome, MeterRegistry registry) {
+        return Counter.builder("rsocket.client.resume")
+                .description("Sessions resumed after a dropped connection, or closed for good")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    /**
+     * Makes the connection built by the factory resumable, configurers run once per
+     * connection so each gets its own session.
+     */
+    void configure(RSocketFactory.ClientRSocketFactory factory) {
+        Session session = new Session();
+        factory.resume()
+                .resumeToken(session::token)
+                .resumeStore(session::store)
+                .resumeSessionDuration(this.sessionDuration)
+                .resumeStreamTimeout(this.streamTimeout)
+                .resumeStrategy(session::strategy)
+                // release the frames the producer acknowledged in its keepalives
+                .resumeCleanupOnKeepAlive();
+    }
+
+    private final class Session {
+
+        /**
+         * When the connection dropped, or -1 while connected.
+         */
+        private final AtomicLong disconnectedAt = new AtomicLong(-1);
+
+        private String token;
+
+        ByteBuf token() {
+            UUID uuid = UUID.randomUUID();
+            ByteBuf token = Unpooled.buffer(16).writeLong(uuid.getMostSignificantBits())
+                    .writeLong(uuid.getLeastSignificantBits());
+            this.token = ByteBufUtil.hexDump(token);
+            return token;
+        }
+
+        ResumableFramesStore store(ByteBuf token) {
+            sessions.incrementAndGet();
+            return new MeteredFramesStore(new InMemoryResumableFramesStore("client", cacheSize));
+        }
+
+        /**
+         * Called once per dropped connection, for the attempts to resume it.
+         */
+        ResumeStrategy strategy() {
+            if (this.disconnectedAt.compareAndSet(-1, System.nanoTime())) {
+                log.info("Connection of session {} dropped, resuming", this.token);
+            }
+            ResumeStrategy backoff = new ExponentialBackoffResumeStrategy(minBackoff, maxBackoff, 2);
+            return new ResumeStrategy() {
+                @Override
+                public Publisher<?> apply(ClientResume resume, Throwable error) {
+                    attempts.increment();
+                    return backoff.apply(resume, error);
+                }
+            };
+        }
+
+        /**
+         * Frames of a session, metered for its resumptions.
+         */
+        private final class MeteredFramesStore implements ResumableFramesStore {
+
+            private final ResumableFramesStore delegate;
+
+            private MeteredFramesStore(ResumableFramesStore delegate) {
+                this.delegate = delegate;
+                delegate.onClose().doFinally(signal -> closed()).subscribe();
+            }
+
+            private void closed() {
+                sessions.decrementAndGet();
+                if (disconnectedAt.getAndSet(-1) != -1) {
+                    failed.increment();
+                    log.warn("Session {} could not be resumed", token);
+                }
+            }
+
+            @Override
+            public Mono<Void> saveFrames(Flux<ByteBuf> frames) {
+                return this.delegate.saveFrames(frames);
+            }
+
+            @Override
+            public void releaseFrames(long position) {
+                this.delegate.releaseFrames(position);
+            }
+
+            /**
+             * Asked for once the producer accepted to resume the session.
+             */
+            @Override
+            public Flux<ByteBuf> resumeStream() {
+                long since = disconnectedAt.getAndSet(-1);
+                if (since != -1) {
+                    resumed.increment();
+                    outage.record(System.nanoTime() - since, TimeUnit.NANOSECONDS);
+                    log.info("Session {} resumed", token);
+                }
+                return this.delegate.resumeStream().doOnNext(frame -> replayed.increment());
+            }
+
+            @Override
+            public long framePosition() {
+                return this.delegate.framePosition();
+            }
+
+            @Override
+            public long frameImpliedPosition() {
+                return this.delegate.frameImpliedPosition();
+            }
+
+            @Override
+            public void resumableFrameReceived(ByteBuf frame) {
+                this.delegate.resumableFrameReceived(frame);
+            }
+
+            @Override
+            public Mono<Void> onClose() {
+                return this.delegate.onClose();
+            }
+
+            @Override
+            public void dispose() {
+                this.delegate.dispose();
+            }
+
+            @Override
+            public boolean isDisposed() {
+                return this.delegate.isDisposed();
+            }
+        }
+    }
+}
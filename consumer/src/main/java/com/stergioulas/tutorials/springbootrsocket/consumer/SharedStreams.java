@@ -0,0 +1,156 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Shares one upstream request-stream among all subscribers asking for the same route
+ * and data.
+ * <p>
+ * The first subscriber opens the upstream stream, later ones join it and immediately
+ * receive the latest element. When the last subscriber leaves, the upstream stream is
+ * cancelled after the grace period, so a browser that reconnects right away does not
+ * reopen it. A stream stays in the registry exactly as long as its upstream is open:
+ * once cancelled or terminated it never reopens, and subscribers coming after that
+ * open a new one through the registry.
+ */
+class SharedStreams {
+
+    private final ConcurrentMap<RouteKey, SharedStream<?>> streams = new ConcurrentHashMap<>();
+
+    private final AtomicInteger subscribers = new AtomicInteger();
+
+    private final Duration gracePeriod;
+
+    SharedStreams(Duration gracePeriod, MeterRegistry registry) {
+        this.gracePeriod = gracePeriod;
+        Gauge.builder("rsocket.client.shared-streams.upstreams", this.streams, ConcurrentMap::size)
+                .description("Upstream streams shared between subscribers")
+                .register(registry);
+        Gauge.builder("rsocket.client.shared-streams.subscribers", this.subscribers, AtomicInteger::get)
+                .description("Subscribers of shared upstream streams")
+                .register(registry);
+    }
+
+    /**
+     * @param upstream opens the upstream stream, only called if no stream is shared for the key yet
+     */
+    @SuppressWarnings("unchecked")
+    <T> Flux<T> share(String route, Object data, Supplier<Flux<T>> upstream) {
+        RouteKey key = new RouteKey(route, data);
+        return Flux.defer(() -> {
+            for (;;) {
+                SharedStream<T> stream = (SharedStream<T>) this.streams.computeIfAbsent(key,
+                        k -> new SharedStream<>(k, upstream));
+                if (stream.join()) {
+                    return stream.replayed.doFinally(signal -> stream.leave());
+                }
+                // closed since it was looked up, and on its way out of the registry
+                this.streams.remove(key, stream);
+            }
+        })
+                .doOnSubscribe(subscription -> this.subscribers.incrementAndGet())
+                .doFinally(signal -> this.subscribers.decrementAndGet());
+    }
+
+    int size() {
+        return this.streams.size();
+    }
+
+    /**
+     * One upstream stream, replaying its latest element to subscribers that join it. It
+     * connects once, for its first subscriber, and never reconnects.
+     */
+    private final class SharedStream<T> {
+
+        private final RouteKey key;
+
+        private final Flux<T> replayed;
+
+        private int subscribers;
+
+        private boolean closed;
+
+        private Disposable connection;
+
+        private Disposable grace;
+
+        private SharedStream(RouteKey key, Supplier<Flux<T>> upstream) {
+            this.key = key;
+            this.replayed = Flux.defer(upstream)
+                    .doFinally(signal -> close())
+                    .replay(1)
+                    .autoConnect(1, this::connected);
+        }
+
+        /**
+         * @return false if the stream is closed and a new one must be opened instead
+         */
+        synchronized boolean join() {
+            if (this.closed) {
+                return false;
+            }
+            this.subscribers++;
+            if (this.grace != null) {
+                this.grace.dispose();
+                this.grace = null;
+            }
+            return true;
+        }
+
+        void leave() {
+            synchronized (this) {
+                if (--this.subscribers > 0 || this.closed) {
+                    return;
+                }
+                if (!gracePeriod.isZero()) {
+                    this.grace = Schedulers.parallel().schedule(this::expire, gracePeriod.toNanos(),
+                            TimeUnit.NANOSECONDS);
+                    return;
+                }
+            }
+            close();
+        }
+
+        private synchronized void connected(Disposable connection) {
+            this.connection = connection;
+            if (this.closed) {
+                connection.dispose();
+            }
+        }
+
+        private void expire() {
+            synchronized (this) {
+                if (this.subscribers > 0) {
+                    return;
+                }
+            }
+            close();
+        }
+
+        private void close() {
+            Disposable connection;
+            synchronized (this) {
+                if (this.closed) {
+                    return;
+                }
+                this.closed = true;
+                connection = this.connection;
+            }
+            streams.remove(this.key, this);
+            if (connection != null) {
+                connection.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import reactor.netty.tcp.TcpClient;
+
+/**
+ * Customizes the {@link TcpClient} of every connection to a producer, before it connects.
+ * Beans of this type are applied in order, after {@code consumer.rsocket.netty.*}.
+ */
+@FunctionalInterface
+interface TcpClientCustomizer {
+
+    TcpClient customize(TcpClient client);
+}
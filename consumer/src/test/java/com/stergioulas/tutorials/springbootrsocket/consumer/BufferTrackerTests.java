@@ -0,0 +1,144 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.RSocketFactory;
+import io.rsocket.frame.decoder.PayloadDecoder;
+import io.rsocket.metadata.CompositeMetadataFlyweight;
+import io.rsocket.metadata.TaggingMetadataFlyweight;
+import io.rsocket.metadata.WellKnownMimeType;
+import io.rsocket.transport.local.LocalClientTransport;
+import io.rsocket.transport.local.LocalServerTransport;
+import io.rsocket.util.ByteBufPayload;
+import io.rsocket.util.DefaultPayload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BufferTrackerTests {
+
+    private static final String COMPOSITE = WellKnownMimeType.MESSAGE_RSOCKET_COMPOSITE_METADATA.getString();
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final RSocketClientProperties.BufferTracking settings = new RSocketClientProperties.BufferTracking();
+
+    private Disposable server;
+
+    private BufferTracker tracker;
+
+    private RSocket client;
+
+    @BeforeEach
+    void startServer() {
+        this.server = RSocketFactory.receive()
+                .acceptor((setup, sendingSocket) -> Mono.just(new AbstractRSocket() {
+                    @Override
+                    public Mono<Payload> requestResponse(Payload payload) {
+                        payload.release();
+                        return Mono.just(DefaultPayload.create("Hello"));
+                    }
+
+                    @Override
+                    public Flux<Payload> requestStream(Payload payload) {
+                        payload.release();
+                        return Flux.range(0, 3).map(index -> DefaultPayload.create("Hello " + index));
+                    }
+                }))
+                .transport(LocalServerTransport.create("buffer-tracker"))
+                .start()
+                .block();
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.client.dispose();
+        this.tracker.dispose();
+        this.server.dispose();
+    }
+
+    @Test
+    void followsSampledPayloadsUntilReleased() throws InterruptedException {
+        this.settings.setSampleRate(1);
+        this.settings.setHeldThreshold(Duration.ofMillis(50));
+        connect();
+
+        Payload greeting = this.client.requestResponse(request("greet")).block();
+        List<Payload> stream = this.client.requestStream(request("greet-stream")).collectList().block();
+        assertThat(greeting.getDataUtf8()).isEqualTo("Hello");
+        assertThat(outstanding("greet")).isEqualTo(1);
+        assertThat(outstanding("greet-stream")).isEqualTo(3);
+
+        stream.forEach(Payload::release);
+        assertThat(outstanding("greet-stream")).isZero();
+        assertThat(this.registry.get("rsocket.client.buffers.hold").tag("route", "greet-stream").timer().count())
+                .isEqualTo(3);
+
+        // only the payload still held is flagged, and only once
+        Thread.sleep(100);
+        this.tracker.check();
+        this.tracker.check();
+        assertThat(held("greet")).isEqualTo(1);
+        assertThat(held("greet-stream")).isZero();
+
+        greeting.release();
+        assertThat(outstanding("greet")).isZero();
+        assertThat(this.registry.get("rsocket.client.buffers.hold").tag("route", "greet").timer()
+                .totalTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(100);
+    }
+
+    @Test
+    void leavesPayloadsOutsideTheSampleAlone() {
+        this.settings.setSampleRate(0);
+        connect();
+
+        Payload greeting = this.client.requestResponse(request("greet")).block();
+
+        assertThat(greeting.data()).isNotInstanceOf(CompositeByteBuf.class);
+        assertThat(this.registry.find("rsocket.client.buffers.sampled").counter()).isNull();
+        greeting.release();
+    }
+
+    private void connect() {
+        this.tracker = new BufferTracker(this.settings, COMPOSITE, 100, this.registry);
+        this.client = RSocketFactory.connect()
+                .metadataMimeType(COMPOSITE)
+                .frameDecoder(PayloadDecoder.ZERO_COPY)
+                .addRequesterPlugin(this.tracker::instrument)
+                .transport(LocalClientTransport.create("buffer-tracker"))
+                .start()
+                .block();
+    }
+
+    private double outstanding(String route) {
+        return this.registry.get("rsocket.client.buffers.outstanding").tag("route", route).gauge().value();
+    }
+
+    private double held(String route) {
+        return this.registry.get("rsocket.client.buffers.held").tag("route", route).counter().count();
+    }
+
+    private static Payload request(String route) {
+        ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+        CompositeByteBuf metadata = allocator.compositeBuffer();
+        CompositeMetadataFlyweight.encodeAndAddMetadata(metadata, allocator, WellKnownMimeType.MESSAGE_RSOCKET_ROUTING,
+                TaggingMetadataFlyweight.createRoutingMetadata(allocator, Collections.singletonList(route)).getContent());
+        return ByteBufPayload.create(Unpooled.copiedBuffer("Bob", StandardCharsets.UTF_8), metadata);
+    }
+}
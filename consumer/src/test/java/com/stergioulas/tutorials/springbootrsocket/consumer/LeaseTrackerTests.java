@@ -0,0 +1,145 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.RSocketFactory;
+import io.rsocket.exceptions.MissingLeaseException;
+import io.rsocket.lease.Lease;
+import io.rsocket.lease.Leases;
+import io.rsocket.transport.local.LocalClientTransport;
+import io.rsocket.transport.local.LocalServerTransport;
+import io.rsocket.util.ByteBufPayload;
+import io.rsocket.util.DefaultPayload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LeaseTrackerTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final LeaseTracker tracker = new LeaseTracker(this.registry, Duration.ofMillis(500));
+
+    private Disposable server;
+
+    private RSocket client;
+
+    @AfterEach
+    void tearDown() {
+        if (this.client != null) {
+            this.client.dispose();
+        }
+        if (this.server != null) {
+            this.server.dispose();
+        }
+    }
+
+    @Test
+    void sendsNoMoreThanLeasedAndFailsFast() {
+        connect(Flux.just(Lease.create(60_000, 2)));
+
+        // the first call waits for the lease sent once the connection is set up
+        for (int i = 0; i < 2; i++) {
+            assertThat(this.client.requestResponse(DefaultPayload.create("hi")).block().getDataUtf8()).isEqualTo("hi");
+        }
+
+        assertThat(this.client.availability()).isZero();
+        StepVerifier.create(this.client.requestResponse(DefaultPayload.create("hi")))
+                .verifyError(MissingLeaseException.class);
+        assertThat(this.registry.get("rsocket.client.lease.received").counter().count()).isEqualTo(1);
+        assertThat(this.registry.get("rsocket.client.lease.granted").counter().count()).isEqualTo(2);
+        assertThat(this.registry.get("rsocket.client.lease.rejected").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void startsTheCallsWaitingTogetherOnTheFirstLease() {
+        connect(Flux.just(Lease.create(60_000, 3)).delaySubscription(Duration.ofMillis(200)));
+
+        StepVerifier.create(Flux.merge(
+                this.client.requestResponse(DefaultPayload.create("a")),
+                this.client.requestResponse(DefaultPayload.create("b")),
+                this.client.requestResponse(DefaultPayload.create("c"))).map(Payload::getDataUtf8))
+                .expectNextCount(3)
+                .verifyComplete();
+        assertThat(this.registry.get("rsocket.client.lease.rejected").counter().count()).isZero();
+    }
+
+    @Test
+    void releasesThePayloadOfACallCancelledWhileWaiting() {
+        connect(Flux.never());
+        Payload payload = ByteBufPayload.create("hi");
+
+        this.client.requestResponse(payload).subscribe().dispose();
+
+        assertThat(payload.refCnt()).isZero();
+    }
+
+    @Test
+    void failsClearlyWhenNoLeaseComesInTime() {
+        connect(Flux.never());
+        Payload payload = ByteBufPayload.create("hi");
+
+        StepVerifier.create(this.client.requestResponse(payload))
+                .expectErrorSatisfies(error -> assertThat(error)
+                        .isInstanceOf(LeaseTracker.FirstLeaseTimeoutException.class)
+                        .hasMessageContaining("500ms"))
+                .verify(Duration.ofSeconds(5));
+        assertThat(payload.refCnt()).isZero();
+        assertThat(this.registry.get("rsocket.client.lease.rejected").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void waitsForTheLeaseOfItsOwnConnection() {
+        connect(Flux.never());
+        Disposable leasingServer = serve("leasing-lease-tracker", Flux.just(Lease.create(60_000, 1)));
+        RSocket leased = connect("leasing-lease-tracker");
+        try {
+            assertThat(leased.requestResponse(DefaultPayload.create("hi")).block().getDataUtf8()).isEqualTo("hi");
+
+            StepVerifier.create(this.client.requestResponse(DefaultPayload.create("hi")))
+                    .expectError(LeaseTracker.FirstLeaseTimeoutException.class)
+                    .verify(Duration.ofSeconds(5));
+        }
+        finally {
+            leased.dispose();
+            leasingServer.dispose();
+        }
+    }
+
+    private void connect(Flux<Lease> leases) {
+        this.server = serve("lease-tracker", leases);
+        this.client = connect("lease-tracker");
+    }
+
+    private Disposable serve(String name, Flux<Lease> leases) {
+        return RSocketFactory.receive()
+                .lease(() -> Leases.create().sender(stats -> leases))
+                .acceptor((setup, sendingSocket) -> Mono.just(new AbstractRSocket() {
+                    @Override
+                    public Mono<Payload> requestResponse(Payload payload) {
+                        return Mono.just(payload);
+                    }
+                }))
+                .transport(LocalServerTransport.create(name))
+                .start()
+                .block();
+    }
+
+    private RSocket connect(String name) {
+        return RSocketFactory.connect()
+                .lease(this.tracker::leases)
+                .addRequesterPlugin(this.tracker::instrument)
+                .transport(LocalClientTransport.create(name))
+                .start()
+                .block();
+    }
+}
@@ -0,0 +1,125 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.util.DefaultPayload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LoadBalancedRSocketTests {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+
+    private final List<String> targets = new ArrayList<>(Arrays.asList("fast:1", "slow:2"));
+
+    private LoadBalancedRSocket rsocket;
+
+    @AfterEach
+    void dispose() {
+        if (this.rsocket != null) {
+            this.rsocket.dispose();
+        }
+    }
+
+    @Test
+    void prefersTheFasterTarget() {
+        this.rsocket = loadBalancer(settings());
+
+        for (int i = 0; i < 60; i++) {
+            this.rsocket.requestResponse(DefaultPayload.create("hi")).block();
+        }
+
+        assertThat(calls("fast:1")).isGreaterThan(calls("slow:2") * 3);
+    }
+
+    @Test
+    void evictsFailingTargets() {
+        this.targets.set(1, "broken:3");
+        this.rsocket = loadBalancer(settings());
+
+        for (int i = 0; i < 50; i++) {
+            this.rsocket.requestResponse(DefaultPayload.create("hi")).onErrorResume(error -> Mono.empty()).block();
+        }
+
+        assertThat(calls("broken:3")).isLessThanOrEqualTo(3);
+        assertThat(this.registry.counter("rsocket.client.lb.evictions").count()).isEqualTo(1);
+    }
+
+    @Test
+    void picksUpRefreshedTargets() {
+        this.rsocket = loadBalancer(settings());
+
+        this.targets.set(0, "fast:3");
+        this.rsocket.refresh();
+
+        assertThat(this.rsocket.targets()).containsExactly("fast:3", "slow:2");
+    }
+
+    @Test
+    void reportsTheNewPoolOfATargetAddedAgain() {
+        this.rsocket = loadBalancer(settings());
+        this.targets.remove("slow:2");
+        this.rsocket.refresh();
+
+        assertThat(this.registry.find("rsocket.client.connected").tag("target", "slow:2").gauge()).isNull();
+        assertThat(this.registry.find("rsocket.client.pool.in-flight").tag("target", "slow:2").gauge()).isNull();
+
+        this.targets.set(0, "slow:2");
+        this.rsocket.refresh();
+        this.rsocket.requestResponse(DefaultPayload.create("hi")).block();
+
+        assertThat(this.registry.get("rsocket.client.connected").tag("target", "slow:2").gauge().value()).isEqualTo(1);
+    }
+
+    private RSocketClientProperties.LoadBalancer settings() {
+        RSocketClientProperties.LoadBalancer settings = new RSocketClientProperties.LoadBalancer();
+        settings.setRefreshInterval(Duration.ofHours(1));
+        return settings;
+    }
+
+    private LoadBalancedRSocket loadBalancer(RSocketClientProperties.LoadBalancer settings) {
+        RSocketClientProperties properties = new RSocketClientProperties();
+        return new LoadBalancedRSocket(() -> this.targets, target -> new PooledRSocket(target, 1,
+                index -> new ReconnectingRSocket(target, Tags.of("target", target),
+                        Mono.fromSupplier(() -> stub(target)), properties, this.registry),
+                this.registry), settings, this.registry);
+    }
+
+    private int calls(String target) {
+        return this.calls.computeIfAbsent(target, key -> new AtomicInteger()).get();
+    }
+
+    private RSocket stub(String target) {
+        return new AbstractRSocket() {
+
+            @Override
+            public Mono<Payload> requestResponse(Payload payload) {
+                payload.release();
+                calls.computeIfAbsent(target, key -> new AtomicInteger()).incrementAndGet();
+                if (target.startsWith("broken")) {
+                    return Mono.error(new IOException("connection reset"));
+                }
+                Duration delay = Duration.ofMillis(target.startsWith("slow") ? 50 : 1);
+                return Mono.delay(delay).map(tick -> DefaultPayload.create("hello"));
+            }
+        };
+    }
+}
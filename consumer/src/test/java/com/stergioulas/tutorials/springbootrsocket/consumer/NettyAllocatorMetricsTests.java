@@ -0,0 +1,45 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NettyAllocatorMetricsTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void publishesTheArenasOfPooledAllocators() {
+        // no thread local caches, which would keep released buffers active in their arena
+        PooledByteBufAllocator allocator = new PooledByteBufAllocator(true, 1, 2, 8192, 11, 0, 0, 0, false);
+        new NettyAllocatorMetrics(allocator).bindTo(this.registry);
+
+        ByteBuf buffer = allocator.directBuffer(1024);
+        assertThat(gauge("netty.allocator.allocations.active", "direct")).isEqualTo(1);
+        assertThat(gauge("netty.allocator.memory.used", "direct")).isGreaterThanOrEqualTo(1024);
+        assertThat(gauge("netty.allocator.arenas", "direct")).isEqualTo(2);
+        assertThat(gauge("netty.allocator.arenas", "heap")).isEqualTo(1);
+
+        buffer.release();
+        assertThat(gauge("netty.allocator.allocations.active", "direct")).isZero();
+    }
+
+    @Test
+    void publishesTheMemoryOfUnpooledAllocators() {
+        UnpooledByteBufAllocator allocator = new UnpooledByteBufAllocator(false);
+        new NettyAllocatorMetrics(allocator).bindTo(this.registry);
+
+        ByteBuf buffer = allocator.heapBuffer(1024);
+        assertThat(gauge("netty.allocator.memory.used", "heap")).isEqualTo(1024);
+        assertThat(this.registry.find("netty.allocator.arenas").gauge()).isNull();
+        buffer.release();
+    }
+
+    private double gauge(String name, String area) {
+        return this.registry.get(name).tag("area", area).gauge().value();
+    }
+}
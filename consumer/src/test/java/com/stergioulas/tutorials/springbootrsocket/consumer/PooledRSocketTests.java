@@ -0,0 +1,127 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.util.DefaultPayload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PooledRSocketTests {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private final List<Queue<MonoProcessor<Payload>>> held = new ArrayList<>();
+
+    private PooledRSocket pool;
+
+    @AfterEach
+    void dispose() {
+        if (this.pool != null) {
+            this.pool.dispose();
+        }
+    }
+
+    @Test
+    void sendsEachCallToTheConnectionWithTheFewestInFlight() {
+        this.pool = pool(2, 2);
+        this.pool.warmUp();
+        for (int i = 0; i < 4; i++) {
+            this.pool.requestResponse(DefaultPayload.create("hi")).subscribe();
+        }
+        assertThat(inFlight(0)).isEqualTo(2);
+        assertThat(inFlight(1)).isEqualTo(2);
+
+        complete(0);
+        complete(0);
+        this.pool.requestResponse(DefaultPayload.create("hi")).subscribe();
+        this.pool.requestResponse(DefaultPayload.create("hi")).subscribe();
+
+        // a round robin would have sent one of them to the busier connection
+        assertThat(inFlight(0)).isEqualTo(2);
+        assertThat(inFlight(1)).isEqualTo(2);
+        assertThat(this.pool.inFlight()).isEqualTo(4);
+    }
+
+    @Test
+    void onlyUsesConnectionsThatAreAvailable() {
+        this.pool = pool(3, 1);
+        assertThat(this.pool.availability()).isZero();
+
+        this.pool.warmUp();
+        for (int i = 0; i < 3; i++) {
+            this.pool.requestResponse(DefaultPayload.create("hi")).subscribe();
+        }
+
+        assertThat(this.pool.availability()).isEqualTo(1.0);
+        assertThat(inFlight(0)).isEqualTo(3);
+        assertThat(inFlight(1)).isZero();
+        assertThat(inFlight(2)).isZero();
+    }
+
+    @Test
+    void disposesEveryConnection() {
+        this.pool = pool(2, 2);
+        this.pool.warmUp();
+
+        this.pool.dispose();
+
+        assertThat(this.pool.isDisposed()).isTrue();
+        assertThat(this.pool.connections()).allMatch(ReconnectingRSocket::isDisposed);
+        assertThat(this.pool.availability()).isZero();
+        assertThat(this.registry.find("rsocket.client.pool.in-flight").gauges()).isEmpty();
+        assertThat(this.registry.find("rsocket.client.connected").gauges()).isEmpty();
+        StepVerifier.create(this.pool.requestResponse(DefaultPayload.create("hi")))
+                .expectError(IllegalStateException.class)
+                .verify(Duration.ofSeconds(5));
+    }
+
+    /**
+     * @param connected how many of the connections connect, the others never do
+     */
+    private PooledRSocket pool(int size, int connected) {
+        RSocketClientProperties properties = new RSocketClientProperties();
+        for (int i = 0; i < size; i++) {
+            this.held.add(new ConcurrentLinkedQueue<>());
+        }
+        return new PooledRSocket("test", size, index -> new ReconnectingRSocket("test", Tags.of("target", "test"),
+                index < connected ? Mono.fromSupplier(() -> stub(index)) : Mono.never(), properties, this.registry),
+                this.registry);
+    }
+
+    private RSocket stub(int index) {
+        return new AbstractRSocket() {
+
+            @Override
+            public Mono<Payload> requestResponse(Payload payload) {
+                payload.release();
+                MonoProcessor<Payload> response = MonoProcessor.create();
+                held.get(index).add(response);
+                return response;
+            }
+        };
+    }
+
+    private void complete(int index) {
+        this.held.get(index).remove().onNext(DefaultPayload.create("hello"));
+    }
+
+    private double inFlight(int index) {
+        return this.registry.get("rsocket.client.pool.in-flight").tag("connection", String.valueOf(index)).gauge()
+                .value();
+    }
+}
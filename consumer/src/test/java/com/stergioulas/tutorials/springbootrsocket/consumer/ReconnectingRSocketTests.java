@@ -0,0 +1,139 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.util.ByteBufPayload;
+import io.rsocket.util.DefaultPayload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReconnectingRSocketTests {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    private final List<RSocket> connections = new CopyOnWriteArrayList<>();
+
+    private ReconnectingRSocket rsocket;
+
+    @AfterEach
+    void dispose() {
+        if (this.rsocket != null) {
+            this.rsocket.dispose();
+        }
+    }
+
+    @Test
+    void connectsOnTheFirstRequestOnly() {
+        this.rsocket = reconnecting(connector(0), properties());
+
+        assertThat(this.attempts).hasValue(0);
+        assertThat(this.rsocket.isConnected()).isFalse();
+
+        assertThat(this.rsocket.requestResponse(DefaultPayload.create("hi")).block().getDataUtf8()).isEqualTo("hello");
+        assertThat(this.rsocket.requestResponse(DefaultPayload.create("hi")).block().getDataUtf8()).isEqualTo("hello");
+
+        assertThat(this.attempts).hasValue(1);
+        assertThat(this.rsocket.isConnected()).isTrue();
+        assertThat(this.rsocket.lastConnectLatency()).isNotNull();
+    }
+
+    @Test
+    void reconnectsInTheBackgroundWhenTheConnectionCloses() throws InterruptedException {
+        this.rsocket = reconnecting(connector(0), properties());
+        this.rsocket.requestResponse(DefaultPayload.create("hi")).block();
+
+        this.connections.get(0).dispose();
+
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while ((this.connections.size() < 2 || !this.rsocket.isConnected()) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(this.rsocket.isConnected()).isTrue();
+        assertThat(this.rsocket.reconnectCount()).isEqualTo(1);
+        assertThat(this.rsocket.requestResponse(DefaultPayload.create("hi")).block().getDataUtf8()).isEqualTo("hello");
+        assertThat(this.attempts).hasValue(2);
+    }
+
+    @Test
+    void backsOffBetweenFailedAttempts() {
+        RSocketClientProperties properties = properties();
+        properties.getReconnect().setMinBackoff(Duration.ofMillis(100));
+        this.rsocket = reconnecting(connector(3), properties);
+
+        long start = System.nanoTime();
+        Payload greeting = this.rsocket.requestResponse(DefaultPayload.create("hi")).block();
+
+        assertThat(greeting.getDataUtf8()).isEqualTo("hello");
+        // backoffs of 100, 200 and 400ms, jittered by up to half but never below the minimum
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(400));
+        assertThat(this.attempts).hasValue(4);
+        assertThat(this.registry.counter("rsocket.client.connect.failures", "target", "test").count()).isEqualTo(3);
+        assertThat(this.rsocket.lastError()).isNull();
+        // the first connection, however long it took, is no reconnect
+        assertThat(this.rsocket.reconnectCount()).isZero();
+    }
+
+    @Test
+    void givesUpOnRequestsAfterTheConnectTimeout() {
+        RSocketClientProperties properties = properties();
+        properties.setConnectTimeout(Duration.ofMillis(200));
+        this.rsocket = reconnecting(Mono.never(), properties);
+        Payload payload = ByteBufPayload.create("hi");
+
+        StepVerifier.create(this.rsocket.requestResponse(payload))
+                .expectErrorSatisfies(error -> assertThat(error)
+                        .isInstanceOf(ConnectException.class)
+                        .hasMessage("No connection to test within PT0.2S"))
+                .verify(Duration.ofSeconds(5));
+        assertThat(payload.refCnt()).isZero();
+    }
+
+    private RSocketClientProperties properties() {
+        RSocketClientProperties properties = new RSocketClientProperties();
+        properties.getReconnect().setMinBackoff(Duration.ofMillis(10));
+        properties.getReconnect().setMaxBackoff(Duration.ofSeconds(1));
+        return properties;
+    }
+
+    private ReconnectingRSocket reconnecting(Mono<RSocket> connector, RSocketClientProperties properties) {
+        return new ReconnectingRSocket("test", Tags.of("target", "test"), connector, properties, this.registry);
+    }
+
+    /**
+     * @param failures attempts failing before the first one that connects
+     */
+    private Mono<RSocket> connector(int failures) {
+        return Mono.defer(() -> {
+            if (this.attempts.incrementAndGet() <= failures) {
+                return Mono.error(new ConnectException("Connection refused"));
+            }
+            RSocket connection = new AbstractRSocket() {
+
+                @Override
+                public Mono<Payload> requestResponse(Payload payload) {
+                    payload.release();
+                    return Mono.just(DefaultPayload.create("hello"));
+                }
+            };
+            this.connections.add(connection);
+            return Mono.just(connection);
+        });
+    }
+}
@@ -0,0 +1,73 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.publisher.TestPublisher;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RequestCoalescerTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Test
+    void identicalCallsInFlightShareOneUpstreamCall() {
+        RequestCoalescer coalescer = new RequestCoalescer(Collections.emptyMap(), this.registry);
+        TestPublisher<String> upstream = TestPublisher.create();
+
+        Mono<String> first = coalescer.get("greet", "Petros", () -> call(upstream.mono()));
+        Mono<String> second = coalescer.get("greet", "Petros", () -> call(upstream.mono()));
+        Mono<String> other = coalescer.get("greet", "Josh", () -> call(Mono.just("Hello Josh")));
+
+        assertThat(second).isSameAs(first);
+        assertThat(other.block()).isEqualTo("Hello Josh");
+        first.subscribe();
+        upstream.emit("Hello Petros");
+
+        assertThat(second.block()).isEqualTo("Hello Petros");
+        assertThat(this.calls).hasValue(2);
+        assertThat(coalescer.inFlight()).isZero();
+        assertThat(this.registry.get("rsocket.client.requests.coalesced").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void cachesSuccessfulResponsesOfConfiguredRoutes() {
+        RequestCoalescer coalescer = new RequestCoalescer(
+                Collections.singletonMap("greet", new RSocketClientProperties.ResponseCache()), this.registry);
+
+        coalescer.get("greet", "Petros", () -> call(Mono.just("Hello Petros"))).block();
+        String cached = coalescer.get("greet", "Petros", () -> call(Mono.just("Hello again"))).block();
+
+        assertThat(cached).isEqualTo("Hello Petros");
+        assertThat(this.calls).hasValue(1);
+        assertThat(this.registry.get("rsocket.client.cache.hits").counter().count()).isEqualTo(1);
+        assertThat(this.registry.get("rsocket.client.cache.misses").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void doesNotCacheErrors() {
+        RSocketClientProperties.ResponseCache settings = new RSocketClientProperties.ResponseCache();
+        settings.setTtl(Duration.ofMinutes(1));
+        RequestCoalescer coalescer = new RequestCoalescer(Collections.singletonMap("greet", settings), this.registry);
+
+        coalescer.get("greet", "Petros", () -> call(Mono.<String>error(new IllegalStateException())))
+                .onErrorResume(error -> Mono.empty())
+                .block();
+        String retried = coalescer.get("greet", "Petros", () -> call(Mono.just("Hello Petros"))).block();
+
+        assertThat(retried).isEqualTo("Hello Petros");
+        assertThat(this.calls).hasValue(2);
+    }
+
+    private <T> Mono<T> call(Mono<T> response) {
+        this.calls.incrementAndGet();
+        return response;
+    }
+}
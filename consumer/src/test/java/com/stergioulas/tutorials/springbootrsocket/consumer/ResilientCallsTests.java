@@ -0,0 +1,140 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.rsocket.exceptions.ApplicationErrorException;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResilientCallsTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final RSocketClientProperties.Resilience settings = new RSocketClientProperties.Resilience();
+
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    @Test
+    void timesOutAndRetriesIdempotentRoutes() {
+        route("greet", Duration.ofMillis(50), false);
+        ResilientCalls calls = new ResilientCalls(this.settings, this.registry);
+
+        StepVerifier.create(calls.call("greet", answers(Mono.never(), Mono.just("Hello"))))
+                .expectNext("Hello")
+                .verifyComplete();
+
+        assertThat(this.attempts).hasValue(2);
+        assertThat(count("rsocket.client.timeouts")).isEqualTo(1);
+        assertThat(count("rsocket.client.retries", "sent")).isEqualTo(1);
+    }
+
+    @Test
+    void backsOffBeforeEachRetry() {
+        route("greet", Duration.ofSeconds(1), false);
+        this.settings.setMinRetryBackoff(Duration.ofMillis(100));
+        ResilientCalls calls = new ResilientCalls(this.settings, this.registry);
+        Mono<String> failure = Mono.error(new IllegalStateException("Connection closed"));
+
+        long start = System.nanoTime();
+        StepVerifier.create(calls.call("greet", answers(failure, failure, Mono.just("Hello"))))
+                .expectNext("Hello")
+                .verifyComplete();
+
+        // backoffs of 100 and 200ms, jittered by up to half but never below the minimum
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(200));
+        assertThat(this.attempts).hasValue(3);
+    }
+
+    @Test
+    void timesOutOtherRoutesWithoutRetrying() {
+        this.settings.setTimeout(Duration.ofMillis(50));
+        ResilientCalls calls = new ResilientCalls(this.settings, this.registry);
+
+        StepVerifier.create(calls.call("greet", answers(Mono.never(), Mono.just("Hello"))))
+                .expectError(TimeoutException.class)
+                .verify(Duration.ofSeconds(5));
+
+        assertThat(this.attempts).hasValue(1);
+    }
+
+    @Test
+    void leavesErrorsOfTheProducerAlone() {
+        route("greet", Duration.ofSeconds(1), false);
+        ResilientCalls calls = new ResilientCalls(this.settings, this.registry);
+
+        StepVerifier.create(calls.call("greet", answers(Mono.error(new ApplicationErrorException("Nope")))))
+                .expectError(ApplicationErrorException.class)
+                .verify(Duration.ofSeconds(5));
+
+        assertThat(this.attempts).hasValue(1);
+    }
+
+    @Test
+    void retriesNoMoreThanTheBudgetAllows() {
+        route("greet", Duration.ofSeconds(1), false);
+        this.settings.getRetryBudget().setRatio(0.1);
+        this.settings.getRetryBudget().setMinPerSecond(0);
+        ResilientCalls calls = new ResilientCalls(this.settings, this.registry);
+
+        for (int i = 0; i < 20; i++) {
+            calls.call("greet", () -> Mono.error(new IllegalStateException("Connection closed")))
+                    .onErrorResume(error -> Mono.empty())
+                    .block();
+        }
+
+        // each of the 20 calls earns a tenth of a retry, and every call ends up denied one
+        assertThat(count("rsocket.client.retries", "sent")).isEqualTo(2);
+        assertThat(count("rsocket.client.retries", "denied")).isEqualTo(20);
+    }
+
+    @Test
+    void hedgesAttemptsSlowerThanMostAndCancelsTheLoser() {
+        route("greet", Duration.ofSeconds(5), true);
+        ResilientCalls calls = new ResilientCalls(this.settings, this.registry);
+        for (int i = 0; i < 100; i++) {
+            calls.call("greet", () -> Mono.just("Hello")).block();
+        }
+
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Mono<String> slow = Mono.delay(Duration.ofSeconds(2)).thenReturn("Slow").doOnCancel(() -> cancelled.set(true));
+        StepVerifier.create(calls.call("greet", answers(slow, Mono.just("Hedged"))))
+                .expectNext("Hedged")
+                .verifyComplete();
+
+        assertThat(cancelled).isTrue();
+        assertThat(count("rsocket.client.hedges", "won")).isEqualTo(1);
+        assertThat(count("rsocket.client.hedges", "lost")).isZero();
+    }
+
+    private void route(String name, Duration timeout, boolean hedge) {
+        RSocketClientProperties.ResilientRoute route = new RSocketClientProperties.ResilientRoute();
+        route.setTimeout(timeout);
+        route.setIdempotent(true);
+        route.setHedge(hedge);
+        this.settings.getRoutes().put(name, route);
+    }
+
+    /**
+     * Answers each attempt with the next of the answers, the last one over and over.
+     */
+    @SafeVarargs
+    private Supplier<Mono<String>> answers(Mono<String>... answers) {
+        return () -> answers[Math.min(this.attempts.getAndIncrement(), answers.length - 1)];
+    }
+
+    private double count(String name) {
+        return this.registry.get(name).tag("route", "greet").counter().count();
+    }
+
+    private double count(String name, String outcome) {
+        return this.registry.get(name).tags("route", "greet", "outcome", outcome).counter().count();
+    }
+}
@@ -0,0 +1,52 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RetryBudgetTests {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    void allowsARatioOfTheCallsMade() {
+        RetryBudget budget = new RetryBudget(0.2, 0, Duration.ofSeconds(10), this.clock::get);
+
+        assertThat(budget.tryWithdraw()).isFalse();
+        for (int i = 0; i < 10; i++) {
+            budget.deposit();
+        }
+
+        assertThat(budget.tryWithdraw()).isTrue();
+        assertThat(budget.tryWithdraw()).isTrue();
+        assertThat(budget.tryWithdraw()).isFalse();
+    }
+
+    @Test
+    void keepsAReserveForQuietTimes() {
+        RetryBudget budget = new RetryBudget(0.2, 1, Duration.ofSeconds(2), this.clock::get);
+
+        assertThat(budget.available()).isEqualTo(2);
+        assertThat(budget.tryWithdraw()).isTrue();
+        assertThat(budget.tryWithdraw()).isTrue();
+        assertThat(budget.tryWithdraw()).isFalse();
+    }
+
+    @Test
+    void forgetsCallsOlderThanTheWindow() {
+        RetryBudget budget = new RetryBudget(0.5, 0, Duration.ofSeconds(10), this.clock::get);
+        for (int i = 0; i < 10; i++) {
+            budget.deposit();
+        }
+        budget.tryWithdraw();
+
+        this.clock.set(Duration.ofSeconds(5).toNanos());
+        assertThat(budget.available()).isEqualTo(4);
+
+        this.clock.set(Duration.ofSeconds(10).toNanos());
+        assertThat(budget.available()).isZero();
+    }
+}
@@ -0,0 +1,167 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.RSocketFactory;
+import io.rsocket.frame.decoder.PayloadDecoder;
+import io.rsocket.metadata.CompositeMetadataFlyweight;
+import io.rsocket.metadata.TaggingMetadataFlyweight;
+import io.rsocket.metadata.WellKnownMimeType;
+import io.rsocket.transport.local.LocalClientTransport;
+import io.rsocket.transport.local.LocalServerTransport;
+import io.rsocket.util.ByteBufPayload;
+import io.rsocket.util.DefaultPayload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.mock.http.server.reactive.MockServerHttpResponse;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ServerTimingTests {
+
+    private static final String COMPOSITE = WellKnownMimeType.MESSAGE_RSOCKET_COMPOSITE_METADATA.getString();
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private Disposable server;
+
+    private RSocket client;
+
+    @BeforeEach
+    void startServer() {
+        this.server = RSocketFactory.receive()
+                .acceptor((setup, sendingSocket) -> Mono.just(new AbstractRSocket() {
+                    @Override
+                    public Mono<Payload> requestResponse(Payload payload) {
+                        String data = payload.getDataUtf8();
+                        boolean timed = data.equals("timed");
+                        payload.release();
+                        if (data.equals("truncated")) {
+                            // only decode and dispatch time, as a faulty producer might send
+                            return Mono.just(timedResponse(1_000, 2_000));
+                        }
+                        // reports 1ms of decode, 2ms of dispatch, 3ms in the handler and 4ms of encode
+                        return Mono.delay(Duration.ofMillis(20))
+                                .map(tick -> timed ? timedResponse(1_000, 2_000, 3_000, 4_000) : DefaultPayload.create("Hello"));
+                    }
+                }))
+                .transport(LocalServerTransport.create("server-timing"))
+                .start()
+                .block();
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.client.dispose();
+        this.server.dispose();
+    }
+
+    @Test
+    void publishesTheReportedPhasesNextToTheNetwork() {
+        connect(false);
+
+        Payload greeting = this.client.requestResponse(request("greet", "timed")).block();
+
+        assertThat(greeting.getDataUtf8()).isEqualTo("Hello");
+        greeting.release();
+        assertThat(phase("decode")).isEqualTo(1);
+        assertThat(phase("dispatch")).isEqualTo(2);
+        assertThat(phase("handler")).isEqualTo(3);
+        assertThat(phase("encode")).isEqualTo(4);
+        // the 20ms the responder took are not in what it reported
+        assertThat(phase("network")).isGreaterThanOrEqualTo(10);
+    }
+
+    @Test
+    void setsTheServerTimingHeaderOfTheHttpResponse() {
+        ServerTiming timing = connect(true);
+        MockServerHttpResponse response = new MockServerHttpResponse();
+
+        Payload greeting = timing.report(this.client.requestResponse(request("greet", "timed")), response).block();
+
+        greeting.release();
+        assertThat(response.getHeaders().getFirst("Server-Timing"))
+                .startsWith("decode;dur=1.000, dispatch;dur=2.000, handler;dur=3.000, encode;dur=4.000, network;dur=")
+                .contains(", total;dur=");
+    }
+
+    @Test
+    void leavesResponsesWithoutTimingAlone() {
+        ServerTiming timing = connect(true);
+        MockServerHttpResponse response = new MockServerHttpResponse();
+
+        Payload greeting = timing.report(this.client.requestResponse(request("greet", "plain")), response).block();
+
+        assertThat(greeting.getDataUtf8()).isEqualTo("Hello");
+        greeting.release();
+        assertThat(response.getHeaders().containsKey("Server-Timing")).isFalse();
+        assertThat(this.registry.find("rsocket.client.server-timing").timer()).isNull();
+    }
+
+    @Test
+    void ignoresMalformedTimings() {
+        ServerTiming timing = connect(true);
+        MockServerHttpResponse response = new MockServerHttpResponse();
+
+        Payload greeting = timing.report(this.client.requestResponse(request("greet", "truncated")), response).block();
+
+        assertThat(greeting.getDataUtf8()).isEqualTo("Hello");
+        greeting.release();
+        assertThat(response.getHeaders().containsKey("Server-Timing")).isFalse();
+        assertThat(this.registry.find("rsocket.client.server-timing").timer()).isNull();
+    }
+
+    private ServerTiming connect(boolean header) {
+        RSocketStrategies strategies = RSocketStrategies.builder()
+                .metadataExtractorRegistry(ServerTiming::register)
+                .build();
+        ServerTiming timing = new ServerTiming(strategies.metadataExtractor(), COMPOSITE, header, 100, this.registry);
+        this.client = RSocketFactory.connect()
+                .metadataMimeType(COMPOSITE)
+                .frameDecoder(PayloadDecoder.ZERO_COPY)
+                .addRequesterPlugin(timing::instrument)
+                .transport(LocalClientTransport.create("server-timing"))
+                .start()
+                .block();
+        return timing;
+    }
+
+    private double phase(String phase) {
+        return this.registry.get("rsocket.client.server-timing").tag("route", "greet").tag("phase", phase).timer()
+                .totalTime(TimeUnit.MILLISECONDS);
+    }
+
+    private static Payload timedResponse(int... micros) {
+        ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+        ByteBuf content = allocator.buffer();
+        for (int phase : micros) {
+            content.writeInt(phase);
+        }
+        CompositeByteBuf metadata = allocator.compositeBuffer();
+        CompositeMetadataFlyweight.encodeAndAddMetadata(metadata, allocator, ServerTiming.MIME_TYPE, content);
+        return ByteBufPayload.create(Unpooled.copiedBuffer("Hello", StandardCharsets.UTF_8), metadata);
+    }
+
+    private static Payload request(String route, String data) {
+        ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+        CompositeByteBuf metadata = allocator.compositeBuffer();
+        CompositeMetadataFlyweight.encodeAndAddMetadata(metadata, allocator, WellKnownMimeType.MESSAGE_RSOCKET_ROUTING,
+                TaggingMetadataFlyweight.createRoutingMetadata(allocator, Collections.singletonList(route)).getContent());
+        return ByteBufPayload.create(Unpooled.copiedBuffer(data, StandardCharsets.UTF_8), metadata);
+    }
+}
@@ -0,0 +1,147 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import com.stergioulas.tutorials.springbootrsocket.support.TcpProxy;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.RSocketFactory;
+import io.rsocket.transport.netty.client.TcpClientTransport;
+import io.rsocket.transport.netty.server.CloseableChannel;
+import io.rsocket.transport.netty.server.TcpServerTransport;
+import io.rsocket.util.DefaultPayload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SessionResumptionTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final RSocketClientProperties.Resume settings = new RSocketClientProperties.Resume();
+
+    private CloseableChannel server;
+
+    private TcpProxy proxy;
+
+    private RSocket client;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (this.client != null) {
+            this.client.dispose();
+        }
+        if (this.proxy != null) {
+            this.proxy.kill();
+        }
+        if (this.server != null) {
+            this.server.dispose();
+        }
+    }
+
+    @Test
+    void streamsCarryOnWithoutGapsAcrossADroppedConnection() throws Exception {
+        this.settings.setMinBackoff(Duration.ofMillis(50));
+        connect(Duration.ofSeconds(60));
+        List<Long> received = new CopyOnWriteArrayList<>();
+        this.client.requestStream(DefaultPayload.create("ticks"))
+                .map(payload -> Long.parseLong(payload.getDataUtf8()))
+                .subscribe(received::add);
+
+        awaitMoreThan(received, 5);
+        this.proxy.kill();
+        Thread.sleep(300);
+        this.proxy.restore();
+        awaitMoreThan(received, received.size() + 30);
+
+        List<Long> ticks = new ArrayList<>(received);
+        assertThat(ticks).isEqualTo(LongStream.range(0, ticks.size()).boxed().collect(Collectors.toList()));
+        assertThat(this.registry.get("rsocket.client.resume").tag("outcome", "success").counter().count())
+                .isEqualTo(1);
+        assertThat(this.registry.get("rsocket.client.resume.attempts").counter().count()).isGreaterThanOrEqualTo(2);
+        assertThat(this.registry.get("rsocket.client.resume.outage").timer().totalTime(TimeUnit.MILLISECONDS))
+                .isGreaterThanOrEqualTo(300);
+        assertThat(this.registry.get("rsocket.client.resume.sessions").gauge().value()).isEqualTo(1);
+    }
+
+    @Test
+    void failsTheStreamsOfASessionTheProducerForgot() throws Exception {
+        this.settings.setMinBackoff(Duration.ofMillis(50));
+        connect(Duration.ofMillis(100));
+        Flux<Long> ticks = this.client.requestStream(DefaultPayload.create("ticks"))
+                .map(payload -> Long.parseLong(payload.getDataUtf8()));
+
+        StepVerifier.create(ticks)
+                .expectNext(0L, 1L)
+                .then(this::killFor500Millis)
+                .thenConsumeWhile(tick -> true)
+                .expectError()
+                .verify(Duration.ofSeconds(10));
+        this.client.onClose().block(Duration.ofSeconds(5));
+        // the frames of the session are let go of right after the connection closed
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (this.registry.get("rsocket.client.resume.sessions").gauge().value() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(this.registry.get("rsocket.client.resume").tag("outcome", "failure").counter().count())
+                .isEqualTo(1);
+        assertThat(this.registry.get("rsocket.client.resume").tag("outcome", "success").counter().count()).isZero();
+        assertThat(this.registry.get("rsocket.client.resume.sessions").gauge().value()).isZero();
+    }
+
+    private void connect(Duration serverSessionDuration) throws IOException {
+        this.server = RSocketFactory.receive()
+                .resume()
+                .resumeSessionDuration(serverSessionDuration)
+                .acceptor((setup, sendingSocket) -> Mono.just(new AbstractRSocket() {
+                    @Override
+                    public Flux<Payload> requestStream(Payload payload) {
+                        payload.release();
+                        return Flux.interval(Duration.ofMillis(10)).map(tick -> DefaultPayload.create(String.valueOf(tick)));
+                    }
+                }))
+                .transport(TcpServerTransport.create("127.0.0.1", 0))
+                .start()
+                .block();
+        this.proxy = new TcpProxy(this.server.address());
+        RSocketFactory.ClientRSocketFactory factory = RSocketFactory.connect();
+        new SessionResumption(this.settings, this.registry).configure(factory);
+        this.client = factory
+                .transport(TcpClientTransport.create("127.0.0.1", this.proxy.port()))
+                .start()
+                .block();
+    }
+
+    private void killFor500Millis() {
+        try {
+            this.proxy.kill();
+            Thread.sleep(500);
+            this.proxy.restore();
+        }
+        catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static void awaitMoreThan(List<Long> received, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (received.size() <= count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(received).hasSizeGreaterThan(count);
+    }
+}
@@ -0,0 +1,126 @@
+package com.stergioulas.tutorials.springbootrsocket.consumer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import reactor.test.publisher.TestPublisher;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SharedStreamsTests {
+
+    private final SharedStreams sharedStreams = new SharedStreams(Duration.ZERO, new SimpleMeterRegistry());
+
+    private final TestPublisher<String> upstream = TestPublisher.create();
+
+    private final AtomicInteger opened = new AtomicInteger();
+
+    @Test
+    void identicalRequestsShareOneUpstream() {
+        Flux<String> first = share("Petros");
+        Flux<String> second = share("Petros");
+        Flux<String> other = share("Josh");
+
+        StepVerifier.create(first)
+                .then(() -> this.upstream.next("one"))
+                .expectNext("one")
+                .then(() -> StepVerifier.create(second)
+                        .expectNext("one")
+                        .then(() -> this.upstream.next("two"))
+                        .expectNext("two")
+                        .thenCancel()
+                        .verify(Duration.ofSeconds(5)))
+                .expectNext("two")
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+
+        assertThat(this.opened).hasValue(1);
+        assertThat(other).isNotSameAs(first);
+    }
+
+    @Test
+    void lastSubscriberLeavingCancelsTheUpstream() {
+        StepVerifier.create(share("Petros"))
+                .then(() -> this.upstream.next("one"))
+                .expectNext("one")
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+
+        this.upstream.assertCancelled();
+        assertThat(this.sharedStreams.size()).isZero();
+    }
+
+    @Test
+    void lateSubscribersGetTheLatestElementOnce() {
+        Flux<String> shared = share("Petros");
+
+        StepVerifier.create(shared)
+                .then(() -> this.upstream.next("one", "two"))
+                .expectNext("one", "two")
+                .then(() -> StepVerifier.create(share("Petros"))
+                        .expectNext("two")
+                        .then(() -> this.upstream.next("three"))
+                        .expectNext("three")
+                        .thenCancel()
+                        .verify(Duration.ofSeconds(5)))
+                .expectNext("three")
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void resubscribingAfterTheUpstreamEndedOpensANewOneThroughTheRegistry() {
+        Flux<String> shared = share("Petros");
+
+        StepVerifier.create(shared)
+                .then(() -> this.upstream.next("one"))
+                .expectNext("one")
+                .then(this.upstream::complete)
+                .verifyComplete();
+        assertThat(this.sharedStreams.size()).isZero();
+
+        StepVerifier.create(shared)
+                .then(() -> assertThat(this.sharedStreams.size()).isOne())
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+        assertThat(this.opened).hasValue(2);
+        assertThat(this.sharedStreams.size()).isZero();
+    }
+
+    @Test
+    void keepsTheUpstreamOpenForTheGracePeriod() throws InterruptedException {
+        SharedStreams sharedStreams = new SharedStreams(Duration.ofMillis(200), new SimpleMeterRegistry());
+
+        StepVerifier.create(share(sharedStreams, "Petros"))
+                .then(() -> this.upstream.next("one"))
+                .expectNext("one")
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+        // back within the grace period, to the same upstream
+        StepVerifier.create(share(sharedStreams, "Petros"))
+                .expectNext("one")
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+        assertThat(this.opened).hasValue(1);
+        assertThat(this.upstream.wasCancelled()).isFalse();
+
+        Thread.sleep(400);
+        this.upstream.assertCancelled();
+        assertThat(sharedStreams.size()).isZero();
+    }
+
+    private Flux<String> share(String name) {
+        return share(this.sharedStreams, name);
+    }
+
+    private Flux<String> share(SharedStreams sharedStreams, String name) {
+        return sharedStreams.share("greet-stream", name, () -> {
+            this.opened.incrementAndGet();
+            return this.upstream.flux();
+        });
+    }
+}
@@ -0,0 +1,36 @@
+package com.stergioulas.tutorials.springbootrsocket.loadgenerator;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Keeps a fixed number of calls in flight, starting the next one as soon as one
+ * completes. Throughput then shows what the producer sustains at that concurrency.
+ */
+class ClosedLoopDriver implements Driver {
+
+    private final int concurrency;
+
+    ClosedLoopDriver(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    @Override
+    public void run(Supplier<Mono<Void>> call, Duration duration, Latencies latencies) {
+        long end = System.nanoTime() + duration.toNanos();
+        Flux.range(0, this.concurrency)
+                .flatMap(worker -> Mono.defer(() -> {
+                    long start = System.nanoTime();
+                    return Mono.defer(call)
+                            .doOnSuccess(done -> latencies.record(start, null))
+                            .onErrorResume(error -> {
+                                latencies.record(start, error);
+                                return Mono.empty();
+                            });
+                }).repeat(() -> System.nanoTime() - end < 0), this.concurrency)
+                .blockLast();
+    }
+}
@@ -0,0 +1,19 @@
+package com.stergioulas.tutorials.springbootrsocket.loadgenerator;
+
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Decides when calls are made during a run.
+ */
+interface Driver {
+
+    /**
+     * Make calls for the given time and block until the last one completed.
+     *
+     * @param call makes one call, completing when it is done
+     */
+    void run(Supplier<Mono<Void>> call, Duration duration, Latencies latencies);
+}
@@ -0,0 +1,13 @@
+package com.stergioulas.tutorials.springbootrsocket.loadgenerator;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+class GreetingsResponse {
+
+    private String greeting;
+}
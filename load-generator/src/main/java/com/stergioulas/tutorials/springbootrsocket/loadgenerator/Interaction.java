@@ -0,0 +1,55 @@
+package com.stergioulas.tutorials.springbootrsocket.loadgenerator;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * The RSocket interaction models, each with the producer route that serves it and how
+ * one call of it is made.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum Interaction {
+
+    REQUEST_RESPONSE("greet") {
+        @Override
+        Mono<Void> call(RSocketRequester requester, String route, GreetingsRequest request, int elements) {
+            return requester.route(route).data(request).retrieveMono(GreetingsResponse.class).then();
+        }
+    },
+
+    FIRE_AND_FORGET("greet.event") {
+        @Override
+        Mono<Void> call(RSocketRequester requester, String route, GreetingsRequest request, int elements) {
+            return requester.route(route).data(request).send();
+        }
+    },
+
+    REQUEST_STREAM("greet-stream") {
+        @Override
+        Mono<Void> call(RSocketRequester requester, String route, GreetingsRequest request, int elements) {
+            return requester.route(route).data(request).retrieveFlux(GreetingsResponse.class)
+                    .take(elements)
+                    .then();
+        }
+    },
+
+    REQUEST_CHANNEL("greet-batch") {
+        @Override
+        Mono<Void> call(RSocketRequester requester, String route, GreetingsRequest request, int elements) {
+            return requester.route(route).data(Flux.range(0, elements).map(i -> request), GreetingsRequest.class)
+                    .retrieveFlux(GreetingsResponse.class)
+                    .then();
+        }
+    };
+
+    private final String defaultRoute;
+
+    /**
+     * @return completes once the call is done, for streams and channels once the last element arrived
+     */
+    abstract Mono<Void> call(RSocketRequester requester, String route, GreetingsRequest request, int elements);
+}
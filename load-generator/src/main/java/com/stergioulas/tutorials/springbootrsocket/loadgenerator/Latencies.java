@@ -0,0 +1,89 @@
+package com.stergioulas.tutorials.springbootrsocket.loadgenerator;
+
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records call latencies into an HdrHistogram from any thread, and keeps count of
+ * failed, timed out and dropped calls.
+ */
+@Slf4j
+class Latencies {
+
+    private static final long HIGHEST_TRACKABLE = TimeUnit.MINUTES.toNanos(1);
+
+    private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE, 3);
+
+    private final Histogram total = new Histogram(HIGHEST_TRACKABLE, 3);
+
+    private final LongAdder errors = new LongAdder();
+
+    private final LongAdder timedOut = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final AtomicBoolean firstError = new AtomicBoolean();
+
+    /**
+     * @param start when the call started, or should have started in open loop mode
+     */
+    void record(long start, Throwable error) {
+        if (error != null) {
+            this.errors.increment();
+            if (this.firstError.compareAndSet(false, true)) {
+                log.warn("Call failed, further failures are only counted", error);
+            }
+            return;
+        }
+        this.recorder.recordValue(Math.min(System.nanoTime() - start, HIGHEST_TRACKABLE));
+    }
+
+    /**
+     * Record a call given up on, with the time it was kept waiting so far, which is the
+     * least its latency would have been.
+     */
+    void timeOut(long start) {
+        this.timedOut.increment();
+        this.recorder.recordValue(Math.min(System.nanoTime() - start, HIGHEST_TRACKABLE));
+    }
+
+    /**
+     * Record a call never issued because too many were in flight, with the time it was
+     * kept waiting until turned away, so that shedding load does not flatter the latencies.
+     */
+    void drop(long start) {
+        this.dropped.increment();
+        this.recorder.recordValue(Math.min(System.nanoTime() - start, HIGHEST_TRACKABLE));
+    }
+
+    /**
+     * @return the latencies recorded since the last call, which are also added to the total
+     */
+    synchronized Histogram interval() {
+        Histogram interval = this.recorder.getIntervalHistogram();
+        this.total.add(interval);
+        return interval;
+    }
+
+    synchronized Histogram total() {
+        interval();
+        return this.total.copy();
+    }
+
+    long errors() {
+        return this.errors.sum();
+    }
+
+    long timedOut() {
+        return this.timedOut.sum();
+    }
+
+    long dropped() {
+        return this.dropped.sum();
+    }
+}
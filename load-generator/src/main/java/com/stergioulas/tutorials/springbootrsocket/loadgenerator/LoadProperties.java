@@ -0,0 +1,103 @@
+package com.stergioulas.tutorials.springbootrsocket.loadgenerator;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.io.File;
+import java.time.Duration;
+
+/**
+ * Settings of a load test run.
+ *
+ * <pre>
+ * load.host=127.0.0.1
+ * load.port=7000
+ * load.interaction=request-response
+ * load.mode=closed
+ * load.concurrency=16
+ * load.rate=1000
+ * load.warmup=5s
+ * load.duration=30s
+ * load.drain-timeout=30s
+ * load.histogram-file=build/greet.hgrm
+ * </pre>
+ */
+@Data
+@ConfigurationProperties("load")
+public class LoadProperties {
+
+    private String host = "127.0.0.1";
+
+    private int port = 7000;
+
+    private Interaction interaction = Interaction.REQUEST_RESPONSE;
+
+    /**
+     * Route to call, defaults to the producer route of the interaction.
+     */
+    private String route;
+
+    private Mode mode = Mode.CLOSED;
+
+    /**
+     * Calls in flight at any time in closed loop mode.
+     */
+    private int concurrency = 16;
+
+    /**
+     * Calls started per second in open loop mode.
+     */
+    private int rate = 1000;
+
+    /**
+     * Calls allowed in flight in open loop mode before new ones are dropped, so an
+     * overloaded producer cannot make the generator run out of memory. Dropped calls
+     * count as failed, with the latency they had when dropped.
+     */
+    private int maxOutstanding = 10_000;
+
+    /**
+     * Elements taken from a stream or sent over a channel per call.
+     */
+    private int elements = 10;
+
+    /**
+     * Time spent calling before latencies are recorded.
+     */
+    private Duration warmup = Duration.ofSeconds(5);
+
+    private Duration duration = Duration.ofSeconds(30);
+
+    /**
+     * How long calls still in flight at the end of an open loop run are waited for, after
+     * which they are cancelled and recorded as timed out.
+     */
+    private Duration drainTimeout = Duration.ofSeconds(30);
+
+    /**
+     * Where to write the latency percentile distribution in HdrHistogram's text format,
+     * not written when empty.
+     */
+    private File histogramFile;
+
+    String routeOrDefault() {
+        String route = this.route != null ? this.route : this.interaction.getDefaultRoute();
+        if (route == null) {
+            throw new IllegalStateException("No default route for " + this.interaction + ", set load.route");
+        }
+        return route;
+    }
+
+    public enum Mode {
+
+        /**
+         * Start calls at a fixed rate whether or not earlier ones have completed.
+         */
+        OPEN,
+
+        /**
+         * Start the next call as soon as one completes, with a fixed number in flight.
+         */
+        CLOSED
+    }
+}
@@ -0,0 +1,105 @@
+package com.stergioulas.tutorials.springbootrsocket.loadgenerator;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Warms the producer up, then runs the configured load against it and reports latency
+ * percentiles and achieved throughput.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Component
+class LoadRunner implements CommandLineRunner {
+
+    private static final double NANOS_PER_MICRO = TimeUnit.MICROSECONDS.toNanos(1);
+
+    private final LoadProperties properties;
+
+    private final RSocketRequester.Builder requesterBuilder;
+
+    @Override
+    public void run(String... args) throws Exception {
+        RSocketRequester requester = this.requesterBuilder
+                .dataMimeType(MimeTypeUtils.APPLICATION_JSON)
+                .connectTcp(this.properties.getHost(), this.properties.getPort())
+                .block();
+        try {
+            String route = this.properties.routeOrDefault();
+            GreetingsRequest request = new GreetingsRequest("load");
+            Supplier<Mono<Void>> call = () -> this.properties.getInteraction()
+                    .call(requester, route, request, this.properties.getElements());
+            Driver driver = this.properties.getMode() == LoadProperties.Mode.OPEN
+                    ? new OpenLoopDriver(this.properties.getRate(), this.properties.getMaxOutstanding(),
+                            this.properties.getDrainTimeout())
+                    : new ClosedLoopDriver(this.properties.getConcurrency());
+
+            log.info("{} {} on {} against {}:{}, warming up for {}", this.properties.getMode(),
+                    this.properties.getInteraction(), route, this.properties.getHost(), this.properties.getPort(),
+                    this.properties.getWarmup());
+            driver.run(call, this.properties.getWarmup(), new Latencies());
+
+            log.info("Measuring for {}", this.properties.getDuration());
+            Latencies latencies = new Latencies();
+            Disposable progress = Flux.interval(Duration.ofSeconds(1))
+                    .subscribe(tick -> progress(latencies.interval()));
+            long start = System.nanoTime();
+            try {
+                driver.run(call, this.properties.getDuration(), latencies);
+            } finally {
+                progress.dispose();
+            }
+            report(latencies, System.nanoTime() - start);
+        } finally {
+            requester.rsocket().dispose();
+        }
+    }
+
+    private void progress(Histogram interval) {
+        log.info("{} calls/s, p50 {} us, p99 {} us, max {} us", interval.getTotalCount(),
+                micros(interval.getValueAtPercentile(50)), micros(interval.getValueAtPercentile(99)),
+                micros(interval.getMaxValue()));
+    }
+
+    private void report(Latencies latencies, long elapsed) throws Exception {
+        Histogram total = latencies.total();
+        double seconds = elapsed / (double) TimeUnit.SECONDS.toNanos(1);
+        PrintStream out = System.out;
+        out.println();
+        out.printf("%s %s, %s%n", this.properties.getMode(), this.properties.getInteraction(),
+                this.properties.getMode() == LoadProperties.Mode.OPEN
+                        ? this.properties.getRate() + " calls/s scheduled"
+                        : this.properties.getConcurrency() + " calls in flight");
+        // timed out and dropped calls are in the latencies, with the time they waited, but did not complete
+        long completed = total.getTotalCount() - latencies.timedOut() - latencies.dropped();
+        out.printf("calls      %d ok, %d timed out, %d failed, %d dropped%n", completed, latencies.timedOut(),
+                latencies.errors(), latencies.dropped());
+        out.printf("throughput %.1f calls/s%n", completed / seconds);
+        out.printf("latency    p50 %s us, p99 %s us, p99.9 %s us, max %s us%n",
+                micros(total.getValueAtPercentile(50)), micros(total.getValueAtPercentile(99)),
+                micros(total.getValueAtPercentile(99.9)), micros(total.getMaxValue()));
+        if (this.properties.getHistogramFile() != null) {
+            try (PrintStream file = new PrintStream(this.properties.getHistogramFile())) {
+                total.outputPercentileDistribution(file, NANOS_PER_MICRO);
+            }
+            out.printf("histogram  %s%n", this.properties.getHistogramFile());
+        }
+    }
+
+    private static String micros(long nanos) {
+        return String.format("%.1f", nanos / NANOS_PER_MICRO);
+    }
+}
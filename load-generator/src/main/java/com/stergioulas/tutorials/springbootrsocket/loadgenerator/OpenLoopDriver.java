@@ -0,0 +1,107 @@
+package com.stergioulas.tutorials.springbootrsocket.loadgenerator;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Starts calls at a fixed rate, the way independent users would, no matter how long
+ * earlier calls take.
+ * <p>
+ * Latency is measured from when a call was scheduled to start rather than from when it
+ * actually started. If the generator falls behind because the producer stalls, the calls
+ * that queued up meanwhile are charged for the wait instead of being silently left out
+ * ("coordinated omission"). For the same reason calls turned away because too many are
+ * in flight are recorded as failed, with the time they waited for their turn.
+ */
+@Slf4j
+class OpenLoopDriver implements Driver {
+
+    private final int rate;
+
+    private final int maxOutstanding;
+
+    private final Duration drainTimeout;
+
+    /**
+     * @param drainTimeout how long calls still in flight at the end of the run are waited
+     *                     for before they are cancelled and recorded as timed out
+     */
+    OpenLoopDriver(int rate, int maxOutstanding, Duration drainTimeout) {
+        this.rate = rate;
+        this.maxOutstanding = maxOutstanding;
+        this.drainTimeout = drainTimeout;
+    }
+
+    @Override
+    public void run(Supplier<Mono<Void>> call, Duration duration, Latencies latencies) {
+        Set<Call> outstanding = ConcurrentHashMap.newKeySet();
+        double period = (double) TimeUnit.SECONDS.toNanos(1) / this.rate;
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+        for (long i = 0; ; i++) {
+            long intended = start + (long) (i * period);
+            if (intended - end >= 0) {
+                break;
+            }
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            if (outstanding.size() >= this.maxOutstanding) {
+                latencies.drop(intended);
+                continue;
+            }
+            Call inFlight = new Call(intended);
+            outstanding.add(inFlight);
+            inFlight.subscription = Mono.defer(call).subscribe(
+                    null,
+                    error -> {
+                        if (outstanding.remove(inFlight)) {
+                            latencies.record(intended, error);
+                        }
+                    },
+                    () -> {
+                        if (outstanding.remove(inFlight)) {
+                            latencies.record(intended, null);
+                        }
+                    });
+        }
+        long deadline = System.nanoTime() + this.drainTimeout.toNanos();
+        while (!outstanding.isEmpty() && System.nanoTime() - deadline < 0) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        if (outstanding.isEmpty()) {
+            return;
+        }
+        // leaving them out would hide the slowest calls of the run
+        int timedOut = 0;
+        for (Call inFlight : outstanding) {
+            if (outstanding.remove(inFlight)) {
+                inFlight.subscription.dispose();
+                latencies.timeOut(inFlight.intended);
+                timedOut++;
+            }
+        }
+        log.warn("{} calls still in flight after {}, cancelled and recorded as timed out", timedOut,
+                this.drainTimeout);
+    }
+
+    private static final class Call {
+
+        private final long intended;
+
+        private volatile Disposable subscription;
+
+        private Call(long intended) {
+            this.intended = intended;
+        }
+    }
+}
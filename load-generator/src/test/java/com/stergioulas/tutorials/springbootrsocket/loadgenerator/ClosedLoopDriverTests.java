@@ -0,0 +1,41 @@
+package com.stergioulas.tutorials.springbootrsocket.loadgenerator;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ClosedLoopDriverTests {
+
+    @Test
+    void keepsTheConfiguredNumberOfCallsInFlight() {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        Latencies latencies = new Latencies();
+
+        new ClosedLoopDriver(4).run(() -> Mono.delay(Duration.ofMillis(10))
+                .doOnSubscribe(subscription -> maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max))
+                .doOnTerminate(inFlight::decrementAndGet)
+                .then(), Duration.ofMillis(300), latencies);
+
+        assertThat(maxInFlight.get()).isEqualTo(4);
+        assertThat(latencies.total().getTotalCount()).isBetween(4L, 4L * 31);
+    }
+
+    @Test
+    void countsFailedCallsAndCarriesOn() {
+        AtomicInteger calls = new AtomicInteger();
+        Latencies latencies = new Latencies();
+
+        new ClosedLoopDriver(1).run(() -> calls.incrementAndGet() % 2 == 0
+                ? Mono.error(new IOException("connection reset"))
+                : Mono.empty(), Duration.ofMillis(100), latencies);
+
+        assertThat(latencies.errors()).isEqualTo(calls.get() / 2);
+        assertThat(latencies.total().getTotalCount()).isEqualTo(calls.get() - calls.get() / 2);
+    }
+}
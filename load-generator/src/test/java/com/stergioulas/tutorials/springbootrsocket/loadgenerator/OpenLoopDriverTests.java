@@ -0,0 +1,100 @@
+package com.stergioulas.tutorials.springbootrsocket.loadgenerator;
+
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OpenLoopDriverTests {
+
+    private static final Duration DRAIN_TIMEOUT = Duration.ofMillis(200);
+
+    @Test
+    void startsCallsAtTheConfiguredRate() {
+        AtomicInteger calls = new AtomicInteger();
+        Latencies latencies = new Latencies();
+
+        new OpenLoopDriver(200, 1000, DRAIN_TIMEOUT).run(() -> Mono.fromRunnable(calls::incrementAndGet), Duration.ofMillis(500), latencies);
+
+        assertThat(calls.get()).isEqualTo(100);
+        assertThat(latencies.total().getTotalCount()).isEqualTo(100);
+    }
+
+    @Test
+    void chargesCallsForTheTimeTheyWereHeldUp() {
+        AtomicBoolean stalled = new AtomicBoolean();
+        Latencies latencies = new Latencies();
+
+        // the first call blocks the generator itself, as a stalled producer would
+        new OpenLoopDriver(1000, 1000, DRAIN_TIMEOUT).run(() -> Mono.fromRunnable(() -> {
+            if (stalled.compareAndSet(false, true)) {
+                sleep(200);
+            }
+        }), Duration.ofMillis(400), latencies);
+
+        Histogram total = latencies.total();
+        assertThat(total.getTotalCount()).isEqualTo(400);
+        // the ~200 calls scheduled during the stall waited up to 200ms for their turn
+        assertThat(total.getValueAtPercentile(75)).isGreaterThan(TimeUnit.MILLISECONDS.toNanos(50));
+        assertThat(total.getMaxValue()).isGreaterThan(TimeUnit.MILLISECONDS.toNanos(190));
+    }
+
+    @Test
+    void dropsCallsAboveTheOutstandingLimit() {
+        Latencies latencies = new Latencies();
+
+        new OpenLoopDriver(1000, 5, DRAIN_TIMEOUT).run(Mono::never, Duration.ofMillis(100), latencies);
+
+        assertThat(latencies.dropped()).isEqualTo(95);
+    }
+
+    @Test
+    void chargesDroppedCallsForTheTimeTheyWereHeldUp() {
+        AtomicBoolean stalled = new AtomicBoolean();
+        Latencies latencies = new Latencies();
+
+        // the first call stays in flight after blocking the generator, so the calls
+        // scheduled during the stall are dropped once it can get to them
+        new OpenLoopDriver(1000, 1, DRAIN_TIMEOUT).run(() -> {
+            if (stalled.compareAndSet(false, true)) {
+                sleep(200);
+            }
+            return Mono.never();
+        }, Duration.ofMillis(100), latencies);
+
+        assertThat(latencies.dropped()).isEqualTo(99);
+        Histogram total = latencies.total();
+        assertThat(total.getTotalCount()).isEqualTo(100);
+        assertThat(total.getValueAtPercentile(50)).isGreaterThan(TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    void cancelsAndRecordsTheCallsLeftAfterTheDrainTimeout() {
+        AtomicInteger cancelled = new AtomicInteger();
+        Latencies latencies = new Latencies();
+
+        new OpenLoopDriver(1000, 1000, DRAIN_TIMEOUT)
+                .run(() -> Mono.<Void>never().doOnCancel(cancelled::incrementAndGet), Duration.ofMillis(10), latencies);
+
+        assertThat(cancelled).hasValue(10);
+        assertThat(latencies.timedOut()).isEqualTo(10);
+        Histogram total = latencies.total();
+        assertThat(total.getTotalCount()).isEqualTo(10);
+        // each had been waited on for the rest of the run and the drain timeout
+        assertThat(total.getMinValue()).isGreaterThanOrEqualTo(DRAIN_TIMEOUT.toNanos());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.rsocket.Payload;
+import io.rsocket.metadata.WellKnownMimeType;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.Decoder;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.messaging.rsocket.MetadataExtractor;
+import org.springframework.messaging.rsocket.MetadataExtractorRegistry;
+import org.springframework.util.MimeType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+
+/**
+ * {@link MetadataExtractor} that walks composite metadata in place on the {@link ByteBuf}
+ * instead of going through {@code CompositeMetadata} entries and their mime type strings.
+ * <p>
+ * Compared to {@code DefaultMetadataExtractor}, which it otherwise behaves like:
+ * <ul>
+ * <li>entries with a well-known mime type are matched by their id byte, other mime types
+ * by comparing their bytes, so no mime type string is built per entry</li>
+ * <li>the route is read straight from the routing entry, and routes seen before are
+ * returned as the same {@code String} instead of being decoded again</li>
+ * <li>after {@link #setRequiredHeaders(Collection)} only the entries registered under one
+ * of those names are decoded; entries registered with a custom {@link BiConsumer} are
+ * always decoded, since the names they produce are unknown</li>
+ * </ul>
+ * All per-payload state lives on the stack, so one instance serves every connection.
+ * <p>
+ * Decoders are looked up once {@link #setDecoders(List)} is called, so an instance set on
+ * an {@code RSocketStrategies.Builder} can take its registrations before the decoders
+ * are final and get the decoders of the built strategies afterwards.
+ */
+public class ByteBufMetadataExtractor implements MetadataExtractor, MetadataExtractorRegistry {
+
+    private static final NettyDataBufferFactory BUFFER_FACTORY = new NettyDataBufferFactory(ByteBufAllocator.DEFAULT);
+
+    private static final MimeType COMPOSITE = MimeType.valueOf(WellKnownMimeType.MESSAGE_RSOCKET_COMPOSITE_METADATA.getString());
+
+    private static final MimeType ROUTING = MimeType.valueOf(WellKnownMimeType.MESSAGE_RSOCKET_ROUTING.getString());
+
+    private static final int ROUTING_ID = WellKnownMimeType.MESSAGE_RSOCKET_ROUTING.getIdentifier();
+
+    private static final byte[] ROUTING_BYTES = ROUTING.toString().getBytes(StandardCharsets.US_ASCII);
+
+    private List<Decoder<?>> decoders;
+
+    private final Registration[] wellKnown = new Registration[128];
+
+    private final List<Registration> registrations = new ArrayList<>();
+
+    private final Map<String, Registration> byMimeType = new HashMap<>();
+
+    private final RouteCache routes = new RouteCache(1024);
+
+    private volatile Set<String> requiredHeaders;
+
+    /**
+     * Create an extractor whose decoders are set later through {@link #setDecoders(List)}.
+     */
+    public ByteBufMetadataExtractor() {
+    }
+
+    /**
+     * @param decoders decoders of the registered metadata, looked up when registering
+     */
+    public ByteBufMetadataExtractor(List<Decoder<?>> decoders) {
+        setDecoders(decoders);
+    }
+
+    /**
+     * Decoders of the registered metadata. Entries registered so far look up their
+     * decoder now, later ones when registering.
+     * @throws IllegalArgumentException if no decoder handles a registered entry
+     */
+    public void setDecoders(List<Decoder<?>> decoders) {
+        this.decoders = new ArrayList<>(decoders);
+        for (Registration registration : new ArrayList<>(this.registrations)) {
+            register(registration.mimeType, registration.type, registration.name, registration.mapper);
+        }
+    }
+
+    /**
+     * Names of the headers handlers read. {@code null}, the default, decodes every
+     * registered entry.
+     */
+    public void setRequiredHeaders(Collection<String> names) {
+        this.requiredHeaders = names != null ? new HashSet<>(names) : null;
+    }
+
+    @Override
+    public void metadataToExtract(MimeType mimeType, Class<?> targetType, String name) {
+        register(mimeType, ResolvableType.forClass(targetType), name, (value, map) -> map.put(name, value));
+    }
+
+    @Override
+    public void metadataToExtract(MimeType mimeType, ParameterizedTypeReference<?> targetType, String name) {
+        register(mimeType, ResolvableType.forType(targetType), name, (value, map) -> map.put(name, value));
+    }
+
+    @Override
+    public <T> void metadataToExtract(MimeType mimeType, Class<T> targetType,
+                                      BiConsumer<T, Map<String, Object>> mapper) {
+        register(mimeType, ResolvableType.forClass(targetType), null, mapper);
+    }
+
+    @Override
+    public <T> void metadataToExtract(MimeType mimeType, ParameterizedTypeReference<T> targetType,
+                                      BiConsumer<T, Map<String, Object>> mapper) {
+        register(mimeType, ResolvableType.forType(targetType), null, mapper);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void register(MimeType mimeType, ResolvableType type, String name,
+                              BiConsumer<T, Map<String, Object>> mapper) {
+        Decoder<?> decoder = this.decoders == null ? null : this.decoders.stream()
+                .filter(candidate -> candidate.canDecode(type, mimeType))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("No decoder for " + mimeType + " and " + type));
+        Registration registration = new Registration(mimeType, type, name, (Decoder<Object>) decoder,
+                (BiConsumer<Object, Map<String, Object>>) mapper);
+        String value = mimeType.toString();
+        Registration previous = this.byMimeType.put(value, registration);
+        this.registrations.remove(previous);
+        this.registrations.add(registration);
+        WellKnownMimeType known = WellKnownMimeType.fromString(value);
+        if (known != WellKnownMimeType.UNPARSEABLE_MIME_TYPE && known != WellKnownMimeType.UNKNOWN_RESERVED_MIME_TYPE) {
+            this.wellKnown[known.getIdentifier()] = registration;
+        }
+    }
+
+    @Override
+    public Map<String, Object> extract(Payload payload, MimeType metadataMimeType) {
+        // MessagingRSocket adds a default route, so the map must be mutable
+        Map<String, Object> values = new HashMap<>(4);
+        ByteBuf metadata = payload.metadata();
+        if (COMPOSITE.equals(metadataMimeType)) {
+            extractComposite(metadata, values);
+        }
+        else if (metadata.isReadable()) {
+            Registration registration = this.byMimeType.get(metadataMimeType.toString());
+            if (registration != null) {
+                decode(registration, metadata, metadata.readerIndex(), metadata.readableBytes(), values);
+            }
+            else if (ROUTING.equals(metadataMimeType)) {
+                values.put(ROUTE_KEY, readRoute(metadata, metadata.readerIndex(), metadata.readableBytes()));
+            }
+        }
+        return values;
+    }
+
+    private void extractComposite(ByteBuf metadata, Map<String, Object> values) {
+        int index = metadata.readerIndex();
+        int end = metadata.writerIndex();
+        while (index < end) {
+            byte header = metadata.getByte(index);
+            Registration registration;
+            boolean routing;
+            if ((header & 0x80) != 0) {
+                int id = header & 0x7F;
+                registration = this.wellKnown[id];
+                routing = id == ROUTING_ID;
+                index++;
+            }
+            else {
+                int length = (header & 0x7F) + 1;
+                check(index + 1 + length, end);
+                registration = find(metadata, index + 1, length);
+                routing = length == ROUTING_BYTES.length && equals(metadata, index + 1, ROUTING_BYTES);
+                index += 1 + length;
+            }
+            check(index + 3, end);
+            int length = metadata.getUnsignedMedium(index);
+            index += 3;
+            check(index + length, end);
+            if (length > 0) {
+                if (registration != null) {
+                    decode(registration, metadata, index, length, values);
+                }
+                else if (routing) {
+                    values.put(ROUTE_KEY, readRoute(metadata, index, length));
+                }
+            }
+            index += length;
+        }
+    }
+
+    private Registration find(ByteBuf metadata, int index, int length) {
+        // well-known mime types may be sent spelled out, too
+        for (Registration registration : this.registrations) {
+            byte[] mimeType = registration.mimeTypeBytes;
+            if (mimeType.length == length && equals(metadata, index, mimeType)) {
+                return registration;
+            }
+        }
+        return null;
+    }
+
+    private static boolean equals(ByteBuf buffer, int index, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.getByte(index + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void decode(Registration registration, ByteBuf metadata, int index, int length, Map<String, Object> values) {
+        Set<String> required = this.requiredHeaders;
+        if (registration.name != null && required != null && !required.contains(registration.name)) {
+            return;
+        }
+        if (registration.decoder == null) {
+            throw new IllegalStateException("No decoders set for " + registration.mimeType);
+        }
+        Object value = registration.decoder.decode(BUFFER_FACTORY.wrap(metadata.retainedSlice(index, length)),
+                registration.type, registration.mimeType, Collections.emptyMap());
+        registration.mapper.accept(value, values);
+    }
+
+    /**
+     * First tag of routing metadata, a length byte followed by the UTF-8 route.
+     */
+    private String readRoute(ByteBuf metadata, int index, int length) {
+        int tagLength = metadata.getUnsignedByte(index);
+        check(index + 1 + tagLength, index + length);
+        return this.routes.get(metadata, index + 1, tagLength);
+    }
+
+    private static void check(int index, int end) {
+        if (index > end) {
+            throw new IllegalArgumentException("Malformed metadata, entry ends after the metadata");
+        }
+    }
+
+    private static final class Registration {
+
+        private final MimeType mimeType;
+
+        private final byte[] mimeTypeBytes;
+
+        private final ResolvableType type;
+
+        private final String name;
+
+        private final Decoder<Object> decoder;
+
+        private final BiConsumer<Object, Map<String, Object>> mapper;
+
+        private Registration(MimeType mimeType, ResolvableType type, String name, Decoder<Object> decoder,
+                             BiConsumer<Object, Map<String, Object>> mapper) {
+            this.mimeType = mimeType;
+            this.mimeTypeBytes = mimeType.toString().getBytes(StandardCharsets.US_ASCII);
+            this.type = type;
+            this.name = name;
+            this.decoder = decoder;
+            this.mapper = mapper;
+        }
+    }
+
+    /**
+     * Strings of recently read ASCII routes, looked up by the hash of their bytes, which
+     * for ASCII is the hash of the string. Slots are overwritten on collision.
+     */
+    private static final class RouteCache {
+
+        private final AtomicReferenceArray<String> slots;
+
+        private final int mask;
+
+        private RouteCache(int size) {
+            this.slots = new AtomicReferenceArray<>(size);
+            this.mask = size - 1;
+        }
+
+        private String get(ByteBuf buffer, int index, int length) {
+            int hash = 0;
+            for (int i = 0; i < length; i++) {
+                byte b = buffer.getByte(index + i);
+                if (b < 0) {
+                    return buffer.toString(index, length, StandardCharsets.UTF_8);
+                }
+                hash = 31 * hash + b;
+            }
+            int slot = (hash ^ (hash >>> 16)) & this.mask;
+            String cached = this.slots.get(slot);
+            if (cached != null && cached.length() == length && cached.hashCode() == hash && matches(cached, buffer, index)) {
+                return cached;
+            }
+            String route = buffer.toString(index, length, StandardCharsets.US_ASCII);
+            this.slots.lazySet(slot, route);
+            return route;
+        }
+
+        private static boolean matches(String value, ByteBuf buffer, int index) {
+            for (int i = 0; i < value.length(); i++) {
+                if (value.charAt(i) != buffer.getByte(index + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
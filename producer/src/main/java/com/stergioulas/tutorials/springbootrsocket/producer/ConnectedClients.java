@@ -0,0 +1,258 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.rsocket.RSocket;
+import io.rsocket.metadata.CompositeMetadataFlyweight;
+import io.rsocket.metadata.TaggingMetadataFlyweight;
+import io.rsocket.metadata.WellKnownMimeType;
+import io.rsocket.util.ByteBufPayload;
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.Encoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.util.MimeType;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The requesters of every connected client, as handed to {@code @ConnectMapping}, for
+ * pushing messages to all of them or to those with a given tag.
+ * <p>
+ * A broadcast encodes its message once per data and metadata mime type in use, usually
+ * once, and every client gets a retained view of the same bytes, so the cost per client
+ * is a frame header and a few objects. Clients declare their tags as a comma separated
+ * {@value #TAGS_MIME_TYPE} entry in the SETUP metadata and are dropped from the registry
+ * when their connection closes.
+ * <p>
+ * Nothing waits on a client: a message is counted as pending until its frame has been
+ * written out and its bytes released, and clients with {@code maxPending} messages
+ * pending are skipped until they catch up. Meters are {@code rsocket.server.clients}
+ * connected and {@code rsocket.server.broadcast} messages by outcome: sent, skipped or
+ * failed.
+ */
+@Slf4j
+class ConnectedClients {
+
+    static final String TAGS_MIME_TYPE = "message/x.greetings.client-tags";
+
+    static final String TAGS_HEADER = "client-tags";
+
+    private static final String ROUTING = WellKnownMimeType.MESSAGE_RSOCKET_ROUTING.getString();
+
+    private static final String COMPOSITE = WellKnownMimeType.MESSAGE_RSOCKET_COMPOSITE_METADATA.getString();
+
+    private final RSocketStrategies strategies;
+
+    private final int maxPending;
+
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentHashMap<String, Set<Client>> tagged = new ConcurrentHashMap<>();
+
+    private final Counter sent;
+
+    private final Counter skipped;
+
+    private final Counter failed;
+
+    ConnectedClients(RSocketStrategies strategies, int maxPending, MeterRegistry registry) {
+        this.strategies = strategies;
+        this.maxPending = maxPending;
+        this.sent = outcome("sent", registry);
+        this.skipped = outcome("skipped", registry);
+        this.failed = outcome("failed", registry);
+        Gauge.builder("rsocket.server.clients", this.clients, Set::size)
+                .description("Clients connected")
+                .register(registry);
+    }
+
+    private static Counter outcome(String outcome, MeterRegistry registry) {
+        return Counter.builder("rsocket.server.broadcast")
+                .description("Messages broadcast to clients")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    /**
+     * @param tags comma separated tags of the client, may be {@code null}
+     */
+    void register(RSocketRequester requester, @Nullable String tags) {
+        Client client = new Client(requester, StringUtils.commaDelimitedListToSet(tags));
+        this.clients.add(client);
+        for (String tag : client.tags) {
+            // added within the compute, so an unregister cannot drop the set in between
+            this.tagged.compute(tag, (key, clients) -> {
+                Set<Client> tagged = clients != null ? clients : ConcurrentHashMap.newKeySet();
+                tagged.add(client);
+                return tagged;
+            });
+        }
+        client.rsocket.onClose()
+                .doFinally(signal -> unregister(client))
+                .subscribe(null, error -> log.debug("Client connection closed with {}", error.toString()));
+    }
+
+    private void unregister(Client client) {
+        this.clients.remove(client);
+        for (String tag : client.tags) {
+            this.tagged.computeIfPresent(tag, (key, clients) -> clients.remove(client) && clients.isEmpty() ? null : clients);
+        }
+    }
+
+    int size() {
+        return this.clients.size();
+    }
+
+    /**
+     * Sends a message fire-and-forget to every client, or to those with the tag.
+     *
+     * @return how many clients it was sent to
+     */
+    int fireAndForget(String route, Object message, @Nullable String tag) {
+        Collection<Client> clients = tag != null ? this.tagged.getOrDefault(tag, Collections.emptySet()) : this.clients;
+        Map<String, Encoded> encodings = new HashMap<>(4);
+        int sent = 0;
+        int skipped = 0;
+        try {
+            for (Client client : clients) {
+                if (client.pending.get() >= this.maxPending) {
+                    skipped++;
+                    continue;
+                }
+                Encoded encoded = encodings.computeIfAbsent(client.encoding, key -> encode(route, message, client));
+                client.pending.incrementAndGet();
+                ByteBuf data = new PendingData(encoded.data.retain(), client);
+                ByteBuf metadata = encoded.metadata != null ? encoded.metadata.retainedSlice() : null;
+                client.rsocket.fireAndForget(ByteBufPayload.create(data, metadata))
+                        .subscribe(null, error -> this.failed.increment());
+                sent++;
+            }
+        }
+        finally {
+            encodings.values().forEach(Encoded::release);
+        }
+        this.sent.increment(sent);
+        this.skipped.increment(skipped);
+        return sent;
+    }
+
+    /**
+     * Broadcasts each message of a stream fire-and-forget as it comes, to the clients
+     * connected at that time.
+     */
+    Mono<Void> stream(String route, Publisher<?> messages, @Nullable String tag) {
+        return Flux.from(messages)
+                .doOnNext(message -> fireAndForget(route, message, tag))
+                .then();
+    }
+
+    private Encoded encode(String route, Object message, Client client) {
+        ResolvableType type = ResolvableType.forInstance(message);
+        Encoder<Object> encoder = this.strategies.encoder(type, client.dataMimeType);
+        DataBuffer buffer = encoder.encodeValue(message, this.strategies.dataBufferFactory(), type,
+                client.dataMimeType, Collections.emptyMap());
+        return new Encoded(NettyDataBufferFactory.toByteBuf(buffer), routeMetadata(route, client.metadataMimeType));
+    }
+
+    @Nullable
+    private static ByteBuf routeMetadata(String route, MimeType metadataMimeType) {
+        String mimeType = metadataMimeType.toString();
+        if (!COMPOSITE.equals(mimeType) && !ROUTING.equals(mimeType)) {
+            return null;
+        }
+        ByteBuf routing = TaggingMetadataFlyweight.createRoutingMetadata(ByteBufAllocator.DEFAULT,
+                Collections.singletonList(route)).getContent();
+        if (ROUTING.equals(mimeType)) {
+            return routing;
+        }
+        CompositeByteBuf composite = ByteBufAllocator.DEFAULT.compositeBuffer();
+        CompositeMetadataFlyweight.encodeAndAddMetadata(composite, ByteBufAllocator.DEFAULT,
+                WellKnownMimeType.MESSAGE_RSOCKET_ROUTING, routing);
+        return composite;
+    }
+
+    private static final class Client {
+
+        private final RSocket rsocket;
+
+        private final MimeType dataMimeType;
+
+        private final MimeType metadataMimeType;
+
+        /**
+         * Clients with the same encoding share the encoded message.
+         */
+        private final String encoding;
+
+        private final Set<String> tags;
+
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private Client(RSocketRequester requester, Set<String> tags) {
+            this.rsocket = requester.rsocket();
+            this.dataMimeType = requester.dataMimeType();
+            this.metadataMimeType = requester.metadataMimeType();
+            this.encoding = this.dataMimeType + " " + this.metadataMimeType;
+            this.tags = tags.isEmpty() ? Collections.emptySet() : new HashSet<>(tags);
+        }
+    }
+
+    private static final class Encoded {
+
+        private final ByteBuf data;
+
+        @Nullable
+        private final ByteBuf metadata;
+
+        private Encoded(ByteBuf data, @Nullable ByteBuf metadata) {
+            this.data = data;
+            this.metadata = metadata;
+        }
+
+        void release() {
+            this.data.release();
+            if (this.metadata != null) {
+                this.metadata.release();
+            }
+        }
+    }
+
+    /**
+     * The shared message data as one client sees it, released once its frame is written.
+     */
+    private static final class PendingData extends CompositeByteBuf {
+
+        private final Client client;
+
+        private PendingData(ByteBuf data, Client client) {
+            super(ByteBufAllocator.DEFAULT, data.isDirect(), 1, data);
+            this.client = client;
+        }
+
+        @Override
+        protected void deallocate() {
+            super.deallocate();
+            this.client.pending.decrementAndGet();
+        }
+    }
+}
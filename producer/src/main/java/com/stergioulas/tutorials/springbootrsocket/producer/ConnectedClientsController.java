@@ -0,0 +1,23 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.annotation.ConnectMapping;
+import org.springframework.stereotype.Controller;
+
+/**
+ * Keeps the requester of every client that connects, for broadcasts.
+ */
+@RequiredArgsConstructor
+@Controller
+class ConnectedClientsController {
+
+    private final ConnectedClients clients;
+
+    @ConnectMapping
+    void connect(RSocketRequester requester,
+                 @Header(name = ConnectedClients.TAGS_HEADER, required = false) String tags) {
+        this.clients.register(requester, tags);
+    }
+}
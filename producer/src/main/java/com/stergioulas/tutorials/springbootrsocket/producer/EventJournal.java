@@ -0,0 +1,437 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of events on local disk, written behind the callers' backs.
+ * <p>
+ * {@link #offer(byte[])} only puts an event on a lock-free queue and never blocks, so it
+ * is safe on event loop threads. One writer thread drains the queue in batches into
+ * memory-mapped segment files named after the sequence number of their first event, and
+ * rolls over to a new segment when the next event does not fit. Events beyond
+ * {@code queueCapacity} waiting to be written are dropped and counted rather than
+ * buffered without bound, and only the last {@code retainedSegments} segments are kept.
+ * <p>
+ * A record is the length of the event, a CRC32 of it and the event; sequence numbers are
+ * implicit in the order of the records. Writes reach the page cache right away and the
+ * disk when the fsync policy forces them: after every batch, at most every
+ * {@code fsyncInterval}, or when the operating system gets to it. On startup, appending
+ * carries on after the last record of the last segment that is complete and intact.
+ * <p>
+ * Meters are {@code greetings.events} by outcome (journaled or dropped),
+ * {@code greetings.events.queued}, {@code greetings.events.batch} sizes,
+ * {@code greetings.events.fsync} and {@code greetings.events.segments}.
+ */
+@Slf4j
+class EventJournal implements Closeable {
+
+    static final int RECORD_HEADER = 8;
+
+    private static final int MAX_BATCH = 4096;
+
+    private static final String SUFFIX = ".segment";
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final Fsync fsync;
+
+    private final long fsyncIntervalNanos;
+
+    private final int queueCapacity;
+
+    private final int retainedSegments;
+
+    private final ConcurrentLinkedQueue<byte[]> queue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final ConcurrentSkipListMap<Long, MappedByteBuffer> segments = new ConcurrentSkipListMap<>();
+
+    private final Thread writer;
+
+    private final CRC32 crc = new CRC32();
+
+    private final Counter journaled;
+
+    private final Counter dropped;
+
+    private final DistributionSummary batches;
+
+    private final Timer fsyncs;
+
+    private volatile boolean parked;
+
+    private volatile boolean closed;
+
+    /**
+     * Sequence number of the next event to be journaled, everything before it can be replayed.
+     */
+    private volatile long committed;
+
+    // only touched by the writer thread once started
+
+    private MappedByteBuffer active;
+
+    private long appended;
+
+    private boolean dirty;
+
+    private long lastForce = System.nanoTime();
+
+    EventJournal(Path directory, int segmentSize, Fsync fsync, Duration fsyncInterval, int queueCapacity,
+                 int retainedSegments, MeterRegistry registry) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.fsync = fsync;
+        this.fsyncIntervalNanos = fsyncInterval.toNanos();
+        this.queueCapacity = queueCapacity;
+        this.retainedSegments = retainedSegments;
+        this.journaled = outcome("journaled", registry);
+        this.dropped = outcome("dropped", registry);
+        this.batches = DistributionSummary.builder("greetings.events.batch")
+                .description("Events journaled together")
+                .register(registry);
+        this.fsyncs = Timer.builder("greetings.events.fsync")
+                .description("Time taken to force journaled events to disk")
+                .register(registry);
+        Gauge.builder("greetings.events.queued", this.queued, AtomicInteger::get)
+                .description("Events waiting to be journaled")
+                .register(registry);
+        Gauge.builder("greetings.events.segments", this.segments, Map::size)
+                .description("Journal segments on disk")
+                .register(registry);
+        recover();
+        this.writer = new Thread(this::write, "greet-event-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    private static Counter outcome(String outcome, MeterRegistry registry) {
+        return Counter.builder("greetings.events")
+                .description("Events received for the journal")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    private void recover() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                this.segments.put(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())), map(file, 0));
+            }
+        }
+        if (this.segments.isEmpty()) {
+            roll(0);
+            return;
+        }
+        Map.Entry<Long, MappedByteBuffer> last = this.segments.lastEntry();
+        this.active = last.getValue();
+        this.appended = last.getKey();
+        while (readRecord(this.active) != null) {
+            this.appended++;
+        }
+        this.committed = this.appended;
+        log.info("Journal {} continues at event {} in segment {}", this.directory, this.committed, last.getKey());
+    }
+
+    /**
+     * Queues an event for the journal.
+     *
+     * @return whether it was queued, or dropped for being empty, larger than a segment, or
+     * the queue being full
+     */
+    boolean offer(byte[] event) {
+        if (this.closed || event.length == 0 || RECORD_HEADER + event.length > this.segmentSize) {
+            this.dropped.increment();
+            return false;
+        }
+        if (this.queued.incrementAndGet() > this.queueCapacity) {
+            this.queued.decrementAndGet();
+            this.dropped.increment();
+            return false;
+        }
+        this.queue.offer(event);
+        if (this.parked) {
+            LockSupport.unpark(this.writer);
+        }
+        return true;
+    }
+
+    /**
+     * Streams the events from sequence number {@code from} up to, not including, {@code to}
+     * or the last event journaled at subscription, whichever comes first. Events of
+     * segments no longer retained are skipped. The buffers are read-only views of the
+     * segment, valid for as long as they are referenced.
+     */
+    Flux<Event> replay(long from, long to) {
+        return Flux.<Event, Cursor>generate(() -> new Cursor(from, Math.min(to, this.committed)), (cursor, sink) -> {
+            Event event = cursor.next();
+            if (event != null) {
+                sink.next(event);
+            }
+            else {
+                sink.complete();
+            }
+            return cursor;
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Sequence number the next event journaled gets.
+     */
+    long committed() {
+        return this.committed;
+    }
+
+    private void write() {
+        while (true) {
+            int polled = 0;
+            long first = this.appended;
+            byte[] event;
+            while (polled < MAX_BATCH && (event = this.queue.poll()) != null) {
+                polled++;
+                try {
+                    append(event);
+                }
+                catch (IOException | RuntimeException ex) {
+                    log.error("Could not journal event {}", this.appended, ex);
+                    this.dropped.increment();
+                }
+            }
+            if (polled > 0) {
+                this.queued.addAndGet(-polled);
+                if (this.appended > first) {
+                    this.committed = this.appended;
+                    this.journaled.increment(this.appended - first);
+                    this.batches.record(this.appended - first);
+                    this.dirty = true;
+                    forceIfDue(this.fsync == Fsync.BATCH);
+                }
+                continue;
+            }
+            if (this.closed && this.queue.isEmpty()) {
+                forceIfDue(this.fsync != Fsync.NEVER);
+                return;
+            }
+            forceIfDue(false);
+            this.parked = true;
+            if (this.queue.isEmpty() && !this.closed) {
+                LockSupport.parkNanos(this, this.fsync == Fsync.INTERVAL && this.dirty
+                        ? this.fsyncIntervalNanos
+                        : TimeUnit.SECONDS.toNanos(1));
+            }
+            this.parked = false;
+        }
+    }
+
+    private void append(byte[] event) throws IOException {
+        if (this.active.remaining() < RECORD_HEADER + event.length) {
+            if (this.fsync != Fsync.NEVER && this.dirty) {
+                force();
+            }
+            roll(this.appended);
+        }
+        this.crc.reset();
+        this.crc.update(event);
+        this.active.putInt(event.length).putInt((int) this.crc.getValue()).put(event);
+        this.appended++;
+    }
+
+    /**
+     * Starts the segment whose first event gets the given sequence number.
+     */
+    private void roll(long base) throws IOException {
+        Path file = this.directory.resolve(String.format("%020d%s", base, SUFFIX));
+        this.active = map(file, this.segmentSize);
+        this.segments.put(base, this.active);
+        while (this.retainedSegments > 0 && this.segments.size() > this.retainedSegments) {
+            Map.Entry<Long, MappedByteBuffer> oldest = this.segments.pollFirstEntry();
+            Files.deleteIfExists(this.directory.resolve(String.format("%020d%s", oldest.getKey(), SUFFIX)));
+        }
+    }
+
+    /**
+     * @param size bytes to map, the size of the file when 0
+     */
+    private static MappedByteBuffer map(Path file, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // the mapping stays valid once the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size > 0 ? size : channel.size());
+        }
+    }
+
+    private void forceIfDue(boolean now) {
+        if (!this.dirty) {
+            return;
+        }
+        if (now || this.fsync == Fsync.INTERVAL && System.nanoTime() - this.lastForce >= this.fsyncIntervalNanos) {
+            force();
+        }
+    }
+
+    private void force() {
+        long start = System.nanoTime();
+        this.active.force();
+        this.lastForce = System.nanoTime();
+        this.dirty = false;
+        this.fsyncs.record(this.lastForce - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Reads the record at the position of the buffer and moves past it.
+     *
+     * @return the event, or {@code null} at the end of the records
+     */
+    private static ByteBuffer readRecord(ByteBuffer buffer) {
+        if (buffer.remaining() < RECORD_HEADER) {
+            return null;
+        }
+        int start = buffer.position();
+        int length = buffer.getInt(start);
+        if (length <= 0 || length > buffer.remaining() - RECORD_HEADER) {
+            return null;
+        }
+        ByteBuffer event = buffer.duplicate();
+        event.position(start + RECORD_HEADER).limit(start + RECORD_HEADER + length);
+        CRC32 crc = new CRC32();
+        crc.update(event.duplicate());
+        if ((int) crc.getValue() != buffer.getInt(start + 4)) {
+            return null;
+        }
+        buffer.position(start + RECORD_HEADER + length);
+        return event.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Journals what is still queued, forces it to disk unless the policy is to never
+     * do so, and stops the writer. Events offered from now on are dropped.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        LockSupport.unpark(this.writer);
+        try {
+            this.writer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    enum Fsync {
+
+        /**
+         * Force after every batch written, events are on disk a batch after being queued.
+         */
+        BATCH,
+
+        /**
+         * Force at most every {@code fsyncInterval}, and when a segment is full.
+         */
+        INTERVAL,
+
+        /**
+         * Leave it to the operating system.
+         */
+        NEVER
+    }
+
+    /**
+     * A journaled event and its sequence number.
+     */
+    static final class Event {
+
+        private final long sequence;
+
+        private final ByteBuffer data;
+
+        Event(long sequence, ByteBuffer data) {
+            this.sequence = sequence;
+            this.data = data;
+        }
+
+        long sequence() {
+            return this.sequence;
+        }
+
+        ByteBuffer data() {
+            return this.data;
+        }
+    }
+
+    /**
+     * Position of a replay, moving through the segments in order.
+     */
+    private final class Cursor {
+
+        private final long end;
+
+        private long sequence;
+
+        private Map.Entry<Long, MappedByteBuffer> segment;
+
+        private ByteBuffer buffer;
+
+        private Cursor(long from, long end) {
+            this.end = end;
+            this.segment = segments.floorEntry(from);
+            if (this.segment == null) {
+                this.segment = segments.firstEntry();
+            }
+            if (this.segment == null) {
+                return;
+            }
+            this.sequence = this.segment.getKey();
+            this.buffer = this.segment.getValue().duplicate();
+            this.buffer.position(0);
+            while (this.sequence < from && next() != null) {
+                // skip to the first event asked for
+            }
+        }
+
+        private Event next() {
+            while (this.buffer != null && this.sequence < this.end) {
+                ByteBuffer data = readRecord(this.buffer);
+                if (data != null) {
+                    return new Event(this.sequence++, data);
+                }
+                this.segment = segments.higherEntry(this.segment.getKey());
+                if (this.segment == null) {
+                    return null;
+                }
+                this.sequence = this.segment.getKey();
+                this.buffer = this.segment.getValue().duplicate();
+                this.buffer.position(0);
+            }
+            return null;
+        }
+    }
+}
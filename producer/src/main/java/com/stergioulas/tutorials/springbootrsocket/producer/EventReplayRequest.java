@@ -0,0 +1,18 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Range of {@code greet.event} sequence numbers to replay, {@code to} excluded.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+class EventReplayRequest {
+
+    private long from;
+
+    private long to = Long.MAX_VALUE;
+}
@@ -0,0 +1,38 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * A {@code greet.event} as journaled, with its sequence number in the journal.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+class GreetingEvent {
+
+    private long sequence;
+
+    private Instant timestamp;
+
+    private String name;
+
+    /**
+     * Epoch millis of the event followed by the name in UTF-8, the record in the journal.
+     */
+    static byte[] record(long timestamp, String name) {
+        byte[] bytes = name != null ? name.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        return ByteBuffer.allocate(Long.BYTES + bytes.length).putLong(timestamp).put(bytes).array();
+    }
+
+    static GreetingEvent of(EventJournal.Event event) {
+        ByteBuffer data = event.data().duplicate();
+        Instant timestamp = Instant.ofEpochMilli(data.getLong());
+        return new GreetingEvent(event.sequence(), timestamp, StandardCharsets.UTF_8.decode(data).toString());
+    }
+}
@@ -0,0 +1,29 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.stereotype.Controller;
+import reactor.core.publisher.Flux;
+
+/**
+ * Audit events of greetings, sent fire-and-forget and journaled on disk behind the
+ * caller's back, and replayed from the journal on request.
+ */
+@RequiredArgsConstructor
+@Controller
+@ConditionalOnProperty(prefix = "producer.journal", name = "enabled")
+class GreetingEventsController {
+
+    private final EventJournal journal;
+
+    @MessageMapping("greet.event")
+    void event(GreetingsRequest request) {
+        this.journal.offer(GreetingEvent.record(System.currentTimeMillis(), request.getName()));
+    }
+
+    @MessageMapping("greet.event.replay")
+    Flux<GreetingEvent> replay(EventReplayRequest request) {
+        return this.journal.replay(request.getFrom(), request.getTo()).map(GreetingEvent::of);
+    }
+}
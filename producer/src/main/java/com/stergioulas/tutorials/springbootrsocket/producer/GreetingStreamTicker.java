@@ -0,0 +1,91 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.DisposableBean;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds every open {@code greet-stream} from a single timer.
+ * <p>
+ * With {@code delayElements} each stream schedules its own timer task, which does not
+ * scale to tens of thousands of streams. Here one tick walks all active streams and
+ * emits the greeting of that tick to every stream that has outstanding demand; streams
+ * without demand skip the tick instead of buffering it. The timestamp is formatted once
+ * per tick and the fixed part of each greeting once per stream.
+ */
+class GreetingStreamTicker implements DisposableBean {
+
+    private final Set<OpenStream> streams = ConcurrentHashMap.newKeySet();
+
+    private final Timer tickTimer;
+
+    private final Scheduler scheduler;
+
+    private final Disposable ticks;
+
+    GreetingStreamTicker(Duration interval, MeterRegistry registry) {
+        Gauge.builder("greetings.stream.active", this.streams, Set::size)
+                .description("Open greet-stream subscriptions fed by the shared tick")
+                .register(registry);
+        this.tickTimer = Timer.builder("greetings.stream.tick")
+                .description("Time taken to emit one tick to all open streams")
+                .register(registry);
+        this.scheduler = Schedulers.newSingle("greet-stream-tick");
+        this.ticks = Flux.interval(interval, this.scheduler).subscribe(tick -> tick());
+    }
+
+    Flux<GreetingsResponse> stream(String name) {
+        String prefix = "Hello " + name + " @ ";
+        return Flux.create(sink -> {
+            OpenStream stream = new OpenStream(prefix, sink);
+            this.streams.add(stream);
+            sink.onDispose(() -> this.streams.remove(stream));
+        });
+    }
+
+    int activeStreams() {
+        return this.streams.size();
+    }
+
+    void tick() {
+        long start = System.nanoTime();
+        String now = Instant.now().toString();
+        for (OpenStream stream : this.streams) {
+            if (stream.sink.requestedFromDownstream() > 0) {
+                stream.sink.next(new GreetingsResponse(stream.prefix + now));
+            }
+        }
+        this.tickTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        this.ticks.dispose();
+        this.scheduler.dispose();
+        this.streams.forEach(stream -> stream.sink.complete());
+    }
+
+    private static final class OpenStream {
+
+        private final String prefix;
+
+        private final FluxSink<GreetingsResponse> sink;
+
+        private OpenStream(String prefix, FluxSink<GreetingsResponse> sink) {
+            this.prefix = prefix;
+            this.sink = sink;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import com.stergioulas.tutorials.springbootrsocket.support.NettyTuning;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.stereotype.Controller;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+@RequiredArgsConstructor
+@Controller
+class GreetingsController {
+
+    private final ProducerProperties properties;
+
+    private final ObjectProvider<GreetingStreamTicker> ticker;
+
+    private final NettyTuning tuning;
+
+    @MessageMapping("greet")
+    Mono<GreetingsResponse> greet(GreetingsRequest request) {
+        return Mono.just(new GreetingsResponse("Hello " + request.getName() + " @ " + Instant.now()));
+    }
+
+    @MessageMapping("greet-stream")
+    Flux<GreetingsResponse> greetStream(GreetingsRequest request) {
+        GreetingStreamTicker ticker = this.ticker.getIfAvailable();
+        if (ticker != null) {
+            return ticker.stream(request.getName());
+        }
+        return Flux.fromStream(Stream.generate(
+                () -> new GreetingsResponse("Hello " + request.getName() + " @ " + Instant.now())
+        )).delayElements(this.properties.getGreetStream().getInterval());
+    }
+
+    /**
+     * Request-channel for bulk clients. Requests are greeted in micro-batches that share
+     * one timestamp, while demand still flows from the caller back to its request stream.
+     */
+    @MessageMapping("greet-batch")
+    Flux<GreetingsResponse> greetBatch(Flux<GreetingsRequest> requests) {
+        ProducerProperties.GreetBatch batch = this.properties.getGreetBatch();
+        return MicroBatcher.batch(requests, batch.getMaxSize(), batch.getMaxDelay())
+                .concatMapIterable(this::greetAll, 2);
+    }
+
+    /**
+     * Request-stream of a large binary result, as chunks of bytes rather than one
+     * payload, so the producer never builds it whole and the frames of other streams on
+     * the connection go out between its chunks. Chunks are written straight into buffers
+     * of the server's allocator, which the frames carrying them then wrap.
+     */
+    @MessageMapping("greet-download")
+    Flux<DataBuffer> greetDownload(GreetingsDownloadRequest request) {
+        ProducerProperties.GreetDownload download = this.properties.getGreetDownload();
+        if (request.getSize() < 0 || request.getSize() > download.getMaxSize().toBytes()) {
+            return Flux.error(new IllegalArgumentException(
+                    "Download size must be between 0 and " + download.getMaxSize().toBytes() + " bytes"));
+        }
+        return GreetingsDownload.generate(request.getName(), request.getSize(),
+                (int) download.getChunkSize().toBytes(), new NettyDataBufferFactory(this.tuning.allocator()));
+    }
+
+    private List<GreetingsResponse> greetAll(List<GreetingsRequest> requests) {
+        String now = " @ " + Instant.now();
+        List<GreetingsResponse> responses = new ArrayList<>(requests.size());
+        for (GreetingsRequest request : requests) {
+            responses.add(new GreetingsResponse("Hello " + request.getName() + now));
+        }
+        return responses;
+    }
+}
@@ -0,0 +1,80 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Numbered greeting lines, as many as fit in a given number of bytes, streamed in chunks
+ * that are only written once the requester asks for them. However large the download,
+ * the producer holds no more of it than the chunks requested and not yet sent.
+ */
+final class GreetingsDownload {
+
+    private final byte[] prefix;
+
+    private final DataBufferFactory bufferFactory;
+
+    private final int chunkSize;
+
+    private long remaining;
+
+    private long count;
+
+    private byte[] line;
+
+    private int offset;
+
+    private GreetingsDownload(String name, long size, int chunkSize, DataBufferFactory bufferFactory) {
+        this.prefix = ("Hello " + name + " #").getBytes(StandardCharsets.UTF_8);
+        this.bufferFactory = bufferFactory;
+        this.chunkSize = chunkSize;
+        this.remaining = size;
+        this.line = nextLine();
+    }
+
+    /**
+     * @return {@code size} bytes in chunks of {@code chunkSize}, the last one possibly
+     * shorter, and lines cut wherever a chunk ends
+     */
+    static Flux<DataBuffer> generate(String name, long size, int chunkSize, DataBufferFactory bufferFactory) {
+        return Flux.generate(() -> new GreetingsDownload(name, size, chunkSize, bufferFactory),
+                (download, sink) -> {
+                    if (download.remaining == 0) {
+                        sink.complete();
+                    }
+                    else {
+                        sink.next(download.nextChunk());
+                    }
+                    return download;
+                });
+    }
+
+    private DataBuffer nextChunk() {
+        int size = (int) Math.min(this.chunkSize, this.remaining);
+        DataBuffer chunk = this.bufferFactory.allocateBuffer(size);
+        int written = 0;
+        while (written < size) {
+            int length = Math.min(this.line.length - this.offset, size - written);
+            chunk.write(this.line, this.offset, length);
+            written += length;
+            this.offset += length;
+            if (this.offset == this.line.length) {
+                this.line = nextLine();
+                this.offset = 0;
+            }
+        }
+        this.remaining -= size;
+        return chunk;
+    }
+
+    private byte[] nextLine() {
+        byte[] number = (++this.count + "\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] line = new byte[this.prefix.length + number.length];
+        System.arraycopy(this.prefix, 0, line, 0, this.prefix.length);
+        System.arraycopy(number, 0, line, this.prefix.length, number.length);
+        return line;
+    }
+}
@@ -0,0 +1,18 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A download of {@code size} bytes of greetings.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+class GreetingsDownloadRequest {
+
+    private String name;
+
+    private long size;
+}
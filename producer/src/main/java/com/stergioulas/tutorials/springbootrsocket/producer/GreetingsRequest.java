@@ -0,0 +1,13 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+class GreetingsRequest {
+
+    private String name;
+}
@@ -0,0 +1,148 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.rsocket.exceptions.RejectedException;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.messaging.handler.HandlerMethod;
+import org.springframework.util.CustomizableThreadCreator;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs the handlers that may block or hog the CPU on a bounded pool of threads of their
+ * own, instead of on the event loop the message came in on, where they would hold up
+ * every other stream of the connection and of the connections sharing the loop.
+ * <p>
+ * Handlers opt in with {@link Offload @Offload} or by having one of their route patterns
+ * listed in {@code producer.offload.routes}. A message waits in a queue of
+ * {@code queueCapacity} for a thread; when the queue is full, the request is failed at
+ * once with a {@link RejectedException}, which the requester gets as an RSocket
+ * {@code REJECTED} error it may retry elsewhere. The handler is invoked on the pool and
+ * the publisher it returns is subscribed to there; work it schedules itself runs where it
+ * says.
+ * <p>
+ * Meters are {@code rsocket.server.offload.wait}, the time messages wait for a thread,
+ * and {@code rsocket.server.offload.rejected}, both per route pattern, as well as
+ * {@code rsocket.server.offload.queued}, {@code rsocket.server.offload.active} threads
+ * and {@code rsocket.server.offload.utilization}, the share of the threads busy.
+ */
+class HandlerOffload {
+
+    private final ThreadPoolExecutor executor;
+
+    private final Set<String> routes;
+
+    private final MeterRegistry registry;
+
+    private final Map<String, Meters> meters = new ConcurrentHashMap<>();
+
+    HandlerOffload(int threads, int queueCapacity, Collection<String> routes, MeterRegistry registry) {
+        CustomizableThreadCreator threadCreator = new CustomizableThreadCreator("rsocket-offload-");
+        threadCreator.setDaemon(true);
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadCreator::createThread);
+        this.executor.allowCoreThreadTimeOut(true);
+        this.routes = new HashSet<>(routes);
+        this.registry = registry;
+        Gauge.builder("rsocket.server.offload.queued", this.executor, executor -> executor.getQueue().size())
+                .description("Offloaded messages waiting for a thread")
+                .register(registry);
+        Gauge.builder("rsocket.server.offload.active", this.executor, ThreadPoolExecutor::getActiveCount)
+                .description("Threads running offloaded handlers")
+                .register(registry);
+        Gauge.builder("rsocket.server.offload.utilization", this.executor,
+                executor -> (double) executor.getActiveCount() / executor.getMaximumPoolSize())
+                .description("Share of the offload threads running handlers")
+                .register(registry);
+    }
+
+    /**
+     * Whether the handler asked to be offloaded, by annotation or by route pattern.
+     */
+    boolean offloads(HandlerMethod handler, Set<String> patterns) {
+        if (AnnotatedElementUtils.hasAnnotation(handler.getMethod(), Offload.class)
+                || AnnotatedElementUtils.hasAnnotation(handler.getBeanType(), Offload.class)) {
+            return true;
+        }
+        for (String pattern : patterns) {
+            if (this.routes.contains(pattern)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Handles a message on the pool once a thread is free. A message turned away or
+     * cancelled before its turn is left unread, and {@code MessagingRSocket} releases its
+     * payload once handling is over either way: a single {@code DataBuffer} for
+     * fire-and-forget, a {@code Flux<DataBuffer>} it drains when nobody subscribed to it
+     * for the request interactions.
+     *
+     * @param pattern  route pattern of the handler, to tag the meters with
+     * @param handling invokes the handler and returns its completion, called on the pool
+     */
+    Mono<Void> handle(String pattern, Supplier<Mono<Void>> handling) {
+        Meters meters = this.meters.computeIfAbsent(pattern, Meters::new);
+        return Mono.create(sink -> {
+            long queued = System.nanoTime();
+            Disposable.Swap handled = Disposables.swap();
+            Future<?> task;
+            try {
+                task = this.executor.submit(() -> {
+                    meters.wait.record(System.nanoTime() - queued, TimeUnit.NANOSECONDS);
+                    handled.update(Mono.defer(handling)
+                            .subscriberContext(sink.currentContext())
+                            .subscribe(null, sink::error, sink::success));
+                });
+            }
+            catch (RejectedExecutionException ex) {
+                meters.rejected.increment();
+                sink.error(new RejectedException("Too many requests waiting for " + pattern));
+                return;
+            }
+            sink.onCancel(() -> {
+                task.cancel(false);
+                handled.dispose();
+            });
+        });
+    }
+
+    void dispose() {
+        this.executor.shutdown();
+    }
+
+    private final class Meters {
+
+        private final Timer wait;
+
+        private final Counter rejected;
+
+        private Meters(String pattern) {
+            this.wait = Timer.builder("rsocket.server.offload.wait")
+                    .description("Time offloaded messages wait for a thread")
+                    .tag("route", pattern)
+                    .register(registry);
+            this.rejected = Counter.builder("rsocket.server.offload.rejected")
+                    .description("Offloaded messages rejected for the queue being full")
+                    .tag("route", pattern)
+                    .register(registry);
+        }
+    }
+}
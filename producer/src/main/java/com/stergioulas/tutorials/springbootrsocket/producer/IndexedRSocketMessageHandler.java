@@ -0,0 +1,194 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.handler.CompositeMessageCondition;
+import org.springframework.messaging.handler.DestinationPatternsMessageCondition;
+import org.springframework.messaging.handler.HandlerMethod;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Headers;
+import org.springframework.messaging.handler.annotation.reactive.PayloadMethodArgumentResolver;
+import org.springframework.messaging.handler.invocation.reactive.HandlerMethodArgumentResolver;
+import org.springframework.messaging.handler.invocation.reactive.HandlerMethodReturnValueHandler;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.messaging.rsocket.annotation.support.RSocketMessageHandler;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * {@link RSocketMessageHandler} that routes through an {@link IndexedRouteMatcher} built
+ * from its own mappings once they are detected, or through the strategies' route matcher
+ * when the index is turned off.
+ * <p>
+ * Records the time from receiving a message to having picked and invoked its handler
+ * method as {@code rsocket.server.dispatch}, along with the size and misses of the route
+ * cache when indexed. The handler method's result is subscribed to later and is not part
+ * of it.
+ * <p>
+ * With a {@link ByteBufMetadataExtractor}, it also tells the extractor which headers
+ * the handler methods read, so metadata nobody asks for is not decoded.
+ * <p>
+ * With a {@link HandlerOffload}, handlers that opted in are invoked on its pool, and
+ * the dispatch time of their messages ends once they are queued there.
+ * <p>
+ * With a {@link ServerTiming}, it marks where decoding, dispatch and the handler method
+ * begin and end for the calls that are sampled.
+ */
+class IndexedRSocketMessageHandler extends RSocketMessageHandler {
+
+    @Nullable
+    private final IndexedRouteMatcher routeMatcher;
+
+    private final Timer dispatch;
+
+    @Nullable
+    private final HandlerOffload offload;
+
+    @Nullable
+    private final ServerTiming timing;
+
+    /**
+     * Route pattern of each offloaded handler method.
+     */
+    private final Map<Method, String> offloaded = new HashMap<>();
+
+    /**
+     * @param cacheSize most routes kept resolved by the route index, 0 to not index routes
+     */
+    IndexedRSocketMessageHandler(RSocketStrategies strategies, int cacheSize, @Nullable HandlerOffload offload,
+                                 @Nullable ServerTiming timing, MeterRegistry registry) {
+        this.offload = offload;
+        this.timing = timing;
+        setRSocketStrategies(strategies);
+        this.dispatch = Timer.builder("rsocket.server.dispatch")
+                .description("Time to find and invoke the handler of an RSocket message")
+                .register(registry);
+        if (cacheSize <= 0) {
+            this.routeMatcher = null;
+            return;
+        }
+        this.routeMatcher = new IndexedRouteMatcher(strategies.routeMatcher(), '.', cacheSize);
+        setRouteMatcher(this.routeMatcher);
+        Gauge.builder("rsocket.server.routes.cached", this.routeMatcher, IndexedRouteMatcher::cachedRoutes)
+                .description("Routes resolved against the route index and cached")
+                .register(registry);
+        FunctionCounter.builder("rsocket.server.routes.misses", this.routeMatcher, IndexedRouteMatcher::misses)
+                .description("Routes that were not cached yet and were resolved against the route index")
+                .register(registry);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        super.afterPropertiesSet();
+        if (this.routeMatcher != null) {
+            this.routeMatcher.index(patterns());
+        }
+        if (getMetadataExtractor() instanceof ByteBufMetadataExtractor) {
+            ((ByteBufMetadataExtractor) getMetadataExtractor()).setRequiredHeaders(requiredHeaders());
+        }
+        if (this.offload != null) {
+            getHandlerMethods().forEach((mapping, method) -> {
+                Set<String> patterns = mapping.getCondition(DestinationPatternsMessageCondition.class).getPatterns();
+                if (this.offload.offloads(method, patterns)) {
+                    this.offloaded.put(method.getMethod(), patterns.isEmpty() ? "" : patterns.iterator().next());
+                }
+            });
+        }
+    }
+
+    @Override
+    public Mono<Void> handleMessage(Message<?> message) {
+        long start = System.nanoTime();
+        try {
+            return super.handleMessage(message);
+        }
+        finally {
+            this.dispatch.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    protected Mono<Void> handleMatch(CompositeMessageCondition mapping, HandlerMethod handlerMethod, Message<?> message) {
+        String pattern = this.offloaded.get(handlerMethod.getMethod());
+        if (pattern == null) {
+            return invoke(mapping, handlerMethod, message);
+        }
+        return this.offload.handle(pattern, () -> invoke(mapping, handlerMethod, message));
+    }
+
+    private Mono<Void> invoke(CompositeMessageCondition mapping, HandlerMethod handlerMethod, Message<?> message) {
+        Mono<Void> handling = super.handleMatch(mapping, handlerMethod, message);
+        return this.timing != null ? this.timing.dispatched(handling) : handling;
+    }
+
+    @Override
+    protected List<? extends HandlerMethodArgumentResolver> initArgumentResolvers() {
+        List<? extends HandlerMethodArgumentResolver> resolvers = super.initArgumentResolvers();
+        if (this.timing == null) {
+            return resolvers;
+        }
+        return resolvers.stream()
+                .map(resolver -> resolver instanceof PayloadMethodArgumentResolver ? this.timing.decoding(resolver) : resolver)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    protected List<? extends HandlerMethodReturnValueHandler> initReturnValueHandlers() {
+        List<? extends HandlerMethodReturnValueHandler> handlers = super.initReturnValueHandlers();
+        if (this.timing == null) {
+            return handlers;
+        }
+        return handlers.stream()
+                .map(handler -> this.timing.handled(handler, getReactiveAdapterRegistry()))
+                .collect(Collectors.toList());
+    }
+
+    private Set<String> patterns() {
+        return getHandlerMethods().keySet().stream()
+                .map(mapping -> mapping.getCondition(DestinationPatternsMessageCondition.class))
+                .flatMap(condition -> condition.getPatterns().stream())
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * Names of the headers bound by {@link Header @Header}, or {@code null} if a handler
+     * method takes all headers or the whole message.
+     */
+    private Set<String> requiredHeaders() {
+        ParameterNameDiscoverer names = new DefaultParameterNameDiscoverer();
+        Set<String> headers = new HashSet<>();
+        for (HandlerMethod method : getHandlerMethods().values()) {
+            for (MethodParameter parameter : method.getMethodParameters()) {
+                Class<?> type = parameter.getParameterType();
+                if (parameter.hasParameterAnnotation(Headers.class) || Message.class.isAssignableFrom(type)
+                        || MessageHeaders.class.isAssignableFrom(type) || MessageHeaderAccessor.class.isAssignableFrom(type)) {
+                    return null;
+                }
+                Header header = parameter.getParameterAnnotation(Header.class);
+                if (header != null) {
+                    parameter.initParameterNameDiscovery(names);
+                    headers.add(StringUtils.hasText(header.name()) ? header.name() : parameter.getParameterName());
+                }
+            }
+        }
+        return headers;
+    }
+}
@@ -0,0 +1,321 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import org.springframework.util.RouteMatcher;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * {@link RouteMatcher} that answers from an index of the known mapping patterns instead
+ * of matching every pattern against every route.
+ * <p>
+ * {@link #index(Collection)} splits the patterns into literal routes, kept in a hash set,
+ * templates made of literal and {@code {variable}} segments, kept in a segment trie, and
+ * the rest ({@code *}, {@code **}, regular expressions, partial segments), which are left
+ * to the delegate. A route is resolved against all three once, the first time it is
+ * parsed, and the result is cached with the route: matching it against a pattern
+ * afterwards is a map lookup. At most {@code cacheSize} routes are cached, so routes made
+ * up by clients cannot grow the cache without bounds; routes beyond that are resolved
+ * again on every parse.
+ * <p>
+ * Patterns that were not indexed are passed on to the delegate, so the matcher is safe to
+ * use before indexing and for patterns registered later.
+ */
+public class IndexedRouteMatcher implements RouteMatcher {
+
+    private static final Pattern VARIABLE = Pattern.compile("\\{[A-Za-z_][A-Za-z0-9_]*}");
+
+    private final RouteMatcher delegate;
+
+    private final char separator;
+
+    private final int cacheSize;
+
+    private final ConcurrentMap<String, IndexedRoute> routes = new ConcurrentHashMap<>();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private volatile Index index = new Index(Collections.emptySet());
+
+    /**
+     * @param delegate  matcher of the patterns the index cannot resolve, using the same separator
+     * @param separator separator of the route segments, {@code '.'} for {@code PathPatternRouteMatcher}
+     * @param cacheSize most routes kept resolved
+     */
+    public IndexedRouteMatcher(RouteMatcher delegate, char separator, int cacheSize) {
+        this.delegate = delegate;
+        this.separator = separator;
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Replaces the index with one of the given patterns, dropping the resolved routes.
+     */
+    public void index(Collection<String> patterns) {
+        this.index = new Index(patterns);
+        this.routes.clear();
+    }
+
+    /**
+     * Routes currently cached.
+     */
+    public int cachedRoutes() {
+        return this.routes.size();
+    }
+
+    /**
+     * Routes resolved against the index because they were not cached.
+     */
+    public long misses() {
+        return this.misses.get();
+    }
+
+    @Override
+    public Route parseRoute(String routeValue) {
+        IndexedRoute route = this.routes.get(routeValue);
+        if (route != null) {
+            return route;
+        }
+        this.misses.incrementAndGet();
+        route = new IndexedRoute(routeValue, this.index);
+        if (this.routes.size() < this.cacheSize) {
+            IndexedRoute cached = this.routes.putIfAbsent(routeValue, route);
+            return cached != null ? cached : route;
+        }
+        return route;
+    }
+
+    @Override
+    public boolean isPattern(String route) {
+        return this.delegate.isPattern(route);
+    }
+
+    @Override
+    public String combine(String pattern1, String pattern2) {
+        return this.delegate.combine(pattern1, pattern2);
+    }
+
+    @Override
+    public boolean match(String pattern, Route route) {
+        if (route instanceof IndexedRoute) {
+            IndexedRoute indexed = (IndexedRoute) route;
+            if (indexed.index.contains(pattern)) {
+                return indexed.matches.containsKey(pattern);
+            }
+        }
+        return this.delegate.match(pattern, delegateRoute(route));
+    }
+
+    @Override
+    public Map<String, String> matchAndExtract(String pattern, Route route) {
+        if (route instanceof IndexedRoute) {
+            IndexedRoute indexed = (IndexedRoute) route;
+            if (indexed.index.contains(pattern)) {
+                return indexed.matches.get(pattern);
+            }
+        }
+        return this.delegate.matchAndExtract(pattern, delegateRoute(route));
+    }
+
+    @Override
+    public Comparator<String> getPatternComparator(Route route) {
+        return this.delegate.getPatternComparator(delegateRoute(route));
+    }
+
+    private Route delegateRoute(Route route) {
+        return route instanceof IndexedRoute ? ((IndexedRoute) route).delegateRoute() : route;
+    }
+
+    private List<String> split(String value) {
+        List<String> segments = new ArrayList<>();
+        int start = 0;
+        int end;
+        while ((end = value.indexOf(this.separator, start)) >= 0) {
+            segments.add(value.substring(start, end));
+            start = end + 1;
+        }
+        segments.add(value.substring(start));
+        return segments;
+    }
+
+    private final class IndexedRoute implements Route {
+
+        private final String value;
+
+        private final Index index;
+
+        /**
+         * Matching patterns of the index, with the variables they extract.
+         */
+        private final Map<String, Map<String, String>> matches;
+
+        private volatile Route delegateRoute;
+
+        private IndexedRoute(String value, Index index) {
+            this.value = value;
+            this.index = index;
+            this.matches = index.resolve(this);
+        }
+
+        @Override
+        public String value() {
+            return this.value;
+        }
+
+        private Route delegateRoute() {
+            Route route = this.delegateRoute;
+            if (route == null) {
+                route = delegate.parseRoute(this.value);
+                this.delegateRoute = route;
+            }
+            return route;
+        }
+
+        @Override
+        public String toString() {
+            return this.value;
+        }
+    }
+
+    private final class Index {
+
+        private final Set<String> patterns;
+
+        private final Set<String> literals = new HashSet<>();
+
+        private final Node templates = new Node();
+
+        private final List<String> others = new ArrayList<>();
+
+        private Index(Collection<String> patterns) {
+            this.patterns = new HashSet<>(patterns);
+            for (String pattern : this.patterns) {
+                List<String> segments = split(pattern);
+                // not delegate.isPattern, which takes "a.**" for a literal route
+                if (segments.stream().allMatch(this::isLiteral)) {
+                    this.literals.add(pattern);
+                }
+                else if (segments.stream().allMatch(s -> isLiteral(s) || VARIABLE.matcher(s).matches())) {
+                    this.templates.add(pattern, segments, 0, new ArrayList<>());
+                }
+                else {
+                    this.others.add(pattern);
+                }
+            }
+        }
+
+        private boolean contains(String pattern) {
+            return this.patterns.contains(pattern);
+        }
+
+        private Map<String, Map<String, String>> resolve(IndexedRoute route) {
+            Map<String, Map<String, String>> matches = new LinkedHashMap<>();
+            if (this.literals.contains(route.value)) {
+                matches.put(route.value, Collections.emptyMap());
+            }
+            if (!this.templates.isEmpty()) {
+                this.templates.collect(split(route.value), 0, new ArrayList<>(), matches);
+            }
+            for (String pattern : this.others) {
+                Map<String, String> variables = delegate.matchAndExtract(pattern, route.delegateRoute());
+                if (variables != null) {
+                    matches.put(pattern, variables);
+                }
+            }
+            return matches.isEmpty() ? Collections.emptyMap() : matches;
+        }
+
+        private boolean isLiteral(String segment) {
+            return segment.indexOf('{') < 0 && segment.indexOf('}') < 0
+                    && segment.indexOf('*') < 0 && segment.indexOf('?') < 0;
+        }
+    }
+
+    /**
+     * Segment of the template trie: literal children by name, one child for any
+     * variable segment, and the templates ending here.
+     */
+    private static final class Node {
+
+        private final Map<String, Node> literals = new HashMap<>();
+
+        private Node variable;
+
+        private final List<Template> templates = new ArrayList<>();
+
+        private boolean isEmpty() {
+            return this.literals.isEmpty() && this.variable == null && this.templates.isEmpty();
+        }
+
+        private void add(String pattern, List<String> segments, int position, List<String> names) {
+            if (position == segments.size()) {
+                this.templates.add(new Template(pattern, names));
+                return;
+            }
+            String segment = segments.get(position);
+            if (segment.startsWith("{")) {
+                if (this.variable == null) {
+                    this.variable = new Node();
+                }
+                names.add(segment.substring(1, segment.length() - 1));
+                this.variable.add(pattern, segments, position + 1, names);
+            }
+            else {
+                this.literals.computeIfAbsent(segment, s -> new Node()).add(pattern, segments, position + 1, names);
+            }
+        }
+
+        private void collect(List<String> segments, int position, List<String> values,
+                             Map<String, Map<String, String>> matches) {
+            if (position == segments.size()) {
+                for (Template template : this.templates) {
+                    matches.put(template.pattern, template.extract(values));
+                }
+                return;
+            }
+            String segment = segments.get(position);
+            Node literal = this.literals.get(segment);
+            if (literal != null) {
+                literal.collect(segments, position + 1, values, matches);
+            }
+            // a variable captures at least one character
+            if (this.variable != null && !segment.isEmpty()) {
+                values.add(segment);
+                this.variable.collect(segments, position + 1, values, matches);
+                values.remove(values.size() - 1);
+            }
+        }
+    }
+
+    private static final class Template {
+
+        private final String pattern;
+
+        private final List<String> names;
+
+        private Template(String pattern, List<String> names) {
+            this.pattern = pattern;
+            this.names = names;
+        }
+
+        private Map<String, String> extract(List<String> values) {
+            Map<String, String> variables = new LinkedHashMap<>(this.names.size() * 2);
+            for (int i = 0; i < this.names.size(); i++) {
+                variables.put(this.names.get(i), values.get(i));
+            }
+            return Collections.unmodifiableMap(variables);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.lease.Lease;
+import io.rsocket.lease.LeaseStats;
+import io.rsocket.lease.Leases;
+import io.rsocket.util.RSocketProxy;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sizes the RSocket leases of the producer from how its handlers cope.
+ * <p>
+ * A concurrency limit follows AIMD: once per interval, if request-response calls took
+ * longer than {@code latencyThreshold} on average, the limit is multiplied by
+ * {@code backoff}, otherwise, if at least half of it was in use, it grows by its square
+ * root. By Little's law the handlers then get through {@code limit / latency} requests
+ * per second, which is what the leases of the next interval allow, split evenly across
+ * the open connections. Leases outlive their interval so a late lease frame leaves no
+ * gap; each new one replaces the previous.
+ * <p>
+ * Requesters that honour leases stop sending once theirs is used up and can try another
+ * producer; requests beyond the lease are rejected either way. Meters are named
+ * {@code rsocket.server.lease.*}: permits {@code issued}, {@code used} and
+ * {@code rejected}, the concurrency {@code limit} and the {@code connections} holding a lease.
+ */
+class LeaseController {
+
+    /**
+     * Latency assumed before the first sample, and the least one leases are sized for.
+     */
+    private static final long MIN_LATENCY = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Duration interval;
+
+    private final long latencyThreshold;
+
+    private final double backoff;
+
+    private final double minLimit;
+
+    private final double maxLimit;
+
+    private volatile double limit;
+
+    private volatile long latency = MIN_LATENCY;
+
+    private volatile int permits;
+
+    private final AtomicLong nextUpdate;
+
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+
+    private final LongAdder calls = new LongAdder();
+
+    private final LongAdder callNanos = new LongAdder();
+
+    private final Counter issued;
+
+    private final Counter used;
+
+    private final Counter rejected;
+
+    LeaseController(ProducerProperties.Lease settings, MeterRegistry registry) {
+        this.interval = settings.getInterval();
+        this.latencyThreshold = settings.getLatencyThreshold().toNanos();
+        this.backoff = settings.getBackoff();
+        this.minLimit = settings.getMinLimit();
+        this.maxLimit = settings.getMaxLimit();
+        this.limit = settings.getInitialLimit();
+        this.permits = permits(this.limit, this.latency);
+        this.nextUpdate = new AtomicLong(System.nanoTime() + this.interval.toNanos());
+        this.issued = counter("issued", "Requests allowed by the leases sent", registry);
+        this.used = counter("used", "Requests accepted under a lease", registry);
+        this.rejected = counter("rejected", "Requests rejected for lack of a lease", registry);
+        Gauge.builder("rsocket.server.lease.limit", this, controller -> controller.limit)
+                .description("Concurrency the leases are sized for")
+                .register(registry);
+        Gauge.builder("rsocket.server.lease.connections", this.connections, AtomicInteger::get)
+                .description("Connections holding a lease")
+                .register(registry);
+    }
+
+    private static Counter counter(String name, String description, MeterRegistry registry) {
+        return Counter.builder("rsocket.server.lease." + name)
+                .description(description)
+                .register(registry);
+    }
+
+    /**
+     * Leases of one connection, for {@code ServerRSocketFactory.lease(Supplier)}.
+     */
+    Leases<?> leases() {
+        return Leases.<ConnectionStats>create()
+                .sender(stats -> Flux.interval(Duration.ZERO, this.interval)
+                        .map(tick -> nextLease())
+                        .doOnSubscribe(subscription -> this.connections.incrementAndGet())
+                        .doFinally(signal -> this.connections.decrementAndGet()))
+                .stats(new ConnectionStats());
+    }
+
+    /**
+     * Measures the calls of a responder, which is what the leases are sized from.
+     */
+    RSocket instrument(RSocket rsocket) {
+        return new MeasuredRSocket(rsocket);
+    }
+
+    private Lease nextLease() {
+        update(System.nanoTime());
+        int allowed = Math.max(1, this.permits / Math.max(1, this.connections.get()));
+        this.issued.increment(allowed);
+        return Lease.create((int) this.interval.toMillis() * 2, allowed);
+    }
+
+    /**
+     * Moves the limit once per interval, whichever connection asks first.
+     */
+    void update(long now) {
+        long next = this.nextUpdate.get();
+        if (now - next < 0 || !this.nextUpdate.compareAndSet(next, now + this.interval.toNanos())) {
+            return;
+        }
+        long calls = this.calls.sumThenReset();
+        long nanos = this.callNanos.sumThenReset();
+        int peak = this.peakInFlight.getAndSet(this.inFlight.get());
+        double limit = this.limit;
+        if (calls > 0) {
+            this.latency = Math.max(MIN_LATENCY, nanos / calls);
+        }
+        if (calls > 0 && nanos / calls > this.latencyThreshold) {
+            limit = Math.max(this.minLimit, limit * this.backoff);
+        }
+        else if (peak >= limit / 2) {
+            limit = Math.min(this.maxLimit, limit + Math.sqrt(limit));
+        }
+        this.limit = limit;
+        this.permits = permits(limit, this.latency);
+    }
+
+    private int permits(double limit, long latency) {
+        double perInterval = limit * this.interval.toNanos() / latency;
+        return (int) Math.min(Integer.MAX_VALUE, perInterval);
+    }
+
+    double limit() {
+        return this.limit;
+    }
+
+    int permits() {
+        return this.permits;
+    }
+
+    private void start() {
+        int current = this.inFlight.incrementAndGet();
+        this.peakInFlight.accumulateAndGet(current, Math::max);
+    }
+
+    private void stop(long start) {
+        this.inFlight.decrementAndGet();
+        if (start >= 0) {
+            this.calls.increment();
+            this.callNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    private final class ConnectionStats implements LeaseStats {
+
+        @Override
+        public void onEvent(EventType eventType) {
+            if (eventType == EventType.ACCEPT) {
+                used.increment();
+            }
+            else if (eventType == EventType.REJECT) {
+                rejected.increment();
+            }
+        }
+    }
+
+    private final class MeasuredRSocket extends RSocketProxy {
+
+        private MeasuredRSocket(RSocket source) {
+            super(source);
+        }
+
+        @Override
+        public Mono<Void> fireAndForget(Payload payload) {
+            return measure(super.fireAndForget(payload), false);
+        }
+
+        @Override
+        public Mono<Payload> requestResponse(Payload payload) {
+            return measure(super.requestResponse(payload), true);
+        }
+
+        @Override
+        public Flux<Payload> requestStream(Payload payload) {
+            return measure(super.requestStream(payload));
+        }
+
+        @Override
+        public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+            return measure(super.requestChannel(payloads));
+        }
+
+        /**
+         * @param timed whether the call is a latency sample, streams only count as concurrency
+         */
+        private <T> Mono<T> measure(Mono<T> call, boolean timed) {
+            return Mono.defer(() -> {
+                start();
+                long start = timed ? System.nanoTime() : -1;
+                return call.doFinally(signal -> stop(start));
+            });
+        }
+
+        private <T> Flux<T> measure(Flux<T> call) {
+            return Flux.defer(() -> {
+                start();
+                return call.doFinally(signal -> stop(-1));
+            });
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import io.rsocket.RSocketFactory;
+import io.rsocket.SocketAcceptor;
+import io.rsocket.frame.decoder.PayloadDecoder;
+import io.rsocket.transport.local.LocalServerTransport;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.rsocket.server.ServerRSocketFactoryProcessor;
+import org.springframework.context.SmartLifecycle;
+import reactor.core.Disposable;
+
+import java.util.List;
+
+/**
+ * Serves the message handler to requesters in the same JVM over the local transport,
+ * next to the TCP server, under a name they connect to.
+ * <p>
+ * Frames are handed over in memory as they are, and decoded in place, so requesters that
+ * pick {@code ObjectReferenceCodec.MIME_TYPE} as data mime type pass their messages by
+ * reference. The server RSocket factory processors apply as they do to the TCP server.
+ */
+@Slf4j
+class LocalRSocketServer implements SmartLifecycle {
+
+    private final String name;
+
+    private final SocketAcceptor acceptor;
+
+    private final List<ServerRSocketFactoryProcessor> processors;
+
+    private volatile Disposable server;
+
+    LocalRSocketServer(String name, SocketAcceptor acceptor, List<ServerRSocketFactoryProcessor> processors) {
+        this.name = name;
+        this.acceptor = acceptor;
+        this.processors = processors;
+    }
+
+    @Override
+    public void start() {
+        RSocketFactory.ServerRSocketFactory factory = RSocketFactory.receive().frameDecoder(PayloadDecoder.ZERO_COPY);
+        for (ServerRSocketFactoryProcessor processor : this.processors) {
+            factory = processor.process(factory);
+        }
+        this.server = factory.acceptor(this.acceptor).transport(LocalServerTransport.create(this.name)).start().block();
+        log.info("RSocket server started in-JVM as {}", this.name);
+    }
+
+    @Override
+    public void stop() {
+        this.server.dispose();
+        this.server = null;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return this.server != null;
+    }
+}
@@ -0,0 +1,194 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import org.reactivestreams.Subscription;
+import reactor.core.Disposable;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Groups a stream into batches of at most {@code maxSize} elements, closing a batch early
+ * once its first element is {@code maxDelay} old.
+ * <p>
+ * Unlike {@link Flux#bufferTimeout(int, Duration)}, this never emits a batch nobody asked
+ * for: upstream is only asked for the next batch once downstream wants one, and a batch
+ * that is due while downstream is busy is held until it asks again. That keeps
+ * backpressure intact from the last subscriber back to the source.
+ * <p>
+ * When the source fails, the batch in progress still goes out, once requested, before
+ * the error.
+ */
+final class MicroBatcher {
+
+    private MicroBatcher() {
+    }
+
+    static <T> Flux<List<T>> batch(Flux<T> source, int maxSize, Duration maxDelay) {
+        return batch(source, maxSize, maxDelay, Schedulers.parallel());
+    }
+
+    static <T> Flux<List<T>> batch(Flux<T> source, int maxSize, Duration maxDelay, Scheduler timer) {
+        return Flux.create(sink -> {
+            BatchingSubscriber<T> batcher = new BatchingSubscriber<>(sink, maxSize, maxDelay, timer);
+            sink.onRequest(n -> batcher.drain());
+            sink.onDispose(batcher);
+            source.subscribe(batcher);
+        });
+    }
+
+    private static final class BatchingSubscriber<T> extends BaseSubscriber<T> {
+
+        private final FluxSink<List<T>> sink;
+
+        private final int maxSize;
+
+        private final Duration maxDelay;
+
+        private final Scheduler timer;
+
+        private List<T> batch;
+
+        private int outstanding;
+
+        private boolean due;
+
+        private boolean done;
+
+        private Throwable error;
+
+        private Disposable deadline;
+
+        /**
+         * Drains requested while one is running, so only one thread signals downstream at a
+         * time, and outside the lock.
+         */
+        private final AtomicInteger draining = new AtomicInteger();
+
+        private BatchingSubscriber(FluxSink<List<T>> sink, int maxSize, Duration maxDelay, Scheduler timer) {
+            this.sink = sink;
+            this.maxSize = maxSize;
+            this.maxDelay = maxDelay;
+            this.timer = timer;
+            this.batch = new ArrayList<>(maxSize);
+        }
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            drain();
+        }
+
+        @Override
+        protected void hookOnNext(T value) {
+            synchronized (this) {
+                this.outstanding--;
+                this.batch.add(value);
+                if (this.batch.size() == 1) {
+                    this.deadline = this.timer.schedule(this::expire, this.maxDelay.toNanos(), TimeUnit.NANOSECONDS);
+                }
+            }
+            drain();
+        }
+
+        @Override
+        protected void hookOnComplete() {
+            synchronized (this) {
+                this.done = true;
+            }
+            drain();
+        }
+
+        @Override
+        protected void hookOnError(Throwable error) {
+            synchronized (this) {
+                this.done = true;
+                this.error = error;
+            }
+            drain();
+        }
+
+        @Override
+        protected synchronized void hookFinally(SignalType type) {
+            cancelDeadline();
+        }
+
+        private void expire() {
+            synchronized (this) {
+                this.due = true;
+            }
+            drain();
+        }
+
+        void drain() {
+            if (this.draining.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            for (;;) {
+                List<T> ready = null;
+                boolean terminated = false;
+                Throwable error = null;
+                int missing = 0;
+                synchronized (this) {
+                    if (upstream() != null && (!isDisposed() || this.done)) {
+                        boolean full = this.batch.size() >= this.maxSize;
+                        if (!this.batch.isEmpty() && (full || this.due || this.done)
+                                && this.sink.requestedFromDownstream() > 0) {
+                            ready = this.batch;
+                            this.batch = new ArrayList<>(this.maxSize);
+                            this.due = false;
+                            cancelDeadline();
+                        }
+                        if (this.done) {
+                            terminated = this.batch.isEmpty();
+                            error = this.error;
+                        } else {
+                            missing = this.maxSize - this.batch.size() - this.outstanding;
+                            if (missing > 0 && this.sink.requestedFromDownstream() > 0) {
+                                this.outstanding += missing;
+                            } else {
+                                missing = 0;
+                            }
+                        }
+                    }
+                }
+                if (ready != null) {
+                    this.sink.next(ready);
+                }
+                if (terminated) {
+                    if (error != null) {
+                        this.sink.error(error);
+                    } else {
+                        this.sink.complete();
+                    }
+                    return;
+                }
+                if (missing > 0) {
+                    request(missing);
+                }
+                if (ready == null) {
+                    missed = this.draining.addAndGet(-missed);
+                    if (missed == 0) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void cancelDeadline() {
+            Disposable deadline = this.deadline;
+            if (deadline != null) {
+                deadline.dispose();
+                this.deadline = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Runs a {@code @MessageMapping} handler, or all handlers of a controller, off the event
+ * loop on the bounded pool of {@link HandlerOffload}. Meant for handlers that block, on
+ * JDBC for example, or keep the CPU busy for long.
+ */
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@interface Offload {
+}
@@ -1,61 +1,282 @@
 package com.stergioulas.tutorials.springbootrsocket.producer;
 
-import lombok.AllArgsConstructor;
-import lombok.Data;
-import lombok.NoArgsConstructor;
+import com.stergioulas.tutorials.springbootrsocket.support.NettyTuning;
+import com.stergioulas.tutorials.springbootrsocket.support.ObjectReferenceCodec;
+import com.stergioulas.tutorials.springbootrsocket.support.PayloadCompression;
+import com.stergioulas.tutorials.springbootrsocket.support.RSocketMetrics;
+import com.stergioulas.tutorials.springbootrsocket.support.SchemaCodec;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.messaging.handler.annotation.MessageMapping;
-import org.springframework.stereotype.Controller;
-import reactor.core.publisher.Flux;
-import reactor.core.publisher.Mono;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.rsocket.RSocketProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.context.properties.PropertyMapper;
+import org.springframework.boot.rsocket.messaging.RSocketStrategiesCustomizer;
+import org.springframework.boot.rsocket.server.ServerRSocketFactoryProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.messaging.rsocket.annotation.support.RSocketMessageHandler;
+import org.springframework.util.MimeType;
 
-import java.time.Duration;
-import java.time.Instant;
-import java.util.stream.Stream;
+import java.io.IOException;
+import java.util.Set;
+import java.util.stream.Collectors;
 
+@Slf4j
 @SpringBootApplication
+@EnableConfigurationProperties(ProducerProperties.class)
 public class ProducerApplication {
 
     public static void main(String[] args) {
         SpringApplication.run(ProducerApplication.class, args);
     }
 
-}
+    @Bean(destroyMethod = "dispose")
+    NettyTuning nettyTuning(ProducerProperties properties) {
+        NettyTuning tuning = NettyTuning.server(properties.getNetty());
+        log.info("RSocket server Netty settings: {}", tuning.describe());
+        return tuning;
+    }
 
+    @Bean
+    TcpServerCustomizer nettyTuningCustomizer(NettyTuning tuning) {
+        return tuning::customize;
+    }
 
-@Data
-@NoArgsConstructor
-@AllArgsConstructor
-class GreetingsRequest {
+    @Bean
+    ServerRSocketFactoryProcessor nettyAllocatorProcessor(NettyTuning tuning) {
+        return factory -> factory.byteBufAllocator(tuning.allocator());
+    }
 
-    private String name;
-}
+    /**
+     * Takes the place of Boot's server factory, which backs off when one is declared.
+     */
+    @Bean
+    TunedRSocketServerFactory rSocketServerFactory(RSocketProperties properties,
+                                                   ObjectProvider<TcpServerCustomizer> customizers,
+                                                   ObjectProvider<ServerRSocketFactoryProcessor> processors) {
+        TunedRSocketServerFactory factory = new TunedRSocketServerFactory(
+                customizers.orderedStream().collect(Collectors.toList()),
+                processors.orderedStream().collect(Collectors.toList()));
+        PropertyMapper map = PropertyMapper.get().alwaysApplyingWhenNonNull();
+        map.from(properties.getServer().getPort()).to(factory::setPort);
+        map.from(properties.getServer().getAddress()).to(factory::setAddress);
+        map.from(properties.getServer().getTransport()).to(factory::setTransport);
+        return factory;
+    }
 
+    @Bean
+    @ConditionalOnProperty("producer.greet-stream.shared-tick")
+    GreetingStreamTicker greetingStreamTicker(ProducerProperties properties, MeterRegistry registry) {
+        return new GreetingStreamTicker(properties.getGreetStream().getInterval(), registry);
+    }
 
-@Data
-@NoArgsConstructor
-@AllArgsConstructor
-class GreetingsResponse {
+    @Bean
+    @ConditionalOnProperty(prefix = "producer.metrics", name = "enabled", matchIfMissing = true)
+    RSocketMetrics rSocketMetrics(ProducerProperties properties, MeterRegistry registry) {
+        return new RSocketMetrics("rsocket.server", registry, properties.getMetrics().getMaxRoutes());
+    }
 
-    private String greeting;
-}
+    @Bean
+    @ConditionalOnProperty(prefix = "producer.metrics", name = "enabled", matchIfMissing = true)
+    ServerRSocketFactoryProcessor rSocketMetricsProcessor(RSocketMetrics metrics) {
+        return factory -> factory
+                .addSocketAcceptorPlugin(acceptor -> (setup, sendingSocket) -> {
+                    String metadataMimeType = setup.metadataMimeType();
+                    return acceptor.accept(setup, sendingSocket)
+                            .map(rsocket -> metrics.instrument(rsocket, metadataMimeType));
+                })
+                .addConnectionPlugin(metrics.connectionInterceptor());
+    }
+
+    /**
+     * Always installed, since requesters that ask for compression in their SETUP frame
+     * send framed data either way; the algorithm only decides what the responses use.
+     */
+    @Bean
+    PayloadCompression payloadCompression(ProducerProperties properties, MeterRegistry registry) {
+        ProducerProperties.Compression compression = properties.getCompression();
+        return new PayloadCompression("rsocket.server", compression.getAlgorithm(),
+                (int) compression.getThreshold().toBytes(), compression.getRoutes(), registry);
+    }
+
+    @Bean
+    ServerRSocketFactoryProcessor payloadCompressionProcessor(PayloadCompression compression) {
+        return factory -> factory.addSocketAcceptorPlugin(acceptor -> (setup, sendingSocket) -> {
+            String metadataMimeType = setup.metadataMimeType();
+            Set<PayloadCompression.Algorithm> accepted = PayloadCompression.accepted(setup, metadataMimeType);
+            return acceptor.accept(setup, sendingSocket)
+                    .map(rsocket -> compression.responder(rsocket, metadataMimeType, accepted));
+        });
+    }
 
-@Controller
-class GreetingsController {
+    @Bean
+    @ConditionalOnProperty(prefix = "producer.server-timing", name = "enabled")
+    ServerTiming serverTiming(ProducerProperties properties) {
+        return new ServerTiming(properties.getServerTiming().getSampleRate());
+    }
 
+    /**
+     * Declared after the compression processor so it wraps it, and the encode time it
+     * reports includes compressing the response.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "producer.server-timing", name = "enabled")
+    ServerRSocketFactoryProcessor serverTimingProcessor(ServerTiming timing) {
+        return factory -> factory.addSocketAcceptorPlugin(acceptor -> (setup, sendingSocket) -> {
+            String metadataMimeType = setup.metadataMimeType();
+            return acceptor.accept(setup, sendingSocket)
+                    .map(rsocket -> timing.responder(rsocket, metadataMimeType));
+        });
+    }
 
-    @MessageMapping("greet")
-    Mono<GreetingsResponse> greet(GreetingsRequest request) {
-        return Mono.just(new GreetingsResponse("Hello " + request.getName() + " @ " + Instant.now()));
+    @Bean
+    @ConditionalOnProperty(prefix = "producer.fragmentation", name = "mtu")
+    ServerRSocketFactoryProcessor fragmentationProcessor(ProducerProperties properties) {
+        return factory -> factory.fragment((int) properties.getFragmentation().getMtu().toBytes());
     }
 
-    @MessageMapping("greet-stream")
-    Flux<GreetingsResponse> greetStream(GreetingsRequest request) {
-        return Flux.fromStream(Stream.generate(
-                () -> new GreetingsResponse("Hello " + request.getName() + " @ " + Instant.now())
-        )).delayElements(Duration.ofSeconds(1));
+    @Bean
+    @ConditionalOnProperty(prefix = "producer.lease", name = "enabled")
+    LeaseController leaseController(ProducerProperties properties, MeterRegistry registry) {
+        return new LeaseController(properties.getLease(), registry);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "producer.lease", name = "enabled")
+    ServerRSocketFactoryProcessor leaseProcessor(LeaseController leases) {
+        return factory -> factory
+                .lease(leases::leases)
+                .addResponderPlugin(leases::instrument);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "producer.resume", name = "enabled", matchIfMissing = true)
+    SessionResumption sessionResumption(ProducerProperties properties, MeterRegistry registry) {
+        return new SessionResumption(properties.getResume(), registry);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "producer.resume", name = "enabled", matchIfMissing = true)
+    ServerRSocketFactoryProcessor sessionResumptionProcessor(SessionResumption resumption) {
+        return resumption::configure;
+    }
+
+    @Bean
+    ConnectedClients connectedClients(RSocketStrategies strategies, ProducerProperties properties,
+                                      MeterRegistry registry) {
+        return new ConnectedClients(strategies, properties.getBroadcast().getMaxPending(), registry);
+    }
+
+    @Bean
+    RSocketStrategiesCustomizer clientTagsCustomizer() {
+        return strategies -> strategies.metadataExtractorRegistry(registry -> registry.metadataToExtract(
+                MimeType.valueOf(ConnectedClients.TAGS_MIME_TYPE), String.class, ConnectedClients.TAGS_HEADER));
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "producer.metadata-extractor", name = "in-place", matchIfMissing = true)
+    RSocketStrategiesCustomizer byteBufMetadataExtractorCustomizer() {
+        return strategies -> strategies.metadataExtractor(new ByteBufMetadataExtractor());
+    }
+
+    /**
+     * Hands the in-place extractor the decoders of the built strategies, which customizers
+     * running after {@link #byteBufMetadataExtractorCustomizer()} may still have added to.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "producer.metadata-extractor", name = "in-place", matchIfMissing = true)
+    static BeanPostProcessor byteBufMetadataExtractorDecoders() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof RSocketStrategies
+                        && ((RSocketStrategies) bean).metadataExtractor() instanceof ByteBufMetadataExtractor) {
+                    RSocketStrategies strategies = (RSocketStrategies) bean;
+                    ((ByteBufMetadataExtractor) strategies.metadataExtractor()).setDecoders(strategies.decoders());
+                }
+                return bean;
+            }
+        };
+    }
+
+    /**
+     * Lets requesters in the same JVM pass messages by reference, the TCP server turns
+     * away connections asking for it.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "producer.local", name = "enabled")
+    RSocketStrategiesCustomizer objectReferenceCodecCustomizer() {
+        ObjectReferenceCodec codec = new ObjectReferenceCodec();
+        return strategies -> strategies.encoder(codec).decoder(codec);
     }
-}
 
+    @Bean
+    @ConditionalOnProperty(prefix = "producer.local", name = "enabled")
+    LocalRSocketServer localRSocketServer(ProducerProperties properties, RSocketMessageHandler handler,
+                                          ObjectProvider<ServerRSocketFactoryProcessor> processors) {
+        return new LocalRSocketServer(properties.getLocal().getName(), handler.responder(),
+                processors.orderedStream().collect(Collectors.toList()));
+    }
+
+    /**
+     * Opened at startup even with lazy initialization, rather than on an event loop by the
+     * first event, since it scans its last segment to find where to carry on.
+     */
+    @Bean
+    @Lazy(false)
+    @ConditionalOnProperty(prefix = "producer.journal", name = "enabled")
+    EventJournal eventJournal(ProducerProperties properties, MeterRegistry registry) throws IOException {
+        ProducerProperties.Journal journal = properties.getJournal();
+        return new EventJournal(journal.getDirectory().toPath(), (int) journal.getSegmentSize().toBytes(),
+                journal.getFsync(), journal.getFsyncInterval(), journal.getQueueCapacity(),
+                journal.getRetainedSegments(), registry);
+    }
 
+    /**
+     * Lets clients pick the compact binary encoding of the greetings as data mime type,
+     * next to the JSON and CBOR ones Boot registers.
+     */
+    @Bean
+    RSocketStrategiesCustomizer greetingsCodecCustomizer() {
+        SchemaCodec codec = greetingsCodec();
+        return strategies -> strategies.encoder(codec).decoder(codec);
+    }
+
+    static SchemaCodec greetingsCodec() {
+        SchemaCodec codec = new SchemaCodec(SchemaCodec.GREETINGS);
+        codec.schema(1, GreetingsRequest.class, GreetingsRequest::new)
+                .string(GreetingsRequest::getName, GreetingsRequest::setName);
+        codec.schema(2, GreetingsResponse.class, GreetingsResponse::new)
+                .string(GreetingsResponse::getGreeting, GreetingsResponse::setGreeting);
+        codec.schema(3, GreetingsDownloadRequest.class, GreetingsDownloadRequest::new)
+                .string(GreetingsDownloadRequest::getName, GreetingsDownloadRequest::setName)
+                .int64(GreetingsDownloadRequest::getSize, GreetingsDownloadRequest::setSize);
+        return codec;
+    }
+
+    /**
+     * Takes the place of Boot's message handler, which backs off when one is declared, also
+     * with the route index off so that offloading and server timing keep working.
+     */
+    @Bean
+    RSocketMessageHandler messageHandlerAcceptor(RSocketStrategies strategies, ProducerProperties properties,
+                                                 HandlerOffload offload, ObjectProvider<ServerTiming> timing,
+                                                 MeterRegistry registry) {
+        ProducerProperties.RouteIndex routeIndex = properties.getRouteIndex();
+        return new IndexedRSocketMessageHandler(strategies, routeIndex.isEnabled() ? routeIndex.getCacheSize() : 0,
+                offload, timing.getIfAvailable(), registry);
+    }
+
+    @Bean(destroyMethod = "dispose")
+    HandlerOffload handlerOffload(ProducerProperties properties, MeterRegistry registry) {
+        ProducerProperties.Offload offload = properties.getOffload();
+        int threads = offload.getThreads() > 0 ? offload.getThreads() : 10 * Runtime.getRuntime().availableProcessors();
+        return new HandlerOffload(threads, offload.getQueueCapacity(), offload.getRoutes(), registry);
+    }
+}
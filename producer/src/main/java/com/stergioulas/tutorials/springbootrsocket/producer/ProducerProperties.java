@@ -0,0 +1,363 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import com.stergioulas.tutorials.springbootrsocket.support.NettyTuning;
+import com.stergioulas.tutorials.springbootrsocket.support.PayloadCompression;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import org.springframework.util.unit.DataSize;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings of the greeting routes.
+ *
+ * <pre>
+ * producer.greet-stream.interval=1s
+ * producer.greet-stream.shared-tick=true
+ * producer.greet-batch.max-size=256
+ * producer.greet-batch.max-delay=10ms
+ * producer.greet-download.chunk-size=64KB
+ * producer.greet-download.max-size=1GB
+ * producer.metrics.enabled=true
+ * producer.metrics.max-routes=100
+ * producer.route-index.enabled=true
+ * producer.route-index.cache-size=10000
+ * producer.metadata-extractor.in-place=true
+ * producer.compression.algorithm=snappy
+ * producer.compression.threshold=1KB
+ * producer.compression.routes=greet-stream,greet-batch
+ * producer.lease.enabled=true
+ * producer.lease.interval=1s
+ * producer.lease.latency-threshold=100ms
+ * producer.lease.initial-limit=100
+ * producer.lease.min-limit=10
+ * producer.lease.max-limit=10000
+ * producer.lease.backoff=0.8
+ * producer.resume.enabled=true
+ * producer.resume.session-duration=60s
+ * producer.resume.stream-timeout=10s
+ * producer.resume.cache-size=1MB
+ * producer.broadcast.max-pending=256
+ * producer.netty.prefer-native=true
+ * producer.netty.worker-threads=4
+ * producer.netty.tcp-no-delay=true
+ * producer.netty.send-buffer-size=256KB
+ * producer.netty.receive-buffer-size=256KB
+ * producer.netty.allocator=pooled
+ * producer.local.enabled=true
+ * producer.local.name=producer
+ * producer.journal.enabled=true
+ * producer.journal.directory=/var/lib/greetings/events
+ * producer.journal.segment-size=64MB
+ * producer.journal.retained-segments=16
+ * producer.journal.fsync=interval
+ * producer.journal.fsync-interval=1s
+ * producer.journal.queue-capacity=262144
+ * producer.offload.threads=40
+ * producer.offload.queue-capacity=1000
+ * producer.offload.routes=greet
+ * producer.server-timing.enabled=true
+ * producer.server-timing.sample-rate=0.01
+ * producer.fragmentation.mtu=64KB
+ * </pre>
+ */
+@Data
+@ConfigurationProperties("producer")
+public class ProducerProperties {
+
+    private final GreetStream greetStream = new GreetStream();
+
+    private final GreetBatch greetBatch = new GreetBatch();
+
+    private final GreetDownload greetDownload = new GreetDownload();
+
+    private final Metrics metrics = new Metrics();
+
+    private final RouteIndex routeIndex = new RouteIndex();
+
+    private final MetadataExtractor metadataExtractor = new MetadataExtractor();
+
+    private final Compression compression = new Compression();
+
+    private final Lease lease = new Lease();
+
+    private final Resume resume = new Resume();
+
+    private final Broadcast broadcast = new Broadcast();
+
+    private final NettyTuning.Settings netty = new NettyTuning.Settings();
+
+    private final Local local = new Local();
+
+    private final Journal journal = new Journal();
+
+    private final Offload offload = new Offload();
+
+    private final ServerTiming serverTiming = new ServerTiming();
+
+    private final Fragmentation fragmentation = new Fragmentation();
+
+    @Data
+    public static class GreetStream {
+
+        /**
+         * Time between two greetings of a stream.
+         */
+        private Duration interval = Duration.ofSeconds(1);
+
+        /**
+         * Drive every open stream from one shared timer instead of one timer per stream.
+         */
+        private boolean sharedTick = false;
+    }
+
+    @Data
+    public static class GreetBatch {
+
+        /**
+         * Most requests greeted together.
+         */
+        private int maxSize = 256;
+
+        /**
+         * Longest time the first request of a batch waits for the batch to fill up.
+         */
+        private Duration maxDelay = Duration.ofMillis(10);
+    }
+
+    @Data
+    public static class GreetDownload {
+
+        /**
+         * Size of the chunks a download is streamed in, one payload each.
+         */
+        private DataSize chunkSize = DataSize.ofKilobytes(64);
+
+        /**
+         * Largest download served.
+         */
+        private DataSize maxSize = DataSize.ofGigabytes(1);
+    }
+
+    @Data
+    public static class Metrics {
+
+        /**
+         * Record per route timings and frame counts of the RSocket server.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Most routes tagged by name, further routes are recorded as "other".
+         */
+        private int maxRoutes = 100;
+    }
+
+    @Data
+    public static class RouteIndex {
+
+        /**
+         * Resolve routes against an index of the message mappings built at startup.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Most distinct routes kept resolved, further routes are resolved on every message.
+         */
+        private int cacheSize = 10_000;
+    }
+
+    @Data
+    public static class MetadataExtractor {
+
+        /**
+         * Read request metadata in place on the frame and decode only the entries handlers ask for.
+         */
+        private boolean inPlace = true;
+    }
+
+    @Data
+    public static class Compression {
+
+        /**
+         * Algorithm of the responses to requesters that asked for compression, "none" to send them as is.
+         */
+        private PayloadCompression.Algorithm algorithm = PayloadCompression.Algorithm.SNAPPY;
+
+        /**
+         * Smallest response data compressed.
+         */
+        private DataSize threshold = DataSize.ofKilobytes(1);
+
+        /**
+         * Routes whose responses are compressed, all of them when empty.
+         */
+        private List<String> routes = new ArrayList<>();
+    }
+
+    @Data
+    public static class Lease {
+
+        /**
+         * Hand out RSocket leases sized from handler latency, requests beyond them are
+         * rejected. Clients have to enable leases too, or they are told lease is not supported.
+         */
+        private boolean enabled = false;
+
+        /**
+         * How often leases are sized and sent.
+         */
+        private Duration interval = Duration.ofSeconds(1);
+
+        /**
+         * Average request-response latency above which the concurrency limit backs off.
+         */
+        private Duration latencyThreshold = Duration.ofMillis(100);
+
+        private int initialLimit = 100;
+
+        private int minLimit = 10;
+
+        private int maxLimit = 10_000;
+
+        /**
+         * Factor applied to the concurrency limit when latency is above the threshold.
+         */
+        private double backoff = 0.8;
+    }
+
+    @Data
+    public static class Resume {
+
+        /**
+         * Keep the sessions of requesters that ask for resumption open while they reconnect.
+         */
+        private boolean enabled = true;
+
+        /**
+         * How long a session may stay disconnected before it is closed for good.
+         */
+        private Duration sessionDuration = Duration.ofSeconds(60);
+
+        /**
+         * How long a resumed connection may take to send again what the requester missed.
+         */
+        private Duration streamTimeout = Duration.ofSeconds(10);
+
+        /**
+         * Most frames kept per session for the requester to catch up on, beyond which the
+         * oldest ones are dropped and the session can no longer be resumed from them.
+         */
+        private DataSize cacheSize = DataSize.ofMegabytes(1);
+    }
+
+    @Data
+    public static class Broadcast {
+
+        /**
+         * Most broadcast messages not yet written out to a client, further ones skip it.
+         */
+        private int maxPending = 256;
+    }
+
+    @Data
+    public static class Local {
+
+        /**
+         * Also serve requesters in the same JVM over the local transport.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Name requesters connect to the local transport with.
+         */
+        private String name = "producer";
+    }
+
+    @Data
+    public static class Journal {
+
+        /**
+         * Journal {@code greet.event} audit events and serve their replay.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Where the segments of the journal are written, a directory under the system's
+         * temporary directory when not set.
+         */
+        private File directory = new File(System.getProperty("java.io.tmpdir"), "greet-events");
+
+        /**
+         * Size of a segment file, also the largest event journaled.
+         */
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+        /**
+         * Most segments kept on disk, older ones are deleted, 0 to keep them all.
+         */
+        private int retainedSegments = 16;
+
+        /**
+         * When journaled events are forced to disk: after every batch, at most every
+         * {@code fsync-interval}, or when the operating system gets to it.
+         */
+        private EventJournal.Fsync fsync = EventJournal.Fsync.INTERVAL;
+
+        private Duration fsyncInterval = Duration.ofSeconds(1);
+
+        /**
+         * Most events waiting to be journaled, further ones are dropped.
+         */
+        private int queueCapacity = 262_144;
+    }
+
+    @Data
+    public static class Offload {
+
+        /**
+         * Threads running the handlers offloaded from the event loops, 0 for ten per core.
+         */
+        private int threads = 0;
+
+        /**
+         * Most offloaded messages waiting for a thread, further ones are rejected.
+         */
+        private int queueCapacity = 1000;
+
+        /**
+         * Route patterns of the handlers to offload, next to those annotated with {@code @Offload}.
+         */
+        private List<String> routes = new ArrayList<>();
+    }
+
+    @Data
+    public static class ServerTiming {
+
+        /**
+         * Return the time spent decoding, dispatching, handling and encoding in the
+         * metadata of sampled responses.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Share of the request-response calls timed.
+         */
+        private double sampleRate = 0.01;
+    }
+
+    @Data
+    public static class Fragmentation {
+
+        /**
+         * Largest frame sent over TCP and WebSocket connections, larger payloads being
+         * split into fragments of that size. Unset sends every payload as one frame and
+         * leaves fragments received unassembled, so requesters that fragment need it set.
+         */
+        private DataSize mtu;
+    }
+}
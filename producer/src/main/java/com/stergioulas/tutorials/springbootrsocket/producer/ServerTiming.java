@@ -0,0 +1,234 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.metadata.CompositeMetadataFlyweight;
+import io.rsocket.metadata.WellKnownMimeType;
+import io.rsocket.util.ByteBufPayload;
+import io.rsocket.util.RSocketProxy;
+import org.reactivestreams.Publisher;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.ReactiveAdapter;
+import org.springframework.core.ReactiveAdapterRegistry;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.handler.invocation.reactive.HandlerMethodArgumentResolver;
+import org.springframework.messaging.handler.invocation.reactive.HandlerMethodReturnValueHandler;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Breaks the time a sample of request-response calls spend in the producer down into
+ * phases and returns them to the requester, in an entry of the response metadata.
+ * <p>
+ * The phases, in the order they are written as unsigned 32 bit microseconds:
+ * <ul>
+ * <li>{@code decode}: reading the request metadata into message headers and the request
+ * data into the handler's payload argument</li>
+ * <li>{@code dispatch}: finding the handler of the route, including the wait for a
+ * thread when the handler is offloaded</li>
+ * <li>{@code handler}: the handler method, until its result has a value</li>
+ * <li>{@code encode}: writing the value into the response data, and compressing it</li>
+ * </ul>
+ * A payload argument declared as a publisher is decoded while the handler reads it, and
+ * counts as handler time.
+ * <p>
+ * Only connections with composite metadata get the entry. Outside the sample a call
+ * costs a random number, and a lookup in the Reactor context at each phase boundary.
+ */
+class ServerTiming {
+
+    /**
+     * Mime type of the response metadata entry.
+     */
+    static final String MIME_TYPE = "message/x.greetings.server-timing";
+
+    private static final String COMPOSITE = WellKnownMimeType.MESSAGE_RSOCKET_COMPOSITE_METADATA.getString();
+
+    private final double sampleRate;
+
+    private final ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+
+    ServerTiming(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Wraps the responder side of a connection, as is unless it uses composite metadata.
+     */
+    RSocket responder(RSocket rsocket, String metadataMimeType) {
+        return COMPOSITE.equals(metadataMimeType) ? new TimingRSocket(rsocket) : rsocket;
+    }
+
+    /**
+     * Ends the dispatch phase once the handling of a matched message is subscribed to.
+     */
+    Mono<Void> dispatched(Mono<Void> handling) {
+        return withSample(sample -> {
+            sample.dispatched = System.nanoTime();
+            return handling;
+        }, () -> handling);
+    }
+
+    /**
+     * Times the decoding done by a payload argument resolver.
+     */
+    HandlerMethodArgumentResolver decoding(HandlerMethodArgumentResolver resolver) {
+        return new HandlerMethodArgumentResolver() {
+
+            @Override
+            public boolean supportsParameter(MethodParameter parameter) {
+                return resolver.supportsParameter(parameter);
+            }
+
+            @Override
+            public Mono<Object> resolveArgument(MethodParameter parameter, Message<?> message) {
+                return withSample(sample -> {
+                    long start = System.nanoTime();
+                    return resolver.resolveArgument(parameter, message)
+                            .doOnSuccess(value -> sample.dataDecode += System.nanoTime() - start);
+                }, () -> resolver.resolveArgument(parameter, message));
+            }
+        };
+    }
+
+    /**
+     * Ends the handler phase when the value to encode is there, right away for values
+     * returned as is and at the first element of publishers.
+     */
+    HandlerMethodReturnValueHandler handled(HandlerMethodReturnValueHandler handler, ReactiveAdapterRegistry adapters) {
+        return new HandlerMethodReturnValueHandler() {
+
+            @Override
+            public boolean supportsReturnType(MethodParameter returnType) {
+                return handler.supportsReturnType(returnType);
+            }
+
+            @Override
+            public Mono<Void> handleReturnValue(@Nullable Object returnValue, MethodParameter returnType,
+                                                Message<?> message) {
+                // handing the value over completes the reply, so it is done once, inside
+                return withSample(sample -> {
+                    ReactiveAdapter adapter = adapters.getAdapter(returnType.getParameterType(), returnValue);
+                    if (adapter == null || returnValue == null) {
+                        sample.handled();
+                        return handler.handleReturnValue(returnValue, returnType, message);
+                    }
+                    Publisher<?> values = adapter.toPublisher(returnValue);
+                    Publisher<?> marked = adapter.isMultiValue()
+                            ? Flux.from(values).doOnNext(value -> sample.handled())
+                            : Mono.from(values).doOnNext(value -> sample.handled());
+                    return handler.handleReturnValue(adapter.fromPublisher(marked), returnType, message);
+                }, () -> handler.handleReturnValue(returnValue, returnType, message));
+            }
+        };
+    }
+
+    private static <T> Mono<T> withSample(Function<Sample, Mono<T>> sampled, Supplier<Mono<T>> unsampled) {
+        return Mono.subscriberContext().flatMap(context -> {
+            Sample sample = context.getOrDefault(Sample.class, null);
+            return sample != null ? sampled.apply(sample) : unsampled.get();
+        });
+    }
+
+    /**
+     * Adds the timing entry to the metadata of a response. Takes ownership of the payload.
+     */
+    private Payload attach(Payload payload, Sample sample) {
+        try {
+            long now = System.nanoTime();
+            ByteBuf timings = this.allocator.buffer(4 * Integer.BYTES);
+            for (long phase : sample.phases(now)) {
+                timings.writeInt((int) Math.min(TimeUnit.NANOSECONDS.toMicros(Math.max(phase, 0)), 0xFFFFFFFFL));
+            }
+            CompositeByteBuf metadata = this.allocator.compositeBuffer();
+            if (payload.hasMetadata()) {
+                metadata.addComponent(true, payload.sliceMetadata().retain());
+            }
+            CompositeMetadataFlyweight.encodeAndAddMetadata(metadata, this.allocator, MIME_TYPE, timings);
+            return ByteBufPayload.create(payload.sliceData().retain(), metadata);
+        }
+        finally {
+            payload.release();
+        }
+    }
+
+    /**
+     * Phase boundaries of one sampled call, set one after the other as the call goes
+     * through the handler, each signal happening after the previous one.
+     */
+    static final class Sample {
+
+        private final long received;
+
+        private long metadataDecode;
+
+        private long dataDecode;
+
+        private long subscribed;
+
+        private long dispatched;
+
+        private long handled;
+
+        private boolean hasValue;
+
+        private Sample(long received) {
+            this.received = received;
+        }
+
+        private void handled() {
+            if (!this.hasValue) {
+                this.hasValue = true;
+                this.handled = System.nanoTime();
+            }
+        }
+
+        /**
+         * @return decode, dispatch, handler and encode time in nanoseconds
+         */
+        private long[] phases(long sent) {
+            long dispatched = this.dispatched != 0 ? this.dispatched : this.subscribed;
+            long handled = this.hasValue ? this.handled : sent;
+            return new long[]{
+                    this.metadataDecode + this.dataDecode,
+                    dispatched - this.subscribed,
+                    handled - dispatched - this.dataDecode,
+                    sent - handled
+            };
+        }
+    }
+
+    private final class TimingRSocket extends RSocketProxy {
+
+        private TimingRSocket(RSocket source) {
+            super(source);
+        }
+
+        @Override
+        public Mono<Payload> requestResponse(Payload payload) {
+            if (ThreadLocalRandom.current().nextDouble() >= ServerTiming.this.sampleRate) {
+                return super.requestResponse(payload);
+            }
+            Sample sample = new Sample(System.nanoTime());
+            // the message handler reads the metadata into headers right away
+            Mono<Payload> response = super.requestResponse(payload);
+            sample.metadataDecode = System.nanoTime() - sample.received;
+            return Mono.defer(() -> {
+                sample.subscribed = System.nanoTime();
+                return response;
+            })
+                    .map(result -> attach(result, sample))
+                    .subscriberContext(Context.of(Sample.class, sample));
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.rsocket.DuplexConnection;
+import io.rsocket.RSocketFactory;
+import io.rsocket.frame.ErrorFrameFlyweight;
+import io.rsocket.frame.ErrorType;
+import io.rsocket.frame.FrameHeaderFlyweight;
+import io.rsocket.frame.FrameType;
+import io.rsocket.plugins.DuplexConnectionInterceptor;
+import io.rsocket.resume.InMemoryResumableFramesStore;
+import io.rsocket.resume.ResumableFramesStore;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the RSocket sessions of requesters that ask for resumption open across
+ * transient disconnects.
+ * <p>
+ * A session outlives its connection for up to {@code sessionDuration}, streams such as
+ * {@code greet-stream} keep producing into a buffer of at most {@code cacheSize} bytes,
+ * and a requester that comes back with the token of the session gets what it missed
+ * before the streams carry on. Frames the requester acknowledged in its keepalives are
+ * released from the buffer as they come. Requesters that don't ask for resumption are
+ * served as before.
+ * <p>
+ * Meters are named {@code rsocket.server.resume.*}: resumptions by {@code outcome},
+ * rejected ones being those of an expired session or one whose buffer no longer has
+ * what the requester missed, the frames {@code replayed} and the open {@code sessions}.
+ */
+class SessionResumption {
+
+    private final Duration sessionDuration;
+
+    private final Duration streamTimeout;
+
+    private final int cacheSize;
+
+    private final AtomicInteger sessions = new AtomicInteger();
+
+    private final Counter resumed;
+
+    private final Counter rejected;
+
+    private final Counter replayed;
+
+    SessionResumption(ProducerProperties.Resume settings, MeterRegistry registry) {
+        this.sessionDuration = settings.getSessionDuration();
+        this.streamTimeout = settings.getStreamTimeout();
+        this.cacheSize = (int) settings.getCacheSize().toBytes();
+        this.resumed = outcome("success", registry);
+        this.rejected = outcome("failure", registry);
+        this.replayed = Counter.builder("rsocket.server.resume.replayed")
+                .description("Frames sent again after a session resumed")
+                .register(registry);
+        Gauge.builder("rsocket.server.resume.sessions", this.sessions, AtomicInteger::get)
+                .description("Resumable sessions open, connected or not")
+                .register(registry);
+    }
+
+    private static Counter outcome(String outcome, MeterRegistry registry) {
+        return Counter.builder("rsocket.server.resume")
+                .description("Sessions resumed by requesters, or rejected")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    RSocketFactory.ServerRSocketFactory configure(RSocketFactory.ServerRSocketFactory factory) {
+        return factory.resume()
+                .resumeStore(this::store)
+                .resumeSessionDuration(this.sessionDuration)
+                .resumeStreamTimeout(this.streamTimeout)
+                .resumeCleanupOnKeepAlive()
+                .addConnectionPlugin(connectionInterceptor());
+    }
+
+    private ResumableFramesStore store(ByteBuf token) {
+        this.sessions.incrementAndGet();
+        return new MeteredFramesStore(new InMemoryResumableFramesStore("server", this.cacheSize));
+    }
+
+    /**
+     * Sees the answers to RESUME frames, which are sent on the new connection before it
+     * joins the session.
+     */
+    private DuplexConnectionInterceptor connectionInterceptor() {
+        return (type, connection) -> type == DuplexConnectionInterceptor.Type.SOURCE
+                ? new ResumeAwareConnection(connection)
+                : connection;
+    }
+
+    private void sent(ByteBuf frame) {
+        FrameType frameType = FrameHeaderFlyweight.frameType(frame);
+        if (frameType == FrameType.RESUME_OK) {
+            this.resumed.increment();
+        }
+        else if (frameType == FrameType.ERROR && ErrorFrameFlyweight.errorCode(frame) == ErrorType.REJECTED_RESUME) {
+            this.rejected.increment();
+        }
+    }
+
+    private final class ResumeAwareConnection implements DuplexConnection {
+
+        private final DuplexConnection source;
+
+        private ResumeAwareConnection(DuplexConnection source) {
+            this.source = source;
+        }
+
+        @Override
+        public Mono<Void> send(Publisher<ByteBuf> frames) {
+            return this.source.send(Flux.from(frames).doOnNext(SessionResumption.this::sent));
+        }
+
+        @Override
+        public Mono<Void> sendOne(ByteBuf frame) {
+            sent(frame);
+            return this.source.sendOne(frame);
+        }
+
+        @Override
+        public Flux<ByteBuf> receive() {
+            return this.source.receive();
+        }
+
+        @Override
+        public double availability() {
+            return this.source.availability();
+        }
+
+        @Override
+        public Mono<Void> onClose() {
+            return this.source.onClose();
+        }
+
+        @Override
+        public void dispose() {
+            this.source.dispose();
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return this.source.isDisposed();
+        }
+    }
+
+    private final class MeteredFramesStore implements ResumableFramesStore {
+
+        private final ResumableFramesStore delegate;
+
+        private MeteredFramesStore(ResumableFramesStore delegate) {
+            this.delegate = delegate;
+            delegate.onClose().doFinally(signal -> sessions.decrementAndGet()).subscribe();
+        }
+
+        @Override
+        public Mono<Void> saveFrames(Flux<ByteBuf> frames) {
+            return this.delegate.saveFrames(frames);
+        }
+
+        @Override
+        public void releaseFrames(long position) {
+            this.delegate.releaseFrames(position);
+        }
+
+        @Override
+        public Flux<ByteBuf> resumeStream() {
+            return this.delegate.resumeStream().doOnNext(frame -> replayed.increment());
+        }
+
+        @Override
+        public long framePosition() {
+            return this.delegate.framePosition();
+        }
+
+        @Override
+        public long frameImpliedPosition() {
+            return this.delegate.frameImpliedPosition();
+        }
+
+        @Override
+        public void resumableFrameReceived(ByteBuf frame) {
+            this.delegate.resumableFrameReceived(frame);
+        }
+
+        @Override
+        public Mono<Void> onClose() {
+            return this.delegate.onClose();
+        }
+
+        @Override
+        public void dispose() {
+            this.delegate.dispose();
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return this.delegate.isDisposed();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import reactor.netty.tcp.TcpServer;
+
+/**
+ * Customizes the {@link TcpServer} the RSocket server listens with, before it is bound.
+ * Beans of this type are applied in order, after {@code producer.netty.*}.
+ */
+@FunctionalInterface
+interface TcpServerCustomizer {
+
+    TcpServer customize(TcpServer server);
+}
@@ -0,0 +1,123 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import com.stergioulas.tutorials.springbootrsocket.support.ObjectReferenceCodec;
+import io.rsocket.RSocketFactory;
+import io.rsocket.SocketAcceptor;
+import io.rsocket.exceptions.RejectedSetupException;
+import io.rsocket.transport.ServerTransport;
+import io.rsocket.transport.netty.server.CloseableChannel;
+import io.rsocket.transport.netty.server.TcpServerTransport;
+import io.rsocket.transport.netty.server.WebsocketServerTransport;
+import org.springframework.boot.rsocket.netty.NettyRSocketServer;
+import org.springframework.boot.rsocket.server.ConfigurableRSocketServerFactory;
+import org.springframework.boot.rsocket.server.RSocketServer;
+import org.springframework.boot.rsocket.server.RSocketServerFactory;
+import org.springframework.boot.rsocket.server.ServerRSocketFactoryProcessor;
+import org.springframework.util.InvalidMimeTypeException;
+import org.springframework.util.MimeTypeUtils;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.tcp.TcpServer;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/**
+ * Boot's {@code NettyRSocketServerFactory}, with the {@link TcpServer} handed to
+ * {@link TcpServerCustomizer}s before the server is bound.
+ * <p>
+ * Boot's factory puts the server on the event loops WebFlux uses and leaves no way to
+ * set socket options, so this one takes its place and leaves the event loops to the
+ * customizers as well.
+ */
+class TunedRSocketServerFactory implements RSocketServerFactory, ConfigurableRSocketServerFactory {
+
+    private final List<TcpServerCustomizer> customizers;
+
+    private final List<ServerRSocketFactoryProcessor> processors;
+
+    private int port = 9898;
+
+    private InetAddress address;
+
+    private RSocketServer.Transport transport = RSocketServer.Transport.TCP;
+
+    TunedRSocketServerFactory(List<TcpServerCustomizer> customizers, List<ServerRSocketFactoryProcessor> processors) {
+        this.customizers = customizers;
+        this.processors = processors;
+    }
+
+    @Override
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    @Override
+    public void setAddress(InetAddress address) {
+        this.address = address;
+    }
+
+    @Override
+    public void setTransport(RSocketServer.Transport transport) {
+        this.transport = transport;
+    }
+
+    @Override
+    public NettyRSocketServer create(SocketAcceptor socketAcceptor) {
+        RSocketFactory.ServerRSocketFactory factory = RSocketFactory.receive();
+        for (ServerRSocketFactoryProcessor processor : this.processors) {
+            factory = processor.process(factory);
+        }
+        Mono<CloseableChannel> starter = factory.acceptor(withoutObjectReferences(socketAcceptor))
+                .transport(createTransport())
+                .start();
+        return new NettyRSocketServer(starter, null);
+    }
+
+    /**
+     * Object references only mean something in memory, so a connection over the network
+     * asking for them is rejected rather than handed keys it cannot read.
+     */
+    private static SocketAcceptor withoutObjectReferences(SocketAcceptor acceptor) {
+        return (setup, sendingSocket) -> {
+            if (isObjectReference(setup.dataMimeType())) {
+                return Mono.error(new RejectedSetupException(
+                        ObjectReferenceCodec.MIME_TYPE + " is only served over the local transport"));
+            }
+            return acceptor.accept(setup, sendingSocket);
+        };
+    }
+
+    private static boolean isObjectReference(String mimeType) {
+        try {
+            return ObjectReferenceCodec.MIME_TYPE.isCompatibleWith(MimeTypeUtils.parseMimeType(mimeType));
+        }
+        catch (InvalidMimeTypeException ex) {
+            // left for the acceptor to turn down
+            return false;
+        }
+    }
+
+    private ServerTransport<CloseableChannel> createTransport() {
+        if (this.transport == RSocketServer.Transport.WEBSOCKET) {
+            return WebsocketServerTransport.create(HttpServer.create()
+                    .tcpConfiguration(server -> customize(server.addressSupplier(this::listenAddress))));
+        }
+        return TcpServerTransport.create(customize(TcpServer.create().addressSupplier(this::listenAddress)));
+    }
+
+    private TcpServer customize(TcpServer server) {
+        for (TcpServerCustomizer customizer : this.customizers) {
+            server = customizer.customize(server);
+        }
+        return server;
+    }
+
+    private InetSocketAddress listenAddress() {
+        if (this.address != null) {
+            return new InetSocketAddress(this.address.getHostAddress(), this.port);
+        }
+        return new InetSocketAddress(this.port);
+    }
+}
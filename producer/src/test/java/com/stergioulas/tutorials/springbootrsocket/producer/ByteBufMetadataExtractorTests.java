@@ -0,0 +1,147 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.rsocket.Payload;
+import io.rsocket.metadata.CompositeMetadataFlyweight;
+import io.rsocket.metadata.TaggingMetadataFlyweight;
+import io.rsocket.metadata.WellKnownMimeType;
+import io.rsocket.util.ByteBufPayload;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.codec.Decoder;
+import org.springframework.core.codec.StringDecoder;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.messaging.rsocket.DefaultMetadataExtractor;
+import org.springframework.messaging.rsocket.MetadataExtractor;
+import org.springframework.messaging.rsocket.MetadataExtractorRegistry;
+import org.springframework.util.MimeType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+
+class ByteBufMetadataExtractorTests {
+
+    private static final MimeType COMPOSITE = MimeType.valueOf(WellKnownMimeType.MESSAGE_RSOCKET_COMPOSITE_METADATA.getString());
+
+    private static final MimeType ROUTING = MimeType.valueOf(WellKnownMimeType.MESSAGE_RSOCKET_ROUTING.getString());
+
+    private static final MimeType TEXT = MimeType.valueOf("text/plain");
+
+    private static final MimeType TRACE = MimeType.valueOf("application/vnd.example.trace");
+
+    private static final MimeType JSON = MimeType.valueOf("application/vnd.example.metadata+json");
+
+    private final List<Decoder<?>> decoders = Arrays.asList(StringDecoder.allMimeTypes(), new Jackson2JsonDecoder());
+
+    private final ByteBufMetadataExtractor extractor = register(new ByteBufMetadataExtractor(this.decoders));
+
+    private final DefaultMetadataExtractor reference = register(new DefaultMetadataExtractor(this.decoders));
+
+    @Test
+    void extractsWhatTheDefaultExtractorDoes() {
+        Payload composite = composite("greet", true);
+        Payload routing = ByteBufPayload.create(Unpooled.EMPTY_BUFFER, route("greet-stream"));
+
+        assertThat(this.extractor.extract(composite, COMPOSITE))
+                .isEqualTo(this.reference.extract(composite, COMPOSITE))
+                .containsEntry(MetadataExtractor.ROUTE_KEY, "greet")
+                .containsEntry("text", "hello")
+                .containsEntry("trace", "abc")
+                .containsEntry("tenant", "acme");
+        assertThat(this.extractor.extract(routing, ROUTING))
+                .isEqualTo(this.reference.extract(routing, ROUTING))
+                .isEqualTo(Collections.singletonMap(MetadataExtractor.ROUTE_KEY, "greet-stream"));
+    }
+
+    @Test
+    void decodesOnlyRequiredHeaders() {
+        this.extractor.setRequiredHeaders(Collections.singleton("trace"));
+
+        Map<String, Object> values = this.extractor.extract(composite("greet", true), COMPOSITE);
+
+        assertThat(values).containsOnlyKeys(MetadataExtractor.ROUTE_KEY, "trace", "tenant");
+    }
+
+    @Test
+    void reusesRouteStrings() {
+        Object first = this.extractor.extract(composite("greet", false), COMPOSITE).get(MetadataExtractor.ROUTE_KEY);
+        Object second = this.extractor.extract(composite("greet", false), COMPOSITE).get(MetadataExtractor.ROUTE_KEY);
+        Object other = this.extractor.extract(composite("greet-batch", false), COMPOSITE).get(MetadataExtractor.ROUTE_KEY);
+
+        assertThat(second).isSameAs(first);
+        assertThat(other).isEqualTo("greet-batch");
+    }
+
+    @Test
+    void leavesRoomForADefaultRoute() {
+        Map<String, Object> empty = this.extractor.extract(
+                ByteBufPayload.create(Unpooled.EMPTY_BUFFER, Unpooled.EMPTY_BUFFER), COMPOSITE);
+        Map<String, Object> routed = this.extractor.extract(composite("greet", false), COMPOSITE);
+
+        // as MessagingRSocket does before reading the route
+        empty.putIfAbsent(MetadataExtractor.ROUTE_KEY, "");
+        routed.putIfAbsent(MetadataExtractor.ROUTE_KEY, "");
+
+        assertThat(empty).isEqualTo(Collections.singletonMap(MetadataExtractor.ROUTE_KEY, ""));
+        assertThat(routed).isEqualTo(Collections.singletonMap(MetadataExtractor.ROUTE_KEY, "greet"));
+    }
+
+    @Test
+    void rejectsTruncatedMetadata() {
+        ByteBuf metadata = composite("greet", false).metadata();
+        Payload truncated = ByteBufPayload.create(Unpooled.EMPTY_BUFFER, metadata.slice(0, metadata.readableBytes() - 1));
+
+        assertThatIllegalArgumentException().isThrownBy(() -> this.extractor.extract(truncated, COMPOSITE));
+    }
+
+    @Test
+    void looksUpDecodersOnceTheyAreSet() {
+        ByteBufMetadataExtractor deferred = register(new ByteBufMetadataExtractor());
+        Payload composite = composite("greet", true);
+
+        assertThatIllegalStateException().isThrownBy(() -> deferred.extract(composite, COMPOSITE));
+
+        deferred.setDecoders(this.decoders);
+
+        assertThat(deferred.extract(composite, COMPOSITE)).isEqualTo(this.reference.extract(composite, COMPOSITE));
+    }
+
+    private static <T extends MetadataExtractorRegistry> T register(T registry) {
+        registry.metadataToExtract(TEXT, String.class, "text");
+        registry.metadataToExtract(TRACE, String.class, "trace");
+        registry.metadataToExtract(JSON, new ParameterizedTypeReference<Map<String, String>>() {
+        }, (json, values) -> values.putAll(json));
+        return registry;
+    }
+
+    private static Payload composite(String route, boolean extras) {
+        ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+        CompositeByteBuf metadata = allocator.compositeBuffer();
+        CompositeMetadataFlyweight.encodeAndAddMetadata(metadata, allocator, WellKnownMimeType.MESSAGE_RSOCKET_ROUTING, route(route));
+        if (extras) {
+            CompositeMetadataFlyweight.encodeAndAddMetadata(metadata, allocator, WellKnownMimeType.TEXT_PLAIN, utf8("hello"));
+            CompositeMetadataFlyweight.encodeAndAddMetadata(metadata, allocator, TRACE.toString(), utf8("abc"));
+            CompositeMetadataFlyweight.encodeAndAddMetadata(metadata, allocator, "application/vnd.example.unknown", utf8("?"));
+            CompositeMetadataFlyweight.encodeAndAddMetadata(metadata, allocator, JSON.toString(), utf8("{\"tenant\":\"acme\"}"));
+        }
+        return ByteBufPayload.create(Unpooled.EMPTY_BUFFER, metadata);
+    }
+
+    private static ByteBuf route(String route) {
+        return TaggingMetadataFlyweight.createRoutingMetadata(ByteBufAllocator.DEFAULT, Collections.singletonList(route)).getContent();
+    }
+
+    private static ByteBuf utf8(String value) {
+        return Unpooled.copiedBuffer(value, StandardCharsets.UTF_8);
+    }
+}
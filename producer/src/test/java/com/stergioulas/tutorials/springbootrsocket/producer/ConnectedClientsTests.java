@@ -0,0 +1,186 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import com.stergioulas.tutorials.springbootrsocket.support.RSocketMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.RSocketFactory;
+import io.rsocket.frame.decoder.PayloadDecoder;
+import io.rsocket.metadata.WellKnownMimeType;
+import io.rsocket.transport.local.LocalClientTransport;
+import io.rsocket.transport.local.LocalServerTransport;
+import io.rsocket.util.DefaultPayload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.messaging.rsocket.annotation.support.RSocketMessageHandler;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConnectedClientsTests {
+
+    private static final String COMPOSITE = WellKnownMimeType.MESSAGE_RSOCKET_COMPOSITE_METADATA.getString();
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final ConnectedClients clients = new ConnectedClients(RSocketStrategies.create(), 2, this.registry);
+
+    private final List<RSocket> connections = new ArrayList<>();
+
+    private Disposable server;
+
+    @BeforeEach
+    void startServer() {
+        this.server = RSocketFactory.receive()
+                .acceptor((setup, sendingSocket) -> {
+                    RSocketRequester requester = RSocketRequester.wrap(sendingSocket,
+                            MimeTypeUtils.TEXT_PLAIN, MimeType.valueOf(setup.metadataMimeType()), RSocketStrategies.create());
+                    this.clients.register(requester, setup.getDataUtf8());
+                    return Mono.just(new AbstractRSocket() {
+                    });
+                })
+                .transport(LocalServerTransport.create("connected-clients"))
+                .start()
+                .block();
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.connections.forEach(RSocket::dispose);
+        this.server.dispose();
+    }
+
+    @Test
+    void broadcastsToEveryClientOrToTheTaggedOnes() {
+        List<Payload> first = connect("eu", false);
+        List<Payload> second = connect("eu,premium", false);
+        List<Payload> third = connect("", false);
+
+        assertThat(this.clients.fireAndForget("news", "Hello everyone", null)).isEqualTo(3);
+        assertThat(this.clients.fireAndForget("news", "Hello premium", "premium")).isEqualTo(1);
+        assertThat(this.clients.fireAndForget("news", "Hello nobody", "us")).isZero();
+        await(() -> first.size() + second.size() + third.size() == 4);
+
+        assertThat(first).extracting(Payload::getDataUtf8).containsExactly("Hello everyone");
+        assertThat(second).extracting(Payload::getDataUtf8).containsExactly("Hello everyone", "Hello premium");
+        assertThat(third).extracting(Payload::getDataUtf8).containsExactly("Hello everyone");
+        assertThat(RSocketMetrics.readRoute(first.get(0), COMPOSITE)).isEqualTo("news");
+        assertThat(this.registry.get("rsocket.server.broadcast").tag("outcome", "sent").counter().count()).isEqualTo(4);
+    }
+
+    @Test
+    void skipsClientsThatFallBehind() {
+        List<Payload> slow = connect("", true);
+        List<Payload> fast = connect("", false);
+
+        this.clients.stream("news", Flux.range(0, 5).map(String::valueOf), null).block();
+        await(() -> fast.size() == 5 && slow.size() == 2);
+
+        assertThat(fast).extracting(Payload::getDataUtf8).containsExactly("0", "1", "2", "3", "4");
+        assertThat(slow).extracting(Payload::getDataUtf8).containsExactly("0", "1");
+        assertThat(this.registry.get("rsocket.server.broadcast").tag("outcome", "skipped").counter().count()).isEqualTo(3);
+
+        // once the slow client let go of what it got, it is sent to again
+        slow.forEach(Payload::release);
+        assertThat(this.clients.fireAndForget("news", "5", null)).isEqualTo(2);
+        await(() -> slow.size() == 3);
+    }
+
+    @Test
+    void forgetsClientsThatDisconnect() {
+        connect("eu", false);
+        connect("eu", false);
+        await(() -> this.clients.size() == 2);
+
+        this.connections.remove(0).dispose();
+        await(() -> this.clients.size() == 1);
+
+        assertThat(this.clients.fireAndForget("news", "Hello", "eu")).isEqualTo(1);
+        assertThat(this.registry.get("rsocket.server.clients").gauge().value()).isEqualTo(1);
+    }
+
+    @Test
+    void takesTheTagsFromTheSetupMetadataOfTheConnectMapping() {
+        RSocketStrategies.Builder strategies = RSocketStrategies.builder();
+        new ProducerApplication().clientTagsCustomizer().customize(strategies);
+        RSocketMessageHandler handler = new RSocketMessageHandler();
+        handler.setRSocketStrategies(strategies.build());
+        handler.setHandlers(Collections.singletonList(new ConnectedClientsController(this.clients)));
+        handler.afterPropertiesSet();
+        Disposable server = RSocketFactory.receive()
+                .acceptor(handler.responder())
+                .transport(LocalServerTransport.create("connected-clients-mapping"))
+                .start()
+                .block();
+        List<Payload> received = new CopyOnWriteArrayList<>();
+        RSocketRequester requester = RSocketRequester.builder()
+                .dataMimeType(MimeTypeUtils.TEXT_PLAIN)
+                .setupMetadata("eu,premium", MimeType.valueOf(ConnectedClients.TAGS_MIME_TYPE))
+                .rsocketFactory(factory -> factory.acceptor(sendingSocket -> receiver(received)))
+                .connect(LocalClientTransport.create("connected-clients-mapping"))
+                .block();
+        try {
+            await(() -> this.clients.size() == 1);
+
+            assertThat(this.clients.fireAndForget("news", "Hello premium", "premium")).isEqualTo(1);
+            assertThat(this.clients.fireAndForget("news", "Hello us", "us")).isZero();
+            await(() -> received.size() == 1);
+            assertThat(received).extracting(Payload::getDataUtf8).containsExactly("Hello premium");
+        }
+        finally {
+            requester.rsocket().dispose();
+            server.dispose();
+        }
+    }
+
+    /**
+     * @param holding whether the client holds on to what it receives, zero-copy payloads
+     *                keep the frame they came in until released
+     */
+    private List<Payload> connect(String tags, boolean holding) {
+        List<Payload> received = new CopyOnWriteArrayList<>();
+        RSocket connection = RSocketFactory.connect()
+                .metadataMimeType(COMPOSITE)
+                .setupPayload(DefaultPayload.create(tags))
+                .frameDecoder(holding ? PayloadDecoder.ZERO_COPY : PayloadDecoder.DEFAULT)
+                .acceptor(sendingSocket -> receiver(received))
+                .transport(LocalClientTransport.create("connected-clients"))
+                .start()
+                .block();
+        this.connections.add(connection);
+        return received;
+    }
+
+    private static RSocket receiver(List<Payload> received) {
+        return new AbstractRSocket() {
+            @Override
+            public Mono<Void> fireAndForget(Payload payload) {
+                received.add(payload);
+                return Mono.empty();
+            }
+        };
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+}
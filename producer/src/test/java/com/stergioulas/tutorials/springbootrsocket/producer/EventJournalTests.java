@@ -0,0 +1,131 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventJournalTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @TempDir
+    Path directory;
+
+    private EventJournal journal;
+
+    @AfterEach
+    void close() {
+        if (this.journal != null) {
+            this.journal.close();
+        }
+    }
+
+    @Test
+    void replaysRangesAcrossSegments() throws IOException {
+        // 8 bytes of header and 8 of event, 4 events per segment
+        open(64, 0, EventJournal.Fsync.BATCH);
+        append(0, 10);
+
+        assertThat(replay(0, Long.MAX_VALUE)).isEqualTo(events(0, 10));
+        assertThat(replay(3, 9)).isEqualTo(events(3, 9));
+        assertThat(replay(10, 20)).isEmpty();
+        assertThat(segmentFiles()).hasSize(3);
+        assertThat(this.registry.get("greetings.events").tag("outcome", "journaled").counter().count()).isEqualTo(10);
+        assertThat(this.registry.get("greetings.events.fsync").timer().count()).isPositive();
+    }
+
+    @Test
+    void deletesSegmentsBeyondTheRetainedOnes() throws IOException {
+        open(64, 2, EventJournal.Fsync.NEVER);
+        append(0, 10);
+
+        assertThat(segmentFiles()).hasSize(2);
+        // events 0 to 3 went with the first segment
+        assertThat(replay(0, Long.MAX_VALUE)).isEqualTo(events(4, 10));
+        assertThat(this.registry.get("greetings.events.segments").gauge().value()).isEqualTo(2);
+    }
+
+    @Test
+    void carriesOnAfterTheLastIntactRecordWhenReopened() throws IOException {
+        open(64, 0, EventJournal.Fsync.INTERVAL);
+        append(0, 6);
+        this.journal.close();
+        // a record torn by a crash, after events 4 and 5 in the second segment
+        try (RandomAccessFile last = new RandomAccessFile(segmentFiles().get(1).toFile(), "rw")) {
+            last.seek(2 * 16);
+            last.writeInt(8);
+            last.writeInt(42);
+        }
+
+        open(64, 0, EventJournal.Fsync.INTERVAL);
+        assertThat(this.journal.committed()).isEqualTo(6);
+        append(6, 8);
+
+        assertThat(replay(0, Long.MAX_VALUE)).isEqualTo(events(0, 8));
+    }
+
+    @Test
+    void dropsEventsItCannotTake() throws IOException {
+        open(64, 0, EventJournal.Fsync.NEVER);
+
+        assertThat(this.journal.offer(new byte[0])).isFalse();
+        assertThat(this.journal.offer(new byte[64])).isFalse();
+        this.journal.close();
+        assertThat(this.journal.offer(event(0))).isFalse();
+
+        assertThat(this.registry.get("greetings.events").tag("outcome", "dropped").counter().count()).isEqualTo(3);
+    }
+
+    private void open(int segmentSize, int retainedSegments, EventJournal.Fsync fsync) throws IOException {
+        this.journal = new EventJournal(this.directory, segmentSize, fsync, Duration.ofMillis(10), 1000,
+                retainedSegments, this.registry);
+    }
+
+    private void append(int from, int to) {
+        for (int i = from; i < to; i++) {
+            assertThat(this.journal.offer(event(i))).isTrue();
+        }
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (this.journal.committed() < to && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertThat(this.journal.committed()).isEqualTo(to);
+    }
+
+    private List<String> replay(long from, long to) {
+        return this.journal.replay(from, to)
+                .map(event -> event.sequence() + ":" + StandardCharsets.UTF_8.decode(event.data()))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+    }
+
+    private static byte[] event(int i) {
+        return String.format("event-%02d", i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> events(int from, int to) {
+        return IntStream.range(from, to)
+                .mapToObj(i -> i + ":" + String.format("event-%02d", i))
+                .collect(Collectors.toList());
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(this.directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GreetingStreamTickerTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final GreetingStreamTicker ticker = new GreetingStreamTicker(Duration.ofMillis(20), this.registry);
+
+    @AfterEach
+    void destroy() {
+        this.ticker.destroy();
+    }
+
+    @Test
+    void emitsOnlyWhatWasRequested() {
+        StepVerifier.create(this.ticker.stream("Petros"), 2)
+                .assertNext(response -> assertThat(response.getGreeting()).startsWith("Hello Petros @ "))
+                .expectNextCount(1)
+                .expectNoEvent(Duration.ofMillis(100))
+                .thenRequest(1)
+                .expectNextCount(1)
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void tracksActiveStreams() {
+        StepVerifier.create(this.ticker.stream("Petros"))
+                .expectNextCount(1)
+                .then(() -> assertThat(this.registry.get("greetings.stream.active").gauge().value()).isEqualTo(1))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+
+        assertThat(this.ticker.activeStreams()).isZero();
+        assertThat(this.registry.get("greetings.stream.tick").timer().count()).isPositive();
+    }
+}
@@ -0,0 +1,157 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import com.stergioulas.tutorials.springbootrsocket.support.NettyTuning;
+import com.stergioulas.tutorials.springbootrsocket.support.SchemaCodec;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.rsocket.RSocketFactory;
+import io.rsocket.exceptions.ApplicationErrorException;
+import io.rsocket.frame.decoder.PayloadDecoder;
+import io.rsocket.transport.netty.client.TcpClientTransport;
+import io.rsocket.transport.netty.server.CloseableChannel;
+import io.rsocket.transport.netty.server.TcpServerTransport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.messaging.rsocket.annotation.support.RSocketMessageHandler;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GreetingsDownloadTests {
+
+    private final NettyTuning tuning = NettyTuning.server(new NettyTuning.Settings());
+
+    private CloseableChannel server;
+
+    private RSocketRequester requester;
+
+    @AfterEach
+    void tearDown() {
+        if (this.requester != null) {
+            this.requester.rsocket().dispose();
+        }
+        if (this.server != null) {
+            this.server.dispose();
+        }
+        this.tuning.dispose();
+    }
+
+    @Test
+    void cutsGreetingLinesIntoChunks() {
+        List<DataBuffer> chunks = GreetingsDownload.generate("Petros", 100_000, 16_384, new DefaultDataBufferFactory())
+                .collectList()
+                .block();
+
+        assertThat(chunks).hasSize(7);
+        assertThat(chunks.subList(0, 6)).allMatch(chunk -> chunk.readableByteCount() == 16_384);
+        String download = join(chunks);
+        assertThat(download).hasSize(100_000).startsWith("Hello Petros #1\nHello Petros #2\n");
+        String[] lines = download.split("\n");
+        for (int i = 0; i < lines.length - 1; i++) {
+            assertThat(lines[i]).isEqualTo("Hello Petros #" + (i + 1));
+        }
+        assertThat("Hello Petros #" + lines.length).startsWith(lines[lines.length - 1]);
+    }
+
+    @Test
+    void writesChunksOnlyAsTheyAreRequested() {
+        AtomicInteger allocated = new AtomicInteger();
+        DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory() {
+
+            @Override
+            public DefaultDataBuffer allocateBuffer(int initialCapacity) {
+                allocated.incrementAndGet();
+                return super.allocateBuffer(initialCapacity);
+            }
+        };
+
+        StepVerifier.create(GreetingsDownload.generate("Petros", 1 << 30, 65_536, bufferFactory), 2)
+                .expectNextCount(2)
+                .then(() -> assertThat(allocated).hasValue(2))
+                .thenRequest(1)
+                .expectNextCount(1)
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+        assertThat(allocated).hasValue(3);
+    }
+
+    @Test
+    void streamsChunksLargerThanTheMtuThroughFragmentingConnections() {
+        start(1024);
+
+        Flux<DataBuffer> download = this.requester.route("greet-download")
+                .data(new GreetingsDownloadRequest("Petros", 300_000))
+                .retrieveFlux(DataBuffer.class);
+        List<DataBuffer> chunks = download.collectList().block(Duration.ofSeconds(5));
+
+        // reassembled from their fragments, rather than handed over one fragment at a time
+        assertThat(chunks).extracting(DataBuffer::readableByteCount).containsExactly(102_400, 102_400, 95_200);
+        assertThat(join(chunks)).isEqualTo(join(
+                GreetingsDownload.generate("Petros", 300_000, 300_000, new DefaultDataBufferFactory())
+                        .collectList().block()));
+    }
+
+    @Test
+    void refusesDownloadsOverTheMaximumSize() {
+        start(0);
+
+        StepVerifier.create(this.requester.route("greet-download")
+                .data(new GreetingsDownloadRequest("Petros", 2_000_000))
+                .retrieveFlux(DataBuffer.class))
+                .expectErrorSatisfies(error -> assertThat(error)
+                        .isInstanceOf(ApplicationErrorException.class)
+                        .hasMessageContaining("between 0 and 1000000 bytes"))
+                .verify(Duration.ofSeconds(5));
+    }
+
+    private void start(int mtu) {
+        ProducerProperties properties = new ProducerProperties();
+        properties.getGreetDownload().setChunkSize(DataSize.ofKilobytes(100));
+        properties.getGreetDownload().setMaxSize(DataSize.ofBytes(1_000_000));
+        RSocketStrategies strategies = RSocketStrategies.builder()
+                .encoder(ProducerApplication.greetingsCodec())
+                .decoder(ProducerApplication.greetingsCodec())
+                .dataBufferFactory(new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT))
+                .build();
+        RSocketMessageHandler handler = new RSocketMessageHandler();
+        handler.setRSocketStrategies(strategies);
+        handler.setHandlers(Collections.singletonList(new GreetingsController(properties, null, this.tuning)));
+        handler.afterPropertiesSet();
+        this.server = RSocketFactory.receive()
+                .frameDecoder(PayloadDecoder.ZERO_COPY)
+                .fragment(mtu)
+                .acceptor(handler.responder())
+                .transport(TcpServerTransport.create("127.0.0.1", 0))
+                .start()
+                .block();
+        this.requester = RSocketRequester.builder()
+                .rsocketStrategies(strategies)
+                .rsocketFactory(factory -> factory.frameDecoder(PayloadDecoder.ZERO_COPY).fragment(mtu))
+                .dataMimeType(SchemaCodec.GREETINGS)
+                .connect(TcpClientTransport.create(this.server.address()))
+                .block();
+    }
+
+    private static String join(List<DataBuffer> chunks) {
+        StringBuilder content = new StringBuilder();
+        for (DataBuffer chunk : chunks) {
+            content.append(chunk.toString(StandardCharsets.UTF_8));
+            DataBufferUtils.release(chunk);
+        }
+        return content.toString();
+    }
+}
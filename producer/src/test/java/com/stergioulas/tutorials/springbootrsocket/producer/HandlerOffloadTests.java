@@ -0,0 +1,177 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.rsocket.RSocketFactory;
+import io.rsocket.exceptions.RejectedException;
+import io.rsocket.frame.decoder.PayloadDecoder;
+import io.rsocket.transport.local.LocalClientTransport;
+import io.rsocket.transport.local.LocalServerTransport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.stereotype.Controller;
+import org.springframework.util.MimeTypeUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HandlerOffloadTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final Handlers handlers = new Handlers();
+
+    private HandlerOffload offload;
+
+    private Disposable server;
+
+    private RSocketRequester requester;
+
+    @AfterEach
+    void tearDown() {
+        this.handlers.release.countDown();
+        this.requester.rsocket().dispose();
+        this.server.dispose();
+        this.offload.dispose();
+    }
+
+    @Test
+    void runsOptedInHandlersOnThePool() {
+        start(4, 10, Collections.singletonList("configured"));
+
+        assertThat(call("thread")).doesNotStartWith("rsocket-offload-");
+        assertThat(call("annotated")).startsWith("rsocket-offload-");
+        assertThat(call("configured")).startsWith("rsocket-offload-");
+        assertThat(this.registry.get("rsocket.server.offload.wait").tag("route", "annotated").timer().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void offloadsWithTheRouteIndexOff() {
+        start(4, 10, Collections.singletonList("configured"), 0);
+
+        assertThat(call("thread")).doesNotStartWith("rsocket-offload-");
+        assertThat(call("annotated")).startsWith("rsocket-offload-");
+        assertThat(call("configured")).startsWith("rsocket-offload-");
+    }
+
+    @Test
+    void offloadsFireAndForget() throws InterruptedException {
+        start(4, 10, Collections.emptyList());
+
+        this.requester.route("event").data("Petros").send().block(Duration.ofSeconds(5));
+
+        assertThat(this.handlers.events.poll(5, TimeUnit.SECONDS)).startsWith("Petros on rsocket-offload-");
+    }
+
+    @Test
+    void rejectsWhatTheQueueCannotHold() throws InterruptedException {
+        start(1, 1, Collections.emptyList());
+        Mono<String> first = this.requester.route("blocking").retrieveMono(String.class).cache();
+        Mono<String> second = this.requester.route("blocking").retrieveMono(String.class).cache();
+        first.subscribe();
+        assertThat(this.handlers.blocked.await(5, TimeUnit.SECONDS)).isTrue();
+        second.subscribe();
+        awaitQueued(1);
+
+        StepVerifier.create(this.requester.route("blocking").retrieveMono(String.class))
+                .expectError(RejectedException.class)
+                .verify(Duration.ofSeconds(5));
+        assertThat(this.registry.get("rsocket.server.offload.rejected").tag("route", "blocking").counter().count())
+                .isEqualTo(1);
+        assertThat(this.registry.get("rsocket.server.offload.utilization").gauge().value()).isEqualTo(1);
+
+        // the thread the messages come in on is free meanwhile
+        assertThat(call("thread")).doesNotStartWith("rsocket-offload-");
+        this.handlers.release.countDown();
+        assertThat(first.block(Duration.ofSeconds(5))).isEqualTo("done");
+        assertThat(second.block(Duration.ofSeconds(5))).isEqualTo("done");
+    }
+
+    private void start(int threads, int queueCapacity, List<String> routes) {
+        start(threads, queueCapacity, routes, 100);
+    }
+
+    private void start(int threads, int queueCapacity, List<String> routes, int routeCacheSize) {
+        this.offload = new HandlerOffload(threads, queueCapacity, routes, this.registry);
+        IndexedRSocketMessageHandler handler = new IndexedRSocketMessageHandler(RSocketStrategies.create(),
+                routeCacheSize, this.offload, null, this.registry);
+        handler.setHandlers(Collections.singletonList(this.handlers));
+        handler.afterPropertiesSet();
+        this.server = RSocketFactory.receive()
+                .frameDecoder(PayloadDecoder.ZERO_COPY)
+                .acceptor(handler.responder())
+                .transport(LocalServerTransport.create("handler-offload"))
+                .start()
+                .block();
+        this.requester = RSocketRequester.builder()
+                .dataMimeType(MimeTypeUtils.TEXT_PLAIN)
+                .connect(LocalClientTransport.create("handler-offload"))
+                .block();
+    }
+
+    private String call(String route) {
+        return this.requester.route(route).retrieveMono(String.class).block(Duration.ofSeconds(5));
+    }
+
+    private void awaitQueued(int queued) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (this.registry.get("rsocket.server.offload.queued").gauge().value() < queued
+                && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertThat(this.registry.get("rsocket.server.offload.queued").gauge().value()).isEqualTo(queued);
+    }
+
+    @Controller
+    static class Handlers {
+
+        private final CountDownLatch blocked = new CountDownLatch(1);
+
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+        @MessageMapping("thread")
+        String thread() {
+            return Thread.currentThread().getName();
+        }
+
+        @Offload
+        @MessageMapping("annotated")
+        String annotated() {
+            return Thread.currentThread().getName();
+        }
+
+        @Offload
+        @MessageMapping("event")
+        void event(String name) {
+            this.events.add(name + " on " + Thread.currentThread().getName());
+        }
+
+        @MessageMapping("configured")
+        String configured() {
+            return Thread.currentThread().getName();
+        }
+
+        @Offload
+        @MessageMapping("blocking")
+        String blocking() throws InterruptedException {
+            this.blocked.countDown();
+            this.release.await(5, TimeUnit.SECONDS);
+            return "done";
+        }
+    }
+}
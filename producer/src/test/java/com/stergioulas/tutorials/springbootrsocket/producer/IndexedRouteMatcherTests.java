@@ -0,0 +1,94 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.RouteMatcher;
+import org.springframework.web.util.pattern.PathPatternRouteMatcher;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+class IndexedRouteMatcherTests {
+
+    private static final List<String> PATTERNS = Arrays.asList(
+            "greet", "greet-stream", "greet.batch",
+            "locate.radars.within.{id}", "locate.{kind}.within.{id}", "locate.radars.{id}.status",
+            "track.*", "track.{id:\\d+}", "audit.**", "file.{name}-{version}");
+
+    private static final List<String> ROUTES = Arrays.asList(
+            "greet", "greet-stream", "greet.batch", "greet.", "greet.stream", "",
+            "locate.radars.within.42", "locate.ships.within.7", "locate.radars.within.", "locate.radars.within",
+            "locate.radars.within.42.more", "locate.radars.42.status", "track.17", "track.abc", "track.",
+            "audit", "audit.a.b.c", "file.report-1", "other");
+
+    private final RouteMatcher delegate = new PathPatternRouteMatcher();
+
+    private final IndexedRouteMatcher matcher = new IndexedRouteMatcher(this.delegate, '.', 100);
+
+    @Test
+    void agreesWithTheDelegate() {
+        this.matcher.index(PATTERNS);
+
+        for (String value : ROUTES) {
+            RouteMatcher.Route route = this.matcher.parseRoute(value);
+            RouteMatcher.Route expected = this.delegate.parseRoute(value);
+            for (String pattern : PATTERNS) {
+                assertThat(this.matcher.matchAndExtract(pattern, route))
+                        .as("%s against %s", value, pattern)
+                        .isEqualTo(this.delegate.matchAndExtract(pattern, expected));
+                assertThat(this.matcher.match(pattern, route))
+                        .as("%s against %s", value, pattern)
+                        .isEqualTo(this.delegate.match(pattern, expected));
+            }
+        }
+    }
+
+    @Test
+    void extractsVariablesOfEveryMatchingTemplate() {
+        this.matcher.index(PATTERNS);
+
+        RouteMatcher.Route route = this.matcher.parseRoute("locate.radars.within.42");
+
+        assertThat(this.matcher.matchAndExtract("locate.radars.within.{id}", route))
+                .containsOnly(entry("id", "42"));
+        assertThat(this.matcher.matchAndExtract("locate.{kind}.within.{id}", route))
+                .containsOnly(entry("kind", "radars"), entry("id", "42"));
+    }
+
+    @Test
+    void resolvesEachRouteOnce() {
+        this.matcher.index(PATTERNS);
+
+        RouteMatcher.Route first = this.matcher.parseRoute("greet");
+        RouteMatcher.Route second = this.matcher.parseRoute("greet");
+
+        assertThat(second).isSameAs(first);
+        assertThat(this.matcher.misses()).isEqualTo(1);
+    }
+
+    @Test
+    void boundsTheRouteCache() {
+        IndexedRouteMatcher matcher = new IndexedRouteMatcher(this.delegate, '.', 2);
+        matcher.index(PATTERNS);
+
+        for (String value : ROUTES) {
+            matcher.parseRoute(value);
+        }
+        RouteMatcher.Route route = matcher.parseRoute("other");
+
+        assertThat(matcher.cachedRoutes()).isEqualTo(2);
+        assertThat(matcher.match("greet", route)).isFalse();
+    }
+
+    @Test
+    void passesUnknownPatternsToTheDelegate() {
+        this.matcher.index(Collections.singletonList("greet"));
+
+        RouteMatcher.Route route = this.matcher.parseRoute("radars.7");
+
+        assertThat(this.matcher.matchAndExtract("radars.{id}", route)).containsOnly(entry("id", "7"));
+    }
+}
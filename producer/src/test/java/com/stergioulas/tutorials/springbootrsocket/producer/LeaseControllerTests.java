@@ -0,0 +1,123 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.lease.Lease;
+import io.rsocket.lease.LeaseStats;
+import io.rsocket.lease.Leases;
+import io.rsocket.util.EmptyPayload;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class LeaseControllerTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final ProducerProperties.Lease settings = new ProducerProperties.Lease();
+
+    private long now = System.nanoTime();
+
+    @Test
+    void backsOffWhenHandlersGetSlow() {
+        this.settings.setLatencyThreshold(Duration.ofMillis(1));
+        LeaseController controller = new LeaseController(this.settings, this.registry);
+        RSocket rsocket = controller.instrument(new AbstractRSocket() {
+            @Override
+            public Mono<Payload> requestResponse(Payload payload) {
+                return Mono.delay(Duration.ofMillis(20)).thenReturn(EmptyPayload.INSTANCE);
+            }
+        });
+
+        for (int i = 0; i < 3; i++) {
+            rsocket.requestResponse(EmptyPayload.INSTANCE).block();
+        }
+        controller.update(later());
+
+        assertThat(controller.limit()).isEqualTo(80.0);
+        // 80 concurrent calls of about 20ms each get through about 4000 calls a second
+        assertThat((double) controller.permits()).isCloseTo(4000, within(1000.0));
+    }
+
+    @Test
+    void growsWhileMostOfTheLimitIsInUse() {
+        LeaseController controller = new LeaseController(this.settings, this.registry);
+        RSocket rsocket = controller.instrument(new AbstractRSocket() {
+            @Override
+            public Flux<Payload> requestStream(Payload payload) {
+                return Flux.never();
+            }
+        });
+        Disposable.Composite streams = Disposables.composite();
+        for (int i = 0; i < 60; i++) {
+            streams.add(rsocket.requestStream(EmptyPayload.INSTANCE).subscribe());
+        }
+
+        controller.update(later());
+        streams.dispose();
+
+        assertThat(controller.limit()).isEqualTo(110.0);
+    }
+
+    @Test
+    void staysWithinItsBounds() {
+        this.settings.setInitialLimit(12);
+        this.settings.setLatencyThreshold(Duration.ZERO);
+        LeaseController controller = new LeaseController(this.settings, this.registry);
+        RSocket rsocket = controller.instrument(new AbstractRSocket() {
+            @Override
+            public Mono<Payload> requestResponse(Payload payload) {
+                return Mono.just(EmptyPayload.INSTANCE);
+            }
+        });
+
+        rsocket.requestResponse(EmptyPayload.INSTANCE).block();
+        controller.update(later());
+        controller.update(later());
+
+        assertThat(controller.limit()).isEqualTo(10.0);
+        // an idle interval leaves the limit alone
+        controller.update(later());
+        assertThat(controller.limit()).isEqualTo(10.0);
+    }
+
+    @Test
+    void splitsPermitsAcrossConnectionsAndCountsTheirUse() {
+        this.settings.setInterval(Duration.ofMillis(50));
+        LeaseController controller = new LeaseController(this.settings, this.registry);
+        Leases<?> first = controller.leases();
+        Leases<?> second = controller.leases();
+
+        Disposable open = first.sender().apply(first.stats()).subscribe();
+        Lease lease = second.sender().apply(second.stats()).skip(1).blockFirst();
+        LeaseStats stats = second.stats().orElseThrow(IllegalStateException::new);
+        stats.onEvent(LeaseStats.EventType.ACCEPT);
+        stats.onEvent(LeaseStats.EventType.REJECT);
+        stats.onEvent(LeaseStats.EventType.REJECT);
+        open.dispose();
+
+        assertThat(lease.getAllowedRequests()).isEqualTo(controller.permits() / 2);
+        assertThat(lease.getTimeToLiveMillis()).isEqualTo(100);
+        assertThat(this.registry.get("rsocket.server.lease.issued").counter().count()).isPositive();
+        assertThat(this.registry.get("rsocket.server.lease.used").counter().count()).isEqualTo(1);
+        assertThat(this.registry.get("rsocket.server.lease.rejected").counter().count()).isEqualTo(2);
+        assertThat(this.registry.get("rsocket.server.lease.connections").gauge().value()).isZero();
+    }
+
+    /**
+     * A time past the next update.
+     */
+    private long later() {
+        this.now += this.settings.getInterval().toNanos() * 2;
+        return this.now;
+    }
+}
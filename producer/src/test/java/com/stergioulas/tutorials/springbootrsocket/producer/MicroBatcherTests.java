@@ -0,0 +1,97 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import reactor.test.publisher.TestPublisher;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MicroBatcherTests {
+
+    @Test
+    void closesBatchesBySize() {
+        StepVerifier.create(MicroBatcher.batch(Flux.range(1, 5), 2, Duration.ofMinutes(1)))
+                .expectNext(Arrays.asList(1, 2), Arrays.asList(3, 4), Collections.singletonList(5))
+                .verifyComplete();
+    }
+
+    @Test
+    void closesBatchesByTime() {
+        TestPublisher<Integer> source = TestPublisher.create();
+
+        StepVerifier.create(MicroBatcher.batch(source.flux(), 10, Duration.ofMillis(50)))
+                .then(() -> source.next(1, 2))
+                .expectNext(Arrays.asList(1, 2))
+                .then(() -> source.next(3))
+                .expectNext(Collections.singletonList(3))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void asksUpstreamOnlyForRequestedBatches() {
+        TestPublisher<Integer> source = TestPublisher.create();
+
+        StepVerifier.create(MicroBatcher.batch(source.flux(), 3, Duration.ofMillis(20)), 1)
+                .then(() -> source.assertMinRequested(3))
+                .then(() -> source.next(1, 2, 3))
+                .expectNext(Arrays.asList(1, 2, 3))
+                .expectNoEvent(Duration.ofMillis(100))
+                .then(() -> assertThat(source.wasRequested()).isTrue())
+                .then(() -> source.assertMaxRequested(3))
+                .thenRequest(1)
+                .then(() -> source.next(4))
+                .expectNext(Collections.singletonList(4))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+
+        source.assertCancelled();
+    }
+
+    @Test
+    void holdsDueBatchesUntilRequested() {
+        TestPublisher<Integer> source = TestPublisher.createNoncompliant(TestPublisher.Violation.REQUEST_OVERFLOW);
+
+        StepVerifier.create(MicroBatcher.batch(source.flux(), 2, Duration.ofMillis(10)), 1)
+                .then(() -> source.next(1, 2))
+                .expectNext(Arrays.asList(1, 2))
+                .then(() -> source.next(3))
+                .expectNoEvent(Duration.ofMillis(100))
+                .thenRequest(1)
+                .expectNext(Collections.singletonList(3))
+                .then(source::complete)
+                .verifyComplete();
+    }
+
+    @Test
+    void flushesThePartialBatchBeforeAnError() {
+        TestPublisher<Integer> source = TestPublisher.create();
+
+        StepVerifier.create(MicroBatcher.batch(source.flux(), 10, Duration.ofMinutes(1)), 1)
+                .then(() -> source.next(1, 2))
+                .expectNoEvent(Duration.ofMillis(50))
+                .then(() -> source.error(new IllegalStateException("boom")))
+                .expectNext(Arrays.asList(1, 2))
+                .verifyErrorMessage("boom");
+    }
+
+    @Test
+    void holdsTheErrorUntilThePartialBatchIsRequested() {
+        TestPublisher<Integer> source = TestPublisher.createNoncompliant(TestPublisher.Violation.REQUEST_OVERFLOW);
+
+        StepVerifier.create(MicroBatcher.batch(source.flux(), 2, Duration.ofMinutes(1)), 1)
+                .then(() -> source.next(1, 2))
+                .expectNext(Arrays.asList(1, 2))
+                .then(() -> source.next(3))
+                .then(() -> source.error(new IllegalStateException("boom")))
+                .expectNoEvent(Duration.ofMillis(50))
+                .thenRequest(1)
+                .expectNext(Collections.singletonList(3))
+                .verifyErrorMessage("boom");
+    }
+}
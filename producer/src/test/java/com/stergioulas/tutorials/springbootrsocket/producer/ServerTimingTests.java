@@ -0,0 +1,180 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.RSocketFactory;
+import io.rsocket.frame.decoder.PayloadDecoder;
+import io.rsocket.metadata.CompositeMetadata;
+import io.rsocket.metadata.CompositeMetadataFlyweight;
+import io.rsocket.metadata.TaggingMetadataFlyweight;
+import io.rsocket.metadata.WellKnownMimeType;
+import io.rsocket.transport.local.LocalClientTransport;
+import io.rsocket.transport.local.LocalServerTransport;
+import io.rsocket.util.ByteBufPayload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.stereotype.Controller;
+import org.springframework.util.MimeTypeUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ServerTimingTests {
+
+    private static final String COMPOSITE = WellKnownMimeType.MESSAGE_RSOCKET_COMPOSITE_METADATA.getString();
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private HandlerOffload offload;
+
+    private Disposable server;
+
+    private RSocket client;
+
+    @AfterEach
+    void tearDown() {
+        this.client.dispose();
+        this.server.dispose();
+        this.offload.dispose();
+    }
+
+    @Test
+    void breaksTheResponseTimeDown() {
+        start(1.0);
+
+        long[] blocking = phases(call("blocking"));
+        long[] delayed = phases(call("delayed"));
+
+        assertThat(blocking[2]).isGreaterThanOrEqualTo(50_000);
+        assertThat(delayed[2]).isGreaterThanOrEqualTo(50_000);
+        for (long[] phases : new long[][]{blocking, delayed}) {
+            assertThat(phases[0]).isLessThan(50_000);
+            assertThat(phases[1]).isLessThan(50_000);
+            assertThat(phases[3]).isLessThan(50_000);
+        }
+    }
+
+    @Test
+    void countsTheWaitForAnOffloadThreadAsDispatch() {
+        start(1.0);
+
+        // one offload thread, so one of the two waits for the other
+        List<long[]> phases = Flux.merge(request("offloaded"), request("offloaded"))
+                .map(ServerTimingTests::phases)
+                .collectSortedList(Comparator.comparingLong(call -> call[1]))
+                .block(Duration.ofSeconds(5));
+
+        assertThat(phases.get(0)[1]).isLessThan(50_000);
+        assertThat(phases.get(1)[1]).isGreaterThanOrEqualTo(40_000);
+        for (long[] call : phases) {
+            assertThat(call[2]).isGreaterThanOrEqualTo(50_000).isLessThan(100_000);
+        }
+    }
+
+    @Test
+    void leavesResponsesOutsideTheSampleAlone() {
+        start(0);
+
+        Payload response = call("delayed");
+
+        assertThat(response.getDataUtf8()).isEqualTo("done");
+        assertThat(response.sliceMetadata().isReadable()).isFalse();
+        response.release();
+    }
+
+    private void start(double sampleRate) {
+        ServerTiming timing = new ServerTiming(sampleRate);
+        this.offload = new HandlerOffload(1, 10, Collections.emptyList(), this.registry);
+        IndexedRSocketMessageHandler handler = new IndexedRSocketMessageHandler(RSocketStrategies.create(), 100,
+                this.offload, timing, this.registry);
+        handler.setHandlers(Collections.singletonList(new Handlers()));
+        handler.afterPropertiesSet();
+        this.server = RSocketFactory.receive()
+                .frameDecoder(PayloadDecoder.ZERO_COPY)
+                .addSocketAcceptorPlugin(acceptor -> (setup, sendingSocket) -> {
+                    String metadataMimeType = setup.metadataMimeType();
+                    return acceptor.accept(setup, sendingSocket)
+                            .map(rsocket -> timing.responder(rsocket, metadataMimeType));
+                })
+                .acceptor(handler.responder())
+                .transport(LocalServerTransport.create("server-timing"))
+                .start()
+                .block();
+        this.client = RSocketFactory.connect()
+                .dataMimeType(MimeTypeUtils.TEXT_PLAIN_VALUE)
+                .metadataMimeType(COMPOSITE)
+                .frameDecoder(PayloadDecoder.ZERO_COPY)
+                .transport(LocalClientTransport.create("server-timing"))
+                .start()
+                .block();
+    }
+
+    private Payload call(String route) {
+        return request(route).block(Duration.ofSeconds(5));
+    }
+
+    private Mono<Payload> request(String route) {
+        ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+        CompositeByteBuf metadata = allocator.compositeBuffer();
+        CompositeMetadataFlyweight.encodeAndAddMetadata(metadata, allocator,
+                WellKnownMimeType.MESSAGE_RSOCKET_ROUTING,
+                TaggingMetadataFlyweight.createRoutingMetadata(allocator, Collections.singletonList(route)).getContent());
+        return this.client.requestResponse(ByteBufPayload.create(allocator.buffer().writeBytes("Petros".getBytes()), metadata));
+    }
+
+    /**
+     * @return decode, dispatch, handler and encode time in microseconds
+     */
+    private static long[] phases(Payload response) {
+        try {
+            assertThat(response.getDataUtf8()).isEqualTo("done");
+            for (CompositeMetadata.Entry entry : new CompositeMetadata(response.sliceMetadata(), false)) {
+                if (ServerTiming.MIME_TYPE.equals(entry.getMimeType())) {
+                    ByteBuf content = entry.getContent();
+                    assertThat(content.readableBytes()).isEqualTo(16);
+                    return new long[]{content.getUnsignedInt(0), content.getUnsignedInt(4),
+                            content.getUnsignedInt(8), content.getUnsignedInt(12)};
+                }
+            }
+            throw new AssertionError("No server timing in the response");
+        }
+        finally {
+            response.release();
+        }
+    }
+
+    @Controller
+    static class Handlers {
+
+        @MessageMapping("blocking")
+        String blocking(String name) throws InterruptedException {
+            Thread.sleep(50);
+            return "done";
+        }
+
+        @MessageMapping("delayed")
+        Mono<String> delayed(String name) {
+            return Mono.delay(Duration.ofMillis(50)).thenReturn("done");
+        }
+
+        @Offload
+        @MessageMapping("offloaded")
+        String offloaded(String name) throws InterruptedException {
+            Thread.sleep(50);
+            return "done";
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import com.stergioulas.tutorials.springbootrsocket.support.TcpProxy;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.RSocketFactory;
+import io.rsocket.resume.PeriodicResumeStrategy;
+import io.rsocket.transport.netty.client.TcpClientTransport;
+import io.rsocket.transport.netty.server.CloseableChannel;
+import io.rsocket.transport.netty.server.TcpServerTransport;
+import io.rsocket.util.DefaultPayload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SessionResumptionTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final ProducerProperties.Resume settings = new ProducerProperties.Resume();
+
+    private CloseableChannel server;
+
+    private TcpProxy proxy;
+
+    private RSocket client;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (this.client != null) {
+            this.client.dispose();
+        }
+        if (this.proxy != null) {
+            this.proxy.kill();
+        }
+        if (this.server != null) {
+            this.server.dispose();
+        }
+    }
+
+    @Test
+    void replaysWhatTheRequesterMissed() throws Exception {
+        connect();
+        Flux<Long> ticks = this.client.requestStream(DefaultPayload.create("ticks"))
+                .map(payload -> Long.parseLong(payload.getDataUtf8()));
+
+        StepVerifier.create(ticks.take(40))
+                .expectNext(0L, 1L, 2L)
+                .then(() -> dropFor(Duration.ofMillis(300)))
+                .expectNextSequence(() -> LongStream.range(3, 40).iterator())
+                .verifyComplete();
+
+        assertThat(this.registry.get("rsocket.server.resume").tag("outcome", "success").counter().count())
+                .isEqualTo(1);
+        assertThat(this.registry.get("rsocket.server.resume.replayed").counter().count()).isPositive();
+        assertThat(this.registry.get("rsocket.server.resume.sessions").gauge().value()).isEqualTo(1);
+    }
+
+    @Test
+    void rejectsSessionsThatExpired() throws Exception {
+        this.settings.setSessionDuration(Duration.ofMillis(100));
+        connect();
+
+        StepVerifier.create(this.client.requestStream(DefaultPayload.create("ticks")))
+                .expectNextCount(2)
+                .then(() -> dropFor(Duration.ofMillis(500)))
+                .thenConsumeWhile(payload -> true)
+                .expectError()
+                .verify(Duration.ofSeconds(10));
+
+        assertThat(this.registry.get("rsocket.server.resume").tag("outcome", "failure").counter().count())
+                .isEqualTo(1);
+        assertThat(this.registry.get("rsocket.server.resume.sessions").gauge().value()).isZero();
+    }
+
+    private void connect() throws IOException {
+        RSocketFactory.ServerRSocketFactory factory = RSocketFactory.receive();
+        new SessionResumption(this.settings, this.registry).configure(factory);
+        this.server = factory
+                .acceptor((setup, sendingSocket) -> Mono.just(new AbstractRSocket() {
+                    @Override
+                    public Flux<Payload> requestStream(Payload payload) {
+                        payload.release();
+                        return Flux.interval(Duration.ofMillis(10)).map(tick -> DefaultPayload.create(String.valueOf(tick)));
+                    }
+                }))
+                .transport(TcpServerTransport.create("127.0.0.1", 0))
+                .start()
+                .block();
+        this.proxy = new TcpProxy(this.server.address());
+        this.client = RSocketFactory.connect()
+                .resume()
+                .resumeStrategy(() -> new PeriodicResumeStrategy(Duration.ofMillis(50)))
+                .transport(TcpClientTransport.create("127.0.0.1", this.proxy.port()))
+                .start()
+                .block();
+    }
+
+    private void dropFor(Duration outage) {
+        try {
+            this.proxy.kill();
+            Thread.sleep(outage.toMillis());
+            this.proxy.restore();
+        }
+        catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.stergioulas.tutorials.springbootrsocket.producer;
+
+import com.stergioulas.tutorials.springbootrsocket.support.ObjectReferenceCodec;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.RSocketFactory;
+import io.rsocket.transport.netty.client.TcpClientTransport;
+import io.rsocket.util.DefaultPayload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.rsocket.server.RSocketServer;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TunedRSocketServerFactoryTests {
+
+    private final AtomicInteger accepted = new AtomicInteger();
+
+    private RSocketServer server;
+
+    private RSocket requester;
+
+    @BeforeEach
+    void start() {
+        TunedRSocketServerFactory factory = new TunedRSocketServerFactory(Collections.emptyList(), Collections.emptyList());
+        factory.setPort(0);
+        this.server = factory.create((setup, sendingSocket) -> {
+            this.accepted.incrementAndGet();
+            return Mono.just(new AbstractRSocket() {
+
+                @Override
+                public Mono<Payload> requestResponse(Payload payload) {
+                    payload.release();
+                    return Mono.just(DefaultPayload.create("hello"));
+                }
+            });
+        });
+        this.server.start();
+    }
+
+    @AfterEach
+    void stop() {
+        if (this.requester != null) {
+            this.requester.dispose();
+        }
+        this.server.stop();
+    }
+
+    @Test
+    void servesOrdinaryDataMimeTypes() {
+        this.requester = connect("application/json");
+
+        StepVerifier.create(this.requester.requestResponse(DefaultPayload.create("hi")).map(Payload::getDataUtf8))
+                .expectNext("hello")
+                .verifyComplete();
+        assertThat(this.accepted).hasValue(1);
+    }
+
+    @Test
+    void rejectsConnectionsAskingForObjectReferences() {
+        this.requester = connect(ObjectReferenceCodec.MIME_TYPE.toString());
+
+        // the rejection and the connection closing race to fail the request
+        StepVerifier.create(this.requester.requestResponse(DefaultPayload.create("hi")))
+                .expectError()
+                .verify(Duration.ofSeconds(5));
+        this.requester.onClose().block(Duration.ofSeconds(5));
+        assertThat(this.accepted).hasValue(0);
+    }
+
+    private RSocket connect(String dataMimeType) {
+        return RSocketFactory.connect()
+                .dataMimeType(dataMimeType)
+                .transport(TcpClientTransport.create(this.server.address()))
+                .start()
+                .block(Duration.ofSeconds(5));
+    }
+}
@@ -0,0 +1,161 @@
+package com.stergioulas.tutorials.springbootrsocket.support;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.epoll.Epoll;
+import lombok.Data;
+import org.springframework.util.unit.DataSize;
+import reactor.netty.resources.LoopResources;
+import reactor.netty.tcp.TcpClient;
+import reactor.netty.tcp.TcpServer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Event loops, socket options and allocator of the RSocket server of the producer, see
+ * {@link #server(Settings)}, or of the consumer's connections to it, see
+ * {@link #client(Settings)}.
+ * <p>
+ * Both run on event loops of their own, apart from the ones WebFlux serves HTTP on. With
+ * {@code prefer-native} they use epoll where Netty finds it, that is on Linux with the
+ * native transport on the classpath, and NIO otherwise. Socket buffer sizes left unset
+ * keep the operating system's defaults.
+ */
+public class NettyTuning {
+
+    private final Settings settings;
+
+    private final int workers;
+
+    private final LoopResources loops;
+
+    private NettyTuning(Settings settings, int workers, LoopResources loops) {
+        this.settings = settings;
+        this.workers = workers;
+        this.loops = loops;
+    }
+
+    /**
+     * Tuning of an RSocket server, accepting on a thread of its own.
+     */
+    public static NettyTuning server(Settings settings) {
+        int workers = workers(settings);
+        return new NettyTuning(settings, workers, LoopResources.create("rsocket-server", 1, workers, true));
+    }
+
+    /**
+     * Tuning of RSocket connections, sharing the same event loops.
+     */
+    public static NettyTuning client(Settings settings) {
+        int workers = workers(settings);
+        return new NettyTuning(settings, workers, LoopResources.create("rsocket-client", workers, true));
+    }
+
+    private static int workers(Settings settings) {
+        return settings.getWorkerThreads() > 0 ? settings.getWorkerThreads() : LoopResources.DEFAULT_IO_WORKER_COUNT;
+    }
+
+    public TcpServer customize(TcpServer server) {
+        TcpServer tuned = server.runOn(this.loops, this.settings.isPreferNative());
+        for (Map.Entry<ChannelOption<Object>, Object> option : options().entrySet()) {
+            tuned = tuned.option(option.getKey(), option.getValue());
+        }
+        return tuned;
+    }
+
+    public TcpClient customize(TcpClient client) {
+        TcpClient tuned = client.runOn(this.loops, this.settings.isPreferNative());
+        for (Map.Entry<ChannelOption<Object>, Object> option : options().entrySet()) {
+            tuned = tuned.option(option.getKey(), option.getValue());
+        }
+        return tuned;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<ChannelOption<Object>, Object> options() {
+        Map<ChannelOption<?>, Object> options = new LinkedHashMap<>();
+        options.put(ChannelOption.TCP_NODELAY, this.settings.isTcpNoDelay());
+        options.put(ChannelOption.ALLOCATOR, allocator());
+        if (this.settings.getSendBufferSize() != null) {
+            options.put(ChannelOption.SO_SNDBUF, (int) this.settings.getSendBufferSize().toBytes());
+        }
+        if (this.settings.getReceiveBufferSize() != null) {
+            options.put(ChannelOption.SO_RCVBUF, (int) this.settings.getReceiveBufferSize().toBytes());
+        }
+        return (Map<ChannelOption<Object>, Object>) (Map<?, ?>) options;
+    }
+
+    public ByteBufAllocator allocator() {
+        return this.settings.getAllocator() == Allocator.POOLED
+                ? PooledByteBufAllocator.DEFAULT
+                : UnpooledByteBufAllocator.DEFAULT;
+    }
+
+    public boolean usesEpoll() {
+        return this.settings.isPreferNative() && Epoll.isAvailable();
+    }
+
+    /**
+     * The effective settings, for the startup log.
+     */
+    public String describe() {
+        return String.format("%s transport, %d event loop threads, TCP_NODELAY %s, SO_SNDBUF %s, SO_RCVBUF %s, %s allocator",
+                transport(), this.workers, this.settings.isTcpNoDelay(),
+                orDefault(this.settings.getSendBufferSize()), orDefault(this.settings.getReceiveBufferSize()),
+                this.settings.getAllocator().name().toLowerCase());
+    }
+
+    private String transport() {
+        if (usesEpoll()) {
+            return "epoll";
+        }
+        return this.settings.isPreferNative() ? "NIO (epoll unavailable: " + Epoll.unavailabilityCause() + ")" : "NIO";
+    }
+
+    private static String orDefault(Object size) {
+        return size != null ? size.toString() : "default";
+    }
+
+    public void dispose() {
+        this.loops.dispose();
+    }
+
+    public enum Allocator {
+
+        POOLED, UNPOOLED
+    }
+
+    @Data
+    public static class Settings {
+
+        /**
+         * Use the epoll transport where Netty finds it, NIO otherwise.
+         */
+        private boolean preferNative = true;
+
+        /**
+         * Event loop threads, 0 for Netty's default of one per core.
+         */
+        private int workerThreads = 0;
+
+        private boolean tcpNoDelay = true;
+
+        /**
+         * SO_SNDBUF of the connections, the operating system's default when not set.
+         */
+        private DataSize sendBufferSize;
+
+        /**
+         * SO_RCVBUF of the connections, the operating system's default when not set.
+         */
+        private DataSize receiveBufferSize;
+
+        /**
+         * Allocator of the frame buffers, read and written.
+         */
+        private Allocator allocator = Allocator.POOLED;
+    }
+}
@@ -0,0 +1,177 @@
+package com.stergioulas.tutorials.springbootrsocket.support;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.buffer.UnpooledHeapByteBuf;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.BeanUtils;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.codec.Decoder;
+import org.springframework.core.codec.Encoder;
+import org.springframework.core.codec.EncodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Passes messages between a requester and a responder in the same JVM by reference.
+ * <p>
+ * Encoding a message puts it in a JVM wide table and writes its key, eight bytes, as the
+ * payload data; decoding looks the key up and hands out the very same object, so nothing
+ * is serialized. Only keys in the buffers written here are looked up, never eight bytes
+ * that merely look like one, so a peer cannot read the messages of others by guessing.
+ * The entry is dropped when the buffer holding the key is released, that is once the
+ * frame carrying it has been read, or dropped unread. Messages of a type the reader does
+ * not know, typically a look-alike class of its own, are copied into one of its types
+ * property by property.
+ * <p>
+ * Only works over the local transport, where frames are handed over as they are, and
+ * with readers that decode frames in place ({@code PayloadDecoder.ZERO_COPY}), as the
+ * copy made otherwise outlives the frame. Messages must not be changed once sent.
+ */
+public class ObjectReferenceCodec implements Encoder<Object>, Decoder<Object> {
+
+    public static final MimeType MIME_TYPE = MimeType.valueOf("application/x.java-object-reference");
+
+    private static final Map<Long, Object> REFERENCES = new ConcurrentHashMap<>();
+
+    private static final AtomicLong KEYS = new AtomicLong();
+
+    @Override
+    public boolean canEncode(ResolvableType elementType, MimeType mimeType) {
+        return supports(mimeType);
+    }
+
+    @Override
+    public boolean canDecode(ResolvableType elementType, MimeType mimeType) {
+        return supports(mimeType);
+    }
+
+    private static boolean supports(MimeType mimeType) {
+        return mimeType != null && MIME_TYPE.isCompatibleWith(mimeType);
+    }
+
+    @Override
+    public List<MimeType> getEncodableMimeTypes() {
+        return Collections.singletonList(MIME_TYPE);
+    }
+
+    @Override
+    public List<MimeType> getDecodableMimeTypes() {
+        return Collections.singletonList(MIME_TYPE);
+    }
+
+    @Override
+    public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory,
+                                   ResolvableType elementType, MimeType mimeType, Map<String, Object> hints) {
+        return Flux.from(inputStream).map(value -> encodeValue(value, bufferFactory, elementType, mimeType, hints));
+    }
+
+    @Override
+    public DataBuffer encodeValue(Object value, DataBufferFactory bufferFactory,
+                                  ResolvableType valueType, MimeType mimeType, Map<String, Object> hints) {
+        if (!(bufferFactory instanceof NettyDataBufferFactory)) {
+            throw new EncodingException("Object references need a NettyDataBufferFactory");
+        }
+        long key = KEYS.incrementAndGet();
+        REFERENCES.put(key, value);
+        return ((NettyDataBufferFactory) bufferFactory).wrap(new Reference(key));
+    }
+
+    @Override
+    public Flux<Object> decode(Publisher<DataBuffer> inputStream, ResolvableType elementType,
+                               MimeType mimeType, Map<String, Object> hints) {
+        return Flux.from(inputStream).map(buffer -> decode(buffer, elementType, mimeType, hints));
+    }
+
+    @Override
+    public Mono<Object> decodeToMono(Publisher<DataBuffer> inputStream, ResolvableType elementType,
+                                     MimeType mimeType, Map<String, Object> hints) {
+        return Mono.from(inputStream).map(buffer -> decode(buffer, elementType, mimeType, hints));
+    }
+
+    @Override
+    public Object decode(DataBuffer buffer, ResolvableType targetType, MimeType mimeType, Map<String, Object> hints) {
+        try {
+            Reference reference = reference(buffer);
+            if (reference == null || buffer.readableByteCount() != Long.BYTES) {
+                throw new DecodingException("Not an object reference written by this JVM, "
+                        + MIME_TYPE + " only works between a requester and a responder in one JVM");
+            }
+            Object value = REFERENCES.get(reference.key);
+            if (value == null) {
+                throw new DecodingException("Object reference " + reference.key + " is unknown");
+            }
+            Class<?> type = targetType.toClass();
+            return type.isInstance(value) ? value : copy(value, type);
+        }
+        finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
+
+    /**
+     * @return the key the buffer was written as, null for bytes from anywhere else, even the same eight
+     */
+    private static Reference reference(DataBuffer buffer) {
+        if (!(buffer instanceof NettyDataBuffer)) {
+            return null;
+        }
+        // frames decoded in place hand out slices of the very buffer encoded
+        ByteBuf unwrapped = ((NettyDataBuffer) buffer).getNativeBuffer();
+        while (unwrapped != null && !(unwrapped instanceof Reference)) {
+            unwrapped = unwrapped.unwrap();
+        }
+        return (Reference) unwrapped;
+    }
+
+    private static Object copy(Object value, Class<?> type) {
+        try {
+            Object copy = BeanUtils.instantiateClass(type);
+            BeanUtils.copyProperties(value, copy);
+            return copy;
+        }
+        catch (RuntimeException ex) {
+            throw new DecodingException("Cannot copy a " + value.getClass().getName() + " into a " + type.getName(), ex);
+        }
+    }
+
+    /**
+     * Messages sent and not read yet, for tests.
+     */
+    static int outstanding() {
+        return REFERENCES.size();
+    }
+
+    /**
+     * The key of a message, which lets go of the message when released.
+     */
+    private static final class Reference extends UnpooledHeapByteBuf {
+
+        private final long key;
+
+        private Reference(long key) {
+            super(UnpooledByteBufAllocator.DEFAULT, Long.BYTES, Long.BYTES);
+            this.key = key;
+            writeLong(key);
+        }
+
+        @Override
+        protected void deallocate() {
+            super.deallocate();
+            REFERENCES.remove(this.key);
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package com.stergioulas.tutorials.springbootrsocket.support;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.compression.Snappy;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.metadata.CompositeMetadata;
+import io.rsocket.metadata.CompositeMetadataFlyweight;
+import io.rsocket.metadata.WellKnownMimeType;
+import io.rsocket.util.ByteBufPayload;
+import io.rsocket.util.RSocketProxy;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of payload data, negotiated per connection and enabled per route.
+ * <p>
+ * A requester that wants compression lists the algorithms it can decode in an entry of
+ * its SETUP metadata. On such a connection the data of every payload, both ways, starts
+ * with a byte naming its {@link Algorithm}, so each side compresses what it sends as it
+ * likes and the other side always knows how to read it. Connections without the entry
+ * are left alone.
+ * <p>
+ * Data is only compressed for the configured routes, when it is at least
+ * {@code threshold} bytes and when it gets smaller, otherwise it goes out as is behind
+ * the {@link Algorithm#NONE} byte. Metadata is never compressed, so routing and metrics
+ * work unchanged.
+ * <p>
+ * Meters are named {@code <prefix>.compression.*}: {@code ratio} of compressed to
+ * original size and {@code time} spent compressing and decompressing, both tagged by
+ * algorithm, and {@code skipped} payloads tagged by reason.
+ */
+public class PayloadCompression {
+
+    /**
+     * Mime type of the SETUP metadata entry, its content the comma separated algorithms the requester reads.
+     */
+    public static final String SETUP_MIME_TYPE = "message/x.greetings.compression";
+
+    private static final String COMPOSITE = WellKnownMimeType.MESSAGE_RSOCKET_COMPOSITE_METADATA.getString();
+
+    /**
+     * Largest payload data accepted once decompressed, the frame size limit of RSocket.
+     */
+    private static final int MAX_DECOMPRESSED_SIZE = 0xFFFFFF;
+
+    private static final ByteBuf NONE_HEADER = Unpooled.unreleasableBuffer(
+            Unpooled.wrappedBuffer(new byte[]{Algorithm.NONE.id}).asReadOnly());
+
+    private final Algorithm algorithm;
+
+    private final int threshold;
+
+    private final Set<String> routes;
+
+    private final ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+
+    private final AlgorithmMeters[] meters = new AlgorithmMeters[Algorithm.values().length];
+
+    private final Counter belowThreshold;
+
+    private final Counter otherRoute;
+
+    private final Counter incompressible;
+
+    /**
+     * @param algorithm algorithm of the payloads sent, {@link Algorithm#NONE} to only read compressed ones
+     * @param threshold smallest data compressed, in bytes
+     * @param routes    routes whose payloads are compressed, all of them when empty
+     */
+    public PayloadCompression(String prefix, Algorithm algorithm, int threshold, Collection<String> routes,
+                              MeterRegistry registry) {
+        this.algorithm = algorithm;
+        this.threshold = threshold;
+        this.routes = new HashSet<>(routes);
+        for (Algorithm candidate : Algorithm.values()) {
+            if (candidate != Algorithm.NONE) {
+                this.meters[candidate.ordinal()] = new AlgorithmMeters(prefix, candidate, registry);
+            }
+        }
+        this.belowThreshold = skipped(prefix, "threshold", registry);
+        this.otherRoute = skipped(prefix, "route", registry);
+        this.incompressible = skipped(prefix, "incompressible", registry);
+    }
+
+    private static Counter skipped(String prefix, String reason, MeterRegistry registry) {
+        return Counter.builder(prefix + ".compression.skipped")
+                .description("Payloads sent without compression")
+                .tag("reason", reason)
+                .register(registry);
+    }
+
+    /**
+     * Wraps the requester side of a connection whose SETUP carried {@link #setupMetadata()}.
+     */
+    public RSocket requester(RSocket rsocket, String metadataMimeType) {
+        return new CompressingRSocket(rsocket, metadataMimeType, true, this.algorithm != Algorithm.NONE);
+    }
+
+    /**
+     * Wraps the responder side of a connection, as is if the requester did not ask for compression.
+     *
+     * @param accepted algorithms the requester reads, see {@link #accepted(Payload, String)}
+     */
+    public RSocket responder(RSocket rsocket, String metadataMimeType, Set<Algorithm> accepted) {
+        if (accepted.isEmpty()) {
+            return rsocket;
+        }
+        return new CompressingRSocket(rsocket, metadataMimeType, false, this.algorithm != Algorithm.NONE && accepted.contains(this.algorithm));
+    }
+
+    /**
+     * SETUP metadata entry asking for compression, to add to composite metadata.
+     */
+    public ByteBuf setupMetadata() {
+        String algorithms = EnumSet.complementOf(EnumSet.of(Algorithm.NONE)).stream()
+                .map(Algorithm::tag)
+                .collect(Collectors.joining(","));
+        CompositeByteBuf metadata = this.allocator.compositeBuffer();
+        CompositeMetadataFlyweight.encodeAndAddMetadata(metadata, this.allocator, SETUP_MIME_TYPE,
+                this.allocator.buffer().writeBytes(algorithms.getBytes(StandardCharsets.US_ASCII)));
+        return metadata;
+    }
+
+    /**
+     * @return the algorithms the requester of a SETUP payload reads, empty when it did not ask for compression
+     */
+    public static Set<Algorithm> accepted(Payload setup, String metadataMimeType) {
+        Set<Algorithm> accepted = EnumSet.noneOf(Algorithm.class);
+        if (!setup.hasMetadata() || !COMPOSITE.equals(metadataMimeType)) {
+            return accepted;
+        }
+        for (CompositeMetadata.Entry entry : new CompositeMetadata(setup.sliceMetadata(), false)) {
+            if (SETUP_MIME_TYPE.equals(entry.getMimeType())) {
+                accepted.add(Algorithm.NONE);
+                for (String tag : entry.getContent().toString(StandardCharsets.US_ASCII).split(",")) {
+                    Algorithm algorithm = Algorithm.forTag(tag.trim());
+                    if (algorithm != null) {
+                        accepted.add(algorithm);
+                    }
+                }
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Frames the data of a payload to send, compressing it if worth it. Takes ownership of the payload.
+     */
+    public Payload encode(Payload payload, boolean compress) {
+        try {
+            ByteBuf data = payload.sliceData();
+            ByteBuf framed = compress ? compress(data) : null;
+            if (framed == null) {
+                framed = this.allocator.compositeBuffer(2)
+                        .addComponents(true, NONE_HEADER.duplicate(), data.retain());
+            }
+            return ByteBufPayload.create(framed, payload.hasMetadata() ? payload.sliceMetadata().retain() : null);
+        }
+        finally {
+            payload.release();
+        }
+    }
+
+    /**
+     * Reads the data of a received payload back. Takes ownership of the payload.
+     *
+     * @throws IllegalArgumentException if the data is not framed or does not decompress
+     */
+    public Payload decode(Payload payload) {
+        try {
+            ByteBuf data = payload.sliceData();
+            if (!data.isReadable()) {
+                throw new IllegalArgumentException("Payload data without compression header");
+            }
+            Algorithm algorithm = Algorithm.forId(data.readByte());
+            ByteBuf decoded = algorithm == Algorithm.NONE ? data.retain() : decompress(algorithm, data);
+            return ByteBufPayload.create(decoded, payload.hasMetadata() ? payload.sliceMetadata().retain() : null);
+        }
+        finally {
+            payload.release();
+        }
+    }
+
+    private ByteBuf compress(ByteBuf data) {
+        if (this.algorithm == Algorithm.NONE) {
+            return null;
+        }
+        int length = data.readableBytes();
+        if (length == 0 || length < this.threshold) {
+            this.belowThreshold.increment();
+            return null;
+        }
+        ByteBuf out = this.allocator.buffer(length + 8);
+        AlgorithmMeters meters = this.meters[this.algorithm.ordinal()];
+        long start = System.nanoTime();
+        try {
+            out.writeByte(this.algorithm.id);
+            this.algorithm.compress(data.duplicate(), out);
+        }
+        catch (RuntimeException ex) {
+            out.release();
+            throw ex;
+        }
+        meters.compress.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        meters.ratio.record((double) (out.readableBytes() - 1) / length);
+        if (out.readableBytes() > length) {
+            out.release();
+            this.incompressible.increment();
+            return null;
+        }
+        return out;
+    }
+
+    private ByteBuf decompress(Algorithm algorithm, ByteBuf data) {
+        long start = System.nanoTime();
+        ByteBuf out = algorithm.decompress(data, this.allocator);
+        this.meters[algorithm.ordinal()].decompress.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return out;
+    }
+
+    private static final class AlgorithmMeters {
+
+        private final DistributionSummary ratio;
+
+        private final Timer compress;
+
+        private final Timer decompress;
+
+        private AlgorithmMeters(String prefix, Algorithm algorithm, MeterRegistry registry) {
+            this.ratio = DistributionSummary.builder(prefix + ".compression.ratio")
+                    .description("Compressed size of payload data relative to its original size")
+                    .tag("algorithm", algorithm.tag())
+                    .register(registry);
+            this.compress = timer(prefix, algorithm, "compress", registry);
+            this.decompress = timer(prefix, algorithm, "decompress", registry);
+        }
+
+        private static Timer timer(String prefix, Algorithm algorithm, String operation, MeterRegistry registry) {
+            return Timer.builder(prefix + ".compression.time")
+                    .description("CPU time spent on payload compression, on the calling thread")
+                    .tags("algorithm", algorithm.tag(), "operation", operation)
+                    .register(registry);
+        }
+    }
+
+    public enum Algorithm {
+
+        /**
+         * Data sent as is.
+         */
+        NONE(0) {
+            @Override
+            void compress(ByteBuf in, ByteBuf out) {
+                out.writeBytes(in);
+            }
+
+            @Override
+            ByteBuf decompress(ByteBuf in, ByteBufAllocator allocator) {
+                return in.retain();
+            }
+        },
+
+        /**
+         * Snappy block format: fast, moderate ratio. Writes its own length preamble.
+         */
+        SNAPPY(1) {
+            @Override
+            void compress(ByteBuf in, ByteBuf out) {
+                new Snappy().encode(in, out, in.readableBytes());
+            }
+
+            @Override
+            ByteBuf decompress(ByteBuf in, ByteBufAllocator allocator) {
+                int length = checkLength(peekVarint(in));
+                ByteBuf out = allocator.buffer(length);
+                try {
+                    new Snappy().decode(in, out);
+                    return out;
+                }
+                catch (RuntimeException ex) {
+                    out.release();
+                    throw new IllegalArgumentException("Malformed snappy data", ex);
+                }
+            }
+        },
+
+        /**
+         * Raw deflate behind the 4-byte original length: slower, better ratio.
+         */
+        DEFLATE(2) {
+            @Override
+            void compress(ByteBuf in, ByteBuf out) {
+                Deflater deflater = DEFLATERS.get();
+                try {
+                    out.writeInt(in.readableBytes());
+                    deflater.setInput(in.nioBuffer());
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        out.ensureWritable(Math.max(64, in.readableBytes() / 4));
+                        ByteBuffer target = out.nioBuffer(out.writerIndex(), out.writableBytes());
+                        out.writerIndex(out.writerIndex() + deflater.deflate(target));
+                    }
+                }
+                finally {
+                    deflater.reset();
+                }
+            }
+
+            @Override
+            ByteBuf decompress(ByteBuf in, ByteBufAllocator allocator) {
+                int length = checkLength(in.readInt());
+                ByteBuf out = allocator.buffer(length, length);
+                Inflater inflater = INFLATERS.get();
+                try {
+                    inflater.setInput(in.nioBuffer());
+                    int written = inflater.inflate(out.nioBuffer(0, length));
+                    if (written != length || !inflater.finished()) {
+                        throw new IllegalArgumentException("Deflate data does not match its length");
+                    }
+                    return out.writerIndex(length);
+                }
+                catch (DataFormatException | RuntimeException ex) {
+                    out.release();
+                    throw ex instanceof IllegalArgumentException ? (IllegalArgumentException) ex
+                            : new IllegalArgumentException("Malformed deflate data", ex);
+                }
+                finally {
+                    inflater.reset();
+                }
+            }
+        };
+
+        private static final ThreadLocal<Deflater> DEFLATERS =
+                ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+        private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+        private final byte id;
+
+        Algorithm(int id) {
+            this.id = (byte) id;
+        }
+
+        public String tag() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        abstract void compress(ByteBuf in, ByteBuf out);
+
+        abstract ByteBuf decompress(ByteBuf in, ByteBufAllocator allocator);
+
+        static Algorithm forId(byte id) {
+            for (Algorithm algorithm : values()) {
+                if (algorithm.id == id) {
+                    return algorithm;
+                }
+            }
+            throw new IllegalArgumentException("Unknown compression " + id);
+        }
+
+        static Algorithm forTag(String tag) {
+            for (Algorithm algorithm : values()) {
+                if (algorithm.tag().equals(tag)) {
+                    return algorithm;
+                }
+            }
+            return null;
+        }
+
+        private static int checkLength(int length) {
+            if (length < 0 || length > MAX_DECOMPRESSED_SIZE) {
+                throw new IllegalArgumentException("Decompressed size " + length + " out of range");
+            }
+            return length;
+        }
+
+        private static int peekVarint(ByteBuf in) {
+            int value = 0;
+            for (int i = 0; i < 5 && in.readerIndex() + i < in.writerIndex(); i++) {
+                byte b = in.getByte(in.readerIndex() + i);
+                value |= (b & 0x7F) << (7 * i);
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed snappy length");
+        }
+    }
+
+    private final class CompressingRSocket extends RSocketProxy {
+
+        private final String metadataMimeType;
+
+        /**
+         * Whether this side sends the requests, otherwise it sends the responses.
+         */
+        private final boolean requester;
+
+        private final boolean compress;
+
+        private CompressingRSocket(RSocket source, String metadataMimeType, boolean requester, boolean compress) {
+            super(source);
+            this.metadataMimeType = metadataMimeType;
+            this.requester = requester;
+            this.compress = compress;
+        }
+
+        @Override
+        public Mono<Void> fireAndForget(Payload payload) {
+            try {
+                return super.fireAndForget(request(payload, compress(payload)));
+            }
+            catch (IllegalArgumentException ex) {
+                return Mono.error(ex);
+            }
+        }
+
+        @Override
+        public Mono<Payload> requestResponse(Payload payload) {
+            boolean compress = compress(payload);
+            try {
+                return super.requestResponse(request(payload, compress)).map(response -> response(response, compress));
+            }
+            catch (IllegalArgumentException ex) {
+                return Mono.error(ex);
+            }
+        }
+
+        @Override
+        public Flux<Payload> requestStream(Payload payload) {
+            boolean compress = compress(payload);
+            try {
+                return super.requestStream(request(payload, compress)).map(response -> response(response, compress));
+            }
+            catch (IllegalArgumentException ex) {
+                return Flux.error(ex);
+            }
+        }
+
+        @Override
+        public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+            // the route travels with the first payload
+            return Flux.from(payloads).switchOnFirst((first, all) -> {
+                boolean compress = first.hasValue() && compress(first.get());
+                return super.requestChannel(all.map(request -> request(request, compress)))
+                        .map(response -> response(response, compress));
+            });
+        }
+
+        private boolean compress(Payload payload) {
+            if (!this.compress) {
+                return false;
+            }
+            if (routes.isEmpty() || routes.contains(RSocketMetrics.readRoute(payload, this.metadataMimeType))) {
+                return true;
+            }
+            otherRoute.increment();
+            return false;
+        }
+
+        private Payload request(Payload payload, boolean compress) {
+            return this.requester ? encode(payload, compress) : decode(payload);
+        }
+
+        private Payload response(Payload payload, boolean compress) {
+            return this.requester ? decode(payload) : encode(payload, compress);
+        }
+    }
+}
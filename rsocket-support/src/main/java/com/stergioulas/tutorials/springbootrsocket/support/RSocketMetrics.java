@@ -0,0 +1,350 @@
+package com.stergioulas.tutorials.springbootrsocket.support;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.buffer.ByteBuf;
+import io.rsocket.DuplexConnection;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.frame.FrameHeaderFlyweight;
+import io.rsocket.frame.FrameType;
+import io.rsocket.metadata.CompositeMetadata;
+import io.rsocket.metadata.RoutingMetadata;
+import io.rsocket.metadata.WellKnownMimeType;
+import io.rsocket.plugins.DuplexConnectionInterceptor;
+import io.rsocket.util.RSocketProxy;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Micrometer metrics of RSocket calls per route and interaction model, and of the frames
+ * and bytes on the wire.
+ * <p>
+ * All meters are named {@code <prefix>.*}:
+ * <ul>
+ * <li>{@code requests}: timer tagged by route, interaction and outcome (success, error or cancel)</li>
+ * <li>{@code active}: calls in progress per route and interaction</li>
+ * <li>{@code request-n}: demand signalled per stream or channel, unbounded demand is not recorded</li>
+ * <li>{@code frames} and {@code bytes}: counters tagged by direction, frames also by frame type</li>
+ * </ul>
+ * Meters are looked up once per route and interaction and then kept, so the cost per
+ * call is reading the route from the metadata and a few atomic updates. Routes beyond
+ * {@code maxRoutes} are counted as {@value #OTHER_ROUTE} to keep templated routes from
+ * flooding the registry.
+ */
+public class RSocketMetrics {
+
+    public static final String UNKNOWN_ROUTE = "unknown";
+
+    public static final String OTHER_ROUTE = "other";
+
+    private static final String ROUTING = WellKnownMimeType.MESSAGE_RSOCKET_ROUTING.getString();
+
+    private static final String COMPOSITE = WellKnownMimeType.MESSAGE_RSOCKET_COMPOSITE_METADATA.getString();
+
+    private final String prefix;
+
+    private final MeterRegistry registry;
+
+    private final int maxRoutes;
+
+    private final ConcurrentMap<String, RouteMeters> routes = new ConcurrentHashMap<>();
+
+    private final FrameMeters inbound;
+
+    private final FrameMeters outbound;
+
+    public RSocketMetrics(String prefix, MeterRegistry registry, int maxRoutes) {
+        this.prefix = prefix;
+        this.registry = registry;
+        this.maxRoutes = maxRoutes;
+        this.inbound = new FrameMeters("inbound");
+        this.outbound = new FrameMeters("outbound");
+    }
+
+    /**
+     * @param metadataMimeType metadata mime type of the connection, the route is read from routing or composite metadata
+     */
+    public RSocket instrument(RSocket rsocket, String metadataMimeType) {
+        return new MeteredRSocket(rsocket, metadataMimeType);
+    }
+
+    /**
+     * Counts the frames of whole connections, the other connection types are views of it.
+     */
+    public DuplexConnectionInterceptor connectionInterceptor() {
+        return (type, connection) -> type == DuplexConnectionInterceptor.Type.SOURCE
+                ? new MeteredConnection(connection)
+                : connection;
+    }
+
+    private RouteMeters routeMeters(String route) {
+        RouteMeters meters = this.routes.get(route);
+        if (meters != null) {
+            return meters;
+        }
+        if (this.routes.size() >= this.maxRoutes) {
+            return this.routes.computeIfAbsent(OTHER_ROUTE, RouteMeters::new);
+        }
+        return this.routes.computeIfAbsent(route, RouteMeters::new);
+    }
+
+    public static String readRoute(Payload payload, String metadataMimeType) {
+        if (!payload.hasMetadata()) {
+            return UNKNOWN_ROUTE;
+        }
+        ByteBuf metadata = payload.sliceMetadata();
+        if (ROUTING.equals(metadataMimeType)) {
+            return firstTag(new RoutingMetadata(metadata));
+        }
+        if (COMPOSITE.equals(metadataMimeType)) {
+            for (CompositeMetadata.Entry entry : new CompositeMetadata(metadata, false)) {
+                if (ROUTING.equals(entry.getMimeType())) {
+                    return firstTag(new RoutingMetadata(entry.getContent()));
+                }
+            }
+        }
+        return UNKNOWN_ROUTE;
+    }
+
+    private static String firstTag(RoutingMetadata routing) {
+        Iterator<String> tags = routing.iterator();
+        return tags.hasNext() ? tags.next() : UNKNOWN_ROUTE;
+    }
+
+    private enum Interaction {
+        FIRE_AND_FORGET(false), REQUEST_RESPONSE(false), REQUEST_STREAM(true), REQUEST_CHANNEL(true);
+
+        private final String tag = name().toLowerCase(Locale.ROOT).replace('_', '-');
+
+        private final boolean streaming;
+
+        Interaction(boolean streaming) {
+            this.streaming = streaming;
+        }
+    }
+
+    private final class RouteMeters {
+
+        private final String route;
+
+        private final AtomicReferenceArray<InteractionMeters> interactions =
+                new AtomicReferenceArray<>(Interaction.values().length);
+
+        private RouteMeters(String route) {
+            this.route = route;
+        }
+
+        private InteractionMeters get(Interaction interaction) {
+            InteractionMeters meters = this.interactions.get(interaction.ordinal());
+            if (meters != null) {
+                return meters;
+            }
+            // created once, as a losing instance would have registered the gauge of a count nobody updates
+            synchronized (this) {
+                meters = this.interactions.get(interaction.ordinal());
+                if (meters == null) {
+                    meters = new InteractionMeters(this.route, interaction);
+                    this.interactions.set(interaction.ordinal(), meters);
+                }
+                return meters;
+            }
+        }
+    }
+
+    private final class InteractionMeters {
+
+        private final Timer success;
+
+        private final Timer error;
+
+        private final Timer cancel;
+
+        private final AtomicInteger active = new AtomicInteger();
+
+        private final DistributionSummary demand;
+
+        private InteractionMeters(String route, Interaction interaction) {
+            this.success = timer(route, interaction, "success");
+            this.error = timer(route, interaction, "error");
+            this.cancel = timer(route, interaction, "cancel");
+            Gauge.builder(prefix + ".active", this.active, AtomicInteger::get)
+                    .description("RSocket calls in progress")
+                    .tags("route", route, "interaction", interaction.tag)
+                    .register(registry);
+            this.demand = interaction.streaming ? DistributionSummary.builder(prefix + ".request-n")
+                    .description("Demand signalled per request-n")
+                    .tags("route", route, "interaction", interaction.tag)
+                    .register(registry) : null;
+        }
+
+        private Timer timer(String route, Interaction interaction, String outcome) {
+            return Timer.builder(prefix + ".requests")
+                    .description("RSocket calls, streams and channels until they terminate")
+                    .tags("route", route, "interaction", interaction.tag, "outcome", outcome)
+                    .register(registry);
+        }
+
+        private <T> Mono<T> observe(Mono<T> call) {
+            return Mono.defer(() -> {
+                long start = start();
+                return call.doFinally(signal -> stop(start, signal));
+            });
+        }
+
+        private <T> Flux<T> observe(Flux<T> call) {
+            return Flux.defer(() -> {
+                long start = start();
+                return call
+                        .doOnRequest(n -> {
+                            if (n != Long.MAX_VALUE) {
+                                this.demand.record(n);
+                            }
+                        })
+                        .doFinally(signal -> stop(start, signal));
+            });
+        }
+
+        private long start() {
+            this.active.incrementAndGet();
+            return System.nanoTime();
+        }
+
+        private void stop(long start, SignalType signal) {
+            this.active.decrementAndGet();
+            Timer timer = signal == SignalType.ON_COMPLETE ? this.success
+                    : signal == SignalType.ON_ERROR ? this.error
+                    : this.cancel;
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private final class FrameMeters {
+
+        private final String direction;
+
+        private final Counter bytes;
+
+        private final AtomicReferenceArray<Counter> frames = new AtomicReferenceArray<>(FrameType.values().length);
+
+        private FrameMeters(String direction) {
+            this.direction = direction;
+            this.bytes = Counter.builder(prefix + ".bytes")
+                    .description("Bytes of RSocket frames")
+                    .baseUnit("bytes")
+                    .tag("direction", direction)
+                    .register(registry);
+        }
+
+        private void record(ByteBuf frame) {
+            this.bytes.increment(frame.readableBytes());
+            FrameType type = FrameHeaderFlyweight.frameType(frame);
+            Counter counter = this.frames.get(type.ordinal());
+            if (counter == null) {
+                counter = Counter.builder(prefix + ".frames")
+                        .description("RSocket frames")
+                        .tags("direction", this.direction, "type", type.name())
+                        .register(registry);
+                this.frames.set(type.ordinal(), counter);
+            }
+            counter.increment();
+        }
+    }
+
+    private final class MeteredRSocket extends RSocketProxy {
+
+        private final String metadataMimeType;
+
+        private MeteredRSocket(RSocket source, String metadataMimeType) {
+            super(source);
+            this.metadataMimeType = metadataMimeType;
+        }
+
+        @Override
+        public Mono<Void> fireAndForget(Payload payload) {
+            return meters(payload, Interaction.FIRE_AND_FORGET).observe(super.fireAndForget(payload));
+        }
+
+        @Override
+        public Mono<Payload> requestResponse(Payload payload) {
+            return meters(payload, Interaction.REQUEST_RESPONSE).observe(super.requestResponse(payload));
+        }
+
+        @Override
+        public Flux<Payload> requestStream(Payload payload) {
+            return meters(payload, Interaction.REQUEST_STREAM).observe(super.requestStream(payload));
+        }
+
+        @Override
+        public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+            // the route travels with the first payload
+            return Flux.from(payloads).switchOnFirst((first, all) -> {
+                String route = first.hasValue() ? readRoute(first.get(), this.metadataMimeType) : UNKNOWN_ROUTE;
+                return routeMeters(route).get(Interaction.REQUEST_CHANNEL).observe(super.requestChannel(all));
+            });
+        }
+
+        private InteractionMeters meters(Payload payload, Interaction interaction) {
+            // read before the call, which may release the payload
+            return routeMeters(readRoute(payload, this.metadataMimeType)).get(interaction);
+        }
+    }
+
+    private final class MeteredConnection implements DuplexConnection {
+
+        private final DuplexConnection source;
+
+        private MeteredConnection(DuplexConnection source) {
+            this.source = source;
+        }
+
+        @Override
+        public Mono<Void> send(Publisher<ByteBuf> frames) {
+            return this.source.send(Flux.from(frames).doOnNext(outbound::record));
+        }
+
+        @Override
+        public Mono<Void> sendOne(ByteBuf frame) {
+            outbound.record(frame);
+            return this.source.sendOne(frame);
+        }
+
+        @Override
+        public Flux<ByteBuf> receive() {
+            return this.source.receive().doOnNext(inbound::record);
+        }
+
+        @Override
+        public double availability() {
+            return this.source.availability();
+        }
+
+        @Override
+        public Mono<Void> onClose() {
+            return this.source.onClose();
+        }
+
+        @Override
+        public void dispose() {
+            this.source.dispose();
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return this.source.isDisposed();
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.stergioulas.tutorials.springbootrsocket.support;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.codec.Decoder;
+import org.springframework.core.codec.Encoder;
+import org.springframework.core.codec.EncodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Compact binary codec for messages made of string and whole number fields, one message
+ * per payload.
+ * <p>
+ * A message is a schema id byte followed by its fields in schema order. A string is
+ * written as a varint of its UTF-8 length plus one (zero for {@code null}) and its
+ * bytes, a number as a varint of its two's complement, so small non-negative ones take
+ * a byte or two and negative ones ten. There are no field names and no reflection: the
+ * schemas registered with {@link #schema(int, Class, Supplier)} say how to read and
+ * write each type.
+ * <p>
+ * With a {@link NettyDataBufferFactory}, strings are written straight into a pooled
+ * buffer sized up front and read straight out of the received buffer, without
+ * intermediate byte arrays. Only meant for RSocket, where payloads delimit messages.
+ */
+public class SchemaCodec implements Encoder<Object>, Decoder<Object> {
+
+    public static final MimeType GREETINGS = MimeType.valueOf("application/vnd.greetings.v1+binary");
+
+    private final MimeType mimeType;
+
+    private final Map<Class<?>, Schema<?>> byType = new HashMap<>();
+
+    private final Schema<?>[] byId = new Schema<?>[256];
+
+    public SchemaCodec(MimeType mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    /**
+     * Registers the schema of a message type, then add its fields in order.
+     *
+     * @param id      schema id written first in every message, unique within the codec
+     * @param factory creates an empty message to read the fields into
+     */
+    public <T> Schema<T> schema(int id, Class<T> type, Supplier<T> factory) {
+        if (id < 0 || id > 255 || this.byId[id] != null) {
+            throw new IllegalArgumentException("Schema id " + id + " is out of range or taken");
+        }
+        Schema<T> schema = new Schema<>(id, type, factory);
+        this.byId[id] = schema;
+        this.byType.put(type, schema);
+        return schema;
+    }
+
+    @Override
+    public boolean canEncode(ResolvableType elementType, MimeType mimeType) {
+        return supports(mimeType) && this.byType.containsKey(elementType.toClass());
+    }
+
+    @Override
+    public boolean canDecode(ResolvableType elementType, MimeType mimeType) {
+        return supports(mimeType) && this.byType.containsKey(elementType.toClass());
+    }
+
+    private boolean supports(MimeType mimeType) {
+        return mimeType != null && this.mimeType.isCompatibleWith(mimeType);
+    }
+
+    @Override
+    public List<MimeType> getEncodableMimeTypes() {
+        return Collections.singletonList(this.mimeType);
+    }
+
+    @Override
+    public List<MimeType> getDecodableMimeTypes() {
+        return Collections.singletonList(this.mimeType);
+    }
+
+    @Override
+    public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory,
+                                   ResolvableType elementType, MimeType mimeType, Map<String, Object> hints) {
+        return Flux.from(inputStream).map(value -> encodeValue(value, bufferFactory, elementType, mimeType, hints));
+    }
+
+    @Override
+    public DataBuffer encodeValue(Object value, DataBufferFactory bufferFactory,
+                                  ResolvableType valueType, MimeType mimeType, Map<String, Object> hints) {
+        Schema<Object> schema = schema(value.getClass());
+        if (schema == null) {
+            throw new EncodingException("No schema for " + value.getClass().getName());
+        }
+        if (bufferFactory instanceof NettyDataBufferFactory) {
+            NettyDataBufferFactory netty = (NettyDataBufferFactory) bufferFactory;
+            ByteBuf buffer = netty.getByteBufAllocator().buffer(schema.maxSize(value));
+            try {
+                schema.write(value, buffer);
+            }
+            catch (RuntimeException ex) {
+                buffer.release();
+                throw ex;
+            }
+            return netty.wrap(buffer);
+        }
+        ByteBuf buffer = Unpooled.buffer(schema.maxSize(value));
+        schema.write(value, buffer);
+        return bufferFactory.wrap(buffer.nioBuffer());
+    }
+
+    @Override
+    public Flux<Object> decode(Publisher<DataBuffer> inputStream, ResolvableType elementType,
+                               MimeType mimeType, Map<String, Object> hints) {
+        return Flux.from(inputStream).map(buffer -> decode(buffer, elementType, mimeType, hints));
+    }
+
+    @Override
+    public Mono<Object> decodeToMono(Publisher<DataBuffer> inputStream, ResolvableType elementType,
+                                     MimeType mimeType, Map<String, Object> hints) {
+        return Mono.from(inputStream).map(buffer -> decode(buffer, elementType, mimeType, hints));
+    }
+
+    @Override
+    public Object decode(DataBuffer buffer, ResolvableType targetType, MimeType mimeType, Map<String, Object> hints) {
+        try {
+            ByteBuf in = buffer instanceof NettyDataBuffer
+                    ? ((NettyDataBuffer) buffer).getNativeBuffer()
+                    : Unpooled.wrappedBuffer(buffer.asByteBuffer());
+            if (!in.isReadable()) {
+                throw new DecodingException("Empty message");
+            }
+            Schema<?> schema = this.byId[in.readUnsignedByte()];
+            if (schema == null || !targetType.toClass().isAssignableFrom(schema.type)) {
+                throw new DecodingException("Message is not a " + targetType);
+            }
+            return schema.read(in);
+        }
+        catch (IndexOutOfBoundsException ex) {
+            throw new DecodingException("Truncated message", ex);
+        }
+        finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Schema<Object> schema(Class<?> type) {
+        return (Schema<Object>) this.byType.get(type);
+    }
+
+    /**
+     * Fields of a message type, in the order they are written.
+     */
+    public static final class Schema<T> {
+
+        private final int id;
+
+        private final Class<T> type;
+
+        private final Supplier<T> factory;
+
+        private final List<Field<T>> fields = new ArrayList<>();
+
+        private Schema(int id, Class<T> type, Supplier<T> factory) {
+            this.id = id;
+            this.type = type;
+            this.factory = factory;
+        }
+
+        /**
+         * Adds a string field, {@code null} values are kept.
+         */
+        public Schema<T> string(Function<T, String> getter, BiConsumer<T, String> setter) {
+            this.fields.add(new StringField<>(getter, setter));
+            return this;
+        }
+
+        /**
+         * Adds a whole number field.
+         */
+        public Schema<T> int64(ToLongFunction<T> getter, ObjLongConsumer<T> setter) {
+            this.fields.add(new LongField<>(getter, setter));
+            return this;
+        }
+
+        private int maxSize(T value) {
+            int size = 1;
+            for (Field<T> field : this.fields) {
+                size += field.maxSize(value);
+            }
+            return size;
+        }
+
+        private void write(T value, ByteBuf out) {
+            out.writeByte(this.id);
+            for (Field<T> field : this.fields) {
+                field.write(value, out);
+            }
+        }
+
+        private T read(ByteBuf in) {
+            T value = this.factory.get();
+            for (Field<T> field : this.fields) {
+                field.read(in, value);
+            }
+            return value;
+        }
+    }
+
+    private interface Field<T> {
+
+        int maxSize(T value);
+
+        void write(T value, ByteBuf out);
+
+        void read(ByteBuf in, T value);
+    }
+
+    private static final class StringField<T> implements Field<T> {
+
+        private final Function<T, String> getter;
+
+        private final BiConsumer<T, String> setter;
+
+        private StringField(Function<T, String> getter, BiConsumer<T, String> setter) {
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        @Override
+        public int maxSize(T value) {
+            String field = this.getter.apply(value);
+            int length = field != null ? ByteBufUtil.utf8MaxBytes(field) : 0;
+            return varintSize(length + 1) + length;
+        }
+
+        @Override
+        public void write(T value, ByteBuf out) {
+            String field = this.getter.apply(value);
+            if (field == null) {
+                out.writeByte(0);
+                return;
+            }
+            // the buffer was sized for the worst case, the length prefix needs the exact one
+            int length = ByteBufUtil.utf8Bytes(field);
+            writeVarint(out, length + 1);
+            ByteBufUtil.reserveAndWriteUtf8(out, field, length);
+        }
+
+        @Override
+        public void read(ByteBuf in, T value) {
+            int length = readVarint(in) - 1;
+            if (length < 0) {
+                this.setter.accept(value, null);
+                return;
+            }
+            if (length > in.readableBytes()) {
+                throw new DecodingException("Field longer than the message");
+            }
+            this.setter.accept(value, in.toString(in.readerIndex(), length, StandardCharsets.UTF_8));
+            in.skipBytes(length);
+        }
+    }
+
+    private static final class LongField<T> implements Field<T> {
+
+        private static final int MAX_SIZE = 10;
+
+        private final ToLongFunction<T> getter;
+
+        private final ObjLongConsumer<T> setter;
+
+        private LongField(ToLongFunction<T> getter, ObjLongConsumer<T> setter) {
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        @Override
+        public int maxSize(T value) {
+            return MAX_SIZE;
+        }
+
+        @Override
+        public void write(T value, ByteBuf out) {
+            long field = this.getter.applyAsLong(value);
+            while ((field & ~0x7FL) != 0) {
+                out.writeByte((int) (field & 0x7F) | 0x80);
+                field >>>= 7;
+            }
+            out.writeByte((int) field);
+        }
+
+        @Override
+        public void read(ByteBuf in, T value) {
+            long field = 0;
+            for (int shift = 0; shift < 7 * MAX_SIZE; shift += 7) {
+                byte b = in.readByte();
+                field |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    this.setter.accept(value, field);
+                    return;
+                }
+            }
+            throw new DecodingException("Malformed number");
+        }
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarint(ByteBuf out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Reads a varint written by {@link #writeVarint(ByteBuf, int)} from a non-negative
+     * value, rejecting any that would not fit one.
+     */
+    private static int readVarint(ByteBuf in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            if (shift == 28 && (b & 0x78) != 0) {
+                // past the 31 bits of a non-negative int
+                break;
+            }
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new DecodingException("Malformed length");
+    }
+}
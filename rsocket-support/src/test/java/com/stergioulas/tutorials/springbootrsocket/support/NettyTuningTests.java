@@ -0,0 +1,109 @@
+package com.stergioulas.tutorials.springbootrsocket.support;
+
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import reactor.netty.Connection;
+import reactor.netty.DisposableServer;
+import reactor.netty.resources.LoopResources;
+import reactor.netty.tcp.TcpClient;
+import reactor.netty.tcp.TcpServer;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NettyTuningTests {
+
+    private final NettyTuning.Settings settings = new NettyTuning.Settings();
+
+    private NettyTuning tuning;
+
+    private DisposableServer server;
+
+    private Connection client;
+
+    @AfterEach
+    void tearDown() {
+        if (this.client != null) {
+            this.client.disposeNow();
+        }
+        if (this.server != null) {
+            this.server.disposeNow();
+        }
+        this.tuning.dispose();
+    }
+
+    @Test
+    void appliesTheSettingsToAcceptedConnections() throws Exception {
+        this.settings.setWorkerThreads(2);
+        this.settings.setReceiveBufferSize(DataSize.ofKilobytes(64));
+        this.tuning = NettyTuning.server(this.settings);
+
+        Channel channel = accept();
+
+        assertThat(channel).isInstanceOf(Epoll.isAvailable() ? EpollSocketChannel.class : NioSocketChannel.class);
+        assertThat(channel.eventLoop().submit(() -> Thread.currentThread().getName()).get()).startsWith("rsocket-server-");
+        assertThat(channel.config().getOption(ChannelOption.TCP_NODELAY)).isTrue();
+        // Linux doubles what it is asked for to make room for its own bookkeeping
+        assertThat(channel.config().getOption(ChannelOption.SO_RCVBUF)).isGreaterThanOrEqualTo(64 * 1024);
+        assertThat(channel.config().getAllocator()).isSameAs(PooledByteBufAllocator.DEFAULT);
+        assertThat(this.tuning.describe()).startsWith(Epoll.isAvailable() ? "epoll transport, 2 event loop threads" : "NIO");
+    }
+
+    @Test
+    void fallsBackToNioWhenToldNotToPreferNative() throws Exception {
+        this.settings.setPreferNative(false);
+        this.settings.setTcpNoDelay(false);
+        this.settings.setAllocator(NettyTuning.Allocator.UNPOOLED);
+        this.tuning = NettyTuning.server(this.settings);
+
+        Channel channel = accept();
+
+        assertThat(channel).isInstanceOf(NioSocketChannel.class);
+        assertThat(channel.config().getOption(ChannelOption.TCP_NODELAY)).isFalse();
+        assertThat(channel.config().getAllocator()).isSameAs(UnpooledByteBufAllocator.DEFAULT);
+        assertThat(this.tuning.describe()).isEqualTo(String.format("NIO transport, %d event loop threads, "
+                + "TCP_NODELAY false, SO_SNDBUF default, SO_RCVBUF default, unpooled allocator",
+                LoopResources.DEFAULT_IO_WORKER_COUNT));
+    }
+
+    @Test
+    void appliesTheSettingsToClientConnections() throws Exception {
+        this.settings.setWorkerThreads(1);
+        this.settings.setSendBufferSize(DataSize.ofKilobytes(64));
+        this.settings.setAllocator(NettyTuning.Allocator.UNPOOLED);
+        this.tuning = NettyTuning.client(this.settings);
+
+        this.server = TcpServer.create().host("127.0.0.1").port(0).bindNow();
+        this.client = this.tuning.customize(TcpClient.create().host("127.0.0.1").port(this.server.port()))
+                .connectNow(Duration.ofSeconds(5));
+        Channel channel = this.client.channel();
+
+        assertThat(channel).isInstanceOf(Epoll.isAvailable() ? EpollSocketChannel.class : NioSocketChannel.class);
+        assertThat(channel.eventLoop().submit(() -> Thread.currentThread().getName()).get()).startsWith("rsocket-client-");
+        assertThat(channel.config().getOption(ChannelOption.TCP_NODELAY)).isTrue();
+        assertThat(channel.config().getOption(ChannelOption.SO_SNDBUF)).isGreaterThanOrEqualTo(64 * 1024);
+        assertThat(channel.config().getAllocator()).isSameAs(UnpooledByteBufAllocator.DEFAULT);
+        assertThat(this.tuning.describe()).endsWith("1 event loop threads, TCP_NODELAY true, SO_SNDBUF 65536B, "
+                + "SO_RCVBUF default, unpooled allocator");
+    }
+
+    private Channel accept() throws Exception {
+        CompletableFuture<Channel> accepted = new CompletableFuture<>();
+        this.server = this.tuning.customize(TcpServer.create().host("127.0.0.1").port(0))
+                .doOnConnection(connection -> accepted.complete(connection.channel()))
+                .bindNow();
+        this.client = TcpClient.create().host("127.0.0.1").port(this.server.port()).connectNow(Duration.ofSeconds(5));
+        return accepted.get(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,166 @@
+package com.stergioulas.tutorials.springbootrsocket.support;
+
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.rsocket.RSocketFactory;
+import io.rsocket.frame.decoder.PayloadDecoder;
+import io.rsocket.transport.local.LocalClientTransport;
+import io.rsocket.transport.local.LocalServerTransport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.messaging.rsocket.annotation.support.RSocketMessageHandler;
+import org.springframework.stereotype.Controller;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ObjectReferenceCodecTests {
+
+    private final ObjectReferenceCodec codec = new ObjectReferenceCodec();
+
+    private final RSocketStrategies strategies = RSocketStrategies.builder()
+            .encoder(this.codec)
+            .decoder(this.codec)
+            .build();
+
+    private final Echo echo = new Echo();
+
+    private Disposable server;
+
+    private RSocketRequester requester;
+
+    @BeforeEach
+    void connect() {
+        RSocketMessageHandler handler = new RSocketMessageHandler();
+        handler.setRSocketStrategies(this.strategies);
+        handler.setHandlers(Collections.singletonList(this.echo));
+        handler.afterPropertiesSet();
+        this.server = RSocketFactory.receive()
+                .frameDecoder(PayloadDecoder.ZERO_COPY)
+                .acceptor(handler.responder())
+                .transport(LocalServerTransport.create("object-references"))
+                .start()
+                .block();
+        this.requester = RSocketRequester.builder()
+                .rsocketFactory(factory -> factory.frameDecoder(PayloadDecoder.ZERO_COPY))
+                .rsocketStrategies(this.strategies)
+                .dataMimeType(ObjectReferenceCodec.MIME_TYPE)
+                .connect(LocalClientTransport.create("object-references"))
+                .block();
+    }
+
+    @AfterEach
+    void disconnect() {
+        this.requester.rsocket().dispose();
+        this.server.dispose();
+    }
+
+    @Test
+    void passesMessagesAsTheyAre() {
+        Greeting request = new Greeting("Hello");
+
+        Greeting response = this.requester.route("echo").data(request).retrieveMono(Greeting.class).block();
+
+        assertThat(this.echo.received).isSameAs(request);
+        assertThat(response).isSameAs(request);
+        assertThat(ObjectReferenceCodec.outstanding()).isZero();
+    }
+
+    @Test
+    void copiesMessagesIntoLookAlikeTypes() {
+        LookAlike response = this.requester.route("echo").data(new Greeting("Hello")).retrieveMono(LookAlike.class).block();
+
+        assertThat(response.getText()).isEqualTo("Hello");
+    }
+
+    @Test
+    void refusesReferencesFromElsewhere() {
+        NettyDataBufferFactory factory = new NettyDataBufferFactory(UnpooledByteBufAllocator.DEFAULT);
+        DataBuffer buffer = factory.allocateBuffer(8).write(new byte[] {0, 0, 0, 0, 0, 0, 0, 42});
+
+        assertThatThrownBy(() -> this.codec.decode(buffer, ResolvableType.forClass(Greeting.class),
+                ObjectReferenceCodec.MIME_TYPE, Collections.emptyMap()))
+                .isInstanceOf(DecodingException.class)
+                .hasMessageContaining("Not an object reference");
+        assertThatThrownBy(() -> this.codec.encodeValue(new Greeting("Hello"), new DefaultDataBufferFactory(),
+                ResolvableType.forClass(Greeting.class), ObjectReferenceCodec.MIME_TYPE, Collections.emptyMap()))
+                .hasMessageContaining("NettyDataBufferFactory");
+    }
+
+    @Test
+    void refusesTheKeyOfAReferenceCopiedIntoAnotherBuffer() {
+        NettyDataBufferFactory factory = new NettyDataBufferFactory(UnpooledByteBufAllocator.DEFAULT);
+        DataBuffer reference = this.codec.encodeValue(new Greeting("Hello"), factory,
+                ResolvableType.forClass(Greeting.class), ObjectReferenceCodec.MIME_TYPE, Collections.emptyMap());
+        byte[] key = new byte[Long.BYTES];
+        reference.read(key);
+        DataBuffer copy = factory.allocateBuffer(Long.BYTES).write(key);
+
+        assertThatThrownBy(() -> this.codec.decode(copy, ResolvableType.forClass(Greeting.class),
+                ObjectReferenceCodec.MIME_TYPE, Collections.emptyMap()))
+                .isInstanceOf(DecodingException.class)
+                .hasMessageContaining("Not an object reference");
+        assertThat(ObjectReferenceCodec.outstanding()).isEqualTo(1);
+
+        DataBufferUtils.release(reference);
+        assertThat(ObjectReferenceCodec.outstanding()).isZero();
+    }
+
+    @Controller
+    static class Echo {
+
+        private volatile Object received;
+
+        @MessageMapping("echo")
+        Mono<Greeting> echo(Greeting greeting) {
+            this.received = greeting;
+            return Mono.just(greeting);
+        }
+    }
+
+    public static class Greeting {
+
+        private String text;
+
+        public Greeting() {
+        }
+
+        Greeting(String text) {
+            this.text = text;
+        }
+
+        public String getText() {
+            return this.text;
+        }
+
+        public void setText(String text) {
+            this.text = text;
+        }
+    }
+
+    public static class LookAlike {
+
+        private String text;
+
+        public String getText() {
+            return this.text;
+        }
+
+        public void setText(String text) {
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.stergioulas.tutorials.springbootrsocket.support;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.metadata.CompositeMetadataFlyweight;
+import io.rsocket.metadata.TaggingMetadataFlyweight;
+import io.rsocket.metadata.WellKnownMimeType;
+import io.rsocket.util.ByteBufPayload;
+import io.rsocket.util.RSocketProxy;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+class PayloadCompressionTests {
+
+    private static final String COMPOSITE = WellKnownMimeType.MESSAGE_RSOCKET_COMPOSITE_METADATA.getString();
+
+    private static final String GREETINGS = greetings(200);
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void roundTripsWithEveryAlgorithm() {
+        for (PayloadCompression.Algorithm algorithm : PayloadCompression.Algorithm.values()) {
+            PayloadCompression compression = compression(algorithm, 1024);
+
+            Payload encoded = compression.encode(payload("greet-stream", GREETINGS), true);
+            int size = encoded.data().readableBytes();
+            Payload decoded = compression.decode(encoded);
+
+            assertThat(decoded.getDataUtf8()).isEqualTo(GREETINGS);
+            assertThat(decoded.getMetadataUtf8()).isEqualTo(metadataUtf8("greet-stream"));
+            assertThat(decoded.release()).isTrue();
+            if (algorithm != PayloadCompression.Algorithm.NONE) {
+                assertThat(size).isLessThan(GREETINGS.length() / 4);
+                assertThat(this.registry.get("rsocket.server.compression.ratio").tag("algorithm", algorithm.tag())
+                        .summary().mean()).isLessThan(0.25);
+                assertThat(this.registry.get("rsocket.server.compression.time").tag("algorithm", algorithm.tag())
+                        .tag("operation", "decompress").timer().count()).isEqualTo(1);
+            }
+        }
+    }
+
+    @Test
+    void sendsSmallAndIncompressibleDataAsIs() {
+        PayloadCompression compression = compression(PayloadCompression.Algorithm.DEFLATE, 1024);
+        byte[] random = new byte[4096];
+        new Random(42).nextBytes(random);
+
+        Payload small = compression.encode(payload("greet", "Hello Petros"), true);
+        Payload noise = compression.encode(ByteBufPayload.create(Unpooled.wrappedBuffer(random)), true);
+
+        assertThat(small.data().getByte(0)).isZero();
+        assertThat(small.data().readableBytes()).isEqualTo("Hello Petros".length() + 1);
+        assertThat(noise.data().getByte(0)).isZero();
+        Payload smallDecoded = compression.decode(small);
+        Payload noiseDecoded = compression.decode(noise);
+        assertThat(smallDecoded.getDataUtf8()).isEqualTo("Hello Petros");
+        assertThat(ByteBufUtil.getBytes(noiseDecoded.data())).isEqualTo(random);
+        assertThat(smallDecoded.release()).isTrue();
+        assertThat(noiseDecoded.release()).isTrue();
+        assertThat(this.registry.get("rsocket.server.compression.skipped").tag("reason", "threshold").counter().count())
+                .isEqualTo(1);
+        assertThat(this.registry.get("rsocket.server.compression.skipped").tag("reason", "incompressible").counter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void negotiatesThroughSetupMetadata() {
+        PayloadCompression compression = compression(PayloadCompression.Algorithm.SNAPPY, 1024);
+        Payload setup = ByteBufPayload.create(Unpooled.EMPTY_BUFFER, compression.setupMetadata());
+        Payload plain = payload("greet", "");
+
+        assertThat(PayloadCompression.accepted(setup, COMPOSITE))
+                .isEqualTo(EnumSet.allOf(PayloadCompression.Algorithm.class));
+        assertThat(PayloadCompression.accepted(plain, COMPOSITE)).isEmpty();
+        assertThat(PayloadCompression.accepted(setup, WellKnownMimeType.MESSAGE_RSOCKET_ROUTING.getString())).isEmpty();
+        assertThat(setup.release()).isTrue();
+        assertThat(plain.release()).isTrue();
+    }
+
+    @Test
+    void compressesOnlyTheConfiguredRoutesBothWays() {
+        PayloadCompression client = new PayloadCompression("rsocket.client", PayloadCompression.Algorithm.DEFLATE,
+                1024, Collections.singleton("greet-stream"), this.registry);
+        PayloadCompression server = new PayloadCompression("rsocket.server", PayloadCompression.Algorithm.SNAPPY,
+                1024, Collections.singleton("greet-stream"), this.registry);
+        List<Byte> headers = new ArrayList<>();
+        RSocket echo = new AbstractRSocket() {
+            @Override
+            public Flux<Payload> requestStream(Payload payload) {
+                String data = payload.getDataUtf8();
+                payload.release();
+                return Flux.range(0, 2).map(i -> ByteBufPayload.create(data));
+            }
+        };
+        RSocket wire = new RSocketProxy(server.responder(echo, COMPOSITE, EnumSet.allOf(PayloadCompression.Algorithm.class))) {
+            @Override
+            public Flux<Payload> requestStream(Payload payload) {
+                headers.add(payload.data().getByte(0));
+                return super.requestStream(payload).doOnNext(response -> headers.add(response.data().getByte(0)));
+            }
+        };
+        RSocket requester = client.requester(wire, COMPOSITE);
+
+        StepVerifier.create(requester.requestStream(payload("greet-stream", GREETINGS)).map(PayloadCompressionTests::dataUtf8))
+                .expectNext(GREETINGS, GREETINGS)
+                .verifyComplete();
+        assertThat(headers).containsExactly((byte) 2, (byte) 1, (byte) 1);
+
+        headers.clear();
+        StepVerifier.create(requester.requestStream(payload("greet-other", GREETINGS)).map(PayloadCompressionTests::dataUtf8))
+                .expectNext(GREETINGS, GREETINGS)
+                .verifyComplete();
+        assertThat(headers).containsExactly((byte) 0, (byte) 0, (byte) 0);
+    }
+
+    @Test
+    void rejectsUnframedAndCorruptData() {
+        PayloadCompression compression = compression(PayloadCompression.Algorithm.DEFLATE, 1024);
+        Payload encoded = compression.encode(payload("greet-stream", GREETINGS), true);
+        ByteBuf corrupt = encoded.data().copy();
+        encoded.release();
+        corrupt.setInt(1, Integer.MAX_VALUE);
+
+        assertThatIllegalArgumentException().isThrownBy(() -> compression.decode(ByteBufPayload.create(Unpooled.EMPTY_BUFFER)));
+        assertThatIllegalArgumentException().isThrownBy(() -> compression.decode(ByteBufPayload.create(corrupt)));
+        assertThatIllegalArgumentException().isThrownBy(() -> compression.decode(ByteBufPayload.create(
+                Unpooled.wrappedBuffer(new byte[]{7, 1, 2}))));
+        assertThat(corrupt.refCnt()).isZero();
+        StepVerifier.create(compression.responder(new AbstractRSocket() {
+                }, COMPOSITE, EnumSet.allOf(PayloadCompression.Algorithm.class))
+                .requestResponse(ByteBufPayload.create(Unpooled.EMPTY_BUFFER)))
+                .verifyError(IllegalArgumentException.class);
+    }
+
+    private PayloadCompression compression(PayloadCompression.Algorithm algorithm, int threshold) {
+        return new PayloadCompression("rsocket.server", algorithm, threshold, Collections.emptyList(), this.registry);
+    }
+
+    private static Payload payload(String route, String data) {
+        CompositeByteBuf metadata = ByteBufAllocator.DEFAULT.compositeBuffer();
+        CompositeMetadataFlyweight.encodeAndAddMetadata(metadata, ByteBufAllocator.DEFAULT,
+                WellKnownMimeType.MESSAGE_RSOCKET_ROUTING, routing(route));
+        return ByteBufPayload.create(Unpooled.copiedBuffer(data, StandardCharsets.UTF_8), metadata);
+    }
+
+    private static String metadataUtf8(String route) {
+        Payload payload = payload(route, "");
+        try {
+            return payload.getMetadataUtf8();
+        }
+        finally {
+            payload.release();
+        }
+    }
+
+    private static String dataUtf8(Payload payload) {
+        try {
+            return payload.getDataUtf8();
+        }
+        finally {
+            payload.release();
+        }
+    }
+
+    private static ByteBuf routing(String route) {
+        return TaggingMetadataFlyweight.createRoutingMetadata(ByteBufAllocator.DEFAULT, Collections.singletonList(route))
+                .getContent();
+    }
+
+    private static String greetings(int count) {
+        StringBuilder greetings = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            greetings.append("{\"greeting\":\"Hello Petros @ 2019-12-01T10:15:").append(10 + i % 50).append(".123456Z\"}\n");
+        }
+        return greetings.toString();
+    }
+}
@@ -0,0 +1,160 @@
+package com.stergioulas.tutorials.springbootrsocket.support;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.exceptions.ApplicationErrorException;
+import io.rsocket.metadata.CompositeMetadataFlyweight;
+import io.rsocket.metadata.TaggingMetadataFlyweight;
+import io.rsocket.metadata.WellKnownMimeType;
+import io.rsocket.util.ByteBufPayload;
+import io.rsocket.util.DefaultPayload;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RSocketMetricsTests {
+
+    private static final String COMPOSITE = WellKnownMimeType.MESSAGE_RSOCKET_COMPOSITE_METADATA.getString();
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private final RSocket rsocket = new RSocketMetrics("rsocket.client", this.registry, 2).instrument(stub(), COMPOSITE);
+
+    @Test
+    void timesCallsByRouteAndOutcome() {
+        this.rsocket.requestResponse(payload("greet")).block();
+        this.rsocket.requestResponse(payload("greet")).block();
+        StepVerifier.create(this.rsocket.requestResponse(payload("fail"))).verifyError();
+
+        assertThat(count("greet", "request-response", "success")).isEqualTo(2);
+        assertThat(count("fail", "request-response", "error")).isEqualTo(1);
+    }
+
+    @Test
+    void tracksActiveStreamsDemandAndCancellations() {
+        StepVerifier.create(this.rsocket.requestStream(payload("greet-stream")), 3)
+                .expectNextCount(3)
+                .then(() -> assertThat(this.registry.get("rsocket.client.active")
+                        .tags("route", "greet-stream").gauge().value()).isEqualTo(1))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+
+        assertThat(this.registry.get("rsocket.client.active").tags("route", "greet-stream").gauge().value()).isZero();
+        assertThat(this.registry.get("rsocket.client.request-n").tags("route", "greet-stream").summary().totalAmount())
+                .isEqualTo(3);
+        assertThat(count("greet-stream", "request-stream", "cancel")).isEqualTo(1);
+    }
+
+    @Test
+    void readsTheChannelRouteFromTheFirstPayload() {
+        StepVerifier.create(this.rsocket.requestChannel(Flux.just(payload("greet-batch"), DefaultPayload.create("b"))))
+                .expectNextCount(2)
+                .verifyComplete();
+
+        assertThat(count("greet-batch", "request-channel", "success")).isEqualTo(1);
+    }
+
+    @Test
+    void capsTheNumberOfRouteTags() {
+        for (String route : new String[]{"a", "b", "c", "d"}) {
+            this.rsocket.requestResponse(payload(route)).block();
+        }
+
+        assertThat(count("a", "request-response", "success")).isEqualTo(1);
+        assertThat(count("b", "request-response", "success")).isEqualTo(1);
+        assertThat(count(RSocketMetrics.OTHER_ROUTE, "request-response", "success")).isEqualTo(2);
+    }
+
+    @Test
+    void countsActiveCallsStartedTogetherOnANewRoute() throws Exception {
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < 50; round++) {
+                MeterRegistry registry = new SimpleMeterRegistry();
+                RSocket rsocket = new RSocketMetrics("rsocket.client", registry, 2).instrument(stub(), COMPOSITE);
+                CyclicBarrier start = new CyclicBarrier(threads);
+                List<Future<?>> calls = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    calls.add(executor.submit(() -> {
+                        start.await();
+                        return rsocket.requestResponse(payload("hang")).subscribe();
+                    }));
+                }
+                for (Future<?> call : calls) {
+                    call.get(5, TimeUnit.SECONDS);
+                }
+
+                assertThat(registry.get("rsocket.client.active").tags("route", "hang").gauge().value())
+                        .isEqualTo(threads);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private long count(String route, String interaction, String outcome) {
+        return this.registry.get("rsocket.client.requests")
+                .tags("route", route, "interaction", interaction, "outcome", outcome)
+                .timer().count();
+    }
+
+    private static Payload payload(String route) {
+        ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+        CompositeByteBuf metadata = allocator.compositeBuffer();
+        CompositeMetadataFlyweight.encodeAndAddMetadata(metadata, allocator, WellKnownMimeType.MESSAGE_RSOCKET_ROUTING,
+                TaggingMetadataFlyweight.createRoutingMetadata(allocator, Collections.singletonList(route)).getContent());
+        // the route doubles as data, so the stub knows what was called
+        return ByteBufPayload.create(Unpooled.copiedBuffer(route, StandardCharsets.UTF_8), metadata);
+    }
+
+    private static RSocket stub() {
+        return new AbstractRSocket() {
+
+            @Override
+            public Mono<Payload> requestResponse(Payload payload) {
+                String route = payload.getDataUtf8();
+                payload.release();
+                if (route.equals("fail")) {
+                    return Mono.error(new ApplicationErrorException("no greeting for you"));
+                }
+                if (route.equals("hang")) {
+                    return Mono.never();
+                }
+                return Mono.just(DefaultPayload.create("hello"));
+            }
+
+            @Override
+            public Flux<Payload> requestStream(Payload payload) {
+                payload.release();
+                return Flux.range(0, 1000).map(i -> DefaultPayload.create("hello"));
+            }
+
+            @Override
+            public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+                return Flux.from(payloads);
+            }
+        };
+    }
+}
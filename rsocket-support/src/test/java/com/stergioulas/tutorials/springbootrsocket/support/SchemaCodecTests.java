@@ -0,0 +1,174 @@
+package com.stergioulas.tutorials.springbootrsocket.support;
+
+import io.netty.buffer.PooledByteBufAllocator;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.util.MimeTypeUtils;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+class SchemaCodecTests {
+
+    private static final ResolvableType REQUEST = ResolvableType.forClass(GreetingsRequest.class);
+
+    private static final ResolvableType RESPONSE = ResolvableType.forClass(GreetingsResponse.class);
+
+    private static final ResolvableType DOWNLOAD = ResolvableType.forClass(GreetingsDownloadRequest.class);
+
+    private static final String NON_ASCII = "\u03a0\u03ad\u03c4\u03c1\u03bf\u03c2";
+
+    private final SchemaCodec codec = greetingsCodec();
+
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+
+    @Test
+    void roundTripsThroughPooledBuffers() {
+        DataBuffer buffer = this.codec.encodeValue(new GreetingsRequest(NON_ASCII), this.bufferFactory, REQUEST,
+                SchemaCodec.GREETINGS, null);
+
+        assertThat(buffer).isInstanceOf(NettyDataBuffer.class);
+        assertThat(((NettyDataBuffer) buffer).getNativeBuffer().alloc()).isSameAs(PooledByteBufAllocator.DEFAULT);
+        assertThat(this.codec.decode(buffer, REQUEST, SchemaCodec.GREETINGS, null))
+                .isEqualTo(new GreetingsRequest(NON_ASCII));
+        assertThat(((NettyDataBuffer) buffer).getNativeBuffer().refCnt()).isZero();
+    }
+
+    @Test
+    void keepsNullsAndWorksWithoutNetty() {
+        DataBuffer buffer = this.codec.encodeValue(new GreetingsResponse(null), new DefaultDataBufferFactory(), RESPONSE,
+                SchemaCodec.GREETINGS, null);
+
+        assertThat(this.codec.decode(buffer, RESPONSE, SchemaCodec.GREETINGS, null)).isEqualTo(new GreetingsResponse());
+    }
+
+    @Test
+    void isSmallerThanJson() {
+        GreetingsResponse response = new GreetingsResponse("Hello Petros @ 2019-12-01T10:15:30.123456Z");
+
+        DataBuffer binary = this.codec.encodeValue(response, this.bufferFactory, RESPONSE, SchemaCodec.GREETINGS, null);
+        DataBuffer json = new Jackson2JsonEncoder().encodeValue(response, this.bufferFactory, RESPONSE,
+                MimeTypeUtils.APPLICATION_JSON, Collections.emptyMap());
+
+        assertThat(binary.readableByteCount()).isEqualTo(response.getGreeting().length() + 2);
+        assertThat(binary.readableByteCount()).isLessThan(json.readableByteCount());
+        assertThat(new Jackson2JsonDecoder().decode(json, RESPONSE, MimeTypeUtils.APPLICATION_JSON, null))
+                .isEqualTo(this.codec.decode(binary, RESPONSE, SchemaCodec.GREETINGS, null));
+    }
+
+    @Test
+    void roundTripsWholeNumbers() {
+        for (long size : new long[] {0, 127, 128, Long.MAX_VALUE, -1, Long.MIN_VALUE}) {
+            GreetingsDownloadRequest request = new GreetingsDownloadRequest("Petros", size);
+            DataBuffer buffer = this.codec.encodeValue(request, this.bufferFactory, DOWNLOAD, SchemaCodec.GREETINGS,
+                    null);
+
+            assertThat(this.codec.decode(buffer, DOWNLOAD, SchemaCodec.GREETINGS, null)).isEqualTo(request);
+        }
+    }
+
+    @Test
+    void rejectsMalformedWholeNumbers() {
+        // schema 3, a null name and a number with more continuation bytes than any long takes
+        byte[] message = {3, 0, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 1};
+
+        assertThatExceptionOfType(DecodingException.class)
+                .isThrownBy(() -> this.codec.decode(new DefaultDataBufferFactory().wrap(message), DOWNLOAD,
+                        SchemaCodec.GREETINGS, null))
+                .withMessage("Malformed number");
+    }
+
+    @Test
+    void rejectsLengthsPastTheLargestInt() {
+        // schema 1 and a name length with bit 31 set, which would read as a negative int
+        byte[] message = {1, -1, -1, -1, -1, 15};
+
+        assertThatExceptionOfType(DecodingException.class)
+                .isThrownBy(() -> this.codec.decode(new DefaultDataBufferFactory().wrap(message), REQUEST,
+                        SchemaCodec.GREETINGS, null))
+                .withMessage("Malformed length");
+    }
+
+    @Test
+    void decodesOneMessagePerBuffer() {
+        Flux<DataBuffer> buffers = this.codec.encode(Flux.just(new GreetingsRequest("a"), new GreetingsRequest("b")),
+                this.bufferFactory, REQUEST, SchemaCodec.GREETINGS, null);
+
+        StepVerifier.create(this.codec.decode(buffers, REQUEST, SchemaCodec.GREETINGS, null))
+                .expectNext(new GreetingsRequest("a"), new GreetingsRequest("b"))
+                .verifyComplete();
+    }
+
+    @Test
+    void onlyHandlesItsMimeTypeAndSchemas() {
+        assertThat(this.codec.canDecode(REQUEST, SchemaCodec.GREETINGS)).isTrue();
+        assertThat(this.codec.canDecode(REQUEST, MimeTypeUtils.APPLICATION_JSON)).isFalse();
+        assertThat(this.codec.canEncode(ResolvableType.forClass(String.class), SchemaCodec.GREETINGS)).isFalse();
+    }
+
+    @Test
+    void rejectsMessagesOfAnotherSchemaOrTruncated() {
+        DataBuffer response = this.codec.encodeValue(new GreetingsResponse("hi"), this.bufferFactory, RESPONSE,
+                SchemaCodec.GREETINGS, null);
+        DataBuffer truncated = this.codec.encodeValue(new GreetingsRequest("Petros"), this.bufferFactory, REQUEST,
+                SchemaCodec.GREETINGS, null);
+        truncated.writePosition(truncated.writePosition() - 1);
+
+        assertThatExceptionOfType(DecodingException.class)
+                .isThrownBy(() -> this.codec.decode(response, REQUEST, SchemaCodec.GREETINGS, null));
+        assertThatExceptionOfType(DecodingException.class)
+                .isThrownBy(() -> this.codec.decode(truncated, REQUEST, SchemaCodec.GREETINGS, null));
+    }
+
+    private static SchemaCodec greetingsCodec() {
+        SchemaCodec codec = new SchemaCodec(SchemaCodec.GREETINGS);
+        codec.schema(1, GreetingsRequest.class, GreetingsRequest::new)
+                .string(GreetingsRequest::getName, GreetingsRequest::setName);
+        codec.schema(2, GreetingsResponse.class, GreetingsResponse::new)
+                .string(GreetingsResponse::getGreeting, GreetingsResponse::setGreeting);
+        codec.schema(3, GreetingsDownloadRequest.class, GreetingsDownloadRequest::new)
+                .string(GreetingsDownloadRequest::getName, GreetingsDownloadRequest::setName)
+                .int64(GreetingsDownloadRequest::getSize, GreetingsDownloadRequest::setSize);
+        return codec;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class GreetingsRequest {
+
+        private String name;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class GreetingsResponse {
+
+        private String greeting;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class GreetingsDownloadRequest {
+
+        private String name;
+
+        private long size;
+    }
+}
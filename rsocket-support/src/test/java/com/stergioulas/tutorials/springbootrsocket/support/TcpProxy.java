@@ -0,0 +1,100 @@
+package com.stergioulas.tutorials.springbootrsocket.support;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Forwards bytes to the server until killed, which drops every connection going
+ * through it and refuses new ones until restored.
+ */
+public final class TcpProxy {
+
+    private final InetSocketAddress target;
+
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+
+    private final int port;
+
+    private volatile ServerSocket listener;
+
+    public TcpProxy(InetSocketAddress target) throws IOException {
+        this.target = target;
+        this.listener = listen(0);
+        this.port = this.listener.getLocalPort();
+    }
+
+    public int port() {
+        return this.port;
+    }
+
+    public void kill() throws IOException {
+        this.listener.close();
+        for (Socket socket : this.sockets) {
+            socket.close();
+        }
+        this.sockets.clear();
+    }
+
+    public void restore() throws IOException {
+        this.listener = listen(this.port);
+    }
+
+    private ServerSocket listen(int port) throws IOException {
+        ServerSocket listener = new ServerSocket();
+        listener.setReuseAddress(true);
+        listener.bind(new InetSocketAddress("127.0.0.1", port));
+        Thread acceptor = new Thread(() -> {
+            while (!listener.isClosed()) {
+                try {
+                    Socket client = listener.accept();
+                    Socket server = new Socket(this.target.getAddress(), this.target.getPort());
+                    this.sockets.add(client);
+                    this.sockets.add(server);
+                    pipe(client, server);
+                    pipe(server, client);
+                }
+                catch (IOException ex) {
+                    // closed by kill()
+                }
+            }
+        }, "tcp-proxy-" + port);
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return listener;
+    }
+
+    private static void pipe(Socket from, Socket to) {
+        Thread pipe = new Thread(() -> {
+            byte[] buffer = new byte[8192];
+            try (InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream()) {
+                for (int read; (read = in.read(buffer)) != -1; ) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            catch (IOException ex) {
+                // one end went away
+            }
+            finally {
+                closeQuietly(from);
+                closeQuietly(to);
+            }
+        }, "tcp-proxy-pipe");
+        pipe.setDaemon(true);
+        pipe.start();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        }
+        catch (IOException ex) {
+            // already closed
+        }
+    }
+}